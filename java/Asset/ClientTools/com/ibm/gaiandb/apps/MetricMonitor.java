@@ -11,19 +11,19 @@ package com.ibm.gaiandb.apps;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Hashtable;
 import java.util.Map;
 
 import com.ibm.gaiandb.Logger;
-import com.ibm.gaiandb.Util;
+import com.ibm.gaiandb.MetricsStore;
 import com.ibm.gaiandb.diags.GDBMessages;
 
 /**
- * The metric monitor adds self-monitoring facilities to GaianDB. It creates a
- * logical table called GDB_METRICS (which should not be used by other sources).
+ * The metric monitor adds self-monitoring facilities to GaianDB. It records the
+ * values of its monitors once per second in the MetricsStore of the node it is
+ * connected to, from which they can be queried at various resolutions using the
+ * com.ibm.db2j.GaianMetrics VTI.
  * Anyone can add a monitor by creating an object which implements
  * <code>MetricMonitor.Monitor&lt;T&gt;</code> and adding it to the singleton
  * object retrieved through the <code>getInstance</code> method.
@@ -54,7 +54,7 @@ public class MetricMonitor implements Runnable {
 	public static interface Monitor<T> {
 		/**
 		 * Returns a value which will be converted to a string using its
-		 * <code>toString</code> method and inserted into the database.
+		 * <code>toString</code> method and recorded in the metrics store.
 		 * 
 		 * @return A value which, when converted to a string, has a maximum
 		 *         length of 255 characters, or null if there is no data to
@@ -67,37 +67,24 @@ public class MetricMonitor implements Runnable {
 	private static final Logger logger = new Logger("MetricMonitor", 25);
 
 	/**
-	 * The interval, in milliseconds, between subsequent inserts of the return
+	 * The interval, in milliseconds, between subsequent recordings of the return
 	 * value of each monitor's <code>getValue</code> method.
 	 */
 	private static final int INTERVAL = 1000;
 
-	/**
-	 * The maximum age of the values in seconds. After they pass this threshold,
-	 * they are deleted from the table. 
-	 */
-	private static final int OLD_VALUES_THRESHOLD = 60;
-
 	/** The maximum length of a monitor name. */
-	private static final int MAX_NAME_LENGTH = 32;
+	private static final int MAX_NAME_LENGTH = MetricsStore.MAX_NAME_LENGTH;
 
 	/** The maximum length of a value retrieved from a monitor. */
-	private static final int MAX_VALUE_LENGTH = 255;
+	private static final int MAX_VALUE_LENGTH = MetricsStore.MAX_VALUE_LENGTH;
 
 	/**
-	 * The name of the physical table. Used primarily for inserts and deletes.
+	 * The name of the legacy physical table, which metric values used to be inserted into.
+	 * It is still created for older clients, but is no longer written to.
 	 */
 	public static final String PHYSICAL_TABLE_NAME = "GDB_LOCAL_METRICS";
 
-	/** The name of the logical table. */
-
-	public static final String LOGICAL_TABLE_NAME = "GDB_METRICS";
-
-	/** The name of the logical table when using it with provenance. */
-	public static final String LOGICAL_TABLE_NAME_WITH_PROVENANCE =
-		LOGICAL_TABLE_NAME + "_P";
-
-	/** When executed, creates the physical table. */
+	/** When executed, creates the legacy physical table. */
 	private static final String CREATE_PHYSICAL_TABLE_SQL =
 		"CREATE TABLE " + PHYSICAL_TABLE_NAME + "(" +
 		"  name VARCHAR(" + MAX_NAME_LENGTH + ")," +
@@ -109,23 +96,8 @@ public class MetricMonitor implements Runnable {
 		return CREATE_PHYSICAL_TABLE_SQL;
 	}
 
-	/** When executed, links the logical table name to the physical table. */
-	private static final String CREATE_LOGICAL_TABLE_SQL =
-		"CALL SETLTFORRDBTABLE(" +
-		"  '" + LOGICAL_TABLE_NAME + "'," +
-		"  'LOCALDERBY'," +
-		"  '" + PHYSICAL_TABLE_NAME + "'" +
-		")";
-
-	/** Inserts new data into the table. */
-	public static final String INSERT_SQL =
-		"INSERT INTO " + PHYSICAL_TABLE_NAME + "(name, value)" +
-		" VALUES (?, ?)";
-
-	/** Deletes data older than the threshold from the table. */
-	public static final String DELETE_SQL =
-		"DELETE FROM " + PHYSICAL_TABLE_NAME +
-		" WHERE jSecs(CURRENT_TIMESTAMP) - jSecs(received_timestamp) > " + OLD_VALUES_THRESHOLD;
+	/** Records a metric value in the MetricsStore of the node. */
+	public static final String RECORD_SQL = "CALL GDB_RECORD_METRIC(?, ?)";
 
 	/** A set of instances. One is created per database connection. */
 	private static final Map<Connection, MetricMonitor> INSTANCES =
@@ -174,43 +146,38 @@ public class MetricMonitor implements Runnable {
 	}
 
 	/**
-	 * Creates the physical and logical tables, and starts inserting data using
-	 * the list of monitors.
+	 * Records the values of the monitors in the node's metrics store until stopped.
+	 * Values are sent in a batch, so each interval costs a single round trip.
 	 */
 	public void run() {
-		if (!createTable()) {
-			stopped = true;
-			return;
-		}
-
-		PreparedStatement insertStatement;
-		PreparedStatement deleteStatement;
+		PreparedStatement recordStatement;
 		try {
-			insertStatement = conn.prepareStatement(INSERT_SQL);
-			deleteStatement = conn.prepareStatement(DELETE_SQL);
+			recordStatement = conn.prepareStatement(RECORD_SQL);
 		}
 		catch (SQLException e) {
-			logger.logException(GDBMessages.MMON_STATEMENT_PREPARE_ERROR_SQL, "Could not prepare the MetricMonitor insert statement.", e);
+			logger.logException(GDBMessages.MMON_STATEMENT_PREPARE_ERROR_SQL, "Could not prepare the MetricMonitor record statement.", e);
 			stopped = true;
 			return;
 		}
 
 		while (!stopped) {
 			try {
-				deleteStatement.execute();
-
-				insertStatement.clearBatch();
+				recordStatement.clearBatch();
+				boolean isBatchEmpty = true;
 				for (String name : monitors.keySet()) {
 					Object value = monitors.get(name).getValue();
 					if (null != value) {
 						String sValue = truncate(value.toString(), MAX_VALUE_LENGTH);
-						insertStatement.clearParameters();
-						insertStatement.setString(1, name);
-						insertStatement.setString(2, sValue);
-						insertStatement.addBatch();
+						recordStatement.clearParameters();
+						recordStatement.setString(1, name);
+						recordStatement.setString(2, sValue);
+						recordStatement.addBatch();
+						isBatchEmpty = false;
 					}
 				}
-				insertStatement.executeBatch();
+				if (!isBatchEmpty) {
+					recordStatement.executeBatch();
+				}
 			}
 			catch (SQLException e) {
 				try {
@@ -219,7 +186,7 @@ public class MetricMonitor implements Runnable {
 						break;
 					}
 					else {
-						logger.logException(GDBMessages.MMON_METRICS_INSERT_ERROR_SQL, "Could not insert metrics into the " + LOGICAL_TABLE_NAME + " table.", e);
+						logger.logException(GDBMessages.MMON_METRICS_INSERT_ERROR_SQL, "Could not record metrics.", e);
 					}
 				}
 				catch (SQLException e1) {
@@ -272,8 +239,8 @@ public class MetricMonitor implements Runnable {
     }
 
 	/**
-	 * Adds a monitor to the list. The name provided will be used when inserting
-	 * data into the table. If a monitor with the same name is provided, it will
+	 * Adds a monitor to the list. The name provided will be used when recording
+	 * its values. If a monitor with the same name is provided, it will
 	 * be overwritten.
 	 * 
 	 * @param <T>
@@ -301,46 +268,6 @@ public class MetricMonitor implements Runnable {
 		logger.logInfo("Monitor \"" + name + "\" removed.");
 	}
 
-	/**
-	 * Creates the physical and logical tables.
-	 * 
-	 * @return True on success; false on failure.
-	 */
-	private boolean createTable() {
-		Statement stmt;
-		try {
-			stmt = conn.createStatement();
-		}
-		catch (SQLException e) {
-			logger.logException(GDBMessages.MMON_STATEMENT_CREATE_ERROR_SQL, "Could not create the " + PHYSICAL_TABLE_NAME + " table.", e);
-			return false;
-		}
-
-		try {
-			Util.executeCreateIfDerbyTableDoesNotExist( stmt, null, PHYSICAL_TABLE_NAME, CREATE_PHYSICAL_TABLE_SQL );
-
-			String sql = "CALL LISTLTS()";
-			ResultSet logicalTables = stmt.executeQuery(sql);
-			boolean found = false;
-			while (logicalTables.next()) {
-				if (logicalTables.getString("LTNAME").equalsIgnoreCase(LOGICAL_TABLE_NAME)) {
-					found = true;
-					break;
-				}
-			}
-
-			if (!found) {
-				stmt.execute(CREATE_LOGICAL_TABLE_SQL);
-			}
-		}
-		catch (SQLException e) {
-			logger.logException(GDBMessages.MMON_STATEMENT_EXECUTE_ERROR_SQL, "Could not create the " + PHYSICAL_TABLE_NAME + " table.", e);
-			return false;
-		}
-
-		return true;
-	}
-
 	/**
 	 * Utility function. Truncates the string to the length provided. If the
 	 * string is shorter than or of equal length to the maximum length, this
@@ -159,18 +159,15 @@ public abstract class MetricValueProcessor {
 //		"      AND age < ?" +
 //		" ORDER BY gdb_node, received_timestamp, name";
 
+	// Metrics are pre-aggregated per second by each node's MetricsStore, and the age predicate is applied on the nodes,
+	// so only the windows being charted are fetched.
 	private static final String SQL_HISTORICAL_METRICS =
 		"    SELECT gdb_node," +
 		"           jSecs(CURRENT_TIMESTAMP) - age received_timestamp," +
 		"           name," +
 		"           CAST(value AS INT) value" +
 		"     FROM new com.ibm.db2j.GaianQuery(" +
-		"		'SELECT name, jSecs(CURRENT_TIMESTAMP) - jSecs(received_timestamp) age, value FROM gdb_local_metrics " +
-		"		UNION SELECT ''Data Throughput'' name, 0 age, cast(GDB_THROUGHPUT()/1000 as char(20)) value from sysibm.sysdummy1 " +
-		"		UNION SELECT ''Query Activity'' name, 0 age, cast(GDB_QRY_ACTIVITY() as char(20)) value from sysibm.sysdummy1 " +
-		"		UNION SELECT ''Node CPU'' name, 0 age, cast(GDB_NODE_CPU() as char(3)) value from sysibm.sysdummy1 " +
-//		"		UNION SELECT ''DS CPU'' name, 0 age, cast(GDB_DS_CPU() as char(3)) value from sysibm.sysdummy1 " +
-		"		UNION SELECT ''JVM Used Memory'' name, 0 age, cast(JMEMORYPERCENT() as char(3)) value from sysibm.sysdummy1', " +
+		"		'SELECT name, age, CAST(avg_value AS BIGINT) value FROM new com.ibm.db2j.GaianMetrics(''1s'') M', " +
 		"		'with_provenance') Q" +
 		"    WHERE name IN ($monitors)" +
 		"      AND age < ?" +
@@ -182,12 +179,7 @@ public abstract class MetricValueProcessor {
 		"           name," +
 		"           max( CAST(value AS INT) ) value" +
 		"     FROM new com.ibm.db2j.GaianQuery(" +
-		"		'SELECT name, jSecs(CURRENT_TIMESTAMP) - jSecs(received_timestamp) age, value FROM gdb_local_metrics " +
-		"		UNION SELECT ''Data Throughput'' name, 0 age, cast(GDB_THROUGHPUT()/1000 as char(20)) value from sysibm.sysdummy1 " +
-		"		UNION SELECT ''Query Activity'' name, 0 age, cast(GDB_QRY_ACTIVITY() as char(20)) value from sysibm.sysdummy1 " +
-		"		UNION SELECT ''Node CPU'' name, 0 age, cast(GDB_NODE_CPU() as char(3)) value from sysibm.sysdummy1 " +
-//		"		UNION SELECT ''DS CPU'' name, 0 age, cast(GDB_DS_CPU() as char(3)) value from sysibm.sysdummy1 " +
-		"		UNION SELECT ''JVM Used Memory'' name, 0 age, cast(JMEMORYPERCENT() as char(3)) value from sysibm.sysdummy1', " +
+		"		'SELECT name, age, CAST(avg_value AS BIGINT) value FROM new com.ibm.db2j.GaianMetrics(''1s'') M', " +
 		"		'with_provenance') Q" +
 		"    WHERE name IN ($monitors)" +
 		"      AND age < ?" +
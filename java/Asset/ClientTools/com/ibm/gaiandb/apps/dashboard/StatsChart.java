@@ -227,6 +227,8 @@ public class StatsChart extends JPanel {
 			while (iterator.hasPrevious()) {
 				int compare = iterator.previous().compareTo(s);
 				if (compare == 0) {
+					// Same window fetched again - keep its latest value, as it may have been partial
+					iterator.set(s);
 					return false;
 				}
 				else if (compare >= 0) {
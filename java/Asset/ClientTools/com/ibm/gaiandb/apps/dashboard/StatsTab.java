@@ -45,6 +45,8 @@ public class StatsTab extends UpdatingTab {
 	private static final int CHART_HEIGHT = 80;
 	private static final int CHART_INSET_SIZE = 5;
 	private static final int CHART_DURATION = 60;
+	// Age of the metrics fetched on each refresh once the charts are loaded - the charts keep the older ones
+	private static final int REFRESH_DURATION = 5;
 
 	private static final int NODE_SELECTION_PANEL_WIDTH = 120;
 	private static final Color UNSELECTED_NODE_COLOR = Color.BLACK;
@@ -53,6 +55,7 @@ public class StatsTab extends UpdatingTab {
 
 	private MetricValueProcessor valueProcessor;
 	private Set<String> liveNodes;
+	private boolean isChartsLoaded = false;
 	private Map<String, Color> selectedNodes;
 	private ColorAllocator<String> nodeColorAllocator;
 
@@ -184,7 +187,8 @@ public class StatsTab extends UpdatingTab {
 	protected boolean updateCharts() {
 		try {
 			synchronized (nodeSelectionPanel) {
-				valueProcessor.processHistoricalMetrics(CHART_DURATION);
+				valueProcessor.processHistoricalMetrics(isChartsLoaded ? REFRESH_DURATION : CHART_DURATION);
+				isChartsLoaded = true;
 
 				Component[] components = nodeSelectionPanel.getComponents();
 				for (Component component : components) {
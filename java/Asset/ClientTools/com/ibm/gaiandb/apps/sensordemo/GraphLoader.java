@@ -36,8 +36,8 @@ public class GraphLoader {
 	/** Prefixes to ignore when parsing the custom properties file. */
 	private static final String[] IGNORE = { "custom", "refresh" };
 
-	/** The physical metrics table. */
-	private static final String PHYSICAL_TABLE = "GDB_LOCAL_METRICS";
+	/** The per-second windows of the node's metrics, holding the last value recorded in each second. */
+	private static final String METRICS_VTI = "new com.ibm.db2j.GaianMetrics(''1s'') M";
 
 	/** The logical metrics table. */
 	//private static final String LOGICAL_TABLE = "GDB_METRICS";
@@ -52,8 +52,8 @@ public class GraphLoader {
 	private static final String GET_ONE_VALUE =
 		"    SELECT gdb_node node, jSecs(CURRENT_TIMESTAMP) + received received, CAST(value AS INT) value" +
 		"     FROM new com.ibm.db2j.GaianQuery(" +
-		"			'  SELECT name, jSecs(received_timestamp) - jSecs(CURRENT_TIMESTAMP) received, value" +
-		"			     FROM " + PHYSICAL_TABLE + "'," +
+		"			'  SELECT name, window_start - jSecs(CURRENT_TIMESTAMP) received, last_value value" +
+		"			     FROM " + METRICS_VTI + "'," +
 		"			'with_provenance') Q" +
 		"    WHERE name = ?" +
 		"      AND -received < ?" +
@@ -72,8 +72,8 @@ public class GraphLoader {
 		"           CAST(SUBSTR(value, 2, LOCATE(',', value) - 2) AS INT) x," +
 		"           CAST(SUBSTR(value, LOCATE(',', value) + 2, LOCATE(')', value) - LOCATE(',', value) - 2) AS INT) y" +
 		"     FROM new com.ibm.db2j.GaianQuery(" +
-		"			'  SELECT name, jSecs(received_timestamp) - jSecs(CURRENT_TIMESTAMP) received, value" +
-		"			     FROM " + PHYSICAL_TABLE + "'," +
+		"			'  SELECT name, window_start - jSecs(CURRENT_TIMESTAMP) received, last_value value" +
+		"			     FROM " + METRICS_VTI + "'," +
 		"			'with_provenance') Q" +
 		"    WHERE name = ?" +
 		"      AND -received < ?" +
@@ -91,12 +91,12 @@ public class GraphLoader {
 		"   SELECT t1.gdb_node node, jSecs(CURRENT_TIMESTAMP) + t1.received received," +
 		"          (CAST(t1.value AS INT) * 100 / CAST(t2.value AS INT)) value" +
 		"     FROM new com.ibm.db2j.GaianQuery(" +
-		"			'  SELECT name, jSecs(received_timestamp) - jSecs(CURRENT_TIMESTAMP) received, value" +
-		"			     FROM " + PHYSICAL_TABLE + "'," +
+		"			'  SELECT name, window_start - jSecs(CURRENT_TIMESTAMP) received, last_value value" +
+		"			     FROM " + METRICS_VTI + "'," +
 		"			'with_provenance') t1," +
 		"          new com.ibm.db2j.GaianQuery(" +
-		"			'  SELECT name, jSecs(received_timestamp) - jSecs(CURRENT_TIMESTAMP) received, value" +
-		"			     FROM " + PHYSICAL_TABLE + "'," +
+		"			'  SELECT name, window_start - jSecs(CURRENT_TIMESTAMP) received, last_value value" +
+		"			     FROM " + METRICS_VTI + "'," +
 		"			'with_provenance') t2" +
 		"    WHERE t1.name = ?" +
 		"      AND t2.name = ?" +
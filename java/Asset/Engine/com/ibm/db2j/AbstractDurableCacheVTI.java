@@ -101,7 +101,12 @@ public abstract class AbstractDurableCacheVTI extends AbstractVTI {
 		try {
 			logger.logImportant("Checking caching state, isCached == " + isCached + ", rows constraint: " + constraints);
 
-			if (isCached > -1) {
+			if (isCached > -1 && isLogCacheBackend(constraints)) {
+				// Rows are visible as soon as they are cached, as they would be in a Derby cache table
+				closeCacheStatementsAndReleaseConnections();
+				openLogCacheScan(constraints);
+
+			} else if (isCached > -1) {
 
 				Connection conn = getPooledLocalDerbyConnection();
 				Statement stmt = conn.createStatement();
@@ -166,7 +171,17 @@ public abstract class AbstractDurableCacheVTI extends AbstractVTI {
 	protected String getCacheTableName() {
 
 		// If the cache table name has not been initialised & caching is enabled
-		if (cacheTableName == null && isCached != -1) {
+		if (cacheTableName == null && isCached != -1 && isLogCacheBackendConfigured()) {
+
+			// See if a suitable log-structured cache already exists
+			try {
+				String name = LogStructuredCache.findLiveCacheName("CACHE." + super.getCacheTableName() + "_", getExpiryDuration());
+				if (null != name) cacheTableName = name.substring(6);
+			} catch (Exception e) {
+				logger.logException( GDBMessages.DSWRAPPER_DURABLE_CACHE_LOOKUP_ERROR, "Unable to check for existing valid durable cache to use.", e);
+			}
+
+		} else if (cacheTableName == null && isCached != -1) {
 
 			// See if a suitable cache already exists
 			try {
@@ -211,6 +226,15 @@ public abstract class AbstractDurableCacheVTI extends AbstractVTI {
 		return cacheTableName;
 	}
 
+	/**
+	 * Durable caches expire as a whole, a set amount of time after they were created.
+	 */
+	@Override
+	long getLogCacheCommitExpiryTime() throws Exception {
+		LogStructuredCache logCache = LogStructuredCache.get(getCacheSchemaAndTableName());
+		return (null == logCache ? System.currentTimeMillis() : logCache.getCreationTime()) + getExpiryDuration();
+	}
+
 	/**
 	 * Mark the 'logical' usage state of the cache. This allows us to ensure
 	 * that in-use caches are not deleted inappropriately.
@@ -280,6 +304,16 @@ public abstract class AbstractDurableCacheVTI extends AbstractVTI {
 		
 		logger.logImportant("Cache: '" + getCacheTableName() + "' flagged as invalid.");
 
+		LogStructuredCache logCache = LogStructuredCache.get(getCacheSchemaAndTableName());
+		if (null != logCache) {
+			// Drop the cache so no-one else tries to use it - rows being scanned remain available until the scans are closed
+			try { closeCacheStatementsAndReleaseConnections(); }
+			catch (SQLException e) { logger.logInfo("Unable to close cache scan before invalidating cache (ignored): " + e); }
+			logCache.drop();
+			isCached = -1;
+			return;
+		}
+
 		try {
 			Connection conn = null;
 			Statement stmt = null;
@@ -340,6 +374,17 @@ public abstract class AbstractDurableCacheVTI extends AbstractVTI {
 					if (lock != null && lock.tryLock()) {
 
 						try {
+							LogStructuredCache logCache = LogStructuredCache.get(queryId);
+							if (null != logCache) {
+								// Log-structured caches are dropped as a whole when they expire: all their segments are deleted
+								if (isLogCacheExpired(logCache)) {
+									logCache.drop();
+									cUCIterator.remove();
+									logger.logInfo("Cache: '" + queryId + "' successfully deleted.");
+								}
+								continue;
+							}
+
 							Statement stmt = null;
 							Connection c = null;
 
@@ -411,4 +456,13 @@ public abstract class AbstractDurableCacheVTI extends AbstractVTI {
 			logger.logInfo("Cache clean up complete.");
 		}
 	}
+
+	private boolean isLogCacheExpired(LogStructuredCache logCache) {
+		try {
+			return System.currentTimeMillis() > logCache.getCreationTime() + getExpiryDuration();
+		} catch (Exception e) {
+			logger.logWarning( GDBMessages.DSWRAPPER_DURABLE_CACHE_DELETE_WARNING, "Unable to check expiry of cache: " + e);
+			return false;
+		}
+	}
 }
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -68,6 +69,7 @@ public abstract class AbstractVTI extends VTI60 implements IFastPath, GaianChild
 	static final String PROP_CACHE_EXPIRES = "cache.expires"; // expiry duration for cached rows, in seconds - required parameter
 	static final String PROP_CACHE_PKEY = "cache.primarykey"; // nullable
 	static final String PROP_CACHE_INDEXES = "cache.indexes"; // nullable
+	static final String PROP_CACHE_BACKEND = "cache.backend"; // LOG or DERBY, nullable - defaults to VTI_CACHE_BACKEND in gaiandb_config.properties
 	
 	private static final String DEFAULT_EXPIRY_SECONDS = "60";
 	
@@ -91,6 +93,11 @@ public abstract class AbstractVTI extends VTI60 implements IFastPath, GaianChild
 	private int numRowsForInsertStatement = 0;
 	private PreparedStatement preparedInsertStatement = null;
 	
+	// Log-structured cache backend - used instead of the Derby cache table if isLogCache is true (resolved on the first call to isCached())
+	private boolean isCacheBackendResolved = false, isLogCache = false;
+	private LogStructuredCache.Writer logCacheWriter = null;
+	private LogStructuredCache.Scan logCacheScan = null;
+	
 	// Keep track of errors while processing result rows - we will log them at the end of the table processing.
 	ErrorBuffer errors;
 	
@@ -358,6 +365,8 @@ public abstract class AbstractVTI extends VTI60 implements IFastPath, GaianChild
 	
 	// Note cache tables are dropped initially when a GaianDB node starts up
 	public static void dropCacheTables( Statement stmt ) throws SQLException {
+		LogStructuredCache.dropAll();
+		
 		ResultSet rs = stmt.executeQuery(
 				"select tablename from sys.sysschemas s,sys.systables t where s.schemaid = t.schemaid and schemaname = 'CACHE'");
 		
@@ -384,6 +393,13 @@ public abstract class AbstractVTI extends VTI60 implements IFastPath, GaianChild
 		Connection c = null; Statement stmt = null;
 		try {
 			closeCacheStatementsAndReleaseConnections();
+			
+			if ( isLogCache ) {
+				LogStructuredCache logCache = LogStructuredCache.get( getCacheSchemaAndTableName() );
+				if ( null != logCache ) logCache.drop();
+				return;
+			}
+			
 			logger.logInfo("Dropping cache table " + getCacheSchemaAndTableName() );
 			c = getPooledLocalDerbyConnection();
 			
@@ -435,7 +451,17 @@ public abstract class AbstractVTI extends VTI60 implements IFastPath, GaianChild
 				isCached = -1;
 			}
 
-			if (isCached > -1) {
+			if ( isCached > -1 && isLogCacheBackend( constraints ) ) {
+				
+				// Commit rows cached so far, and drop expired ones (whole segments at a time) - no need for an expiry table
+				if ( null != logCacheWriter ) {
+					logger.logImportant("Committing rows written to log-structured cache " + getCacheSchemaAndTableName());
+					logCacheWriter.commit( getLogCacheCommitExpiryTime() );
+				}
+				LogStructuredCache.getOrCreate( getCacheSchemaAndTableName() ).dropExpiredRuns();
+				openLogCacheScan( constraints );
+				
+			} else if (isCached > -1) {
 				
 				Connection conn = getPooledLocalDerbyConnection();
 				Statement stmt = conn.createStatement();
@@ -528,10 +554,75 @@ public abstract class AbstractVTI extends VTI60 implements IFastPath, GaianChild
 		return isCached == 1;
 	}
 
+	/**
+	 * Resolves the cache backend on the first call: the log-structured cache if configured (see isLogCacheBackendConfigured()),
+	 * unless the constraints are not simple column comparisons (see LogStructuredCache.parseConstraints()).
+	 */
+	boolean isLogCacheBackend( String constraints ) {
+		if ( !isCacheBackendResolved ) {
+			isCacheBackendResolved = true;
+			isLogCache = isLogCacheBackendConfigured();
+			if ( isLogCache && null == LogStructuredCache.parseConstraints( constraints ) ) {
+				logger.logInfo("Using Derby cache table as constraints are not supported by the log-structured cache: " + constraints);
+				isLogCache = false;
+			}
+		}
+		return isLogCache;
+	}
+	
+	/**
+	 * The log-structured cache is used if property cache.backend (or VTI_CACHE_BACKEND in gaiandb_config.properties) is LOG,
+	 * unless a cache primary key is defined, as this is only enforced by a Derby cache table.
+	 */
+	boolean isLogCacheBackendConfigured() {
+		String backend = getVTIPropertyNullable( PROP_CACHE_BACKEND );
+		if ( null == backend ) backend = GaianDBConfig.getVTICacheBackend();
+		return LogStructuredCache.BACKEND_LOG.equalsIgnoreCase( backend.trim() ) && null == getVTIPropertyNullable( PROP_CACHE_PKEY );
+	}
+	
+	/**
+	 * Expiry time of the rows committed to a log-structured cache now.
+	 */
+	long getLogCacheCommitExpiryTime() throws Exception {
+		return System.currentTimeMillis() + getExpiryDuration();
+	}
+	
+	/**
+	 * Opens a scan of the rows of the log-structured cache that satisfy the constraints, and sets isCached to 1 if there are any.
+	 */
+	void openLogCacheScan( String constraints ) throws Exception {
+		
+		List<String[]> parsedConstraints = LogStructuredCache.parseConstraints( constraints );
+		if ( null == parsedConstraints ) throw new Exception("Constraints are not supported by the log-structured cache: " + constraints);
+		
+		if ( null != logCacheScan ) { logCacheScan.close(); logCacheScan = null; }
+		
+		GaianResultSetMetaData tmd = getTableMetaData();
+		String[] columnNames = new String[ tmd.getExposedColumnCount() ];
+		for ( int i=0; i<columnNames.length; i++ ) columnNames[i] = tmd.getColumnName(i+1);
+		
+		LogStructuredCache.Scan scan = LogStructuredCache.getOrCreate( getCacheSchemaAndTableName() ).scan( parsedConstraints, columnNames );
+		if ( scan.hasRows() ) {
+			logger.logImportant("Found cached rows for constraints: " + constraints);
+			isCached = 1; // Rows are cached
+			logCacheScan = scan;
+		} else {
+			logger.logImportant("No cached rows for contraints: " + constraints);
+			scan.close();
+		}
+	}
+	
 	private static PreparedStatement updateExpiryStatement = null;
 	
 	public void resetCacheExpiryTime() throws SQLException {
 		
+		if ( isLogCache ) {
+			LogStructuredCache logCache = LogStructuredCache.get( getCacheSchemaAndTableName() );
+			try { if ( null != logCache ) logCache.resetExpiry( getLogCacheCommitExpiryTime() ); }
+			catch ( Exception e ) { throw new SQLException("Unable to reset expiry of log-structured cache " + getCacheSchemaAndTableName() + ": " + e); }
+			return;
+		}
+		
 		if ( null == updateExpiryStatement ) {
 			updateExpiryStatement = getPooledLocalDerbyConnection().prepareStatement(
 					"UPDATE CACHE.EXPIRES SET lastreset = ? WHERE name = ?" );
@@ -782,6 +873,13 @@ public abstract class AbstractVTI extends VTI60 implements IFastPath, GaianChild
 			
 //			int numCols = rows[0].length;
 
+			if ( isLogCacheBackend( null ) ) {
+				if ( null == logCacheWriter ) logCacheWriter = newLogCacheWriter( numColsToCache + cacheKeys.length );
+				try { for ( DataValueDescriptor[] row : rows ) logCacheWriter.append( row, numColsToCache, cacheKeys ); }
+				catch ( Exception e ) { logCacheWriter.abort(); logCacheWriter = null; throw e; }
+				return;
+			}
+			
 			// Note some VTIs meta-data will not include the CACHEID column. This should be in the cache keys so we can lookup the right rows later.
 			// There must be as many cacheKeys as there are extra columns in the PROP_SCHEMA over the meta-data.
 			PreparedStatement ps = getPreparedInsertStatement(rows.length, numColsToCache + cacheKeys.length);
@@ -836,6 +934,26 @@ public abstract class AbstractVTI extends VTI60 implements IFastPath, GaianChild
 		}
 	}
 
+	// The cached columns are named after the cache table columns, and the cache key and cache index columns are indexed
+	private LogStructuredCache.Writer newLogCacheWriter( int numCols ) throws Exception {
+		
+		GaianResultSetMetaData cmd = getCacheTableMetaData();
+		String[] columnNames = new String[ Math.min( numCols, cmd.getColumnCount() ) ];
+		for ( int i=0; i<columnNames.length; i++ ) columnNames[i] = cmd.getColumnName(i+1);
+		
+		boolean[] isIndexed = new boolean[ numCols ];
+		for ( int i=numCols-cacheKeys.length; i<numCols; i++ ) isIndexed[i] = true;
+		
+		String indexString = getVTIPropertyNullable( PROP_CACHE_INDEXES );
+		if ( null != indexString )
+			for ( String indexColumn : indexString.split("[;,]") ) {
+				int pos = cmd.getColumnPosition( indexColumn.trim() );
+				if ( 0 < pos && pos <= numCols ) isIndexed[pos-1] = true;
+			}
+		
+		return LogStructuredCache.getOrCreate( getCacheSchemaAndTableName() ).newWriter( columnNames, isIndexed );
+	}
+
 	// Overridden from IFastPath interface
 	@Override public abstract int nextRow( final DataValueDescriptor[] arg0 ) throws StandardException, SQLException; //{ return IFastPath.SCAN_COMPLETED; }
 	
@@ -844,10 +962,12 @@ public abstract class AbstractVTI extends VTI60 implements IFastPath, GaianChild
 	
 	public int nextRowFromCache(DataValueDescriptor[] row) {
 		try {
-			if (resultRows.fetchNextRow(row)) {
+			if ( null != logCacheScan ? logCacheScan.fetchNextRow(row) : resultRows.fetchNextRow(row) ) {
 				return GOT_ROW;
 			} else {
-				if ( null != underlyingResultSet )
+				if ( null != logCacheScan )
+					logCacheScan.rewind(); // so we can fetch rows again (if close() isn't called)
+				else if ( null != underlyingResultSet )
 					underlyingResultSet.beforeFirst(); // scroll back so we can fetch rows again (if close() isn't called)
 				if ( -1 == isCached ) isCached = 0;
 				return SCAN_COMPLETED;
@@ -1255,6 +1375,16 @@ public abstract class AbstractVTI extends VTI60 implements IFastPath, GaianChild
 	@Override public boolean reinitialise() throws Exception { /*isVTIRowTypesInitialised = false;*/ return false; } // cannot re-execute this GaianChildVTI
 	
 	protected void closeCacheStatementsAndReleaseConnections() throws SQLException {
+		if ( null != logCacheScan ) {
+			logCacheScan.close();
+			logCacheScan = null;
+		}
+		if ( null != logCacheWriter ) {
+			// Rows written since the last call to isCached() become visible - as do those inserted in a Derby cache table
+			try { logCacheWriter.commit( getLogCacheCommitExpiryTime() ); }
+			catch ( Exception e ) { logCacheWriter.abort(); throw new SQLException("Unable to commit rows to log-structured cache: " + e); }
+			finally { logCacheWriter = null; }
+		}
 		if ( null != underlyingResultSet ) {
 			logger.logInfo("AbstractVTI.cleanup() - recycling connection and clearing resultRows and underlyingResultSet");
 			Statement s = underlyingResultSet.getStatement();
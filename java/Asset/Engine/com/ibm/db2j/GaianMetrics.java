@@ -0,0 +1,143 @@
+/*
+ * (C) Copyright IBM Corp. 2009
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.db2j;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.types.DataValueDescriptor;
+import org.apache.derby.vti.IFastPath;
+import org.apache.derby.vti.VTICosting;
+import org.apache.derby.vti.VTIEnvironment;
+
+import com.ibm.gaiandb.GaianResultSetMetaData;
+import com.ibm.gaiandb.Logger;
+import com.ibm.gaiandb.MetricsStore;
+
+/**
+ * Returns the aggregated windows of the metrics held in this node's MetricsStore, at one of its resolutions:
+ * '1s', '1m' or '1h'. Columns are given by MetricsStore.WINDOWS_TABLE_DEF. AGE is the number of seconds elapsed
+ * since the start of the window on this node's clock, so that callers can place windows of different nodes on
+ * their own time line.
+ *
+ * Typical use, to get the last minute of metrics from all nodes:
+ * select * from new com.ibm.db2j.GaianQuery('select * from new com.ibm.db2j.GaianMetrics(''1s'') M', 'with_provenance') Q where age < 60
+ */
+public class GaianMetrics extends VTI60 implements VTICosting, IFastPath {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2009";
+
+	private static final Logger logger = new Logger( "GaianMetrics", 20 );
+
+	private static GaianResultSetMetaData rsmd = null;
+
+	private final int resolutionIndex;
+
+	private List<MetricsStore.Window> windows = null;
+	private long nowSecs = 0;
+	private int index = 0;
+
+	/**
+	 * @param resolution - window size, one of '1s', '1m' or '1h'
+	 */
+	public GaianMetrics(String resolution) throws Exception {
+		super();
+		logger.logDetail("Entered GaianMetrics(resolution) constructor, resolution: " + resolution);
+		resolutionIndex = MetricsStore.getResolutionIndex( null == resolution ? null : resolution.trim() );
+		if ( 0 > resolutionIndex )
+			throw new Exception("Invalid metrics resolution: '" + resolution + "', expected one of: " +
+					Arrays.asList( MetricsStore.RESOLUTION_NAMES ));
+	}
+
+	public boolean executeAsFastPath() throws SQLException {
+		final long now = System.currentTimeMillis();
+		nowSecs = now / 1000;
+		windows = MetricsStore.getWindows( resolutionIndex, -1, now );
+		index = 0;
+		logger.logDetail("Exiting GaianMetrics.executeAsFastPath(), number of windows: " + windows.size());
+		return true;
+	}
+
+	public int nextRow(DataValueDescriptor[] dvdr) throws StandardException, SQLException {
+
+		if ( null == windows || index >= windows.size() ) return IFastPath.SCAN_COMPLETED;
+
+		final MetricsStore.Window w = windows.get(index++);
+		dvdr[0].setValue( w.name );
+		dvdr[1].setValue( w.startSecs );
+		dvdr[2].setValue( (int) (nowSecs - w.startSecs) );
+		dvdr[3].setValue( w.numSamples );
+		if ( 0 == w.numNumericSamples ) {
+			dvdr[4].setToNull(); dvdr[5].setToNull(); dvdr[6].setToNull();
+		} else {
+			dvdr[4].setValue( w.min );
+			dvdr[5].setValue( w.max );
+			dvdr[6].setValue( w.getAverage() );
+		}
+		dvdr[7].setValue( w.lastValue );
+
+		return IFastPath.GOT_ROW;
+	}
+
+	public void currentRow(ResultSet arg0, DataValueDescriptor[] arg1) throws StandardException, SQLException {
+	}
+
+	public void rowsDone() throws StandardException, SQLException {
+		close();
+	}
+
+	public ResultSetMetaData getMetaData() throws SQLException {
+		synchronized( GaianMetrics.class ) {
+			if ( null == rsmd )
+				try { rsmd = new GaianResultSetMetaData( MetricsStore.WINDOWS_TABLE_DEF ); }
+				catch ( Exception e ) { throw new SQLException("Unable to build table definition for GaianMetrics: " + e); }
+		}
+		return rsmd;
+	}
+
+	public void close() {
+		reinitialise();
+	}
+
+	public boolean reinitialise() {
+		windows = null;
+		index = 0;
+		return true;
+	}
+
+	public boolean isBeforeFirst() {
+		return 0 == index;
+	}
+
+	public double getEstimatedRowCount(VTIEnvironment arg0) throws SQLException {
+		return 1000;
+	}
+
+	public double getEstimatedCostPerInstantiation(VTIEnvironment arg0) throws SQLException {
+		return 0;
+	}
+
+	public boolean supportsMultipleInstantiations(VTIEnvironment arg0) throws SQLException {
+		return true;
+	}
+
+	@Override
+	public int getResultSetType() throws SQLException {
+		return ResultSet.TYPE_FORWARD_ONLY;
+	}
+
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		return ResultSet.CONCUR_READ_ONLY;
+	}
+}
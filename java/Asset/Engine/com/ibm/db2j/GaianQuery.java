@@ -12,6 +12,7 @@ import java.util.Arrays;
 import com.ibm.gaiandb.DataSourcesManager;
 import com.ibm.gaiandb.GaianDBConfig;
 import com.ibm.gaiandb.Logger;
+import com.ibm.gaiandb.SplitColumnPlanner;
 import com.ibm.gaiandb.Util;
 import com.ibm.gaiandb.diags.GDBMessages;
 
@@ -29,6 +30,7 @@ public class GaianQuery extends GaianTable {
 	private String[] targetCIDs = null; // target RDBMS connection IDs
 	
 	private String splitColumnRanges = null;
+	private String plannedSplitColumnRanges = null; // ranges planned by this originating node when SPLITCOLUMN only names the column
 	
 	private static final String SOURCELISTARG_KEY = "SOURCELIST";
 	private static final String SPLITCOLUMN_KEY = "SPLITCOLUMN";
@@ -92,18 +94,29 @@ public class GaianQuery extends GaianTable {
 	
 	public String getQueryArguments() {
 		if ( null==queryArguments ) return "";
-		return queryArguments;
+		if ( null==plannedSplitColumnRanges ) return queryArguments;
+		
+		// Forward the planned ranges in place of the split column name
+		StringBuffer args = new StringBuffer();
+		for ( String option : Util.splitByCommas( queryArguments ) ) {
+			int idx = option.indexOf('=');
+			if ( -1 < idx && option.substring(0,idx).trim().equals( SPLITCOLUMN_KEY ) ) option = SPLITCOLUMN_KEY + "=" + plannedSplitColumnRanges;
+			args.append( 0 == args.length() ? "" : ", " ).append( option );
+		}
+		return args.toString();
 	}
 	
 	// The function below is used to pick out a different range of rows on different nodes, e.g. syntax wd be:
 	// select * from new com.ibm.db2j.GaianQuery(
-	// 		'SELECT item, price FROM stock', '', 'SPLITCOLUMN ID host1 0 10 host2 20 30 host3 40 50') Q
+	// 		'SELECT item, price FROM stock', '', 'SPLITCOLUMN=ID host1 0 10 host2 20 30 host3 40 50') Q
+	// If only the column is given, e.g. 'SPLITCOLUMN=ID', the ranges are planned by the originating node - see planSplitColumnRanges()
 	public String getSplitColumnRangeSQL() {
-		if ( null==splitColumnRanges ) return null;
+		String ranges = null==plannedSplitColumnRanges ? splitColumnRanges : plannedSplitColumnRanges;
+		if ( null==ranges ) return null;
 //		String[] elmts = splitColumnRanges.split(" ");
 //		return elmts[0] + " between " + elmts[1] + " and " + elmts[2];
 		
-		String[] elmts = splitColumnRanges.split(" ");
+		String[] elmts = ranges.split(" ");
 		
 		for ( int i=1; i<elmts.length; i++ )
 			if ( elmts[i].equals(GaianDBConfig.getGaianNodeID()) )
@@ -112,6 +125,17 @@ public class GaianQuery extends GaianTable {
 		return null;
 	}
 	
+	/**
+	 * Plans the range of split column values to be returned by each node holding the data, when option SPLITCOLUMN
+	 * only names the column. This is done on the originating node before each execution, and the planned ranges
+	 * are forwarded with the query in place of the column name.
+	 */
+	public void planSplitColumnRanges() {
+		plannedSplitColumnRanges = null;
+		if ( isPropagatedQuery || isExplain || null == splitColumnRanges || -1 != splitColumnRanges.indexOf(' ') ) return;
+		plannedSplitColumnRanges = SplitColumnPlanner.planRanges( splitColumnRanges, logicalTableName, queryArguments );
+	}
+	
 	private String[] getQueriedDBs() {
 		
 		String sourceList = null;
@@ -20,6 +20,7 @@ import java.sql.SQLWarning;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -27,7 +28,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.Stack;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -58,7 +61,9 @@ import com.ibm.gaiandb.GaianNode;
 import com.ibm.gaiandb.GaianNodeSeeker;
 import com.ibm.gaiandb.GaianResult;
 import com.ibm.gaiandb.GaianResultSetMetaData;
+import com.ibm.gaiandb.LobTransferCodec;
 import com.ibm.gaiandb.Logger;
+import com.ibm.gaiandb.RowsDeduplicator;
 import com.ibm.gaiandb.RowsFilter;
 import com.ibm.gaiandb.SecurityManager;
 import com.ibm.gaiandb.Util;
@@ -167,6 +172,7 @@ public class GaianTable extends AbstractVTI implements VTICosting, IQualifyable,
 	public static final String QRY_EXPOSED_COLUMNS_COUNT = "EXPOSED_COLUMNS_COUNT";
 	public static final String QRY_INCOMING_COLUMNS_MAPPING = "QRY_INCOMING_COLUMNS_MAPPING";
 	public static final String QRY_APPLICABLE_ORIGINAL_PREDICATES = "QRY_APPLICABLE_ORIGINAL_PREDICATES";
+	public static final String QRY_DEDUP_COLUMNS = "QRY_DEDUP_COLUMNS"; // 0-based ids of the columns making rows duplicates
 	
 	public static final String QRY_IS_GAIAN_QUERY = "QRY_IS_GAIAN_QUERY";
 	
@@ -245,10 +251,10 @@ public class GaianTable extends AbstractVTI implements VTICosting, IQualifyable,
 	"select GDBX_FROM_NODE, GDBX_TO_NODE, GDBX_DEPTH from NEW com.ibm.db2j.GaianTable('GDB_LTNULL', 'explain', 'CNULL CHAR(1)', '", //L3R3844:6416') GQ WHERE (GDBX_DEPTH>0) AND GDB_QRYID=? AND GDB_QRYSTEPS=?",
 	
 	// 2 Metrics queries + forwarded equivalents
-	"SELECT gdb_node,           jSecs(CURRENT_TIMESTAMP) - age received_timestamp,           name,           CAST(value AS INT) value     FROM new com.ibm.db2j.GaianQuery(		'SELECT name, jSecs(CURRENT_TIMESTAMP) - jSecs(received_timestamp) age, value FROM gdb_local_metrics 		UNION SELECT ''Data Throughput'' name, 0 age, cast(GDB_THROUGHPUT()/1000 as char(20)) value from sysibm.sysdummy1 		UNION SELECT ''Query Activity'' name, 0 age, cast(GDB_QRY_ACTIVITY() as char(20)) value from sysibm.sysdummy1 		UNION SELECT ''Node CPU'' name, 0 age, cast(GDB_NODE_CPU() as char(3)) value from sysibm.sysdummy1 		UNION SELECT ''JVM Used Memory'' name, 0 age, cast(JMEMORYPERCENT() as char(3)) value from sysibm.sysdummy1', 		'with_provenance') Q    WHERE name IN ('Data Throughput', 'Query Activity', 'Node CPU', 'JVM Used Memory', 'CPU Usage', 'Used Memory', 'Total Memory', 'Disk I/O', 'Network I/O', 'Battery Power', 'Temperature')      AND age < ? ORDER BY gdb_node, received_timestamp, name",
-	"SELECT gdb_node,           max( jSecs(CURRENT_TIMESTAMP) - age ) received_timestamp,           name,           max( CAST(value AS INT) ) value     FROM new com.ibm.db2j.GaianQuery(		'SELECT name, jSecs(CURRENT_TIMESTAMP) - jSecs(received_timestamp) age, value FROM gdb_local_metrics 		UNION SELECT ''Data Throughput'' name, 0 age, cast(GDB_THROUGHPUT()/1000 as char(20)) value from sysibm.sysdummy1 		UNION SELECT ''Query Activity'' name, 0 age, cast(GDB_QRY_ACTIVITY() as char(20)) value from sysibm.sysdummy1 		UNION SELECT ''Node CPU'' name, 0 age, cast(GDB_NODE_CPU() as char(3)) value from sysibm.sysdummy1 		UNION SELECT ''JVM Used Memory'' name, 0 age, cast(JMEMORYPERCENT() as char(3)) value from sysibm.sysdummy1', 		'with_provenance') Q    WHERE name IN ('", //Data Throughput', 'Query Activity', 'Node CPU', 'JVM Used Memory', 'CPU Usage', 'Used Memory', 'Total Memory', 'Disk I/O', 'Network I/O', 'Battery Power', 'Temperature')      AND age < ? GROUP BY gdb_node, name",
+	"SELECT gdb_node,           jSecs(CURRENT_TIMESTAMP) - age received_timestamp,           name,           CAST(value AS INT) value     FROM new com.ibm.db2j.GaianQuery(		'SELECT name, age, CAST(avg_value AS BIGINT) value FROM new com.ibm.db2j.GaianMetrics(''1s'') M', 		'with_provenance') Q    WHERE name IN ('Data Throughput', 'Query Activity', 'Node CPU', 'JVM Used Memory', 'CPU Usage', 'Used Memory', 'Total Memory', 'Disk I/O', 'Network I/O', 'Battery Power', 'Temperature')      AND age < ? ORDER BY gdb_node, received_timestamp, name",
+	"SELECT gdb_node,           max( jSecs(CURRENT_TIMESTAMP) - age ) received_timestamp,           name,           max( CAST(value AS INT) ) value     FROM new com.ibm.db2j.GaianQuery(		'SELECT name, age, CAST(avg_value AS BIGINT) value FROM new com.ibm.db2j.GaianMetrics(''1s'') M', 		'with_provenance') Q    WHERE name IN ('", //Data Throughput', 'Query Activity', 'Node CPU', 'JVM Used Memory', 'CPU Usage', 'Used Memory', 'Total Memory', 'Disk I/O', 'Network I/O', 'Battery Power', 'Temperature')      AND age < ? GROUP BY gdb_node, name",
 	
-	"select NAME, AGE, VALUE, GDB_NODE from NEW com.ibm.db2j.GaianQuery('SELECT name, jSecs(CURRENT_TIMESTAMP) - jSecs(received_timestamp) age, value FROM gdb_local_metrics 		UNION SELECT ''Data Throughput'' name, 0 age, cast(GDB_THROUGHPUT()/1000 as char(20)) value from sysibm.sysdummy1 		UNION SELECT ''Query Activity'' name, 0 age, cast(GDB_QRY_ACTIVITY() as char(20)) value from sysibm.sysdummy1 		UNION SELECT ''Node CPU'' name, 0 age, cast(GDB_NODE_CPU() as char(3)) value from sysibm.sysdummy1 		UNION SELECT ''JVM Used Memory'' name, 0 age, cast(JMEMORYPERCENT() as char(3)) value from sysibm.sysdummy1', 'with_provenance', '', 'NAME VARCHAR(32), AGE BIGINT, VALUE VARCHAR(255)', '", //L3R3844:6415') GQ WHERE (AGE<5) AND GDB_QRYID=? AND GDB_QRYSTEPS=?",
+	"select NAME, AGE, VALUE, GDB_NODE from NEW com.ibm.db2j.GaianQuery('SELECT name, age, CAST(avg_value AS BIGINT) value FROM new com.ibm.db2j.GaianMetrics(''1s'') M', 'with_provenance', '", //', 'NAME VARCHAR(32), AGE INTEGER, VALUE BIGINT', 'L3R3844:6415') GQ WHERE (AGE<5) AND GDB_QRYID=? AND GDB_QRYSTEPS=?",
 	
 	// logTail query + forwarded equivalent + sub-query
 	"select GDB_NODE, line, log from new com.ibm.db2j.GaianQuery('select * from ( select row_number() over () line, column1 log from new com.ibm.db2j.GaianTable(''GDB_LTLOG'', ''maxDepth=0'') GT ) SQ', 'with_provenance, order by line desc fetch first", // 100 rows only') GQ  order by gdb_node, line"
@@ -552,6 +558,8 @@ public class GaianTable extends AbstractVTI implements VTICosting, IQualifyable,
 							String key = parmName.toUpperCase();
 							logger.logThreadInfo("Getting param for key: " + key);
 							if ( key.endsWith( VTIBasic.EXEC_ARG_CUSTOM_VTI_ARGS ) ) { queryDetails.put( key, value ); continue; }
+							else if ( key.equalsIgnoreCase( LobTransferCodec.LT_ARG_LOB_CODEC ) ) { queryDetails.put( LobTransferCodec.LT_ARG_LOB_CODEC, value ); continue; }
+							else if ( key.equalsIgnoreCase( RowsDeduplicator.LT_ARG_DEDUP ) ) { queryDetails.put( RowsDeduplicator.LT_ARG_DEDUP, value ); continue; }
 							else if ( key.equalsIgnoreCase( ORIGINATING_CLUSTER_IDS ) )
 								{ queryDetails.put( ORIGINATING_CLUSTER_IDS, 2 > value.length() ? "" : /* remove wrapping brackets => */ value.substring(1, value.length()-1) ); continue; }
 							throw new SQLException("Unrecognised table argument key: " + key);
@@ -587,6 +595,13 @@ public class GaianTable extends AbstractVTI implements VTICosting, IQualifyable,
 			// Also fwd whether we want to log this query on nodes it is propagated to
 			if ( isSystemQuery() ) tableArguments += ","+Logger.LOG_EXCLUDE;
 			
+			// Fwd the duplicate rows elimination declared for the logical table, unless the query has its own dedup argument
+			final String dedup = queryDetails.containsKey( RowsDeduplicator.LT_ARG_DEDUP ) ? null : GaianDBConfig.getLogicalTableDedup( logicalTableName );
+			if ( null != dedup ) {
+				queryDetails.put( RowsDeduplicator.LT_ARG_DEDUP, dedup );
+				tableArguments += ","+RowsDeduplicator.LT_ARG_DEDUP+"="+dedup;
+			}
+			
 			// Query hash (now passed in comment instead so we are sure to propagate it on in all branches of joins of sub-queries too...)
 //			tableArguments += ","+QRY_HASH+"="+queryHash;
 			// Add GDB_WID if there is one
@@ -1195,6 +1210,12 @@ public class GaianTable extends AbstractVTI implements VTICosting, IQualifyable,
 		// Do this for every query execution as it may change due to qualifier columns being variable and implicated in projected cols...
 		setupProjectedColumns();
 		
+		// Duplicate rows are recognised by their dedup key columns, which are fetched even if the query doesn't select them
+		queryDetails.remove( QRY_DEDUP_COLUMNS );
+		final int[] dedupColumns = isExplain ? null :
+			RowsDeduplicator.getDedupColumns( (String) queryDetails.get( RowsDeduplicator.LT_ARG_DEDUP ), logicalTableRSMD );
+		if ( null != dedupColumns && null != projectedColumns ) addToProjectedColumns( dedupColumns );
+		
 		if ( null != sqlQueryFilter ) {
 			SQLQueryElements queryElmts = new SQLQueryElements(qualifiers, projectedColumns);
 			if ( !sqlQueryFilter.applyIncomingSQLFilter(queryID, logicalTableName, logicalTableRSMD, originalSQL, queryElmts) ) {
@@ -1206,6 +1227,9 @@ public class GaianTable extends AbstractVTI implements VTICosting, IQualifyable,
 			projectedColumns = queryElmts.getProjectedColumns();
 		}
 		
+		// A policy may have taken dedup key columns out of the projection, in which case rows can't be compared
+		if ( null != dedupColumns && null != projectedColumns && isAllInProjectedColumns( dedupColumns ) ) queryDetails.put( QRY_DEDUP_COLUMNS, dedupColumns );
+		
 		setupPhysicalProjectedColumns();
 		
 		// Fill in explain constants for this node to test any qualifiers on them up front - except on the count as
@@ -1256,7 +1280,7 @@ public class GaianTable extends AbstractVTI implements VTICosting, IQualifyable,
 				Stack<String> pluralizedInstances = new Stack<String>();
 				String[] dsInstances = dsWrapper.getPluralizedInstances();
 //				logInfo("Pluralized instances for this query for " + dsWrapperID + ": " + Arrays.asList(dsInstances));
-				if ( null != dsInstances ) pluralizedInstances.addAll( Arrays.asList( dsInstances ) );
+				if ( null != dsInstances ) pluralizedInstances.addAll( pruneAndOrderPluralizedInstances( dsWrapper, dsInstances ) );
 				queryDetails.put(PLURALIZED_INSTANCES_PREFIX_TAG + dsWrapperID, pluralizedInstances );
 				
 				// Initialise optional endpoint constants - needs to be done before testLeafQualifiers()
@@ -1340,6 +1364,8 @@ public class GaianTable extends AbstractVTI implements VTICosting, IQualifyable,
 		// We now know we have some data sources to run the qry against
 		if ( null != sqlResultFilter ) sqlResultFilter.setQueriedColumns(getProjectedColumns());
 		
+		if ( this instanceof GaianQuery ) ((GaianQuery) this).planSplitColumnRanges();
+		
 		try {
 			if ( null == gaianResult ) gaianResult = new GaianResult( this, dsWrappers );
 			else gaianResult.reExecute( dsWrappers );
@@ -1716,6 +1742,33 @@ public class GaianTable extends AbstractVTI implements VTICosting, IQualifyable,
 	}
 	
 	
+	/**
+	 * Removes the instances known to hold no rows, and orders the others by increasing size so that the largest are popped
+	 * off the stack first. Instances of unknown size keep their relative order and are queried last.
+	 */
+	private List<String> pruneAndOrderPluralizedInstances( final VTIWrapper dsWrapper, String[] dsInstances ) {
+		
+		final Map<String, Long> sizes = new HashMap<String, Long>();
+		List<String> orderedInstances = new ArrayList<String>( dsInstances.length );
+		
+		for ( String dsInstanceID : dsInstances ) {
+			long size = dsWrapper.getPluralizedInstanceSize( dsInstanceID );
+			if ( 0 == size ) continue;
+			sizes.put( dsInstanceID, size );
+			orderedInstances.add( dsInstanceID );
+		}
+		
+		if ( orderedInstances.size() < dsInstances.length )
+			logInfo("Pruned " + (dsInstances.length - orderedInstances.size()) + " empty instances of " + dsWrapper.getNodeDefName());
+		
+		// Instances of unknown size (-1) sort first, so they are at the bottom of the stack
+		Collections.sort( orderedInstances, new Comparator<String>() {
+			public int compare(String i1, String i2) { return sizes.get(i1).compareTo( sizes.get(i2) ); }
+		});
+		
+		return orderedInstances;
+	}
+	
 	private Map<String, int[]> endpointConstantsMappingToLTCols = null; // dsWrapper id => int[] of LT indexes where constants should go (lt indices are 1-based)
 	private Map<String, DataValueDescriptor[]> endpointConstantsPerInstance = null; // dsWrapper id + dsInstance id => DVD[] of constant endpoint values
 	
@@ -2166,6 +2219,29 @@ public class GaianTable extends AbstractVTI implements VTICosting, IQualifyable,
     	}
 	}
 
+	// Merges 0-based column ids into the (1-based and ascending) projected columns
+	private void addToProjectedColumns( int[] columns ) {
+		
+		SortedSet<Integer> projection = new TreeSet<Integer>();
+		for ( int c : projectedColumns ) projection.add( c );
+		for ( int c : columns ) projection.add( c+1 );
+		if ( projection.size() == projectedColumns.length ) return;
+		
+		projectedColumns = new int[ projection.size() ];
+		int i = 0;
+		for ( int c : projection ) projectedColumns[i++] = c;
+		logInfo("Projected columns including dedup key columns = " + Util.intArrayAsString(projectedColumns));
+	}
+	
+	private boolean isAllInProjectedColumns( int[] columns ) {
+		next: for ( int c : columns ) {
+			for ( int p : projectedColumns ) if ( c+1 == p ) continue next;
+			logInfo("Duplicate rows not eliminated as dedup key column " + (c+1) + " is not projected");
+			return false;
+		}
+		return true;
+	}
+	
 	private void setupPhysicalProjectedColumns() {
 		
     	try {
@@ -2267,11 +2343,14 @@ public class GaianTable extends AbstractVTI implements VTICosting, IQualifyable,
 	
 	private boolean isCancelledQuery = false;
 	
+	// Cancels all the executing results for the queryID on this node - the cancellation is propagated to the data sources
+	// and nodes they are still fetching from when their GaianResult is closed.
 	public static boolean cancelQuery( String queryID ) {
 		synchronized( gResults ) {
 			logger.logThreadInfo("Active GaianResult queries: " + gResults.size());
-			for ( GaianResult gr : gResults ) if ( gr.checkCancel(queryID) ) return true;
-			return false;
+			boolean isFound = false;
+			for ( GaianResult gr : gResults ) if ( gr.checkCancel(queryID) ) isFound = true;
+			return isFound;
 		}
 	}
 	public boolean checkCancel( String queryID ) { return queryID.equals(this.queryID) ? cancelQuery() : false; }
@@ -0,0 +1,883 @@
+/*
+ * (C) Copyright IBM Corp. 2011
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.db2j;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.types.BitDataValue;
+import org.apache.derby.iapi.types.DataValueDescriptor;
+import org.apache.derby.iapi.types.SQLBoolean;
+import org.apache.derby.iapi.types.SQLDate;
+import org.apache.derby.iapi.types.SQLDouble;
+import org.apache.derby.iapi.types.SQLInteger;
+import org.apache.derby.iapi.types.SQLLongint;
+import org.apache.derby.iapi.types.SQLReal;
+import org.apache.derby.iapi.types.SQLSmallint;
+import org.apache.derby.iapi.types.SQLTime;
+import org.apache.derby.iapi.types.SQLTimestamp;
+import org.apache.derby.iapi.types.SQLTinyint;
+
+import com.ibm.gaiandb.GaianDBConfig;
+import com.ibm.gaiandb.GaianNode;
+import com.ibm.gaiandb.Logger;
+import com.ibm.gaiandb.diags.GDBMessages;
+
+/**
+ * Log-structured store for the rows cached by AbstractVTI, used in place of a Derby cache table when the cache.backend
+ * property of the VTI (or VTI_CACHE_BACKEND in gaiandb_config.properties) is LOG.
+ *
+ * Rows are appended by a Writer in a typed binary format, to segments of up to SEGMENT_SIZE bytes made of blocks of up to BLOCK_ROWS rows.
+ * Each block is indexed with the min and max values of the cache key columns (the VTI's cacheKeys) and of the cache.indexes columns,
+ * so a scan skips the segments and blocks that hold no rows for its constraints. Other columns in the constraints are filtered row by row.
+ *
+ * Rows become visible to scans when the writer commits them, and the segments written between two commits (a run) then expire
+ * together - so expiry drops whole segments, without reading or deleting rows.
+ *
+ * Segments are held in memory within VTI_CACHE_MEMORY_LIMIT_MB for all caches. Beyond this, the least recently used ones are
+ * spilled to a file of the cache directory, and scans read their blocks from there.
+ */
+class LogStructuredCache {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2011";
+
+	private static final Logger logger = new Logger( "LogStructuredCache", 30 );
+
+	static final String BACKEND_LOG = "LOG";
+	static final String BACKEND_DERBY = "DERBY";
+
+	private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+	private static final int BLOCK_ROWS = 1024;
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// Column codecs
+	private static final byte T_STRING = 0, T_INT = 1, T_LONG = 2, T_SHORT = 3, T_BYTE = 4, T_BOOLEAN = 5, T_DOUBLE = 6, T_FLOAT = 7,
+		T_DATE = 8, T_TIME = 9, T_TIMESTAMP = 10, T_BYTES = 11;
+
+	// Constraint operators
+	private static final int OP_EQ = 0, OP_NE = 1, OP_LT = 2, OP_LE = 3, OP_GT = 4, OP_GE = 5;
+	private static final String[] OPERATORS = { "=", "<>", "<", "<=", ">", ">=" };
+
+	// Zone map check results
+	private static final int ZONE_NO_MATCH = 0, ZONE_SOME_MATCH = 1, ZONE_ALL_MATCH = 2;
+
+	// Cache name (i.e. cache table name, e.g. CACHE.ICAREST_X) -> cache
+	private static final ConcurrentMap<String, LogStructuredCache> caches = new ConcurrentHashMap<String, LogStructuredCache>();
+
+	private static final AtomicLong segmentIDs = new AtomicLong(0);
+	private static File cacheDirectory = null;
+
+	// Memory tier: segments held in memory, in least recently used order - guarded by itself
+	private static final LinkedHashMap<Segment, Segment> residentSegments = new LinkedHashMap<Segment, Segment>( 16, 0.75f, true );
+	private static long residentBytes = 0;
+
+	private final String name;
+	private final long creationTime = System.currentTimeMillis();
+
+	// Column definitions, set when the first row is written - guarded by this
+	private DataValueDescriptor[] template = null;
+	private byte[] codecs = null;
+	private String[] columnNames = null;
+	private int[] indexedColumns = null;
+
+	// Committed runs
+	private final List<Run> runs = new CopyOnWriteArrayList<Run>();
+	private boolean isDropped = false;
+
+	private LogStructuredCache( String name ) { this.name = name; }
+
+	static LogStructuredCache get( String name ) {
+		return caches.get( name );
+	}
+
+	static LogStructuredCache getOrCreate( String name ) {
+		LogStructuredCache cache = caches.get( name );
+		if ( null == cache ) {
+			LogStructuredCache newCache = new LogStructuredCache( name );
+			cache = caches.putIfAbsent( name, newCache );
+			if ( null == cache ) cache = newCache;
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns the name of a cache starting with the given prefix that was created less than expiryDuration ms ago, or null if there is none.
+	 */
+	static String findLiveCacheName( String namePrefix, long expiryDuration ) {
+		String liveName = null;
+		for ( LogStructuredCache cache : caches.values() )
+			if ( cache.name.startsWith( namePrefix ) && System.currentTimeMillis() < cache.creationTime + expiryDuration )
+				liveName = cache.name;
+		return liveName;
+	}
+
+	/**
+	 * Drops all caches and deletes all segment files - Note the Derby cache tables are also dropped when a GaianDB node starts up.
+	 */
+	static void dropAll() {
+		for ( LogStructuredCache cache : caches.values() ) cache.drop();
+		File[] files = getCacheDirectory().listFiles();
+		if ( null != files ) for ( File f : files ) if ( f.getName().endsWith(".seg") ) f.delete();
+	}
+
+	long getCreationTime() { return creationTime; }
+
+	/**
+	 * Parses the constraints passed to AbstractVTI.isCached(): a conjunction of comparisons of columns with literals, e.g. CACHEID=123 AND X>'a'.
+	 * Returns an empty list for no constraints (null, empty or 1=1), or null if the constraints are not of this form.
+	 */
+	static List<String[]> parseConstraints( String constraints ) {
+
+		List<String[]> terms = new ArrayList<String[]>();
+		if ( null == constraints || 0 == constraints.trim().length() ) return terms;
+
+		for ( String term : splitOnAndOutsideQuotes( constraints ) ) {
+			if ( term.trim().equals("1=1") ) continue;
+			Matcher m = CONSTRAINT_TERM.matcher( term );
+			if ( !m.matches() ) return null;
+			String op = m.group(2).equals("!=") ? "<>" : m.group(2);
+			terms.add( new String[] { m.group(1), op, m.group(3) } );
+		}
+		return terms;
+	}
+
+	private static final Pattern CONSTRAINT_TERM = Pattern.compile(
+			"\\s*(\"[^\"]+\"|[A-Za-z_][\\w$#@]*)\\s*(=|<>|!=|<=|>=|<|>)\\s*([-+]?[\\d.]+(?:[eE][-+]?\\d+)?|'(?:[^']|'')*')\\s*" );
+
+	private static List<String> splitOnAndOutsideQuotes( String s ) {
+		List<String> terms = new ArrayList<String>();
+		String upper = s.toUpperCase();
+		boolean isInQuotes = false;
+		int from = 0;
+		for ( int i=0; i<s.length(); i++ ) {
+			char c = s.charAt(i);
+			if ( '\'' == c ) isInQuotes = !isInQuotes;
+			else if ( !isInQuotes && Character.isWhitespace(c) && upper.startsWith("AND", i+1) &&
+					i+4 < s.length() && Character.isWhitespace( s.charAt(i+4) ) ) {
+				terms.add( s.substring(from, i) );
+				i += 4;
+				from = i;
+			}
+		}
+		terms.add( s.substring(from) );
+		return terms;
+	}
+
+	/**
+	 * Creates a writer appending rows to this cache.
+	 *
+	 * @param columnNames - names of the cached columns, for resolving the columns of constraints
+	 * @param isIndexed - flags the cached columns to be indexed by the min and max values of each block
+	 */
+	Writer newWriter( String[] columnNames, boolean[] isIndexed ) {
+		return new Writer( columnNames, isIndexed );
+	}
+
+	private synchronized void initColumns( DataValueDescriptor[] firstRow, String[] names, boolean[] isIndexed ) throws SQLException {
+
+		if ( null != template ) {
+			if ( template.length != firstRow.length )
+				throw new SQLException("Cannot cache rows of " + firstRow.length + " columns in log-structured cache " + name +
+						" holding rows of " + template.length + " columns");
+			return;
+		}
+
+		template = new DataValueDescriptor[ firstRow.length ];
+		codecs = new byte[ firstRow.length ];
+		int numIndexed = 0;
+		for ( int i=0; i<firstRow.length; i++ ) {
+			template[i] = firstRow[i].getNewNull();
+			codecs[i] = getCodec( firstRow[i] );
+			if ( i < isIndexed.length && isIndexed[i] ) numIndexed++;
+		}
+		indexedColumns = new int[ numIndexed ];
+		for ( int i=0, j=0; i<firstRow.length; i++ ) if ( i < isIndexed.length && isIndexed[i] ) indexedColumns[j++] = i;
+		columnNames = names;
+
+		logger.logInfo("Initialised log-structured cache " + name + " with " + template.length + " columns, indexed columns: " + numIndexed);
+	}
+
+	private static byte getCodec( DataValueDescriptor dvd ) {
+		if ( dvd instanceof SQLInteger ) return T_INT;
+		if ( dvd instanceof SQLLongint ) return T_LONG;
+		if ( dvd instanceof SQLSmallint ) return T_SHORT;
+		if ( dvd instanceof SQLTinyint ) return T_BYTE;
+		if ( dvd instanceof SQLBoolean ) return T_BOOLEAN;
+		if ( dvd instanceof SQLDouble ) return T_DOUBLE;
+		if ( dvd instanceof SQLReal ) return T_FLOAT;
+		if ( dvd instanceof SQLDate ) return T_DATE;
+		if ( dvd instanceof SQLTime ) return T_TIME;
+		if ( dvd instanceof SQLTimestamp ) return T_TIMESTAMP;
+		if ( dvd instanceof BitDataValue ) return T_BYTES; // BLOB and (VAR)CHAR FOR BIT DATA
+		return T_STRING; // character types, DECIMAL and others - through their string value
+	}
+
+	/**
+	 * Sets the expiry time of all rows committed to this cache.
+	 */
+	void resetExpiry( long expiryTime ) {
+		for ( Run run : runs ) run.expiryTime = expiryTime;
+	}
+
+	/**
+	 * Drops the runs of rows that have expired, and their segments.
+	 */
+	synchronized void dropExpiredRuns() {
+		long now = System.currentTimeMillis();
+		int numDropped = 0;
+		for ( Run run : runs )
+			if ( now > run.expiryTime ) {
+				runs.remove( run );
+				for ( Segment s : run.segments ) dropSegment( s );
+				numDropped += run.segments.size();
+			}
+		if ( 0 < numDropped )
+			logger.logInfo("Dropped " + numDropped + " expired segments from log-structured cache " + name);
+	}
+
+	/**
+	 * Drops this cache and all its rows. Rows being scanned remain available to the scans until they are closed.
+	 */
+	synchronized void drop() {
+		isDropped = true;
+		caches.remove( name, this );
+		for ( Run run : runs ) for ( Segment s : run.segments ) dropSegment( s );
+		runs.clear();
+		logger.logInfo("Dropped log-structured cache " + name);
+	}
+
+	private synchronized void commit( Run run ) {
+		if ( isDropped ) for ( Segment s : run.segments ) dropSegment( s );
+		else runs.add( run );
+	}
+
+	// Must be called holding the cache lock
+	private static void dropSegment( Segment s ) {
+		s.isDropped = true;
+		if ( 0 == s.numPins ) s.release();
+	}
+
+	/**
+	 * Opens a scan of the committed rows that satisfy the given constraints.
+	 *
+	 * @param constraints - as parsed by parseConstraints()
+	 * @param outputColumnNames - names of the columns to return in each row, in order; a name that is not found maps to the cached column of same position
+	 */
+	synchronized Scan scan( List<String[]> constraints, String[] outputColumnNames ) throws SQLException {
+
+		List<Segment> segments = new ArrayList<Segment>();
+		if ( null != template )
+			for ( Run run : runs )
+				for ( Segment s : run.segments ) { s.numPins++; segments.add(s); }
+
+		return new Scan( segments.toArray( new Segment[0] ), constraints, outputColumnNames );
+	}
+
+	private synchronized void unpin( Segment[] segments ) {
+		for ( Segment s : segments )
+			if ( 0 == --s.numPins && s.isDropped ) s.release();
+	}
+
+	private int getColumnIndex( String columnName ) {
+		boolean isDelimited = columnName.startsWith("\"");
+		if ( isDelimited ) columnName = columnName.substring( 1, columnName.length()-1 );
+		for ( int i=0; i<columnNames.length && i<template.length; i++ )
+			if ( isDelimited ? columnNames[i].equals(columnName) : columnNames[i].equalsIgnoreCase(columnName) ) return i;
+		return -1;
+	}
+
+	private static synchronized File getCacheDirectory() {
+		if ( null == cacheDirectory ) {
+			String workspace = GaianNode.getWorkspaceDir();
+			cacheDirectory = new File( null == workspace ? "." : workspace, GaianDBConfig.getGaianNodeDatabaseName() + "_vticache" );
+		}
+		return cacheDirectory;
+	}
+
+	// Adds a sealed segment to the memory tier, and spills the least recently used segments to disk if it is full
+	private static void addToMemoryTier( Segment segment ) {
+
+		List<Segment> victims = null;
+		long limit = 1024L * 1024 * GaianDBConfig.getVTICacheMemoryLimitMB();
+
+		synchronized( residentSegments ) {
+			residentSegments.put( segment, segment );
+			residentBytes += segment.data.length;
+
+			for ( Iterator<Segment> it = residentSegments.keySet().iterator(); residentBytes > limit && it.hasNext(); ) {
+				Segment s = it.next();
+				it.remove();
+				residentBytes -= s.data.length;
+				if ( null == victims ) victims = new ArrayList<Segment>();
+				victims.add( s );
+			}
+		}
+
+		// Do the disk writes outside the memory tier lock
+		if ( null != victims ) for ( Segment s : victims ) s.spill();
+	}
+
+	private static void touchInMemoryTier( Segment segment ) {
+		synchronized( residentSegments ) { residentSegments.get( segment ); }
+	}
+
+	private static void removeFromMemoryTier( Segment segment ) {
+		synchronized( residentSegments ) {
+			if ( null != residentSegments.remove( segment ) ) residentBytes -= segment.data.length;
+		}
+	}
+
+	private static final class Run {
+		final List<Segment> segments = new ArrayList<Segment>();
+		volatile long expiryTime;
+	}
+
+	private static final class Block {
+		final int offset, numRows;
+		// Min and max values of the indexed columns (null if there are only nulls), and whether they hold nulls
+		final DataValueDescriptor[] mins, maxs;
+		final boolean[] hasNulls;
+
+		Block( int offset, int numRows, DataValueDescriptor[] mins, DataValueDescriptor[] maxs, boolean[] hasNulls ) {
+			this.offset = offset; this.numRows = numRows; this.mins = mins; this.maxs = maxs; this.hasNulls = hasNulls;
+		}
+	}
+
+	private static final class Segment {
+
+		final long id = segmentIDs.incrementAndGet();
+		final int length;
+		final Block[] blocks;
+		final Block summary; // min and max values over all blocks
+
+		// The segment bytes are in data while it is in memory, and in file once spilled to disk - guarded by this
+		volatile byte[] data;
+		volatile File file = null;
+		private boolean isReleased = false;
+
+		// Guarded by the cache lock
+		int numPins = 0;
+		boolean isDropped = false;
+
+		Segment( byte[] data, int length, Block[] blocks, Block summary ) {
+			this.data = data; this.length = length; this.blocks = blocks; this.summary = summary;
+		}
+
+		synchronized void spill() {
+			if ( isReleased || null == data ) return;
+			File f = new File( getCacheDirectory(), id + ".seg" );
+			FileOutputStream fos = null;
+			try {
+				getCacheDirectory().mkdirs();
+				fos = new FileOutputStream( f );
+				fos.write( data, 0, length );
+				fos.close(); fos = null;
+				file = f;
+				data = null;
+				logger.logDetail("Spilled cache segment to disk: " + f.getName() + ", bytes: " + length);
+			} catch ( IOException e ) {
+				logger.logWarning(GDBMessages.DSWRAPPER_CACHE_SEGMENT_SPILL_ERROR, "Unable to spill cache segment to disk (kept in memory): " + e);
+				f.delete();
+			} finally {
+				if ( null != fos ) try { fos.close(); } catch ( IOException e ) {}
+			}
+		}
+
+		synchronized void release() {
+			isReleased = true;
+			if ( null != data ) removeFromMemoryTier( this );
+			data = null;
+			if ( null != file && !file.delete() ) file.deleteOnExit();
+		}
+
+		int getBlockEnd( int blockIndex ) {
+			return blockIndex+1 < blocks.length ? blocks[blockIndex+1].offset : length;
+		}
+	}
+
+	/**
+	 * Appends rows to the cache. Rows are committed with commit(), which makes them visible to scans, and may be abandoned with abort().
+	 * A writer is used by a single thread.
+	 */
+	final class Writer {
+
+		private final String[] writerColumnNames;
+		private final boolean[] isIndexed;
+		private final Calendar calendar = new GregorianCalendar();
+
+		private Run run = new Run();
+		private DataValueDescriptor[] rowCells = null;
+
+		// Current segment
+		private byte[] buf = new byte[ BLOCK_SIZE ];
+		private int pos = 0;
+		private final List<Block> blocks = new ArrayList<Block>();
+
+		// Current block
+		private int blockOffset = 0, blockRows = 0;
+		private DataValueDescriptor[] blockMins, blockMaxs;
+		private boolean[] blockHasNulls;
+
+		private Writer( String[] columnNames, boolean[] isIndexed ) {
+			this.writerColumnNames = columnNames;
+			this.isIndexed = isIndexed;
+		}
+
+		/**
+		 * Appends the first numCols columns of the row followed by the cache key columns.
+		 */
+		void append( DataValueDescriptor[] row, int numCols, DataValueDescriptor[] cacheKeys ) throws SQLException, StandardException {
+
+			if ( null == rowCells ) {
+				rowCells = new DataValueDescriptor[ numCols + cacheKeys.length ];
+				for ( int i=0; i<rowCells.length; i++ ) rowCells[i] = i < numCols ? row[i] : cacheKeys[i-numCols];
+				initColumns( rowCells, writerColumnNames, isIndexed );
+				newBlock();
+			}
+
+			if ( numCols + cacheKeys.length != template.length )
+				throw new SQLException("Cannot cache rows of " + (numCols + cacheKeys.length) + " columns in log-structured cache " + name +
+						" holding rows of " + template.length + " columns");
+
+			for ( int i=0; i<rowCells.length; i++ ) rowCells[i] = i < numCols ? row[i] : cacheKeys[i-numCols];
+
+			// Null cells are flagged in a bitmap ahead of the row values
+			int bitmapPos = pos;
+			int bitmapLength = ( rowCells.length + 7 ) >> 3;
+			ensureCapacity( bitmapLength );
+			for ( int i=0; i<bitmapLength; i++ ) buf[pos++] = 0;
+
+			for ( int i=0; i<rowCells.length; i++ ) {
+				DataValueDescriptor cell = rowCells[i];
+				if ( cell.isNull() ) buf[ bitmapPos + (i>>3) ] |= 1 << (i&7);
+				else encode( cell, codecs[i] );
+			}
+
+			for ( int k=0; k<indexedColumns.length; k++ ) {
+				DataValueDescriptor cell = rowCells[ indexedColumns[k] ];
+				if ( cell.isNull() ) blockHasNulls[k] = true;
+				else if ( null == blockMins[k] ) {
+					blockMins[k] = template[ indexedColumns[k] ].getNewNull(); blockMins[k].setValue( cell );
+					blockMaxs[k] = template[ indexedColumns[k] ].getNewNull(); blockMaxs[k].setValue( cell );
+				} else if ( 0 > cell.compare( blockMins[k] ) ) blockMins[k].setValue( cell );
+				else if ( 0 < cell.compare( blockMaxs[k] ) ) blockMaxs[k].setValue( cell );
+			}
+
+			if ( BLOCK_ROWS <= ++blockRows || BLOCK_SIZE <= pos - blockOffset ) {
+				sealBlock();
+				if ( SEGMENT_SIZE <= pos ) sealSegment();
+				newBlock();
+			}
+		}
+
+		/**
+		 * Makes the rows appended since the last commit visible to scans. They expire together at the given time.
+		 */
+		void commit( long expiryTime ) {
+
+			if ( null != rowCells ) {
+				sealBlock();
+				sealSegment();
+				newBlock();
+			}
+
+			if ( run.segments.isEmpty() ) return;
+
+			run.expiryTime = expiryTime;
+			LogStructuredCache.this.commit( run );
+			logger.logInfo("Committed " + run.segments.size() + " segments to log-structured cache " + name);
+			run = new Run();
+		}
+
+		/**
+		 * Drops the rows appended since the last commit.
+		 */
+		void abort() {
+			synchronized( LogStructuredCache.this ) {
+				for ( Segment s : run.segments ) dropSegment( s );
+			}
+			run = new Run();
+			pos = 0;
+			blocks.clear();
+			if ( null != rowCells ) newBlock();
+		}
+
+		private void newBlock() {
+			blockOffset = pos;
+			blockRows = 0;
+			blockMins = new DataValueDescriptor[ indexedColumns.length ];
+			blockMaxs = new DataValueDescriptor[ indexedColumns.length ];
+			blockHasNulls = new boolean[ indexedColumns.length ];
+		}
+
+		private void sealBlock() {
+			if ( 0 < blockRows ) blocks.add( new Block( blockOffset, blockRows, blockMins, blockMaxs, blockHasNulls ) );
+		}
+
+		private void sealSegment() {
+
+			if ( blocks.isEmpty() ) return;
+
+			// Summarise the min and max values of the blocks, so scans can skip the whole segment
+			DataValueDescriptor[] mins = new DataValueDescriptor[ indexedColumns.length ], maxs = new DataValueDescriptor[ indexedColumns.length ];
+			boolean[] hasNulls = new boolean[ indexedColumns.length ];
+			try {
+				for ( Block b : blocks )
+					for ( int k=0; k<indexedColumns.length; k++ ) {
+						hasNulls[k] |= b.hasNulls[k];
+						if ( null == b.mins[k] ) continue;
+						if ( null == mins[k] || 0 > b.mins[k].compare( mins[k] ) ) mins[k] = b.mins[k];
+						if ( null == maxs[k] || 0 < b.maxs[k].compare( maxs[k] ) ) maxs[k] = b.maxs[k];
+					}
+			} catch ( StandardException e ) {
+				// Cannot happen as values of a column are all of the same type - just don't let scans skip the segment
+				logger.logDetail("Unable to summarise cache segment index (ignored): " + e);
+				mins = maxs = null;
+			}
+
+			Segment segment = new Segment( buf, pos, blocks.toArray( new Block[0] ), null == mins ? null : new Block( 0, 0, mins, maxs, hasNulls ) );
+			run.segments.add( segment );
+			addToMemoryTier( segment );
+
+			buf = new byte[ BLOCK_SIZE ];
+			pos = 0;
+			blocks.clear();
+		}
+
+		private void encode( DataValueDescriptor cell, byte codec ) throws StandardException {
+			switch ( codec ) {
+				case T_INT: ensureCapacity(4); putInt( cell.getInt() ); break;
+				case T_LONG: ensureCapacity(8); putLong( cell.getLong() ); break;
+				case T_SHORT: ensureCapacity(2); putShort( cell.getShort() ); break;
+				case T_BYTE: ensureCapacity(1); buf[pos++] = cell.getByte(); break;
+				case T_BOOLEAN: ensureCapacity(1); buf[pos++] = (byte) ( cell.getBoolean() ? 1 : 0 ); break;
+				case T_DOUBLE: ensureCapacity(8); putLong( Double.doubleToRawLongBits( cell.getDouble() ) ); break;
+				case T_FLOAT: ensureCapacity(4); putInt( Float.floatToRawIntBits( cell.getFloat() ) ); break;
+				case T_DATE: ensureCapacity(8); putLong( cell.getDate( calendar ).getTime() ); break;
+				case T_TIME: ensureCapacity(8); putLong( cell.getTime( calendar ).getTime() ); break;
+				case T_TIMESTAMP: Timestamp ts = cell.getTimestamp( calendar ); ensureCapacity(12); putLong( ts.getTime() ); putInt( ts.getNanos() ); break;
+				case T_BYTES: putBytes( cell.getBytes() ); break;
+				default: putString( cell.getString() ); break;
+			}
+		}
+
+		private void putString( String s ) {
+			final int len = s.length();
+			ensureCapacity( 5 + len );
+			int start = pos;
+			putVarInt( len );
+			// Most strings are ASCII: write their chars straight to the buffer, and fall back to a UTF-8 encoding otherwise
+			int i = 0;
+			for ( ; i<len; i++ ) {
+				char c = s.charAt(i);
+				if ( 0x80 <= c ) break;
+				buf[pos++] = (byte) c;
+			}
+			if ( i < len ) {
+				pos = start;
+				putBytes( s.getBytes( UTF8 ) );
+			}
+		}
+
+		private void putBytes( byte[] b ) {
+			ensureCapacity( 5 + b.length );
+			putVarInt( b.length );
+			System.arraycopy( b, 0, buf, pos, b.length );
+			pos += b.length;
+		}
+
+		private void putVarInt( int v ) {
+			while ( 0 != ( v & ~0x7f ) ) { buf[pos++] = (byte) ( v & 0x7f | 0x80 ); v >>>= 7; }
+			buf[pos++] = (byte) v;
+		}
+
+		private void putShort( short v ) { buf[pos++] = (byte) ( v >>> 8 ); buf[pos++] = (byte) v; }
+		private void putInt( int v ) { buf[pos++] = (byte) ( v >>> 24 ); buf[pos++] = (byte) ( v >>> 16 ); buf[pos++] = (byte) ( v >>> 8 ); buf[pos++] = (byte) v; }
+		private void putLong( long v ) { putInt( (int) ( v >>> 32 ) ); putInt( (int) v ); }
+
+		private void ensureCapacity( int n ) {
+			if ( pos + n <= buf.length ) return;
+			byte[] newBuf = new byte[ Math.max( pos + n, Math.min( 2 * buf.length, SEGMENT_SIZE + BLOCK_SIZE ) ) ];
+			System.arraycopy( buf, 0, newBuf, 0, pos );
+			buf = newBuf;
+		}
+	}
+
+	/**
+	 * Iterates over the committed rows that satisfy a set of constraints. The segments of the scan remain available until it is closed,
+	 * even if they are dropped from the cache in the meantime. A scan is used by a single thread.
+	 */
+	final class Scan {
+
+		private final Segment[] segments;
+		private final Calendar calendar = new GregorianCalendar();
+
+		// Constraints: column ids, operators and values, and the index of the column in the block min and max values (or -1)
+		private final int[] filterColumns, filterOps, filterZones;
+		private final DataValueDescriptor[] filterValues;
+
+		private final int[] outputColumns;
+		private final DataValueDescriptor[] cells;
+
+		private int segmentIndex = 0, blockIndex = -1;
+		private RandomAccessFile segmentFile = null;
+		private byte[] block = null, blockBuffer = null;
+		private int pos = 0, rowsLeftInBlock = 0;
+		private boolean isBlockAllMatching = false, isRowPending = false, isClosed = false;
+
+		private Scan( Segment[] segments, List<String[]> constraints, String[] outputColumnNames ) throws SQLException {
+
+			this.segments = segments;
+
+			int numFilters = null == template ? 0 : constraints.size();
+			filterColumns = new int[ numFilters ]; filterOps = new int[ numFilters ]; filterZones = new int[ numFilters ];
+			filterValues = new DataValueDescriptor[ numFilters ];
+
+			try {
+				for ( int f=0; f<numFilters; f++ ) {
+					String[] term = constraints.get(f);
+					int col = getColumnIndex( term[0] );
+					if ( 0 > col ) throw new SQLException("Column '" + term[0] + "' is not in log-structured cache " + name);
+					filterColumns[f] = col;
+					filterOps[f] = Arrays.asList( OPERATORS ).indexOf( term[1] );
+					filterZones[f] = -1;
+					for ( int k=0; k<indexedColumns.length; k++ ) if ( col == indexedColumns[k] ) filterZones[f] = k;
+					String literal = term[2];
+					if ( literal.startsWith("'") ) literal = literal.substring( 1, literal.length()-1 ).replace("''", "'");
+					filterValues[f] = template[col].getNewNull();
+					filterValues[f].setValue( literal );
+				}
+			} catch ( StandardException e ) {
+				unpin( segments );
+				throw new SQLException("Invalid constraint value for log-structured cache " + name + ": " + e);
+			} catch ( SQLException e ) {
+				unpin( segments );
+				throw e;
+			}
+
+			outputColumns = new int[ outputColumnNames.length ];
+			for ( int i=0; i<outputColumns.length; i++ ) {
+				int col = null == template ? -1 : getColumnIndex( outputColumnNames[i] );
+				outputColumns[i] = -1 < col ? col : i;
+			}
+
+			cells = new DataValueDescriptor[ null == template ? 0 : template.length ];
+			for ( int i=0; i<cells.length; i++ ) cells[i] = template[i].getNewNull();
+		}
+
+		/**
+		 * Returns true if there is at least one row to fetch.
+		 */
+		boolean hasRows() throws Exception {
+			if ( !isRowPending ) isRowPending = advance();
+			return isRowPending;
+		}
+
+		boolean fetchNextRow( DataValueDescriptor[] row ) throws Exception {
+			if ( !isRowPending && !advance() ) return false;
+			isRowPending = false;
+			for ( int i=0; i<row.length && i<outputColumns.length; i++ ) {
+				int col = outputColumns[i];
+				if ( col < cells.length ) row[i].setValue( cells[col] );
+				else row[i].setToNull();
+			}
+			return true;
+		}
+
+		/**
+		 * Positions the scan before the first row again.
+		 */
+		void rewind() throws IOException {
+			closeSegmentFile();
+			segmentIndex = 0; blockIndex = -1; rowsLeftInBlock = 0;
+			isRowPending = false;
+		}
+
+		void close() {
+			if ( isClosed ) return;
+			isClosed = true;
+			try { closeSegmentFile(); } catch ( IOException e ) {}
+			unpin( segments );
+		}
+
+		// Decodes the next row satisfying the constraints into the cells
+		private boolean advance() throws Exception {
+			while ( true ) {
+				while ( 0 < rowsLeftInBlock ) {
+					rowsLeftInBlock--;
+					decodeRow();
+					if ( isBlockAllMatching || isRowMatching() ) return true;
+				}
+				if ( !nextBlock() ) return false;
+			}
+		}
+
+		private boolean nextBlock() throws IOException, StandardException {
+
+			while ( segmentIndex < segments.length ) {
+
+				Segment segment = segments[segmentIndex];
+
+				if ( -1 == blockIndex && null != segment.summary && ZONE_NO_MATCH == checkZone( segment.summary ) ) {
+					segmentIndex++;
+					continue;
+				}
+
+				if ( ++blockIndex < segment.blocks.length ) {
+					Block b = segment.blocks[blockIndex];
+					int zoneCheck = checkZone( b );
+					if ( ZONE_NO_MATCH == zoneCheck ) continue;
+					loadBlock( segment, b );
+					rowsLeftInBlock = b.numRows;
+					isBlockAllMatching = ZONE_ALL_MATCH == zoneCheck;
+					return true;
+				}
+
+				closeSegmentFile();
+				segmentIndex++;
+				blockIndex = -1;
+			}
+
+			return false;
+		}
+
+		private void loadBlock( Segment segment, Block b ) throws IOException {
+
+			byte[] data = segment.data;
+			if ( null != data ) {
+				if ( 0 == blockIndex ) touchInMemoryTier( segment );
+				block = data;
+				pos = b.offset;
+				return;
+			}
+
+			// The segment was spilled to disk
+			if ( null == segmentFile ) segmentFile = new RandomAccessFile( segment.file, "r" );
+			int length = segment.getBlockEnd( blockIndex ) - b.offset;
+			if ( null == blockBuffer || blockBuffer.length < length ) blockBuffer = new byte[ Math.max( length, BLOCK_SIZE ) ];
+			segmentFile.seek( b.offset );
+			segmentFile.readFully( blockBuffer, 0, length );
+			block = blockBuffer;
+			pos = 0;
+		}
+
+		private void closeSegmentFile() throws IOException {
+			if ( null != segmentFile ) { segmentFile.close(); segmentFile = null; }
+		}
+
+		// Checks the constraints against the min and max values of the indexed columns of a block
+		private int checkZone( Block b ) throws StandardException {
+
+			int result = ZONE_ALL_MATCH;
+
+			for ( int f=0; f<filterColumns.length; f++ ) {
+				int k = filterZones[f];
+				if ( -1 == k ) { result = ZONE_SOME_MATCH; continue; }
+				if ( null == b.mins[k] ) return ZONE_NO_MATCH; // Only nulls, which never satisfy a comparison
+
+				int lo = b.mins[k].compare( filterValues[f] ), hi = b.maxs[k].compare( filterValues[f] );
+				boolean isNone, isAll;
+				switch ( filterOps[f] ) {
+					case OP_EQ: isNone = 0 < lo || 0 > hi; isAll = 0 == lo && 0 == hi; break;
+					case OP_NE: isNone = 0 == lo && 0 == hi; isAll = 0 < lo || 0 > hi; break;
+					case OP_LT: isNone = 0 <= lo; isAll = 0 > hi; break;
+					case OP_LE: isNone = 0 < lo; isAll = 0 >= hi; break;
+					case OP_GT: isNone = 0 >= hi; isAll = 0 < lo; break;
+					default: isNone = 0 > hi; isAll = 0 <= lo; break; // OP_GE
+				}
+				if ( isNone ) return ZONE_NO_MATCH;
+				if ( !isAll || b.hasNulls[k] ) result = ZONE_SOME_MATCH;
+			}
+
+			return result;
+		}
+
+		private boolean isRowMatching() throws StandardException {
+			for ( int f=0; f<filterColumns.length; f++ ) {
+				DataValueDescriptor cell = cells[ filterColumns[f] ];
+				if ( cell.isNull() ) return false;
+				int c = cell.compare( filterValues[f] );
+				switch ( filterOps[f] ) {
+					case OP_EQ: if ( 0 != c ) return false; break;
+					case OP_NE: if ( 0 == c ) return false; break;
+					case OP_LT: if ( 0 <= c ) return false; break;
+					case OP_LE: if ( 0 < c ) return false; break;
+					case OP_GT: if ( 0 >= c ) return false; break;
+					default: if ( 0 > c ) return false; break; // OP_GE
+				}
+			}
+			return true;
+		}
+
+		private void decodeRow() throws StandardException {
+
+			int bitmapPos = pos;
+			pos += ( cells.length + 7 ) >> 3;
+
+			for ( int i=0; i<cells.length; i++ ) {
+				DataValueDescriptor cell = cells[i];
+				if ( 0 != ( block[ bitmapPos + (i>>3) ] & 1 << (i&7) ) ) { cell.setToNull(); continue; }
+				switch ( codecs[i] ) {
+					case T_INT: cell.setValue( getInt() ); break;
+					case T_LONG: cell.setValue( getLong() ); break;
+					case T_SHORT: cell.setValue( (short) ( ( block[pos++] & 0xff ) << 8 | block[pos++] & 0xff ) ); break;
+					case T_BYTE: cell.setValue( block[pos++] ); break;
+					case T_BOOLEAN: cell.setValue( 0 != block[pos++] ); break;
+					case T_DOUBLE: cell.setValue( Double.longBitsToDouble( getLong() ) ); break;
+					case T_FLOAT: cell.setValue( Float.intBitsToFloat( getInt() ) ); break;
+					case T_DATE: cell.setValue( new Date( getLong() ), calendar ); break;
+					case T_TIME: cell.setValue( new Time( getLong() ), calendar ); break;
+					case T_TIMESTAMP: Timestamp ts = new Timestamp( getLong() ); ts.setNanos( getInt() ); cell.setValue( ts, calendar ); break;
+					case T_BYTES: { int len = getVarInt(); byte[] b = new byte[len]; System.arraycopy( block, pos, b, 0, len ); pos += len; cell.setValue( b ); break; }
+					default: { int len = getVarInt(); cell.setValue( new String( block, pos, len, UTF8 ) ); pos += len; break; }
+				}
+			}
+		}
+
+		private int getVarInt() {
+			int v = 0;
+			for ( int shift = 0; ; shift += 7 ) {
+				byte b = block[pos++];
+				v |= ( b & 0x7f ) << shift;
+				if ( 0 == ( b & 0x80 ) ) return v;
+			}
+		}
+
+		private int getInt() {
+			return ( block[pos++] & 0xff ) << 24 | ( block[pos++] & 0xff ) << 16 | ( block[pos++] & 0xff ) << 8 | block[pos++] & 0xff;
+		}
+
+		private long getLong() {
+			return (long) getInt() << 32 | getInt() & 0xffffffffL;
+		}
+	}
+}
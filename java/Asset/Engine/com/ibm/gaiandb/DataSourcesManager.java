@@ -28,8 +28,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ibm.db2j.FileImport;
 import com.ibm.gaiandb.apps.HttpQueryInterface;
@@ -713,18 +722,20 @@ public class DataSourcesManager {
 		// data source id -> data source
 		Map<String, VTIWrapper> newDataSourcesOfChangedLTs = new HashMap<String, VTIWrapper>();
 		List<String> unchangedLTs = new ArrayList<String>();
+		List<LogicalTableReload> reloadedLTs = new ArrayList<LogicalTableReload>();
+		
+		// Compute all signatures in one pass over the config, rather than one pass per logical table
+		Map<String, Map<String, String>> ltNewSignatures = GaianDBConfig.getLogicalTableStructuralSignatures( ltsToCheck );
 		
 //		synchronized( oldLogicalTableViewNames ) {
 		
 			for ( Iterator<String> i=ltsToCheck.iterator(); i.hasNext(); ) { //int i=0; i<allLogicalTableNames.length; i++) {
 			
 				String logicalTable = i.next();
-				Map<String, String> ltNewSignature = null;
+				Map<String, String> ltOldSignature = ltConfigSignatures.get(logicalTable);
+				Map<String, String> ltNewSignature = ltNewSignatures.get(logicalTable);
 				
 				if ( isGaianConnectionsUnchanged ) {
-					Map<String, String> ltOldSignature = ltConfigSignatures.get(logicalTable);
-					ltNewSignature = GaianDBConfig.getLogicalTableStructuralSignature(logicalTable);
-					
 					if ( ltNewSignature.equals(ltOldSignature) ) {
 						logger.logDetail("Logical Table and dependencies unchanged for: " + logicalTable);
 						unchangedLTs.add(logicalTable);
@@ -738,12 +749,33 @@ public class DataSourcesManager {
 				
 	//			VTIWrapper[] vtiArray = (VTIWrapper[]) vtiArrays.remove(logicalTable);
 	//			if ( null != vtiArray ) checkCleanupVTIArray( vtiArray, logicalTable );
-				reloadLogicalTable( logicalTable, newDataSourcesOfChangedLTs );
+				LogicalTableReload reload = reloadLogicalTable( logicalTable, ltOldSignature, ltNewSignature, newDataSourcesOfChangedLTs );
+				if ( null != reload ) reloadedLTs.add( reload );
 				
-				if ( null != ltNewSignature ) ltConfigSignatures.put(logicalTable, ltNewSignature);
+				ltConfigSignatures.put(logicalTable, ltNewSignature);
 				
 			} // for all logical tables
 			
+			// Load the data sources of all reloaded logical tables concurrently - those that don't load in time are left pending.
+			Set<String> ltsHavingPendingDataSources = loadDataSourcesConcurrently( reloadedLTs, newDataSourcesOfChangedLTs );
+			
+			// Make the logical tables queryable with the data sources that did load.
+			for ( LogicalTableReload reload : reloadedLTs )
+				dsArrays.put( reload.ltName, reload.vtiArray );
+			
+			// Forget the signature parts of pending data sources, so their LTs get reloaded (and the sources attached) once they complete.
+			// Only their own properties are forgotten: the connection properties they share with other data sources are kept, so these
+			// still compare as unchanged and are carried over.
+			for ( String lt : ltsHavingPendingDataSources ) {
+				Map<String, String> ltSignature = ltConfigSignatures.get(lt);
+				if ( null == ltSignature ) continue;
+				ltSignature = new HashMap<String, String>( ltSignature );
+				for ( Map.Entry<String, String> pending : pendingDataSourceLoadsLTs.entrySet() )
+					if ( lt.equals( pending.getValue() ) )
+						ltSignature.keySet().removeAll( GaianDBConfig.getDataSourceOwnStructuralSignature(ltSignature, pending.getKey()).keySet() );
+				ltConfigSignatures.put(lt, ltSignature);
+			}
+			
 			// Drop all unloaded, new or changed views - only the unchanged views should remain untouched.
 //			dropOldLogicalTableViews( Util.setDisjunction( newLogicalTableViewNames, oldLogicalTableViewNames ) );
 //		}
@@ -763,6 +795,9 @@ public class DataSourcesManager {
 		// Remove all unchanged data sources under changed logical tables from the set of old data sources
 		oldDataSources.keySet().removeAll(newDataSourcesOfChangedLTs.keySet());
 		
+		// Data sources that are still loading (or completed late) will be picked up when their logical table is next reloaded
+		oldDataSources.keySet().removeAll(pendingDataSourceLoads.keySet());
+		
 		// Remove all data sources defined under unchanged LTs from the set of old data sources
 		for ( String lt : unchangedLTs )
 			for ( Iterator<String> it = oldDataSources.keySet().iterator() ; it.hasNext() ; )
@@ -1112,10 +1147,21 @@ public class DataSourcesManager {
 	 * We don't attempt to do this when setting a new table def in the API but rather as part of a global 
 	 * refresh from config so that we stay in sync with the config file.
 	 * 
+	 * The data sources defined under the logical table are not loaded here: their node def names are returned so they can be
+	 * loaded concurrently with those of other logical tables (see loadDataSourcesConcurrently()).
+	 * 
+	 * The old and new structural signatures of the logical table are compared to find which of its data sources have not changed.
+	 * If the logical table's own definition is also unchanged, these data sources are carried over as they are: i.e. without being
+	 * reinitialised, so their connection pools, in-memory rows and indexes are left untouched.
+	 * 
 	 * @param ltName
+	 * @param ltOldSignature - signature of the logical table when it was last loaded, or null
+	 * @param ltNewSignature - current signature of the logical table
 	 * @param newDataSources
+	 * @return the reload state of the logical table, or null if it was removed or its meta data could not be loaded.
 	 */
-	private static synchronized void reloadLogicalTable( String ltName, Map<String,VTIWrapper> newDataSources ) {
+	private static synchronized LogicalTableReload reloadLogicalTable( String ltName,
+			Map<String, String> ltOldSignature, Map<String, String> ltNewSignature, Map<String,VTIWrapper> newDataSources ) {
 		
 		String physicalColsDef = GaianDBConfig.getLogicalTableDef(ltName);
 		String specialColsDef = GaianDBConfig.getSpecialColumnsDef(ltName);
@@ -1127,13 +1173,14 @@ public class DataSourcesManager {
 			logger.logInfo("Removing ltrsmd entry for removed Logical Table: " + ltName);
 			ltrsmds.remove( ltName );
 			ltConfigDefsForViewReloadChecks.remove( ltName ); // triggers a reload of the ltrsmd and view if the LT is re-created in future.
-			return;
+			return null;
 		}
 		
 		GaianResultSetMetaData ltrsmd = null;
+		final boolean isLtrsmdReused = ltNewDef.equals(ltOldDef);
 		
 //		if ( null == ltrsmd || ! ltrsmd.wasBuiltFrom(physicalColsDef, specialColsDef) ) {
-		if ( ! ltNewDef.equals(ltOldDef) ) {
+		if ( ! isLtrsmdReused ) {
 			logger.logInfo("Logical Table definition changed for: " + ltName + ", ltNewDef = " + ltNewDef );
 
 			// This view will need reloading as the DEF has changed, so pretend it was never loaded
@@ -1145,7 +1192,7 @@ public class DataSourcesManager {
 				logger.logWarning(GDBMessages.ENGINE_LT_META_DATA_LOAD_ERROR, ltName + " Could not load table meta data so cannot reload table, cause: " + e);
 //				e.printStackTrace();
 				ltrsmds.remove( ltName );
-				return;
+				return null;
 			}
 			//		if ( null == ltrsmd ) throw new Exception("No definition found for Logical Table: " + ltName);
 			ltrsmds.put( ltName, ltrsmd );
@@ -1189,32 +1236,231 @@ public class DataSourcesManager {
 			vtiArray[j] = dataSource;
 		}
 		
+		Set<String> unchangedDataSources = new HashSet<String>();
+		
+		if ( isLtrsmdReused && null != ltOldSignature && GaianDBConfig.getLogicalTableOwnStructuralSignature(ltOldSignature, ltName).equals(
+				GaianDBConfig.getLogicalTableOwnStructuralSignature(ltNewSignature, ltName) ) )
+			for ( String nodeDefName : nodeDefNames )
+				if ( dataSources.containsKey(nodeDefName) && GaianDBConfig.getDataSourceStructuralSignature(ltOldSignature, nodeDefName).equals(
+						GaianDBConfig.getDataSourceStructuralSignature(ltNewSignature, nodeDefName) ) )
+					unchangedDataSources.add( nodeDefName );
+		
 		logger.logInfo( ltName + " physical nodes to be loaded: " +
-				( 0 == numNodes ? "None" : "" + Arrays.asList( nodeDefNames )) );
-		for (int j=0; j<numNodes; j++) {
+				( 0 == numNodes ? "None" : "" + Arrays.asList( nodeDefNames )) + ", unchanged (carried over): " + unchangedDataSources );
 		
-			String nodeDefName = nodeDefNames[j];
-
-			try {
-				dataSource = loadDataSource( ltName, nodeDefName );			
-			} catch ( Exception e ) {
-				String msg = "Unable to load data source " + nodeDefName + ": " + e;
-//				System.out.println(msg);
-				logger.logThreadWarning( GDBMessages.ENGINE_DS_LOAD_ERROR, msg );
-				continue;
+		return new LogicalTableReload( ltName, ltNewSignature, nodeDefNames, unchangedDataSources, vtiArray );
+	}
+	
+	// State of a logical table being reloaded: its physical data sources go in the first nodeDefNames.length slots of the vtiArray,
+	// followed by the global gaian connections.
+	private static class LogicalTableReload {
+		final String ltName;
+		final Map<String, String> ltSignature;
+		final String[] nodeDefNames;
+		final Set<String> unchangedDataSources;
+		final VTIWrapper[] vtiArray;
+		LogicalTableReload( String ltName, Map<String, String> ltSignature, String[] nodeDefNames, Set<String> unchangedDataSources, VTIWrapper[] vtiArray ) {
+			this.ltName = ltName; this.ltSignature = ltSignature;
+			this.nodeDefNames = nodeDefNames; this.unchangedDataSources = unchangedDataSources; this.vtiArray = vtiArray;
+		}
+		
+		// The config a data source of the logical table is loaded from - a data source loaded from a different config is obsolete
+		Map<String, String> getDataSourceLoadSignature( String nodeDefName ) {
+			Map<String, String> m = GaianDBConfig.getDataSourceStructuralSignature( ltSignature, nodeDefName );
+			m.putAll( GaianDBConfig.getLogicalTableOwnStructuralSignature( ltSignature, ltName ) );
+			return m;
+		}
+	}
+	
+	// Loads a single data source on a loader thread
+	private static class DataSourceLoad implements Callable<VTIWrapper> {
+		final String ltName, nodeDefName;
+		volatile long startTime = 0; // 0 until the load is picked up by a loader thread
+		DataSourceLoad( String ltName, String nodeDefName ) { this.ltName = ltName; this.nodeDefName = nodeDefName; }
+		public VTIWrapper call() throws Exception {
+			startTime = System.currentTimeMillis();
+			return loadDataSource( ltName, nodeDefName );
+		}
+	}
+	
+	private static ExecutorService dataSourceLoaders = null;
+	
+	// nodeDefName -> load that did not complete within DATASOURCE_LOAD_TIMEOUT_MS. The data source is attached to its logical table
+	// when the logical table is next reloaded after the load completes - see reloadLogicalTablesHavingCompletedDataSourceLoads().
+	private static final ConcurrentMap<String, Future<VTIWrapper>> pendingDataSourceLoads = new ConcurrentHashMap<String, Future<VTIWrapper>>();
+	private static final ConcurrentMap<String, String> pendingDataSourceLoadsLTs = new ConcurrentHashMap<String, String>();
+	private static final ConcurrentMap<String, Map<String, String>> pendingDataSourceLoadsSignatures = new ConcurrentHashMap<String, Map<String, String>>();
+	
+	// Set while logical tables are reloaded only to attach completed loads: data sources that need loading are then left pending
+	// straight away, so that the DataSourcesManager.class lock is not held whilst waiting for them.
+	private static boolean isAttachingCompletedLoadsOnly = false;
+	
+	/**
+	 * Loads the physical data sources of the given logical tables on a bounded pool of loader threads, giving each data source
+	 * DATASOURCE_LOAD_TIMEOUT_MS to load. This stops slow or unreachable back-ends from holding up the loading of other logical tables.
+	 * Data sources that don't load in time are left pending: the logical table is made available without them, and they get attached
+	 * when the logical table is next reloaded.
+	 * 
+	 * Note the calling thread usually holds the DataSourcesManager.class lock, so loadDataSource() must never try to acquire it.
+	 * 
+	 * @param reloadedLTs
+	 * @param newDataSources - receives all loaded data sources
+	 * @return the set of logical tables left with pending data source loads
+	 */
+	private static Set<String> loadDataSourcesConcurrently( List<LogicalTableReload> reloadedLTs, Map<String,VTIWrapper> newDataSources ) {
+		
+		Set<String> ltsHavingPendingDataSources = new HashSet<String>();
+		List<DataSourceLoad> loads = new ArrayList<DataSourceLoad>();
+		List<Future<VTIWrapper>> futures = new ArrayList<Future<VTIWrapper>>();
+		
+		final int numLoaderThreads = Math.max( 1, GaianDBConfig.getDataSourceLoadThreads() );
+		final long timeout = GaianDBConfig.getDataSourceLoadTimeoutMs();
+		
+		synchronized( pendingDataSourceLoads ) {
+			if ( null == dataSourceLoaders )
+				dataSourceLoaders = Executors.newFixedThreadPool( numLoaderThreads, new ThreadFactory() {
+			        private final AtomicInteger threadNumber = new AtomicInteger(1);
+			        public Thread newThread(Runnable r) {
+			        	Thread t = new Thread(r, "DataSourceLoader-"+threadNumber.getAndIncrement());
+			        	t.setDaemon(true);
+			        	return t;
+			        }
+				});
+		}
+		
+		int numCarriedOver = 0, numSubmitted = 0, numAttached = 0;
+		
+		for ( LogicalTableReload reload : reloadedLTs )
+			for ( int j=0; j<reload.nodeDefNames.length; j++ ) {
+				
+				String nodeDefName = reload.nodeDefNames[j];
+				
+				// Carry over unchanged data sources as they are
+				VTIWrapper unchangedDataSource = reload.unchangedDataSources.contains( nodeDefName ) ? dataSources.get( nodeDefName ) : null;
+				if ( null != unchangedDataSource ) {
+					newDataSources.put( nodeDefName, unchangedDataSource );
+					reload.vtiArray[j] = unchangedDataSource;
+					loads.add( null ); futures.add( null );
+					numCarriedOver++;
+					continue;
+				}
+				
+				Future<VTIWrapper> pending = pendingDataSourceLoads.get( nodeDefName );
+				if ( null != pending && !pending.isDone() ) {
+					logger.logInfo( nodeDefName + " Data source is still loading from a previous reload - leaving it pending" );
+					loads.add( null ); futures.add( null );
+					ltsHavingPendingDataSources.add( reload.ltName );
+					continue;
+				}
+				pendingDataSourceLoads.remove( nodeDefName );
+				pendingDataSourceLoadsLTs.remove( nodeDefName );
+				Map<String, String> pendingSignature = pendingDataSourceLoadsSignatures.remove( nodeDefName );
+				
+				if ( null != pending ) {
+					// The load completed after a previous reload gave up waiting for it: attach its data source, unless it is obsolete
+					VTIWrapper loaded = null;
+					try { loaded = pending.get(); }
+					catch ( ExecutionException e ) {
+						logger.logThreadWarning( GDBMessages.ENGINE_DS_LOAD_ERROR, "Unable to load data source " + nodeDefName + ": " + e.getCause() );
+					} catch ( Exception e ) {
+						logger.logThreadWarning( GDBMessages.ENGINE_DS_LOAD_ERROR, "Unable to get loaded data source " + nodeDefName + ": " + e );
+					}
+					
+					if ( null != loaded ) {
+						if ( reload.getDataSourceLoadSignature( nodeDefName ).equals( pendingSignature ) ) {
+							logger.logInfo( nodeDefName + " Attaching data source that completed loading after a previous reload" );
+							newDataSources.put( nodeDefName, loaded );
+							reload.vtiArray[j] = loaded;
+							loads.add( null ); futures.add( null );
+							numAttached++;
+							continue;
+						}
+						logger.logInfo( nodeDefName + " Closing data source that completed loading from a config that has since changed - reloading it" );
+						GaianNode.notifyDataSourcesToClose( Collections.singleton( loaded ) );
+					}
+				}
+				
+				DataSourceLoad load = new DataSourceLoad( reload.ltName, nodeDefName );
+				loads.add( load );
+				futures.add( dataSourceLoaders.submit( load ) );
+				numSubmitted++;
 			}
-			
-			newDataSources.put( nodeDefName, dataSource );
-			vtiArray[j] = dataSource;
-			
-		} // for all nodes defs of a logical table
-
-//		logger.logInfo("Number of gaian nodes for " + ltName + ": " + numGaianNodesForThisLogicalTable);
-//		if ( 0 == i || minGaianNodesInAnyLogicalTable > numGaianNodesForThisLogicalTable )
-//			minGaianNodesInAnyLogicalTable = numGaianNodesForThisLogicalTable;
 		
-		// Note here! it may be better to get the previous entry that may have existed for ltName out first and empty its array to facilitate garbage collection?
-		dsArrays.put( ltName, vtiArray );
+		// Loads not yet started by this time are abandoned too (e.g. if all loader threads are hung on unresponsive sources).
+		final long batchDeadline = isAttachingCompletedLoadsOnly ? 0 : System.currentTimeMillis() + timeout * ( 1 + numSubmitted / numLoaderThreads );
+		
+		int index = 0, numLoaded = 0;
+		for ( LogicalTableReload reload : reloadedLTs )
+			for ( int j=0; j<reload.nodeDefNames.length; j++ ) {
+				
+				DataSourceLoad load = loads.get( index );
+				Future<VTIWrapper> future = futures.get( index++ );
+				if ( null == load ) continue;
+				
+				VTIWrapper dataSource = null;
+				try {
+					while ( true ) {
+						long now = System.currentTimeMillis();
+						long deadline = Math.min( batchDeadline, 0 == load.startTime ? now + timeout : load.startTime + timeout );
+						if ( now >= deadline && !future.isDone() ) throw new TimeoutException();
+						try { dataSource = future.get( Math.max( 1, deadline - now ), TimeUnit.MILLISECONDS ); break; }
+						catch ( TimeoutException e ) { continue; } // re-evaluate the deadline now that the load may have started
+					}
+				} catch ( TimeoutException e ) {
+					if ( isAttachingCompletedLoadsOnly )
+						logger.logInfo( "Data source " + load.nodeDefName + " is loading - logical table " + reload.ltName +
+								" is available without it until it completes" );
+					else
+						logger.logThreadWarning( GDBMessages.ENGINE_DS_LOAD_ERROR, "Data source " + load.nodeDefName + " did not load within " + timeout +
+								"ms - logical table " + reload.ltName + " is available without it until it completes" );
+					pendingDataSourceLoads.put( load.nodeDefName, future );
+					pendingDataSourceLoadsLTs.put( load.nodeDefName, reload.ltName );
+					pendingDataSourceLoadsSignatures.put( load.nodeDefName, reload.getDataSourceLoadSignature( load.nodeDefName ) );
+					ltsHavingPendingDataSources.add( reload.ltName );
+					continue;
+				} catch ( ExecutionException e ) {
+					String msg = "Unable to load data source " + load.nodeDefName + ": " + e.getCause();
+					logger.logThreadWarning( GDBMessages.ENGINE_DS_LOAD_ERROR, msg );
+					continue;
+				} catch ( InterruptedException e ) {
+					logger.logThreadWarning( GDBMessages.ENGINE_DS_LOAD_ERROR, "Interrupted whilst loading data source " + load.nodeDefName + ": " + e );
+					continue;
+				}
+				
+				newDataSources.put( load.nodeDefName, dataSource );
+				reload.vtiArray[j] = dataSource;
+				numLoaded++;
+			}
+		
+		logger.logInfo("Loaded " + numLoaded + '/' + numSubmitted + " data sources using " + numLoaderThreads + " loader threads" +
+				", carried over " + numCarriedOver + " unchanged data sources, attached " + numAttached + " late loaded data sources" +
+				( ltsHavingPendingDataSources.isEmpty() ? "" : ", logical tables having pending data sources: " + ltsHavingPendingDataSources ) );
+		
+		return ltsHavingPendingDataSources;
+	}
+	
+	/**
+	 * Reloads logical tables for which previously pending data source loads have now completed, so these sources get attached.
+	 * This does not wait for any other data source of these logical tables that needs loading: it is left pending instead,
+	 * so the DataSourcesManager.class lock (which config refreshes also need) is only held briefly.
+	 */
+	static synchronized void reloadLogicalTablesHavingCompletedDataSourceLoads() {
+		
+		if ( pendingDataSourceLoads.isEmpty() ) return;
+		
+		Set<String> ltsToReload = new HashSet<String>();
+		for ( Map.Entry<String, Future<VTIWrapper>> e : pendingDataSourceLoads.entrySet() )
+			if ( e.getValue().isDone() ) {
+				String lt = pendingDataSourceLoadsLTs.get( e.getKey() );
+				if ( null != lt ) ltsToReload.add( lt );
+			}
+		
+		if ( ltsToReload.isEmpty() ) return;
+		
+		logger.logInfo("Reloading logical tables having completed pending data source loads: " + ltsToReload);
+		isAttachingCompletedLoadsOnly = true;
+		try { refresh( ltsToReload ); }
+		finally { isAttachingCompletedLoadsOnly = false; }
 	}
 	
 	/**
@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright IBM Corp. 2008
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb;
+
+import org.apache.derby.iapi.types.DataValueDescriptor;
+
+/**
+ * Adapts the number of rows per batch and the number of batches in circulation (the buffer depth) between the
+ * producer threads of a GaianResult and its consumer, within a memory limit for all the batches.
+ *
+ * Batches start small so that small results don't allocate large batches. The batch size doubles every time a producer fills
+ * a whole batch, as its data source evidently has more rows to stream.
+ * The buffer depth starts at enough batches for each producer to fill one while the consumer reads another, and it doubles
+ * whenever a producer would otherwise block waiting for the consumer to recycle a batch.
+ * Neither grows beyond the point where (batch size * buffer depth * row width) would exceed the memory limit, and the batch size
+ * shrinks back within the limit once the row width is known.
+ *
+ * A new instance is used for every execution of the query. Its sizes are read without locking by the producers and the consumer.
+ */
+class FetchBufferSizer {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2008";
+
+	private static final Logger logger = new Logger( "FetchBufferSizer", 30 );
+
+	static final int MIN_ROWS_BATCH_SIZE = 8;
+	static final int MAX_ROWS_BATCH_SIZE = 4096;
+
+	// Reference and array slot overheads of a row - added to the estimated memory usage of its cells
+	private static final int ROW_OVERHEAD_BYTES = 32;
+
+	private final long memoryLimitBytes;
+	private final int maxBufferDepth;
+	private final boolean isFixedBatchSize;
+
+	private volatile int batchSize;
+	private volatile int bufferDepth;
+	private volatile long rowWidth = 0; // unknown until a first row is fetched
+
+	/**
+	 * @param batchSize - initial rows per batch, or the fixed one if isFixedBatchSize is set (e.g. when batches are policy filtered)
+	 * @param maxBufferDepth - capacity of the result buffer, in batches
+	 * @param numProducers - number of producer threads
+	 * @param memoryLimitBytes - max memory to be held by the batches
+	 */
+	FetchBufferSizer( int batchSize, int maxBufferDepth, int numProducers, long memoryLimitBytes, boolean isFixedBatchSize ) {
+		this.isFixedBatchSize = isFixedBatchSize;
+		this.batchSize = isFixedBatchSize ? Math.max( 1, batchSize ) : Math.max( 1, Math.min( batchSize, MIN_ROWS_BATCH_SIZE ) );
+		this.maxBufferDepth = Math.max( 1, maxBufferDepth );
+		this.bufferDepth = Math.min( this.maxBufferDepth, Math.max( 2, 2*numProducers ) );
+		this.memoryLimitBytes = memoryLimitBytes;
+	}
+
+	int getBatchSize() { return batchSize; }
+	int getBufferDepth() { return bufferDepth; }
+	boolean isRowWidthKnown() { return 0 < rowWidth; }
+
+	private boolean isWithinMemoryLimit( long numBatches, long numRows ) {
+		return 0 == rowWidth || numBatches * numRows * rowWidth <= memoryLimitBytes;
+	}
+
+	/**
+	 * Sets the row width from the estimated memory usage of a fetched row, and shrinks the batch size if the buffered batches
+	 * could exceed the memory limit.
+	 */
+	synchronized void setRowWidth( DataValueDescriptor[] row ) {
+
+		if ( isRowWidthKnown() ) return;
+
+		long width = ROW_OVERHEAD_BYTES;
+		for ( DataValueDescriptor dvd : row ) width += dvd.estimateMemoryUsage();
+		rowWidth = width;
+
+		if ( isFixedBatchSize ) return;
+
+		int size = batchSize;
+		while ( 1 < size && !isWithinMemoryLimit( bufferDepth, size ) ) size /= 2;
+		if ( size != batchSize ) {
+			logger.logThreadInfo("Reduced rows batch size from " + batchSize + " to " + size + " for row width " + rowWidth + " bytes");
+			batchSize = size;
+		}
+	}
+
+	/**
+	 * Called when a producer fills a whole batch - doubles the batch size if the memory limit allows it for a full buffer.
+	 */
+	synchronized void batchFilled() {
+
+		if ( isFixedBatchSize || MAX_ROWS_BATCH_SIZE <= batchSize ) return;
+
+		int size = Math.min( MAX_ROWS_BATCH_SIZE, 2*batchSize );
+		if ( !isWithinMemoryLimit( bufferDepth, size ) ) return;
+
+		logger.logThreadDetail("Increased rows batch size from " + batchSize + " to " + size);
+		batchSize = size;
+	}
+
+	/**
+	 * Called when a producer finds no recycled batch and the buffer depth has been reached - doubles the depth
+	 * if the result buffer and the memory limit allow it, so that the producer needn't block.
+	 *
+	 * @param numBatchesBuilt - number of batches currently in circulation
+	 * @return true if the buffer depth was increased
+	 */
+	synchronized boolean growBufferDepth( int numBatchesBuilt ) {
+
+		if ( numBatchesBuilt < bufferDepth ) return true; // grown by another producer
+		if ( maxBufferDepth <= bufferDepth ) return false;
+
+		int depth = Math.min( maxBufferDepth, 2*bufferDepth );
+		while ( depth > bufferDepth && !isWithinMemoryLimit( depth, batchSize ) ) depth--;
+		if ( depth == bufferDepth ) return false;
+
+		logger.logThreadDetail("Increased fetch buffer depth from " + bufferDepth + " to " + depth + " batches");
+		bufferDepth = depth;
+		return true;
+	}
+
+	public String toString() {
+		return "batch size " + batchSize + ", buffer depth " + bufferDepth + ", row width " + rowWidth;
+	}
+}
@@ -48,6 +48,7 @@ import com.ibm.gaiandb.apps.SecurityClientAgent;
 import com.ibm.gaiandb.diags.GDBMessages;
 import com.ibm.gaiandb.lite.LiteDriver;
 import com.ibm.gaiandb.policyframework.SQLQueryFilter;
+import com.ibm.gaiandb.policyframework.SQLResultBatchFilterX;
 import com.ibm.gaiandb.policyframework.SQLResultFilter;
 import com.ibm.gaiandb.utils.DriverWrapper;
 
@@ -117,6 +118,7 @@ public class GaianDBConfig {
 //	private static File sysInfoFile = null;
 	
 	private static long latestLoadedPropertiesFileTimestamp = 0;
+	private static volatile int numPropertiesLoads = 0; // lets derived settings be cached until the properties are reloaded
 	
 	// upr contains user properties and spr contains system properties, e.g. DISCOVERED_GAIAN_CONNECTIONS and the connection defs themselves.
 	static Properties upr = null, spr = new Properties();
@@ -189,6 +191,7 @@ public class GaianDBConfig {
 	static final String MAP_COLUMNS_BY_POSITION = "MAP_COLUMNS_BY_POSITION"; // IGNORE_PHYSICAL_SCHEMA, MIRRORED_LT_DEF = Ignore physical columns definition.
 	
 	static final String CONSTANTS_SUFFIX = "_CONSTANTS";
+	static final String DEDUP_SUFFIX = "_DEDUP";
 	static final String NODE_CONSTANTS = "NODE_CONSTANTS";
 	
 	static final String COLUMN_LABEL = "_C";
@@ -253,6 +256,75 @@ public class GaianDBConfig {
 		return getIntPropertyOrDefault(ROWS_BATCH_SIZE, DEFAULT_ROWS_BATCH_SIZE);
 	}
 	
+	// Max memory held by the row batches of a GaianResult, within which batch size and fetch buffer depth are adapted.
+	private static final String FETCH_BUFFER_MEMORY_LIMIT_MB = "FETCH_BUFFER_MEMORY_LIMIT_MB";
+	private static final int DEFAULT_FETCH_BUFFER_MEMORY_LIMIT_MB = 16;
+	public static int getFetchBufferMemoryLimitMB() {
+		return getIntPropertyOrDefault(FETCH_BUFFER_MEMORY_LIMIT_MB, DEFAULT_FETCH_BUFFER_MEMORY_LIMIT_MB);
+	}
+	
+	// Workload classes, in matching order. Queries are assigned the first class whose WORKLOAD_PATTERN matches their GDB_WID.
+	private static final String WORKLOAD_CLASSES = "WORKLOAD_CLASSES";
+	public static String[] getWorkloadClasses() {
+		return Util.splitByCommas( getUserProperty(WORKLOAD_CLASSES) );
+	}
+	
+	// Properties of a workload class: <class>_WORKLOAD_PATTERN is a regular expression matching GDB_WID values. Classes with a higher 
+	// PRIORITY get threads first. WEIGHT sets the share of threads and buffer memory between classes of equal priority. MAX_THREADS
+	// limits the number of data source threads running concurrently for the class (0 = no limit).
+	private static final String WORKLOAD_PATTERN_SUFFIX = "_WORKLOAD_PATTERN";
+	private static final String WORKLOAD_PRIORITY_SUFFIX = "_WORKLOAD_PRIORITY";
+	private static final String WORKLOAD_WEIGHT_SUFFIX = "_WORKLOAD_WEIGHT";
+	private static final String WORKLOAD_MAX_THREADS_SUFFIX = "_WORKLOAD_MAX_THREADS";
+	public static String getWorkloadPattern( String workloadClass ) {
+		return getStringPropertyOrDefault(workloadClass + WORKLOAD_PATTERN_SUFFIX, null);
+	}
+	public static int getWorkloadPriority( String workloadClass ) {
+		return getIntPropertyOrDefault(workloadClass + WORKLOAD_PRIORITY_SUFFIX, 0);
+	}
+	public static int getWorkloadWeight( String workloadClass ) {
+		return getIntPropertyOrDefault(workloadClass + WORKLOAD_WEIGHT_SUFFIX, 1);
+	}
+	public static int getWorkloadMaxThreads( String workloadClass ) {
+		return getIntPropertyOrDefault(workloadClass + WORKLOAD_MAX_THREADS_SUFFIX, 0);
+	}
+	
+	// Max number of data source threads running concurrently for all workload classes (0 = no limit). When it is reached, 
+	// queued threads are started in order of workload class priority as others complete.
+	private static final String WORKLOAD_MAX_THREADS = "WORKLOAD_MAX_THREADS";
+	private static final int DEFAULT_WORKLOAD_MAX_THREADS = 0;
+	public static int getWorkloadMaxThreads() {
+		return getIntPropertyOrDefault(WORKLOAD_MAX_THREADS, DEFAULT_WORKLOAD_MAX_THREADS);
+	}
+	
+	// Compression of blob values transferred between Gaian nodes: ADAPTIVE (chosen for each link from the transfer rates measured
+	// with and without it), ALWAYS or NEVER. Only values of at least LOB_TRANSFER_COMPRESSION_MIN_BYTES are compressed.
+	private static final String LOB_TRANSFER_COMPRESSION = "LOB_TRANSFER_COMPRESSION";
+	private static final String DEFAULT_LOB_TRANSFER_COMPRESSION = "ADAPTIVE";
+	public static String getLobTransferCompression() {
+		return getStringPropertyOrDefault(LOB_TRANSFER_COMPRESSION, DEFAULT_LOB_TRANSFER_COMPRESSION).toUpperCase();
+	}
+	private static final String LOB_TRANSFER_COMPRESSION_MIN_BYTES = "LOB_TRANSFER_COMPRESSION_MIN_BYTES";
+	private static final int DEFAULT_LOB_TRANSFER_COMPRESSION_MIN_BYTES = 1024;
+	public static int getLobTransferCompressionMinBytes() {
+		return getIntPropertyOrDefault(LOB_TRANSFER_COMPRESSION_MIN_BYTES, DEFAULT_LOB_TRANSFER_COMPRESSION_MIN_BYTES);
+	}
+	
+	// Memory allowed to each query on each node for eliminating the duplicate rows of a logical table declared with <LT>_DEDUP.
+	private static final String DEDUP_MEMORY_LIMIT_MB = "DEDUP_MEMORY_LIMIT_MB";
+	private static final int DEFAULT_DEDUP_MEMORY_LIMIT_MB = 16;
+	public static int getDedupMemoryLimitMB() {
+		return getIntPropertyOrDefault(DEDUP_MEMORY_LIMIT_MB, DEFAULT_DEDUP_MEMORY_LIMIT_MB);
+	}
+	
+	// Max number of instances of a PLURALIZED data source that a query reads concurrently (0 = no limit). The threads take the
+	// remaining instances in turn as they finish with one. A data source may override this with option: MAX THREADS <n>
+	private static final String PLURALIZED_INSTANCES_MAX_THREADS = "PLURALIZED_INSTANCES_MAX_THREADS";
+	private static final int DEFAULT_PLURALIZED_INSTANCES_MAX_THREADS = 8;
+	public static int getPluralizedInstancesMaxThreads() {
+		return getIntPropertyOrDefault(PLURALIZED_INSTANCES_MAX_THREADS, DEFAULT_PLURALIZED_INSTANCES_MAX_THREADS);
+	}
+	
 	// Fetch buffer sizes for result rows and recycled rows in GaianResult.
 	private static final String DISK_CACHING_THRESHOLD_FOR_JOINED_INNER_TABLES = "DISK_CACHING_THRESHOLD_FOR_JOINED_INNER_TABLES";
 	private static final long DEFAULT_DISK_CACHING_THRESHOLD_FOR_JOINED_INNER_TABLES = 1000;
@@ -260,6 +332,19 @@ public class GaianDBConfig {
 		return getLongPropertyOrDefault(DISK_CACHING_THRESHOLD_FOR_JOINED_INNER_TABLES, DEFAULT_DISK_CACHING_THRESHOLD_FOR_JOINED_INNER_TABLES);
 	}
 	
+	// Backend of the row caches of VTIs extending AbstractVTI (unless set by their cache.backend property): LOG for log-structured
+	// in-memory and disk segments, or DERBY for tables in the CACHE schema. Segments are held in memory within VTI_CACHE_MEMORY_LIMIT_MB.
+	private static final String VTI_CACHE_BACKEND = "VTI_CACHE_BACKEND";
+	private static final String DEFAULT_VTI_CACHE_BACKEND = "LOG";
+	public static String getVTICacheBackend() {
+		return getStringPropertyOrDefault(VTI_CACHE_BACKEND, DEFAULT_VTI_CACHE_BACKEND).toUpperCase();
+	}
+	private static final String VTI_CACHE_MEMORY_LIMIT_MB = "VTI_CACHE_MEMORY_LIMIT_MB";
+	private static final int DEFAULT_VTI_CACHE_MEMORY_LIMIT_MB = 64;
+	public static int getVTICacheMemoryLimitMB() {
+		return getIntPropertyOrDefault(VTI_CACHE_MEMORY_LIMIT_MB, DEFAULT_VTI_CACHE_MEMORY_LIMIT_MB);
+	}
+	
 	// Denis : NETWORK_DRIVER definition
 	// NETWORK_DRIVER indicates the driver to use for the communication between the nodes
 	// At the moment, it can be : JDBC Derby driver (TCP) or the GaianDB UDP Driver
@@ -335,6 +420,41 @@ public class GaianDBConfig {
 //		return getIntPropertyOrDefault(JDBC_CONNECTION_ATTEMPT_TIMEOUT_MS, DEFAULT_JDBC_CONNECTION_ATTEMPT_TIMEOUT_MS);
 //	}
 	
+	// Number of threads used to load the data sources of logical tables concurrently when the config is (re)loaded.
+	private static final String DATASOURCE_LOAD_THREADS = "DATASOURCE_LOAD_THREADS";
+	private static final int DEFAULT_DATASOURCE_LOAD_THREADS = 8;
+	public static int getDataSourceLoadThreads() {
+		return getIntPropertyOrDefault(DATASOURCE_LOAD_THREADS, DEFAULT_DATASOURCE_LOAD_THREADS);
+	}
+	
+	// Time given to a data source to load before its logical table is made available without it. It is attached once it completes.
+	private static final String DATASOURCE_LOAD_TIMEOUT_MS = "DATASOURCE_LOAD_TIMEOUT_MS";
+	private static final int DEFAULT_DATASOURCE_LOAD_TIMEOUT_MS = 10000;
+	public static int getDataSourceLoadTimeoutMs() {
+		return getIntPropertyOrDefault(DATASOURCE_LOAD_TIMEOUT_MS, DEFAULT_DATASOURCE_LOAD_TIMEOUT_MS);
+	}
+	
+	// Number of row decisions memoised by batched policy plugins (extending SQLResultBatchFilterX). 0 disables memoisation.
+	private static final String POLICY_DECISION_CACHE_SIZE = "POLICY_DECISION_CACHE_SIZE";
+	private static final int DEFAULT_POLICY_DECISION_CACHE_SIZE = 10000;
+	public static int getPolicyDecisionCacheSize() {
+		return getIntPropertyOrDefault(POLICY_DECISION_CACHE_SIZE, DEFAULT_POLICY_DECISION_CACHE_SIZE);
+	}
+
+	// Time for which a memoised row decision remains valid - this should not exceed the policy plugin's own policy refresh period.
+	private static final String POLICY_DECISION_CACHE_TTL_MS = "POLICY_DECISION_CACHE_TTL_MS";
+	private static final int DEFAULT_POLICY_DECISION_CACHE_TTL_MS = 5000;
+	public static int getPolicyDecisionCacheTTLMs() {
+		return getIntPropertyOrDefault(POLICY_DECISION_CACHE_TTL_MS, DEFAULT_POLICY_DECISION_CACHE_TTL_MS);
+	}
+
+	// Number of threads shared by batched policy plugins to evaluate large batches in parallel. 0 or 1 evaluates in the query's own thread.
+	private static final String POLICY_EVALUATION_THREADS = "POLICY_EVALUATION_THREADS";
+	private static final int DEFAULT_POLICY_EVALUATION_THREADS = 0;
+	public static int getPolicyEvaluationThreads() {
+		return getIntPropertyOrDefault(POLICY_EVALUATION_THREADS, DEFAULT_POLICY_EVALUATION_THREADS);
+	}
+
 	// Maximum number of gaian connections that may be discovered (outbound (maintained) + inbound)
 	private static final String MAX_DISCOVERED_CONNECTIONS = "MAX_DISCOVERED_CONNECTIONS";
 	private static final int DEFAULT_MAX_DISCOVERED_CONNECTIONS = 10;
@@ -342,6 +462,22 @@ public class GaianDBConfig {
 		return getIntPropertyOrDefault(MAX_DISCOVERED_CONNECTIONS, DEFAULT_MAX_DISCOVERED_CONNECTIONS);
 	}
 	
+	// Time for which a successfully verified credentials block is trusted without being decrypted and authenticated again.
+	private static final String SECURITY_CREDENTIALS_CACHE_TTL_MS = "SECURITY_CREDENTIALS_CACHE_TTL_MS";
+	private static final int DEFAULT_SECURITY_CREDENTIALS_CACHE_TTL_MS = 30000;
+	public static int getSecurityCredentialsCacheTTLMs() {
+		return getIntPropertyOrDefault(SECURITY_CREDENTIALS_CACHE_TTL_MS, DEFAULT_SECURITY_CREDENTIALS_CACHE_TTL_MS);
+	}
+
+	// Secret shared by nodes of a network, used to sign session tokens forwarded with propagated queries. No tokens are issued if unset.
+	private static final String SECURITY_SESSION_TOKEN_SECRET = "SECURITY_SESSION_TOKEN_SECRET";
+	public static String getSecuritySessionTokenSecret() {
+		String s = getUserProperty(SECURITY_SESSION_TOKEN_SECRET);
+		if ( null == s || 0 == (s = s.trim()).length() ) return null;
+		// Unscramble if necessary - as for passwords, the scrambling key is the property name
+		return '\'' == s.charAt(0) ? unscramble(s.substring(1), SECURITY_SESSION_TOKEN_SECRET) : s;
+	}
+
 	private static final String LOGFILE_MAX_SIZE_MB = "LOGFILE_MAX_SIZE_MB";
 	private static final int DEFAULT_LOGFILE_MAX_SIZE_MB = 100;
 	public static int getLogfileMaxSizeMB() {
@@ -363,7 +499,16 @@ public class GaianDBConfig {
 				{ ALLOW_SQL_API_CONFIGURATION, Boolean.toString(DEFAULT_ALLOW_SQL_API_CONFIGURATION) },
 				{ FETCH_BUFFER_SIZE, Integer.toString(DEFAULT_FETCH_BUFFER_SIZE) },
 				{ ROWS_BATCH_SIZE, Integer.toString(DEFAULT_ROWS_BATCH_SIZE) },
+				{ FETCH_BUFFER_MEMORY_LIMIT_MB, Integer.toString(DEFAULT_FETCH_BUFFER_MEMORY_LIMIT_MB) },
+				{ WORKLOAD_CLASSES, "<no workload classes>" },
+				{ WORKLOAD_MAX_THREADS, Integer.toString(DEFAULT_WORKLOAD_MAX_THREADS) },
+				{ LOB_TRANSFER_COMPRESSION, DEFAULT_LOB_TRANSFER_COMPRESSION },
+				{ LOB_TRANSFER_COMPRESSION_MIN_BYTES, Integer.toString(DEFAULT_LOB_TRANSFER_COMPRESSION_MIN_BYTES) },
+				{ DEDUP_MEMORY_LIMIT_MB, Integer.toString(DEFAULT_DEDUP_MEMORY_LIMIT_MB) },
+				{ PLURALIZED_INSTANCES_MAX_THREADS, Integer.toString(DEFAULT_PLURALIZED_INSTANCES_MAX_THREADS) },
 				{ DISK_CACHING_THRESHOLD_FOR_JOINED_INNER_TABLES, Long.toString(DEFAULT_DISK_CACHING_THRESHOLD_FOR_JOINED_INNER_TABLES) },
+				{ VTI_CACHE_BACKEND, DEFAULT_VTI_CACHE_BACKEND },
+				{ VTI_CACHE_MEMORY_LIMIT_MB, Integer.toString(DEFAULT_VTI_CACHE_MEMORY_LIMIT_MB) },
 				{ NETWORK_DRIVER, DEFAULT_NETWORK_DRIVER },
 				{ NETWORK_DRIVER_GDBUDP_DATAGRAMSIZE, Integer.toString(DEFAULT_NETWORK_DRIVER_GDBUDP_DATAGRAMSIZE) },
 				{ NETWORK_DRIVER_GDBUDP_TIMEOUT, Integer.toString(DEFAULT_NETWORK_DRIVER_GDBUDP_TIMEOUT) },
@@ -614,9 +759,15 @@ public class GaianDBConfig {
 		final String className = getPolicyClassNameForSQLResultFilter();
 		
 		// return if policy is disabled or if it has already been initialized.
-		if ( null == className ) { lastLoadedPolicyClass = null; return; }
+		if ( null == className ) {
+			if ( null != lastLoadedPolicyClass ) SQLResultBatchFilterX.clearDecisionCache();
+			lastLoadedPolicyClass = null; return;
+		}
 		if ( className.equals(lastLoadedPolicyClass) ) return;
 		
+		// Decisions memoised for the previous policy class no longer apply
+		SQLResultBatchFilterX.clearDecisionCache();
+		
 		System.out.println("Loading policy class: " + className);
 		
 		// GaianDBConfig.class.getClassLoader().loadClass( className ); // not as effective as Class.forName() used below
@@ -1029,6 +1180,7 @@ public class GaianDBConfig {
 
 //				logger.logInfo("Updating config file lastModified from: " + latestLoadedPropertiesFileTimestamp + ", to: " + latestConfigFileLastModified + ", stack trace: " + Util.getStackTraceDigest());
 				latestLoadedPropertiesFileTimestamp = latestConfigFileLastModified;
+				numPropertiesLoads++;
 				
 				if ( null != derbyProperties ) {
 					derbyGaianNodePassword = derbyProperties.getProperty("derby.user." + getGaianNodeUser());
@@ -1377,6 +1529,125 @@ public class GaianDBConfig {
 		return null; // only return null if INMEMORY is not even set.
 	}
 	
+	static final String SPATIAL_INDEX = "SPATIAL";
+	
+	/**
+	 * Returns the physical source col ids of the x and y coordinates to index with an R-tree, as set by data source option:
+	 * SPATIAL INDEX ON <x col name> <y col name>
+	 * 
+	 * If INMEMORY is not set, or if PLURALIZED *is set*, or if the option is not set or invalid (including if a column isn't numeric),
+	 * then null is returned.
+	 */
+	public static int[] getInMemorySpatialIndexColumns( String nodeDefName, String[] ltPhysicaColNames, int[] columnsMapping,
+			GaianResultSetMetaData ltrsmd ) {
+		
+		if ( !isNodeInMemoryOptionSet( nodeDefName ) || isNodePluralizedOptionSet( nodeDefName ) ) return null;
+		
+		String[] options = getDataSourceOptions( nodeDefName );
+		for (int i=0; i<options.length; i++) {
+			
+			String[] elmts = Util.splitByTrimmedDelimiter( options[i], ' ' );
+			if ( !elmts[0].equals( SPATIAL_INDEX ) ) continue;
+			
+			if ( 5 != elmts.length || !elmts[1].equals("INDEX") || !elmts[2].equals("ON") ) {
+				logger.logThreadWarning( GDBMessages.CONFIG_INDEX_DEF_ERROR, nodeDefName + 
+						" getInMemorySpatialIndexColumns(): Incorrect index definition (ignored), should be: SPATIAL INDEX ON <x col_name> <y col_name>" );
+				return null;
+			}
+			
+			int[] pSourceColIndexes = { -1, -1 };
+			for ( int j=0; j<2; j++ ) {
+				int ltColType = 0;
+				for ( int k=0; k<ltPhysicaColNames.length; k++ )
+					if ( ltPhysicaColNames[k].equals( elmts[3+j] ) ) {
+						pSourceColIndexes[j] = columnsMapping[k];
+						ltColType = ltrsmd.getColumnType(k+1);
+						break;
+					}
+				
+				if ( -1 == pSourceColIndexes[j] ) {
+					logger.logThreadWarning( GDBMessages.CONFIG_COLUMN_NOT_RECOGNISED, 
+							nodeDefName + " getInMemorySpatialIndexColumns(): Unrecognised physical column name for spatial indexing: " + elmts[3+j] );
+					return null;
+				}
+				
+				TypeId typeId = TypeId.getBuiltInTypeId(ltColType);
+				if ( null == typeId || !typeId.isNumericTypeId() ) {
+					logger.logThreadWarning( GDBMessages.CONFIG_INDEX_DEF_ERROR, nodeDefName + " getInMemorySpatialIndexColumns(): Spatial index column " +
+							elmts[3+j] + " is not numeric" + ( null == typeId ? "" : " (" + typeId.getSQLTypeName() + ")" ) + " - spatial index ignored" );
+					return null;
+				}
+			}
+			
+			return pSourceColIndexes;
+		}
+		
+		return null;
+	}
+	
+	static final String MAX_THREADS = "MAX";
+	
+	/**
+	 * Returns the max number of instances of a PLURALIZED data source that a query reads concurrently, as set by data source option:
+	 * MAX THREADS <n>
+	 * 
+	 * If the option is not set or invalid, PLURALIZED_INSTANCES_MAX_THREADS is returned. 0 means there is no limit.
+	 */
+	public static int getNodePluralizedMaxThreads( String nodeDefName ) {
+		
+		String[] options = getDataSourceOptions( nodeDefName );
+		for (int i=0; i<options.length; i++) {
+			
+			String[] elmts = Util.splitByTrimmedDelimiter( options[i], ' ' );
+			if ( !elmts[0].equals( MAX_THREADS ) ) continue;
+			
+			try {
+				if ( 3 == elmts.length && elmts[1].equals("THREADS") ) return Math.max( 0, Integer.parseInt( elmts[2] ) );
+			} catch ( NumberFormatException e ) {}
+			
+			logger.logThreadWarning( GDBMessages.CONFIG_MAX_THREADS_DEF_ERROR, nodeDefName + 
+					" getNodePluralizedMaxThreads(): Incorrect max threads definition (ignored), should be: MAX THREADS <n>" );
+			break;
+		}
+		
+		return getPluralizedInstancesMaxThreads();
+	}
+	
+	static final String REPLICA = "REPLICA";
+	
+	/**
+	 * Returns the name of the group of replicas that a data source belongs to, as set by data source option:
+	 * REPLICA GROUP <group name>
+	 * 
+	 * Data sources of a logical table that are in the same replica group hold the same rows, so only one of them needs to be queried.
+	 * If PLURALIZED is set, or if the option is not set or invalid, then null is returned.
+	 */
+	public static String getNodeReplicaGroup( String nodeDefName ) {
+		
+		String[] options = getDataSourceOptions( nodeDefName );
+		for (int i=0; i<options.length; i++) {
+			
+			String[] elmts = Util.splitByTrimmedDelimiter( options[i], ' ' );
+			if ( !elmts[0].equals( REPLICA ) ) continue;
+			
+			if ( 3 != elmts.length || !elmts[1].equals("GROUP") ) {
+				logger.logThreadWarning( GDBMessages.CONFIG_REPLICA_DEF_ERROR, nodeDefName + 
+						" getNodeReplicaGroup(): Incorrect replica definition (ignored), should be: REPLICA GROUP <group_name>" );
+				return null;
+			}
+			
+			if ( isNodePluralizedOptionSet( nodeDefName ) ) {
+				logger.logThreadWarning( GDBMessages.CONFIG_REPLICA_DEF_ERROR, nodeDefName + 
+						" getNodeReplicaGroup(): PLURALIZED data sources cannot be replicas (ignored)" );
+				return null;
+			}
+			
+			return elmts[2];
+		}
+		
+		return null;
+	}
+	
 	public static boolean isPropertyPotentiallyImpactingALogicalTable( String key ) {
 		
 		if ( null == key ) return false;
@@ -1450,6 +1721,11 @@ public class GaianDBConfig {
 		return prop;//.split(",");
 	}
 	
+	/**
+	 * Returns the number of times the user properties were loaded - settings derived from them are out of date when this changes.
+	 */
+	static int getNumPropertiesLoads() { return numPropertiesLoads; }
+	
 	public static boolean isRegistryNeedsReloadingFromFile() {
 		try {
 			
@@ -1706,6 +1982,104 @@ public class GaianDBConfig {
 		return m;
     }
     		
+    /**
+     * Computes the structural signatures of a set of logical tables in a single pass over the properties.
+     * The result for each logical table is the same as getLogicalTableStructuralSignature() would return for it.
+     * 
+     * @param ltnames
+     * @return logical table name -> structural signature
+     */
+    static Map<String, Map<String, String>> getLogicalTableStructuralSignatures( Set<String> ltnames ) {
+    	
+    	Map<String, Map<String, String>> signatures = new HashMap<String, Map<String, String>>();
+    	Map<String, Set<String>> referencedConnections = new HashMap<String, Set<String>>();
+    	
+    	String nodeConstants = getUserProperty(NODE_CONSTANTS);
+    	for ( String lt : ltnames ) {
+    		Map<String, String> m = new HashMap<String, String>();
+    		m.put( NODE_CONSTANTS, nodeConstants );
+    		signatures.put( lt, m );
+    		referencedConnections.put( lt, new HashSet<String>() );
+    	}
+    	
+    	if ( null == upr ) reloadUserProperties();
+    	
+		synchronized( upr ) {
+			for ( Iterator<Object> i = upr.keySet().iterator(); i.hasNext(); ) {
+				String key = ((String) i.next()).toUpperCase();
+				
+				// Find the logical tables this property belongs to - i.e. having the same matching rules as getLogicalTableStructuralSignature()
+				Set<String> owners = new HashSet<String>();
+				for ( String suffix : new String[] { LTDEF_SUFFIX, CONSTANTS_SUFFIX } )
+					if ( key.endsWith( suffix ) ) owners.add( key.substring(0, key.length() - suffix.length()) );
+				for ( int idx = key.indexOf("_DS"); -1 != idx; idx = key.indexOf("_DS", idx+1) )
+					owners.add( key.substring(0, idx) );
+				owners.retainAll( ltnames );
+				if ( owners.isEmpty() ) continue;
+				
+				String value = getUserProperty(key);
+				String cid = null;
+				if ( key.endsWith(CONNECTION_SUFFIX) && null != value && 0 < value.length() ) {
+					int spacepos = value.indexOf(' ');
+					cid = -1 == spacepos ? value : value.substring(0, spacepos);
+				}
+				
+				for ( String lt : owners ) {
+					signatures.get(lt).put( key, value );
+					if ( null != cid && key.startsWith( lt + "_DS" ) ) referencedConnections.get(lt).add( cid );
+				}
+			}
+			
+			synchronized( spr ) {
+				for ( String lt : ltnames )
+					for ( String cid : referencedConnections.get(lt) )
+						for ( String key : new String[] { cid + LABEL_DRIVER, cid + LABEL_URL, cid + LABEL_USR, cid + LABEL_PWD } )
+							signatures.get(lt).put( key, getCrossOverProperty(key) );
+			}
+		}
+		return signatures;
+    }
+    
+    /**
+     * Extracts the part of a logical table's structural signature (see getLogicalTableStructuralSignature()) which relates to
+     * the logical table itself rather than to any of its data sources, i.e. its definition and constant columns.
+     */
+    static Map<String, String> getLogicalTableOwnStructuralSignature( Map<String, String> ltSignature, String ltname ) {
+    	Map<String, String> m = new HashMap<String, String>();
+    	for ( String key : new String[] { NODE_CONSTANTS, ltname + LTDEF_SUFFIX, ltname + CONSTANTS_SUFFIX } )
+    		m.put( key, ltSignature.get(key) );
+    	return m;
+    }
+    
+    /**
+     * Extracts the part of a logical table's structural signature (see getLogicalTableStructuralSignature()) which relates to
+     * one of its data sources, i.e. the data source's own properties and those of the RDBMS connection it references.
+     */
+    static Map<String, String> getDataSourceStructuralSignature( Map<String, String> ltSignature, String nodeDefName ) {
+    	Map<String, String> m = getDataSourceOwnStructuralSignature( ltSignature, nodeDefName );
+    	
+    	String connectionDef = ltSignature.get( nodeDefName + CONNECTION_SUFFIX );
+    	if ( null != connectionDef && 0 < connectionDef.length() ) {
+    		int spacepos = connectionDef.indexOf(' ');
+    		String cid = -1 == spacepos ? connectionDef : connectionDef.substring(0, spacepos);
+    		for ( String key : new String[] { cid + LABEL_DRIVER, cid + LABEL_URL, cid + LABEL_USR, cid + LABEL_PWD } )
+    			m.put( key, ltSignature.get(key) );
+    	}
+    	return m;
+    }
+    
+    /**
+     * Extracts the part of a logical table's structural signature which holds a data source's own properties, i.e. excluding those
+     * of the RDBMS connection it references, which may be shared with other data sources.
+     */
+    static Map<String, String> getDataSourceOwnStructuralSignature( Map<String, String> ltSignature, String nodeDefName ) {
+    	Map<String, String> m = new HashMap<String, String>();
+    	String prefix = nodeDefName + "_"; // note LT_DS1_ does not match properties of LT_DS10
+    	for ( Map.Entry<String, String> e : ltSignature.entrySet() )
+    		if ( e.getKey().startsWith( prefix ) ) m.put( e.getKey(), e.getValue() );
+    	return m;
+    }
+    
 	public static Set<String> getDataSourceDefs( String logicalTableName ) {
 
 		HashSet<String> nodeDefs = new HashSet<String>();
@@ -2167,6 +2541,18 @@ public class GaianDBConfig {
 			( 0 == variableColumns.length() ? constantCols : variableColumns + ", " + constantCols );
 	}
 
+	/**
+	 * Returns the duplicate rows elimination declared for a logical table, e.g. "KEY ID" or "ROW APPROXIMATE" (see RowsDeduplicator),
+	 * or null if there is none. Column names are folded to upper case like those of the logical table definition, and may be separated
+	 * by commas or spaces - commas are replaced with spaces as the value is passed on in the table arguments of propagated queries.
+	 */
+	public static String getLogicalTableDedup( String ltName ) {
+		String dedup = getUserProperty(ltName+DEDUP_SUFFIX);
+		if ( null == dedup ) return null;
+		dedup = dedup.replace( ',', ' ' ).trim().replaceAll( "\\s+", " " );
+		return 0 == dedup.length() ? null : dedup.toUpperCase();
+	}
+
 //	/**
 //	 * Split definition into columns array, and include any constant columns that may be
 //	 * associated with the given table name. As constant node columns are associated with
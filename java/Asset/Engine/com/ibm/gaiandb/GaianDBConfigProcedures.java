@@ -19,6 +19,7 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Hashtable;
@@ -696,7 +697,7 @@ public class GaianDBConfigProcedures extends GaianDBProcedureUtils {
 		return GaianNodeSeeker.maintainConnection(senderNodeID, usr, scrambledpwd, extraInfo);
 	}
 	
-	private static final Set<String> triggerEvents = new HashSet<String>();
+	private static final Set<String> triggerEvents = Collections.synchronizedSet( new HashSet<String>() );
 	
 	public static int setTriggerEvent( String evt ) {
 		System.out.println("GDB Trigger event: " + evt);
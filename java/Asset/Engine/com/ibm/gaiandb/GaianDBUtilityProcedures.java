@@ -212,6 +212,9 @@ public class GaianDBUtilityProcedures extends GaianDBProcedureUtils {
 	+ ";" // CPU Workload
 	+ "!DROP FUNCTION GDB_NODE_CPU;!CREATE FUNCTION GDB_NODE_CPU() RETURNS INT PARAMETER STYLE JAVA LANGUAGE JAVA NO SQL"
 	+ " EXTERNAL NAME 'com.ibm.gaiandb.GaianNode.getNodeCPUInLastPeriod'"
+	+ ";" // Record a metric sample in the node's MetricsStore - for metric monitors running outside the GaianDB JVM
+	+ "!DROP PROCEDURE GDB_RECORD_METRIC;!CREATE PROCEDURE GDB_RECORD_METRIC(NAME VARCHAR(" + MetricsStore.MAX_NAME_LENGTH + "), VAL VARCHAR(" + MetricsStore.MAX_VALUE_LENGTH + "))"
+	+ " PARAMETER STYLE JAVA LANGUAGE JAVA NO SQL EXTERNAL NAME 'com.ibm.gaiandb.MetricsStore.record'"
 	
 	+ ";"
 	+ "!DROP FUNCTION GETTHREADS;!CREATE FUNCTION GETTHREADS() RETURNS TABLE(ID BIGINT, GRP " + XSTR + ", NAME " + XSTR + ", PRIORITY INT, STATE " + TSTR
@@ -43,8 +43,10 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -302,29 +304,42 @@ public class GaianNode {
 	
 	// Tests show that GC compacts and releases at least the equivalent of 10,000 in-mem rows at a time
 	private static final int GC_INCREMENTAL_COLLECTION = 10000;
-	private static long clearedArrayElements = 0;
+	private static final AtomicLong clearedArrayElements = new AtomicLong(0);
 	
 	private static final ArrayList<VTIWrapper> oldvtis = new ArrayList<VTIWrapper>();
 	
-	private static Vector<GaianTable> scannedGaianTables = new Vector<GaianTable>();
-	private static Vector<GaianTable> scannedGaianTablesPossiblyStale = new Vector<GaianTable>();
+	// Scanned GaianTables, mapped to the watchdog sweep number during which they were scanned. Tables still in the map two
+	// sweeps later are closed. The map and counters are lock-free so that concurrent queries don't serialise on the GaianNode class.
+	private static final ConcurrentMap<GaianTable, Long> scannedGaianTables = new ConcurrentHashMap<GaianTable, Long>();
+	private static final AtomicLong scannedGaianTablesSweepNumber = new AtomicLong(0);
 	
-	public synchronized static void notifyArrayElementsCleared( long numberOfArrayElements ) {
-		clearedArrayElements += numberOfArrayElements;
+	public static void notifyArrayElementsCleared( long numberOfArrayElements ) {
+		clearedArrayElements.addAndGet( numberOfArrayElements );
 	}
 	
-	public synchronized static void notifyArrayElementsAdded( long numberOfArrayElements ) {
-		clearedArrayElements -= numberOfArrayElements;
-		if ( 0 > clearedArrayElements ) clearedArrayElements = 0;
+	public static void notifyArrayElementsAdded( long numberOfArrayElements ) {
+		long current;
+		do { current = clearedArrayElements.get(); }
+		while ( !clearedArrayElements.compareAndSet( current, Math.max( 0, current - numberOfArrayElements ) ) );
 	}
 	
-	public synchronized static void notifyGaianTableScanned( GaianTable gt ) {
-		scannedGaianTables.add(gt);
+	public static void notifyGaianTableScanned( GaianTable gt ) {
+		scannedGaianTables.put( gt, scannedGaianTablesSweepNumber.get() );
 	}
 	
-	public synchronized static void notifyGaianTableBeingReScanned( GaianTable gt ) {
-		scannedGaianTables.remove(gt);
-		scannedGaianTablesPossiblyStale.remove(gt);
+	public static void notifyGaianTableBeingReScanned( GaianTable gt ) {
+		scannedGaianTables.remove( gt );
+	}
+	
+	private static void closeStaleScannedGaianTables() {
+		long sweepNumber = scannedGaianTablesSweepNumber.incrementAndGet();
+		// The iterator is weakly consistent - it doesn't block or fail on concurrent updates.
+		for ( Map.Entry<GaianTable, Long> e : scannedGaianTables.entrySet() ) {
+			Long scannedDuringSweep = e.getValue();
+			// Only close the table if it wasn't re-scanned in the meantime (in which case its sweep number would have changed)
+			if ( scannedDuringSweep.longValue() < sweepNumber - 1 && scannedGaianTables.remove( e.getKey(), scannedDuringSweep ) )
+				e.getKey().close();
+		}
 	}
 	
 	protected static void notifyDataSourcesToClose( Collection<VTIWrapper> vtis ) {
@@ -1067,8 +1082,10 @@ public class GaianNode {
 						GaianDBConfig.persistAndApplyConfigUpdates(null); // scramble out any newly entered pwds - also does a DataSourcesManager.refresh();
 					} else if ( isDataServiceCidUpdatesWereRegistered )
 						DataSourcesManager.refresh();
-					else
+					else {
+						DataSourcesManager.reloadLogicalTablesHavingCompletedDataSourceLoads(); // attach data sources that loaded late
 						DataSourcesManager.cleanAndPreloadDataSources(); // try loading data sources that may have just become available...
+					}
 //					loadNewEntityAssociations();
 				}
 				try { DataSourcesManager.checkUpdateLogicalTableViewsOnAllDBs(); }
@@ -1085,6 +1102,7 @@ public class GaianNode {
 					int numCancelled = GaianTable.checkAndActOnTimeouts();
 					if ( 0 < numCancelled ) logger.logThreadInfo("Number of queries cancelled by timeouts: " + numCancelled);
 					computeCPUsForThreadsAndNodeInPeriod();
+					recordNodeMetrics();
 				}
 				
 //				Thread.sleep( WATCHDOG_POLL_TIMEOUT );
@@ -1112,25 +1130,17 @@ public class GaianNode {
 					oldvtis.clear();
 				}
 				
-				for ( GaianTable gt : scannedGaianTablesPossiblyStale )
-					gt.close();
-				
-				scannedGaianTablesPossiblyStale.removeAllElements();
+				closeStaleScannedGaianTables();
 				
-				synchronized ( scannedGaianTables ) {
-					scannedGaianTablesPossiblyStale.addAll(scannedGaianTables);
-					scannedGaianTables.removeAllElements();
-				}
-				
-				if ( clearedArrayElements >= GC_INCREMENTAL_COLLECTION ) {
+				long numClearedArrayElements = clearedArrayElements.get();
+				if ( numClearedArrayElements >= GC_INCREMENTAL_COLLECTION ) {
 					
 					System.gc();
 					
 					logger.logInfo("** Called GC, estimated blocks freed: " +  
-							GC_INCREMENTAL_COLLECTION + "/" + clearedArrayElements);
+							GC_INCREMENTAL_COLLECTION + "/" + numClearedArrayElements);
 					
-					clearedArrayElements -= GC_INCREMENTAL_COLLECTION;
-					if ( 0 > clearedArrayElements ) clearedArrayElements = 0;
+					notifyArrayElementsAdded( GC_INCREMENTAL_COLLECTION ); // deducts from the cleared elements count, floored at 0
 				}
 				
 				// Log to a new log file (under logs/ (todo)) every hour - and (TBD) remove old and empty ones...
@@ -1375,6 +1385,14 @@ public class GaianNode {
 	private static int nodeCPUInLastPeriod = 0;
 	public static int getNodeCPUInLastPeriod() { return nodeCPUInLastPeriod; }
 	
+	// Names match those used by the dashboard - throughput is recorded in KB/s
+	private static void recordNodeMetrics() {
+		MetricsStore.record( "Data Throughput", Long.toString( dataThroughputInLastPeriod/1000 ) );
+		MetricsStore.record( "Query Activity", Integer.toString( queryActivityInLastPeriod ) );
+		MetricsStore.record( "Node CPU", Integer.toString( nodeCPUInLastPeriod ) );
+		MetricsStore.record( "JVM Used Memory", Integer.toString( GaianDBUtilityProcedures.jMemoryPercent() ) );
+	}
+	
 	public static final String THREADINFO_COLNAMES =
 		"ID, GRP, NAME, PRIORITY, STATE, CPU, CPUSYS, ISSUSPENDED, ISINNATIVE, BLOCKCOUNT, BLOCKTIME, WAITCOUNT, WAITTIME";
 	
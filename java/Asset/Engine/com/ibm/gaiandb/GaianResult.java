@@ -11,8 +11,12 @@ import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
@@ -25,7 +29,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.derby.iapi.error.StandardException;
 import org.apache.derby.iapi.store.access.Qualifier;
@@ -73,6 +79,8 @@ public class GaianResult {
 	private int numBufferedRowsBuilt;
 	
 	private int ROWS_BATCH_SIZE;
+	private FetchBufferSizer fetchBufferSizer; // adapts the rows batch size and the number of batches in circulation to the result
+	private volatile WorkloadScheduler.WorkloadClass workloadClass = null; // of the current execution, if it is scheduled
 	private DataValueDescriptor[][] rowsBatch = new DataValueDescriptor[0][];
 	private int rowsBatchPos; // start at pos 0 for an array of length 0 - will cause new batch to be fetched
 
@@ -97,6 +105,16 @@ public class GaianResult {
 	// a Collections.synchronizedSet( new HashSet() );
 	private Set<VTIWrapper> executingDataSourceWrappers = new HashSet<VTIWrapper>();
 	
+	// Replicas of the primary data sources of each REPLICA GROUP, in the order they will be hedged against - see executeHedged()
+	private final Map<VTIWrapper, VTIWrapper[]> replicaAlternates = new ConcurrentHashMap<VTIWrapper, VTIWrapper[]>();
+	
+	// A replica is hedged against when its primary has not responded within this percentile of its recent execution latencies...
+	private static final int HEDGE_LATENCY_PERCENTILE = 95;
+	// ...or within this delay if it has too few recorded latencies
+	private static final long HEDGE_DEFAULT_DELAY_MS = 500;
+	// Max time to wait for a hedged execution before checking if the query was closed
+	private static final long HEDGE_QUIESCE_CHECK_MS = 100;
+	
 	private boolean isActiveConnectionsChecked;
 	
 	private SQLWarning warnings; // Never seen this being used. If derby called getWarnings() it would be.
@@ -115,6 +133,12 @@ public class GaianResult {
 	private int estimatedRecordSize;
 	
 	private DataValueDescriptor[] dvdrTemplate;
+	private String rowShape; // key of the rows of this result in the RowsBatchPool
+	private int[] lobColumns; // blob columns of the rows, or null if there are none
+	private boolean isLobEncodingRequested; // blob values are to be compressed for the node that propagated the query to us
+	// Gaian nodes asked to compress the blob values of their rows for this execution
+	private final Set<VTIWrapper> lobEncodingLinks = Collections.newSetFromMap( new ConcurrentHashMap<VTIWrapper, Boolean>() );
+	private RowsDeduplicator rowsDeduplicator; // drops rows duplicating ones already returned, for a logical table declaring a dedup key
 	private int[] physicalProjectedColumns, allProjectedColumns, fullProjectionZeroBased;
 	private int fullProjectionSize;
 	
@@ -205,12 +229,6 @@ public class GaianResult {
 		if ( null == resultRowsBuffer ) resultRowsBuffer = new ArrayBlockingQueue<DataValueDescriptor[][]>( FETCH_BUFFER_SIZE+1 );//new PriorityBlockingQueue();
 		if ( null == recycledRowsBuffer ) recycledRowsBuffer = new ArrayBlockingQueue<DataValueDescriptor[][]>( FETCH_BUFFER_SIZE+1 );
 		
-//		long count = 0;
-//		for ( Iterator<String> iter = dvdPools.keySet().iterator(); iter.hasNext(); )
-//			{ String t = iter.next(); long card = dvdPools.get( iter.next() ).size();
-//			System.out.println("Pooled dvds of type " + t + ": " + card); count += card; }
-//		System.out.println("Pooled dvds: " + count);
-		
 //		LinkedBlockingQueue lbq = null;
 //		lbq.poll();
 //		ConcurrentLinkedQueue clq = null;
@@ -234,6 +252,7 @@ public class GaianResult {
 		
 		GaianResultSetMetaData ltrsmd = (GaianResultSetMetaData) gaianStatementNode.getTableMetaData();
 		dvdrTemplate = ltrsmd.getRowTemplate();
+		rowShape = RowsBatchPool.getRowShape( dvdrTemplate );
 //		tempRow = new DataValueDescriptor[ dvdrTemplate.length ];
 		
 		exposedColumnCount = ltrsmd.getExposedColumnCount();
@@ -242,17 +261,24 @@ public class GaianResult {
 		// useful for local queries to discriminate between updates run locally or pushed around from a remote client
 		ConcurrentMap<String,Object> qryDetails = gaianStatementNode.getQueryDetails();
 		isExplain = qryDetails.containsKey( GaianTable.QRY_IS_EXPLAIN );
+		lobColumns = isExplain ? null : LobTransferCodec.getLobColumns( dvdrTemplate );
+		isLobEncodingRequested = null != lobColumns && LobTransferCodec.isEncodingRequested( qryDetails );
+		lobEncodingLinks.clear();
+		final int[] dedupColumns = (int[]) qryDetails.get( GaianTable.QRY_DEDUP_COLUMNS );
+		rowsDeduplicator = null == dedupColumns ? null : new RowsDeduplicator( (String) qryDetails.get( RowsDeduplicator.LT_ARG_DEDUP ), dedupColumns );
 		Integer msr = (Integer) qryDetails.get( GaianTable.QRY_MAX_SOURCE_ROWS );
 		maxSourceRows = null == msr ? -1 : msr.intValue();
 		qryDetails.put( GaianTable.QRY_ID, gaianStatementNode.getQueryID() );
 //		 Increment propagation depth here
 		qryDetails.put( GaianTable.QRY_STEPS, new Integer( gaianStatementNode.getQueryPropagationCount() ) );
 		if ( null != gaianStatementNode.getEncodedCredentials() )
-			qryDetails.put( GaianTable.QRY_CREDENTIALS, gaianStatementNode.getEncodedCredentials() );
+			qryDetails.put( GaianTable.QRY_CREDENTIALS, SecurityManager.getPropagatedCredentials( gaianStatementNode.getEncodedCredentials() ) );
 //		qryDetails.put( GaianTable.QRY_FWDER, GaianDBConfig.getGaianNodeID() );
 		
 		isLogPerfOn = gaianStatementNode.isLogPerfOn();
 		
+		dsWrappers = selectReplicaPrimaries( dsWrappers );
+		
 		executingDataSourceWrappers.clear();
 		executingDataSourceWrappers.addAll( Arrays.asList(dsWrappers) ); // the set of vtis to check up on mid way through in case they hang
 		executingDataSourceWrappers.remove(null); // just in case
@@ -271,7 +297,10 @@ public class GaianResult {
 		
 		// First calculate how many threads will be required to access all end-points of all data source wrappers.
 		
+		// Instances of a pluralized data source are each counted as an exec thread, but only up to its max threads of them are
+		// read concurrently: the threads take the remaining instances in turn.
 		int[] numThreadsForEachNode = new int[dsWrappers.length];
+		int numProducerThreads = 0;
 		
 		for ( int i=0; i<dsWrappers.length; i++ ) {
 			VTIWrapper dsWrapper = dsWrappers[i];
@@ -279,15 +308,29 @@ public class GaianResult {
 				Stack<String> pluralizedInstancesForThisNode =
 					(Stack<String>) gaianStatementNode.getQueryDetails().get( GaianTable.PLURALIZED_INSTANCES_PREFIX_TAG + dsWrapper.getNodeDefName() );
 				
-				numThreadsForEachNode[i] = null==pluralizedInstancesForThisNode ? 1 : pluralizedInstancesForThisNode.size();
-				numExecThreads += numThreadsForEachNode[i];
+				int numInstances = null==pluralizedInstancesForThisNode ? 1 : pluralizedInstancesForThisNode.size();
+				numExecThreads += numInstances;
 				
-				logDerbyThreadInfo("Added thread count for dsWrapper: " + dsWrapper + ": " + numThreadsForEachNode[i] + ", runningTotal: " + numExecThreads);
+				int maxThreads = 1 < numInstances ? GaianDBConfig.getNodePluralizedMaxThreads( dsWrapper.getNodeDefName() ) : 0;
+				numThreadsForEachNode[i] = 0 < maxThreads ? Math.min( numInstances, maxThreads ) : numInstances;
+				numProducerThreads += numThreadsForEachNode[i];
+				
+				logDerbyThreadInfo("Added thread count for dsWrapper: " + dsWrapper + ": " + numThreadsForEachNode[i] +
+						( numInstances > numThreadsForEachNode[i] ? " for " + numInstances + " instances" : "" ) + ", runningTotal: " + numExecThreads);
 			}
 		}
 
 		numRemainingExecThreads = numExecThreads;
 		
+		// Queries of a workload class get its share of threads and buffer memory
+		workloadClass = WorkloadScheduler.getWorkloadClass( getWID() );
+		if ( null != workloadClass ) logDerbyThreadInfo( "Query is in workload class " + workloadClass );
+		
+		// Batches are filtered with a fixed size by batch policy filters
+		fetchBufferSizer = new FetchBufferSizer( ROWS_BATCH_SIZE, FETCH_BUFFER_SIZE, numProducerThreads,
+				(long) ( 1024L*1024*GaianDBConfig.getFetchBufferMemoryLimitMB() * WorkloadScheduler.getBufferMemoryShare( workloadClass ) ),
+				null != sqlResultFilterX );
+		
 		// STOP HERE IF THE RESULT HAS BEEN CLOSED DUE TO A SHUTDOWN!
 		if ( isQuiesceQuery ) {
 			logger.logThreadAlways( "Query execution aborted (possibly due to shutdown request) - No exec threads started - isQuiesceQuery = " + isQuiesceQuery );
@@ -303,13 +346,190 @@ public class GaianResult {
 				
 				dataSourceWrappers.put(vtiName, dsWrapper);
 				
-				while ( 0 < numThreadsForEachNode[i]-- )
-					( gaianStatementNode.isSystemQuery() ? resultExecutorDash : resultExecutor ).execute( new GaianSubResult(this, vtiName + partialThreadName) );
+				ExecutorService executor = gaianStatementNode.isSystemQuery() ? resultExecutorDash : resultExecutor;
+				boolean isScheduled = null != workloadClass && WorkloadScheduler.isScheduled( dsWrapper );
+				
+				while ( 0 < numThreadsForEachNode[i]-- ) {
+					GaianSubResult producer = new GaianSubResult(this, vtiName + partialThreadName);
+					if ( isScheduled ) WorkloadScheduler.execute( workloadClass, producer, executor );
+					else executor.execute( producer );
 					// new Thread(this, vtiName + partialThreadName) // expensive Thread instantiation
+				}
 			}
 		}
 		
-		logDerbyThreadInfo( "Kicked off all " + numExecThreads + " exec threads, exec complete" );
+		logDerbyThreadInfo( "Kicked off all " + numProducerThreads + " exec threads for " + numExecThreads + " data source instances, exec complete" );
+	}
+	
+	/**
+	 * Keeps a single data source of each REPLICA GROUP - the one with the lowest median execution latency, or one having too 
+	 * few recorded latencies so that it gets measured. The other replicas are recorded as alternates for it in replicaAlternates,
+	 * in order of median latency.
+	 * Gaian nodes are never replicas: a query reaching a node through several paths is only processed once anyway.
+	 */
+	private VTIWrapper[] selectReplicaPrimaries( VTIWrapper[] dsWrappers ) {
+		
+		replicaAlternates.clear();
+		
+		Map<String, List<VTIWrapper>> replicaGroups = null;
+		List<VTIWrapper> selected = new ArrayList<VTIWrapper>( dsWrappers.length );
+		
+		for ( VTIWrapper dsWrapper : dsWrappers ) {
+			String group = null == dsWrapper || dsWrapper.isGaianNode() || dsWrapper.isSubQuery() ? null : dsWrapper.getReplicaGroup();
+			if ( null == group ) { selected.add( dsWrapper ); continue; }
+			
+			if ( null == replicaGroups ) replicaGroups = new LinkedHashMap<String, List<VTIWrapper>>();
+			List<VTIWrapper> replicas = replicaGroups.get( group );
+			if ( null == replicas ) replicaGroups.put( group, replicas = new ArrayList<VTIWrapper>() );
+			replicas.add( dsWrapper );
+		}
+		
+		if ( null == replicaGroups ) return dsWrappers;
+		
+		for ( List<VTIWrapper> replicas : replicaGroups.values() ) {
+			
+			final Map<VTIWrapper, Long> medianLatencies = new ConcurrentHashMap<VTIWrapper, Long>();
+			for ( VTIWrapper replica : replicas ) medianLatencies.put( replica, new Long( replica.getExecLatencyPercentile(50) ) );
+			
+			Collections.sort( replicas, new Comparator<VTIWrapper>() {
+				public int compare( VTIWrapper r1, VTIWrapper r2 ) { return medianLatencies.get(r1).compareTo( medianLatencies.get(r2) ); }
+			});
+			
+			VTIWrapper primary = replicas.remove(0);
+			selected.add( primary );
+			if ( !replicas.isEmpty() ) {
+				replicaAlternates.put( primary, replicas.toArray( new VTIWrapper[0] ) );
+				logDerbyThreadInfo( "Selected replica " + primary + " for querying, with alternates: " + replicas + ", median latencies: " + medianLatencies );
+			}
+		}
+		
+		return selected.toArray( new VTIWrapper[0] );
+	}
+	
+	/**
+	 * An execution of the query against one of the replicas of a REPLICA GROUP.
+	 * The first one to return a result wins - the results of the others are recycled without being fetched.
+	 */
+	private final class HedgedExecution implements Runnable {
+		
+		private final VTIWrapper dsWrapper;
+		private final AtomicReference<HedgedExecution> winner;
+		private final BlockingQueue<HedgedExecution> completions;
+		private final long startTime = System.currentTimeMillis();
+		private final AtomicBoolean isLatencyRecorded = new AtomicBoolean( false );
+		private volatile GaianChildVTI result = null;
+		private volatile boolean isCompleted = false;
+		
+		HedgedExecution( VTIWrapper dsWrapper, AtomicReference<HedgedExecution> winner, BlockingQueue<HedgedExecution> completions ) {
+			this.dsWrapper = dsWrapper;
+			this.winner = winner;
+			this.completions = completions;
+		}
+		
+		/**
+		 * Records the time taken so far against the data source. For an execution that failed or was cancelled, this is a lower
+		 * bound of its latency - recording it stops a slow replica from looking unmeasured and being tried first by every query.
+		 */
+		void recordLatency() {
+			if ( null != dsWrapper && isLatencyRecorded.compareAndSet( false, true ) )
+				dsWrapper.recordExecLatency( System.currentTimeMillis() - startTime );
+		}
+		
+		public void run() {
+			
+			GaianChildVTI rows = executeQueryAgainstDataSource( dsWrapper, null );
+			recordLatency();
+			
+			// Publish the result before winning, as the winner's result is read as soon as it is set
+			result = rows;
+			if ( null == rows || !winner.compareAndSet( null, this ) ) {
+				result = null;
+				// Lost the race, failed, or the query was closed - this data source is done with
+				synchronized( executingDataSourceWrappers ) { executingDataSourceWrappers.remove( dsWrapper ); }
+				if ( null != rows )
+					try { dsWrapper.recycleOrCloseResultWrapper( rows ); }
+					catch (Exception e) { logDerbyThreadException(dsWrapper + " Could not recycle hedged Data Source result (ignored), cause: ", e); }
+			}
+			
+			isCompleted = true;
+			completions.offer( this );
+		}
+	}
+	
+	/**
+	 * Executes the query against a primary data source, hedging it against its replicas: if the primary has not responded 
+	 * within the HEDGE_LATENCY_PERCENTILE of its recent execution latencies, the query is also issued against the first alternate replica,
+	 * and so on. A replica is also tried straight away if an execution fails.
+	 * The first data source to respond wins, and the executions still running against the others are cancelled.
+	 * 
+	 * @return the winning execution, or null if they all failed or the query was closed
+	 */
+	private HedgedExecution executeHedged( VTIWrapper primary, VTIWrapper[] alternates ) {
+		
+		final ExecutorService executor = gaianStatementNode.isSystemQuery() ? resultExecutorDash : resultExecutor;
+		final AtomicReference<HedgedExecution> winner = new AtomicReference<HedgedExecution>();
+		final BlockingQueue<HedgedExecution> completions = new LinkedBlockingQueue<HedgedExecution>();
+		final List<HedgedExecution> executions = new ArrayList<HedgedExecution>();
+		
+		long hedgeDelay = primary.getExecLatencyPercentile( HEDGE_LATENCY_PERCENTILE );
+		if ( 0 > hedgeDelay ) hedgeDelay = HEDGE_DEFAULT_DELAY_MS;
+		
+		HedgedExecution execution = new HedgedExecution( primary, winner, completions );
+		executions.add( execution );
+		executor.execute( execution );
+		long hedgeTime = System.currentTimeMillis() + hedgeDelay;
+		int numCompleted = 0;
+		
+		while ( null == winner.get() ) {
+			
+			// Stop waiting if the query was closed - the sentinel winner makes late executions recycle their results
+			if ( isQuiesceQuery && winner.compareAndSet( null, new HedgedExecution( null, null, null ) ) ) break;
+			
+			boolean isReplicaAvailable = executions.size() <= alternates.length;
+			long timeNow = System.currentTimeMillis();
+			
+			if ( isReplicaAvailable && timeNow >= hedgeTime ) {
+				VTIWrapper replica = alternates[ executions.size()-1 ];
+				logDerbyThreadInfo( "Hedging query against replica " + replica + " as " + executions.get(executions.size()-1).dsWrapper +
+						" has not responded within " + hedgeDelay + "ms" );
+				synchronized( executingDataSourceWrappers ) { executingDataSourceWrappers.add( replica ); }
+				execution = new HedgedExecution( replica, winner, completions );
+				executions.add( execution );
+				executor.execute( execution );
+				hedgeTime = timeNow + hedgeDelay;
+				continue;
+			}
+			
+			try {
+				execution = completions.poll( isReplicaAvailable ? Math.min( HEDGE_QUIESCE_CHECK_MS, hedgeTime - timeNow ) : HEDGE_QUIESCE_CHECK_MS,
+						TimeUnit.MILLISECONDS );
+			} catch (InterruptedException e) {
+				logDerbyThreadWarning("Interrupted while awaiting hedged executions against " + primary + ", aborting them");
+				if ( winner.compareAndSet( null, new HedgedExecution( null, null, null ) ) ) break;
+				continue;
+			}
+			
+			if ( null == execution || null != winner.get() ) continue;
+			
+			// An execution failed - fail over to the next replica, or give up if none is left
+			if ( ++numCompleted == executions.size() && !isReplicaAvailable ) break;
+			hedgeTime = 0;
+		}
+		
+		HedgedExecution won = winner.get();
+		if ( null == won || null == won.dsWrapper ) won = null;
+		
+		// Cancel the losing executions that are still running, recording how long they had been running for
+		for ( HedgedExecution e : executions )
+			if ( e != won && !e.isCompleted ) {
+				e.recordLatency();
+				if ( e.dsWrapper instanceof VTIRDBResult ) {
+					logDerbyThreadInfo( "Cancelling hedged execution against " + e.dsWrapper + ( null == won ? "" : " as " + won.dsWrapper + " responded first" ) );
+					((VTIRDBResult) e.dsWrapper).cancelQuery( getQueryID() );
+				}
+			}
+		
+		return won;
 	}
 	
 	private GaianChildVTI executeQueryAgainstDataSource( VTIWrapper dsWrapper, String dsInstanceID ) {
@@ -322,10 +542,15 @@ public class GaianResult {
 				// branch node				
 				String logicalTable = Util.escapeSingleQuotes( gaianStatementNode.getLogicalTableName(false) );
 				
+				// Decide whether the node should compress the blob values it returns over this link
+				final boolean isLobEncodingLink = null != lobColumns &&
+					LobTransferCodec.isEncodingToBeRequested( GaianDBConfig.getGaianNodeID(dsWrapper.getNodeDefName()) );
+				if ( isLobEncodingLink ) lobEncodingLinks.add( dsWrapper ); else lobEncodingLinks.remove( dsWrapper );
+				
 				logger.logThreadInfo( "Setting arguments for query to Gaian Node" );
 				String newArgs = "('" +
 					logicalTable + "', '" +
-					gaianStatementNode.getTableArguments() + "', '" +
+					LobTransferCodec.setLinkArgument( gaianStatementNode.getTableArguments(), isLobEncodingLink ) + "', '" +
 					( gaianStatementNode instanceof GaianQuery ?
 							((GaianQuery) gaianStatementNode).getQueryArguments() + "', '" : "" ) +
 					gaianStatementNode.getTableDefinition() + "', '" +
@@ -476,30 +701,30 @@ public class GaianResult {
 		return result;
 	}
 	
-	private static Map<String, LinkedBlockingQueue<DataValueDescriptor>> dvdPools =
-		new ConcurrentHashMap<String, LinkedBlockingQueue<DataValueDescriptor>>();
+	private void clearAndrecycleBufferedCells( BlockingQueue<DataValueDescriptor[][]> buffer ) {
+		for ( Iterator<DataValueDescriptor[][]> batchIterator = buffer.iterator(); batchIterator.hasNext(); ) {
+			recycleCells( batchIterator.next(), 0 );
+			batchIterator.remove(); // clear the buffer progressively
+		}
+	}
 	
-	private LinkedBlockingQueue<DataValueDescriptor> getDVDPool( String typeName ) {
-		LinkedBlockingQueue<DataValueDescriptor> dvdPool = dvdPools.get( typeName );
-		if ( null == dvdPool ) dvdPools.put(typeName, dvdPool = new LinkedBlockingQueue<DataValueDescriptor>(1000)); // 1000 * 10 common types =~ 10k pooled dvds
-		return dvdPool;
+	// Returns a batch for re-use by the producers, unless it is not of the current batch size (e.g. it is the last batch of a data source)
+	private void recycleBatch( DataValueDescriptor[][] batch ) {
+		if ( batch.length == fetchBufferSizer.getBatchSize() && recycledRowsBuffer.offer( batch ) ) return;
+		retireBatch( batch, true );
 	}
 	
-	private DataValueDescriptor getPooledDVDOrNewNull( DataValueDescriptor dvdToClone ) {
-		DataValueDescriptor pooledDVD = getDVDPool( dvdToClone.getTypeName() ).poll();
-		return null != pooledDVD ? pooledDVD : dvdToClone.getNewNull();
+	// Takes a batch out of circulation, so a new one of the current batch size may be built from its pooled cells.
+	// Producers waiting for a recycled batch may need waking up to build it.
+	private void retireBatch( DataValueDescriptor[][] batch, boolean isWakeUpProducer ) {
+		recycleCells( batch, 0 );
+		synchronized ( this ) { numBufferedRowsBuilt--; }
+		if ( isWakeUpProducer ) recycledRowsBuffer.offer( new DataValueDescriptor[0][] );
 	}
 	
-	private void clearAndrecycleBufferedCells( BlockingQueue<DataValueDescriptor[][]> buffer ) {
-		for ( Iterator<DataValueDescriptor[][]> batchIterator = buffer.iterator(); batchIterator.hasNext(); ) {
-			DataValueDescriptor[][] batch = batchIterator.next();
-			for ( DataValueDescriptor[] row : batch )
-				for ( DataValueDescriptor cell : row ) {
-					cell.setToNull();
-					getDVDPool( cell.getTypeName() ).offer( cell );
-				}
-			batchIterator.remove(); // clear the buffer progressively
-		}
+	// Rows are pooled a whole batch at a time for re-use by later queries
+	private void recycleCells( DataValueDescriptor[][] rows, int fromRow ) {
+		RowsBatchPool.release( rowShape, rows, fromRow );
 	}
 	
 	/* (non-Javadoc)
@@ -515,16 +740,55 @@ public class GaianResult {
 //		Thread.currentThread().setName( vti + " queryID=" + gaianStatementNode.getQueryID() + 
 //				" steps=" + gaianStatementNode.getQueryPropagationCount() );
 		
-		String dsInstanceID = dsWrapper.isPluralized()
-			?	((Stack<String>) gaianStatementNode.getQueryDetails().get( GaianTable.PLURALIZED_INSTANCES_PREFIX_TAG + dsWrapper.getNodeDefName() )).pop()
-			:	null;
+		if ( false == dsWrapper.isPluralized() ) { runDataSourceInstance( dsWrapper, null ); return; }
+		
+		// Take the remaining instances of the pluralized data source in turn, the largest first, until there are none left.
+		// Remaining instances are still processed after the query is closed so that the last one puts the poison pill.
+		Stack<String> pluralizedInstances =
+			(Stack<String>) gaianStatementNode.getQueryDetails().get( GaianTable.PLURALIZED_INSTANCES_PREFIX_TAG + dsWrapper.getNodeDefName() );
+		
+		while ( true ) {
+			String dsInstanceID;
+			synchronized ( pluralizedInstances ) {
+				if ( pluralizedInstances.isEmpty() ) break;
+				dsInstanceID = pluralizedInstances.pop();
+			}
+			// The data source is checked up on again while this instance executes, as an earlier one may have completed
+			if ( !isQuiesceQuery ) synchronized( executingDataSourceWrappers ) { executingDataSourceWrappers.add( dsWrapper ); }
+			runDataSourceInstance( dsWrapper, dsInstanceID );
+		}
+	}
+	
+	private void runDataSourceInstance( VTIWrapper dsWrapper, String dsInstanceID ) {
+		
+		// Threads started by the workload scheduler give up their place while they are blocked on the buffers
+		final boolean isScheduledThread = null != workloadClass && WorkloadScheduler.isScheduled( dsWrapper );
 		
 		logger.logThreadInfo( "run(): Starting to process child data source wrapper for: "
 				+ dsWrapper.getNodeDefName() + ", dsInstanceID: " + dsInstanceID );
 		
+		// The scan rate of split column ranges is recorded for SplitColumnPlanner
+		final boolean isSplitRangeScan = dsWrapper.isSubQuery() && gaianStatementNode instanceof GaianQuery
+				&& null != ((GaianQuery) gaianStatementNode).getSplitColumnRangeSQL();
+		final long splitRangeScanStartTime = isSplitRangeScan ? System.currentTimeMillis() : 0;
+		long numSplitRangeRows = 0;
+		
 		long execTime = ( Logger.LOG_NONE < Logger.logLevel ? System.currentTimeMillis() : 0 );
 		if ( Logger.LOG_LESS < Logger.logLevel ) logger.logThreadInfo( "Start exec time:"  + execTime );
-		GaianChildVTI nodeRows = executeQueryAgainstDataSource( dsWrapper, dsInstanceID );
+		GaianChildVTI nodeRows;
+		VTIWrapper[] alternates = replicaAlternates.get( dsWrapper );
+		// Don't execute if the query was closed while this thread was queued for its workload class
+		if ( isQuiesceQuery ) nodeRows = null;
+		else if ( null == alternates ) nodeRows = executeQueryAgainstDataSource( dsWrapper, dsInstanceID );
+		else {
+			HedgedExecution winner = executeHedged( dsWrapper, alternates );
+			nodeRows = null == winner ? null : winner.result;
+			if ( null != winner && winner.dsWrapper != dsWrapper ) {
+				// Rows are fetched from the replica that responded first
+				synchronized( executingDataSourceWrappers ) { executingDataSourceWrappers.remove( dsWrapper ); }
+				dsWrapper = winner.dsWrapper;
+			}
+		}
 				
 		long timeAfterExec = Logger.LOG_NONE < Logger.logLevel ? System.currentTimeMillis() : 0;
 		
@@ -572,17 +836,16 @@ public class GaianResult {
 			// Create a temporary batch of standard size which the policy batch filter will be applied to
 			DataValueDescriptor[][] filteringBatch = null;
 			if ( null != sqlResultFilterX ) {
-				filteringBatch = new DataValueDescriptor[ROWS_BATCH_SIZE][];
-				int colcount = dvdrTemplate.length;
-				for (int n=0; n<ROWS_BATCH_SIZE; n++) {
-					DataValueDescriptor[] nextRow = new DataValueDescriptor[colcount];
-					for ( int i=0; i<colcount; i++ )
-						nextRow[i] = getPooledDVDOrNewNull( dvdrTemplate[i] );
-//						nextRow[i] = dvdrTemplate[i].getNewNull();
-					filteringBatch[n] = nextRow;
-				}
+				filteringBatch = RowsBatchPool.acquire( rowShape, dvdrTemplate, ROWS_BATCH_SIZE );
 			}
 
+			// Blob values may need compressing for the node that propagated the query to us, or decompressing if they came
+			// compressed from a Gaian node. The rate at which they come from a Gaian node is measured for LobTransferCodec.
+			final boolean isLobTranscoded = null != lobColumns && ( isLobEncodingRequested || dsWrapper.isGaianNode() );
+			final boolean isFromLobEncodingLink = isLobTranscoded && lobEncodingLinks.contains( dsWrapper );
+			final long lobFetchStartTime = isLobTranscoded ? System.currentTimeMillis() : 0;
+			long numLobBytes = 0;
+			
 			boolean isRowsRemaining = true;
 			
 			while ( isRowsRemaining ) {
@@ -594,29 +857,37 @@ public class GaianResult {
 
 					// No recycled batches.. build a new one if we haven't built enough to fill the buffer yet
 //						if ( resultRowsBuffer.size() < FETCH_BUFFER_SIZE - numExecThreads ) { // this wouldnt work - consumer may have altered recycled rows
-					if ( FETCH_BUFFER_SIZE > numBufferedRowsBuilt ) {
+					// If the buffer depth is reached, try growing it rather than blocking
+					if ( fetchBufferSizer.getBufferDepth() > numBufferedRowsBuilt || fetchBufferSizer.growBufferDepth( numBufferedRowsBuilt ) ) {
 						synchronized ( this ) {
-							if ( FETCH_BUFFER_SIZE <= numBufferedRowsBuilt++ ) continue;
+							if ( fetchBufferSizer.getBufferDepth() <= numBufferedRowsBuilt ) continue;
+							numBufferedRowsBuilt++;
 						}
 						
-						nextBatch = new DataValueDescriptor[ROWS_BATCH_SIZE][];
-						int colcount = dvdrTemplate.length;
-						for (int n=0; n<ROWS_BATCH_SIZE; n++) {
-							DataValueDescriptor[] nextRow = new DataValueDescriptor[colcount];
-							for ( int i=0; i<colcount; i++ )
-								nextRow[i] = getPooledDVDOrNewNull( dvdrTemplate[i] );
-//								nextRow[i] = dvdrTemplate[i].getNewNull();
-							nextBatch[n] = nextRow;
-						}
+						nextBatch = RowsBatchPool.acquire( rowShape, dvdrTemplate, fetchBufferSizer.getBatchSize() );
 						
-					} else
-						// Otherwise, wait for the fetcher thread to recycle a row
+					} else {
+						// Otherwise, wait for the fetcher thread to recycle a row. A scheduled thread gives up its workload place meanwhile,
+						// as the consumer may be waiting for rows from queued threads (e.g. of the inner table of a join).
+						if ( isScheduledThread ) WorkloadScheduler.suspend( workloadClass );
 						try {
 							nextBatch = recycledRowsBuffer.take(); // this is the blocking point for producers when the consumer is being slow
 						} catch (InterruptedException e) {
 							logDerbyThreadWarning(dsWrapper + " Unable to take() recycled row, aborting fetch for this Data Source");
-							break;
+							nextBatch = null;
 						}
+						if ( isScheduledThread ) WorkloadScheduler.resume( workloadClass, isQuiesceQuery || null == nextBatch );
+						if ( null == nextBatch ) break;
+					}
+				}
+				
+				// An empty batch is a wake-up offered by close() to producers blocked on take() - the quiesce flag is checked at the top of the loop
+				if ( 0 == nextBatch.length ) continue;
+				
+				// A batch built before the batch size last changed is replaced with one of the new size
+				if ( nextBatch.length != fetchBufferSizer.getBatchSize() ) {
+					retireBatch( nextBatch, false );
+					continue;
 				}
 				
 				try {
@@ -629,6 +900,7 @@ public class GaianResult {
 							// Reduce the batch size: substract the number of records that shouldn't be retrieved (i.e. sourceRowsCountdown)
 							int reducedSize = sourceRowsCountdown + nextBatch.length;
 							if ( 0 > reducedSize ) reducedSize = 0; // defensive programming
+							recycleCells( nextBatch, reducedSize );
 							DataValueDescriptor[][] reducedBatch = new DataValueDescriptor[reducedSize][];
 							System.arraycopy(nextBatch, 0, reducedBatch, 0, reducedSize);
 							nextBatch = reducedBatch;
@@ -641,11 +913,12 @@ public class GaianResult {
 						
 						// Try to get the first record for the batch - if this fails then we have a clean break.
 						if ( false == nextFastPathRow(dsWrapper, dsInstanceID, nodeRows, nextBatch[0]) ) {
-							if ( ROWS_BATCH_SIZE == nextBatch.length ) recycledRowsBuffer.offer( nextBatch ); // recycle this batch for use by another exec thread
+							recycleBatch( nextBatch ); // recycle this batch for use by another exec thread
 							break; // clean break on this batch.. break while loop directly
 						}
 						
 						// Get all remaining available records
+						lastBatchSize = nextBatch.length;
 						for (int n=1; n<nextBatch.length; n++) {
 							if ( false == nextFastPathRow(dsWrapper, dsInstanceID, nodeRows, nextBatch[n]) ) {
 								// No more rows - batch cannot be completed - remember last batch size and stop fetching
@@ -672,7 +945,7 @@ public class GaianResult {
 //							System.arraycopy(	filteredBatch, filteredBatch.length - numRemainingFromLastFilteredBatch, 
 //												nextBatch, 0, numRemainingFromLastFilteredBatch);
 						
-						int numStillRequiredForNextBatch = ROWS_BATCH_SIZE - numRemainingFromLastFilteredBatch;
+						int numStillRequiredForNextBatch = nextBatch.length - numRemainingFromLastFilteredBatch;
 						numRemainingFromLastFilteredBatch = 0;
 						
 						// Note that numStillRequiredForNextBatch *has to be* > 0 at this stage,
@@ -710,6 +983,11 @@ public class GaianResult {
 								break; // No more records to apply filtering to
 							}
 							
+							// The policy filter is given the real blob values: those received compressed are decompressed first.
+							// They are compressed again for the node that propagated the query to us once the batch is complete.
+							if ( isLobTranscoded )
+								numLobBytes += LobTransferCodec.transcode( filteringBatch, lobColumns, isFromLobEncodingLink, false );
+							
 							// Apply the policy filter.. note the returned batch can be smaller than the input batch (although the number of cols remains the same)
 							filteredBatch = sqlResultFilterX.filterRowsBatch( dsWrapper.getNodeDefName(), filteringBatch );
 							if ( null == filteredBatch ) filteredBatch = filteringBatch;
@@ -721,7 +999,7 @@ public class GaianResult {
 							logger.logThreadDetail("Batched Filtering: Starting row id: " + filteredBatch[0][0]);
 							
 							int numFilteredRecordsToAdd = Math.min( filteredBatch.length, numStillRequiredForNextBatch );
-							int offset = ROWS_BATCH_SIZE - numStillRequiredForNextBatch; // find offset past records already set
+							int offset = nextBatch.length - numStillRequiredForNextBatch; // find offset past records already set
 							for ( int i=0; i<numFilteredRecordsToAdd; i++ )
 								for ( int k=0; k<dvdrTemplate.length; k++ )
 									try {
@@ -747,13 +1025,13 @@ public class GaianResult {
 							}
 						}
 
-						lastBatchSize = ROWS_BATCH_SIZE - numStillRequiredForNextBatch;
+						lastBatchSize = nextBatch.length - numStillRequiredForNextBatch;
 						
 						logger.logThreadDetail("Batched Filtering: Last nextBatch size: " + lastBatchSize);
 						
 						// If the records ran out and/or the filtering excluded all rows, then exit the wider fetching loop for this data source
 						if ( 0 == lastBatchSize ) {
-							if ( ROWS_BATCH_SIZE == nextBatch.length ) recycledRowsBuffer.offer( nextBatch ); // recycle this batch for use by another exec thread
+							recycleBatch( nextBatch ); // recycle this batch for use by another exec thread
 							break; // No filtered rows at all for the batch - clean break - break outer while loop
 						}
 					}
@@ -761,11 +1039,15 @@ public class GaianResult {
 					// Reduce batch and mark end of fetching if required
 					if ( lastBatchSize < nextBatch.length ) {
 						// Record scan completed half way through a batch - reduce the batch size and get ready to complete fetch loop
+						recycleCells( nextBatch, lastBatchSize );
 						DataValueDescriptor[][] reducedBatch = new DataValueDescriptor[lastBatchSize][];
 						System.arraycopy(nextBatch, 0, reducedBatch, 0, lastBatchSize);
 						nextBatch = reducedBatch;
 						isRowsRemaining = false; // causes while loop to end after this batch
-					}					
+					} else
+						fetchBufferSizer.batchFilled(); // the data source has more rows to stream
+					
+					if ( !fetchBufferSizer.isRowWidthKnown() && 0 < nextBatch.length ) fetchBufferSizer.setRowWidth( nextBatch[0] );
 					
 					if ( isExplain )
 						// We are processing a Gaian Node data source in explain mode, which means the last row returned contains
@@ -776,17 +1058,51 @@ public class GaianResult {
 						lastGaianNodeCountDVD = nextBatch[ nextBatch.length-1 ][ exposedColumnCount-1 ]; //resultSet.getInt( GaianDBConfig.EXPLAIN_COUNT_COLUMN_INDEX );
 					
 				} catch (SQLException e) {
-					logDerbyThreadException(dsWrapper + " Unable to fetch next row, aborting fetch for this Data Source, cause: ", e);
+					if ( isQuiesceQuery )
+						logDerbyThreadInfo(dsWrapper + " Fetch aborted as the query was closed or cancelled, cause: " + e);
+					else
+						logDerbyThreadException(dsWrapper + " Unable to fetch next row, aborting fetch for this Data Source, cause: ", e);
 					break;
 				}
 				
+				// Batches from the policy filter already hold decompressed blob values, so they are only compressed if requested
+				if ( isLobTranscoded ) {
+					if ( null == sqlResultFilterX )
+						numLobBytes += LobTransferCodec.transcode( nextBatch, lobColumns, isFromLobEncodingLink, isLobEncodingRequested );
+					else if ( isLobEncodingRequested )
+						LobTransferCodec.transcode( nextBatch, lobColumns, false, true );
+				}
+				
+				// Drop rows duplicating ones already returned (blob values are compared once transcoded for the link). An empty batch would end the result, so it is recycled instead.
+				if ( null != rowsDeduplicator ) {
+					int numKept = rowsDeduplicator.removeDuplicates( nextBatch );
+					if ( 0 == numKept ) { recycleBatch( nextBatch ); continue; }
+					if ( numKept < nextBatch.length ) {
+						recycleCells( nextBatch, numKept );
+						DataValueDescriptor[][] reducedBatch = new DataValueDescriptor[numKept][];
+						System.arraycopy(nextBatch, 0, reducedBatch, 0, numKept);
+						nextBatch = reducedBatch;
+					}
+				}
+				
 				resultRowsBuffer.offer( nextBatch ); // No need to block
+				numSplitRangeRows += nextBatch.length;
 //				try {
 //					System.out.println("Enqeued " + nextBatch[0][0].getString());
 //				} catch (StandardException e) {
 //					e.printStackTrace();
 //				}
 			} // end while ( isRowsRemaining )
+			
+			// Filtered rows were copied out of the filtering batch into the batches
+			if ( null != filteringBatch ) recycleCells( filteringBatch, 0 );
+			
+			if ( isSplitRangeScan && !isQuiesceQuery )
+				SplitColumnPlanner.recordScanRate( numSplitRangeRows, System.currentTimeMillis() - splitRangeScanStartTime );
+			
+			if ( isLobTranscoded && dsWrapper.isGaianNode() && !isQuiesceQuery )
+				LobTransferCodec.recordFetch( GaianDBConfig.getGaianNodeID(dsWrapper.getNodeDefName()), isFromLobEncodingLink,
+						numLobBytes, System.currentTimeMillis() - lobFetchStartTime );
 						
 			// For explain queries, if the processed node was a Gaian Node then lastGaianNodeCountDVD will be set and it
 			// represents the total count of its rows. We add this to our own count.
@@ -818,6 +1134,7 @@ public class GaianResult {
 			// There is an extra slot free in the results buffer at creation time for the poison pill
 				resultRowsBuffer.offer( new DataValueDescriptor[0][] );
 				logDerbyThreadInfo( dsWrapper + " Put poison pill on resultRowsBuffer as there are no more executing threads");
+				if ( null != rowsDeduplicator ) logDerbyThreadInfo( "Duplicate rows elimination: " + rowsDeduplicator.getStats() );
 //			} catch (InterruptedException e) {
 //				logger.logException("Interrupted while putting final termination row on resultRowsBuffer queue: ", e);
 //			}
@@ -1028,10 +1345,19 @@ public class GaianResult {
 		// The last of these will write a poison pill to the buffer.
 		numBufferedRowsBuilt = 0; // we are about to clear the recyled rows, so make sure we don't wait for one.
 		isQuiesceQuery = true;
+		
+		// Data sources still executing or streaming rows are not needed anymore (e.g. a FETCH FIRST or EXISTS clause is satisfied,
+		// the client closed its ResultSet, or the query was cancelled or timed out) - tell them to stop.
+		cancelExecutingDataSources();
 
 		// Release the execution threads blocked on the blocking buffers by clearing the buffers. (these should never be null really)
 		if ( null != resultRowsBuffer ) clearAndrecycleBufferedCells( resultRowsBuffer ); // resultRowsBuffer.clear();
-		if ( null != recycledRowsBuffer ) clearAndrecycleBufferedCells( recycledRowsBuffer ); // recycledRowsBuffer.clear();
+		if ( null != recycledRowsBuffer ) {
+			clearAndrecycleBufferedCells( recycledRowsBuffer ); // recycledRowsBuffer.clear();
+			// Wake up producers waiting for a recycled batch, so they see isQuiesceQuery and recycle their data source
+			for ( int i=0; i<numRemainingExecThreads; i++ )
+				if ( false == recycledRowsBuffer.offer( new DataValueDescriptor[0][] ) ) break;
+		}
 		executingDataSourceWrappers.clear(); // just to be sure
 //		if ( null != resultRowsBuffer ) resultRowsBuffer.clear();
 //		if ( null != recycledRowsBuffer ) recycledRowsBuffer.clear();
@@ -1049,6 +1375,35 @@ public class GaianResult {
 //		if ( null != dataSources ) dataSources.clear();
 	}
 	
+	/**
+	 * Cancels the query against the data sources that are still executing it or streaming rows for it.
+	 * JDBC statements against RDBMS back-ends are cancelled, and child Gaian nodes are sent a cancel request for the query ID,
+	 * which they apply to their own data sources in the same way - so the cancellation follows the edges taken by the query.
+	 * This is done asynchronously, as it involves network round trips and the caller may hold locks (e.g. on GaianTable results).
+	 */
+	private void cancelExecutingDataSources() {
+		
+		final VTIWrapper[] dsWrappers;
+		synchronized( executingDataSourceWrappers ) {
+			if ( executingDataSourceWrappers.isEmpty() ) return;
+			dsWrappers = executingDataSourceWrappers.toArray( new VTIWrapper[0] );
+		}
+		
+		final String queryID = getQueryID();
+		if ( null == queryID ) return;
+		
+		logDerbyThreadInfo("Cancelling query " + queryID + " against data sources still executing: " + Arrays.asList(dsWrappers));
+		
+		for ( final VTIWrapper dsWrapper : dsWrappers ) {
+			if ( !(dsWrapper instanceof VTIRDBResult) ) continue;
+			final Runnable canceller = new Runnable() {
+				public void run() { ((VTIRDBResult) dsWrapper).cancelQuery( queryID ); }
+			};
+			try { ( gaianStatementNode.isSystemQuery() ? resultExecutorDash : resultExecutor ).execute( canceller ); }
+			catch ( Exception e ) { logDerbyThreadInfo(dsWrapper + " Unable to schedule query cancellation (ignored), cause: " + e); }
+		}
+	}
+	
 	private void logDerbyThreadInfo( String s ) {
 		if ( Logger.LOG_MORE <= Logger.logLevel ) logInfo(s, Logger.LOG_MORE);
 	}
@@ -1133,7 +1488,7 @@ public class GaianResult {
 			try {
 				// Recycle the old batch
 //				if ( 0 != rowsBatch.length ) recycledRowsBuffer.offer(rowsBatch);
-				if ( ROWS_BATCH_SIZE == rowsBatch.length ) recycledRowsBuffer.offer(rowsBatch);
+				if ( 0 < rowsBatch.length ) recycleBatch( rowsBatch );
 				
 				// Get a new batch of rows
 				long polls = 0;
@@ -1158,7 +1513,7 @@ public class GaianResult {
 							close();
 							if ( Logger.LOG_NONE < Logger.logLevel ) {
 								logDerbyThreadImportant( "Fetch complete, rowCount = " + rowNumber + "\n\t>>OVERALL QUERY TIME: " + queryTime + 
-										"ms (ALL EXECS: " + queryExecTime + "ms, ALL FETCHES: " + fetchTime + "ms)\n");
+										"ms (ALL EXECS: " + queryExecTime + "ms, ALL FETCHES: " + fetchTime + "ms), Final " + fetchBufferSizer + "\n");
 //								System.out.println("OVERALL QUERY TIME: " + queryTime);
 //								chainOurWarningsToResultSetWarnings(); // Attach any warnings to the last ResultSet
 //								currentChildNodeName = null;
@@ -15,6 +15,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -42,6 +43,7 @@ public class InMemoryRows implements GaianChildVTI {
 //	private ArrayList rows, result;
 	
 	private ConcurrentMap<Integer, SortedMap<DataValueDescriptor, Object>> indexes;
+	private InMemorySpatialIndex spatialIndex;
 	
 	private int rowCount;
 	
@@ -67,10 +69,12 @@ public class InMemoryRows implements GaianChildVTI {
 	 * This method should not be called whilst the rows are being processed...
 	 */
 //	public void setRowsAndIndexes( DataValueDescriptor[][] rows, Hashtable indexes ) {
-	public void setRowsAndIndexes( ArrayList<DataValueDescriptor[]> rows, ConcurrentMap<Integer, SortedMap<DataValueDescriptor, Object>> indexes ) {
+	public void setRowsAndIndexes( ArrayList<DataValueDescriptor[]> rows, ConcurrentMap<Integer, SortedMap<DataValueDescriptor, Object>> indexes,
+			InMemorySpatialIndex spatialIndex ) {
 	
 		this.rows = rows;
 		this.indexes = indexes;
+		this.spatialIndex = spatialIndex;
 	}
 	
 	/**
@@ -97,10 +101,27 @@ public class InMemoryRows implements GaianChildVTI {
         	logger.logInfo("New Physical Column Mapped Qualifiers: " + RowsFilter.reconstructSQLWhereClause( mappedQualifiers ) +
         			" #colmappings: " + Util.intArrayAsString(columnsMapping));
         	
-        	// Apply indexes - and prune the mappedQualifiers from them
-        	SortedMap<DataValueDescriptor, Object> remainingMap = RowsFilter.applyAndPruneIndexQualifiers( indexes, mappedQualifiers );
+        	// Apply the spatial index if the qualifiers bound its coordinates - the index only gives candidate rows, so test all qualifiers on them
+        	List<DataValueDescriptor[]> spatialCandidates = null == spatialIndex ? null : spatialIndex.getCandidateRows( mappedQualifiers );
+        	
+        	// Otherwise apply indexes - and prune the mappedQualifiers from them
+        	SortedMap<DataValueDescriptor, Object> remainingMap = null != spatialCandidates ? null :
+        		RowsFilter.applyAndPruneIndexQualifiers( indexes, mappedQualifiers );
 	    	
-	    	if ( null != remainingMap ) {
+	    	if ( null != spatialCandidates ) {
+	    		
+	    		int len = spatialCandidates.size();
+	    		result = new ArrayList<DataValueDescriptor[]>( len );
+	    		
+	    		for ( int i=0; i<len; i++ ) {
+	    			DataValueDescriptor[] row = spatialCandidates.get(i);
+	    			if ( RowsFilter.testQualifiers( row, mappedQualifiers ) )
+	    				result.add( row );
+	    		}
+	    		
+	    		logger.logInfo("Applied predicates on rows selected by spatial index");
+	    		
+	    	} else if ( null != remainingMap ) {
 	    		
 	    		// The index reduced the set of keys - now filter the rest using remaining predicates - if any
 	    			    		
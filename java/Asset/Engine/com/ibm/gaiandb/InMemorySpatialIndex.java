@@ -0,0 +1,142 @@
+/*
+ * (C) Copyright IBM Corp. 2014
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.store.access.Qualifier;
+import org.apache.derby.iapi.types.DataValueDescriptor;
+import org.apache.derby.iapi.types.Orderable;
+
+import com.ibm.gaiandb.utils.RTree;
+
+/**
+ * R-tree index of in-memory rows on a pair of numeric physical columns holding point coordinates, e.g. longitude and latitude.
+ * It is configured with data source option: SPATIAL INDEX ON <x column> <y column> - alongside the INMEMORY option.
+ *
+ * The index is used when the ANDed qualifiers of a query bound either coordinate, e.g: x BETWEEN ? AND ? AND y BETWEEN ? AND ?
+ * A within-distance condition should be expressed as its enclosing box plus the exact distance test, so that the box is pushed down.
+ * The index returns candidate rows only - all qualifiers must still be applied to them.
+ */
+public class InMemorySpatialIndex {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2014";
+
+	private static final Logger logger = new Logger( "InMemorySpatialIndex", 30 );
+
+	private final int xCol, yCol;
+	private final RTree<DataValueDescriptor[]> tree = new RTree<DataValueDescriptor[]>();
+
+	// Rows having a null or non-numeric coordinate - these may still match a query that only bounds the other coordinate
+	private final List<DataValueDescriptor[]> unindexedRows = new ArrayList<DataValueDescriptor[]>();
+
+	/**
+	 * @param xCol, yCol - 0-based physical column ids of the coordinates in the rows
+	 */
+	public InMemorySpatialIndex( List<DataValueDescriptor[]> rows, int xCol, int yCol ) {
+
+		this.xCol = xCol;
+		this.yCol = yCol;
+
+		int len = rows.size();
+		List<DataValueDescriptor[]> points = new ArrayList<DataValueDescriptor[]>( len );
+		double[] xs = new double[len], ys = new double[len];
+
+		for ( int i=0; i<len; i++ ) {
+			DataValueDescriptor[] row = rows.get(i);
+			try {
+				if ( !row[xCol].isNull() && !row[yCol].isNull() ) {
+					xs[ points.size() ] = row[xCol].getDouble();
+					ys[ points.size() ] = row[yCol].getDouble();
+					points.add( row );
+					continue;
+				}
+			} catch ( StandardException e ) {} // not numeric
+			unindexedRows.add( row );
+		}
+
+		tree.bulkLoad( points, xs, ys, xs, ys );
+
+		if ( 0 < unindexedRows.size() )
+			logger.logInfo("Rows having a null or non-numeric coordinate in column " + (xCol+1) + " or " + (yCol+1) +
+					" are not spatially indexed: " + unindexedRows.size());
+	}
+
+	public boolean isOnColumns( int xCol, int yCol ) {
+		return this.xCol == xCol && this.yCol == yCol;
+	}
+
+	public int size() {
+		return tree.size() + unindexedRows.size();
+	}
+
+	/**
+	 * Gets the rows that may satisfy the qualifiers, based on the bounds they set on the indexed columns.
+	 *
+	 * @param qualifiers - qualifiers referencing physical column ids
+	 * @return candidate rows, or null if the qualifiers don't bound any of the indexed columns
+	 */
+	public List<DataValueDescriptor[]> getCandidateRows( Qualifier[][] qualifiers ) {
+
+		if ( null == qualifiers || 0 == qualifiers.length ) return null;
+
+		// minX, minY, maxX, maxY
+		double[] box = { -Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		boolean isBounded = false;
+
+		// Only the first row of qualifiers is a conjunction of simple predicates - the others are ORed lists
+		for ( Qualifier q : qualifiers[0] ) {
+
+			int col = q.getColumnId();
+			if ( col != xCol && col != yCol || q.getOrderedNulls() ) continue;
+
+			double v;
+			try {
+				DataValueDescriptor dvd = q.getOrderable();
+				if ( null == dvd || dvd.isNull() ) continue;
+				v = dvd.getDouble();
+			} catch ( StandardException e ) { continue; }
+
+			int operator = q.getOperator();
+			if ( q.negateCompareResult() ) switch ( operator ) {
+				case Orderable.ORDER_OP_EQUALS: continue; // A != operator doesn't bound anything
+				case Orderable.ORDER_OP_LESSTHAN: operator = Orderable.ORDER_OP_GREATEROREQUALS; break;
+				case Orderable.ORDER_OP_GREATEROREQUALS: operator = Orderable.ORDER_OP_LESSTHAN; break;
+				case Orderable.ORDER_OP_GREATERTHAN: operator = Orderable.ORDER_OP_LESSOREQUALS; break;
+				case Orderable.ORDER_OP_LESSOREQUALS: operator = Orderable.ORDER_OP_GREATERTHAN; break;
+			}
+
+			int minIdx = col == xCol ? 0 : 1, maxIdx = minIdx + 2;
+			switch ( operator ) {
+				case Orderable.ORDER_OP_EQUALS:
+					box[minIdx] = Math.max( box[minIdx], v ); box[maxIdx] = Math.min( box[maxIdx], v ); break;
+				case Orderable.ORDER_OP_LESSTHAN: case Orderable.ORDER_OP_LESSOREQUALS:
+					box[maxIdx] = Math.min( box[maxIdx], v ); break;
+				case Orderable.ORDER_OP_GREATERTHAN: case Orderable.ORDER_OP_GREATEROREQUALS:
+					box[minIdx] = Math.max( box[minIdx], v ); break;
+				default: continue;
+			}
+			isBounded = true;
+		}
+
+		if ( !isBounded ) return null;
+
+		List<DataValueDescriptor[]> candidates = new ArrayList<DataValueDescriptor[]>();
+		if ( box[0] <= box[2] && box[1] <= box[3] )
+			tree.search( box[0], box[1], box[2], box[3], candidates );
+		candidates.addAll( unindexedRows );
+
+		logger.logInfo("Spatial index bounding box (" + box[0] + ", " + box[1] + ") - (" + box[2] + ", " + box[3] +
+				") gave " + candidates.size() + " candidate rows out of " + size());
+
+		return candidates;
+	}
+}
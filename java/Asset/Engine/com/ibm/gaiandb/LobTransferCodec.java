@@ -0,0 +1,169 @@
+/*
+ * (C) Copyright IBM Corp. 2014
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.derby.iapi.types.DataValueDescriptor;
+import org.apache.derby.iapi.types.SQLBlob;
+
+import com.ibm.gaiandb.diags.GDBMessages;
+import com.ibm.gaiandb.utils.LZCodec;
+
+/**
+ * Compression of blob values in the rows transferred from a Gaian node to the node that propagated a query to it.
+ *
+ * The propagating node decides for each link (i.e. each node it propagates the query to) whether to request compression,
+ * by adding table argument: lobCodec=LZ to the propagated query. The node receiving it then compresses the blob values of its rows
+ * with LZCodec in its data source threads, and the propagating node decompresses them in its own data source threads.
+ * A node that doesn't support the argument ignores it and returns uncompressed values, which are recognised as such.
+ * Intermediate nodes pass on compressed values from their own links without decompressing them if their parent requested compression too.
+ *
+ * With LOB_TRANSFER_COMPRESSION=ADAPTIVE, a link is compressed if the rate at which blob bytes were delivered through it was higher
+ * with compression than without - this captures both the link bandwidth and the CPU cost of compression at each end.
+ * Both rates are measured as queries run, and the other option is tried every PROBE_INTERVAL queries to detect changes.
+ */
+public class LobTransferCodec {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2014";
+
+	private static final Logger logger = new Logger( "LobTransferCodec", 30 );
+
+	public static final String LT_ARG_LOB_CODEC = "lobCodec";
+	private static final String CODEC_LZ = "LZ";
+
+	private static final String ALWAYS = "ALWAYS", NEVER = "NEVER";
+
+	private static final int PROBE_INTERVAL = 16;
+	// Fetches delivering fewer blob bytes than this don't give a meaningful rate
+	private static final long MIN_SAMPLE_BYTES = 64 * 1024;
+	private static final double RATE_SMOOTHING = 0.3;
+
+	private static final class LinkStats {
+		// Smoothed rates of blob bytes delivered through the link per ms of fetch time, or -1 when unknown
+		double encodedRate = -1, rawRate = -1;
+		int numQueries = 0;
+	}
+
+	// Gaian node ID -> transfer rates measured through the link to it
+	private static final ConcurrentMap<String, LinkStats> linkStats = new ConcurrentHashMap<String, LinkStats>();
+
+	/**
+	 * Returns the 0-based ids of the blob columns in the row template, or null if there are none.
+	 */
+	static int[] getLobColumns( DataValueDescriptor[] template ) {
+		int count = 0;
+		for ( DataValueDescriptor dvd : template ) if ( dvd instanceof SQLBlob ) count++;
+		if ( 0 == count ) return null;
+		int[] lobColumns = new int[count];
+		for ( int i=0, j=0; i<template.length; i++ ) if ( template[i] instanceof SQLBlob ) lobColumns[j++] = i;
+		return lobColumns;
+	}
+
+	/**
+	 * Returns true if the query details hold a request to compress the blob values of the rows returned to the propagating node.
+	 */
+	static boolean isEncodingRequested( Map<String, Object> queryDetails ) {
+		return CODEC_LZ.equals( queryDetails.get( LT_ARG_LOB_CODEC ) );
+	}
+
+	/**
+	 * Decides whether to request compression of the blob values returned by a Gaian node for the next query propagated to it.
+	 */
+	static boolean isEncodingToBeRequested( String nodeID ) {
+
+		String mode = GaianDBConfig.getLobTransferCompression();
+		if ( NEVER.equals( mode ) ) return false;
+		if ( ALWAYS.equals( mode ) ) return true;
+
+		LinkStats stats = linkStats.get( nodeID );
+		if ( null == stats && null == ( stats = linkStats.putIfAbsent( nodeID, new LinkStats() ) ) ) return true;
+
+		synchronized ( stats ) {
+			if ( 0 > stats.encodedRate ) return true;
+			if ( 0 > stats.rawRate ) return false;
+			boolean isEncodingFaster = stats.encodedRate >= stats.rawRate;
+			// Probe the other option regularly, as the link or the load on the nodes may have changed
+			return 0 == ++stats.numQueries % PROBE_INTERVAL ? !isEncodingFaster : isEncodingFaster;
+		}
+	}
+
+	/**
+	 * Sets the lobCodec argument in the table arguments of a query to be propagated to a Gaian node.
+	 * Any lobCodec argument received with the query is removed, as each link gets its own.
+	 */
+	static String setLinkArgument( String tableArguments, boolean isEncodingRequested ) {
+		if ( -1 < tableArguments.indexOf( LT_ARG_LOB_CODEC ) )
+			tableArguments = tableArguments.replaceAll( ",?\\s*" + LT_ARG_LOB_CODEC + "=\\w*", "" );
+		if ( !isEncodingRequested ) return tableArguments;
+		return ( 0 == tableArguments.trim().length() ? "" : tableArguments + "," ) + LT_ARG_LOB_CODEC + "=" + CODEC_LZ;
+	}
+
+	/**
+	 * Records the blob bytes delivered through a link during the fetch of a query's rows from a Gaian node.
+	 */
+	static void recordFetch( String nodeID, boolean wasEncoded, long numRawBytes, long elapsedMillis ) {
+
+		LinkStats stats = linkStats.get( nodeID );
+		if ( null == stats || MIN_SAMPLE_BYTES > numRawBytes ) return;
+
+		double rate = (double) numRawBytes / Math.max( 1, elapsedMillis );
+		synchronized ( stats ) {
+			if ( wasEncoded ) stats.encodedRate = 0 > stats.encodedRate ? rate : stats.encodedRate + RATE_SMOOTHING * ( rate - stats.encodedRate );
+			else stats.rawRate = 0 > stats.rawRate ? rate : stats.rawRate + RATE_SMOOTHING * ( rate - stats.rawRate );
+		}
+
+		logger.logThreadInfo( "Blob transfer rate from node " + nodeID + ( wasEncoded ? " with" : " without" ) + " compression: " +
+				(long) rate + " bytes/ms, link rates: compressed " + (long) stats.encodedRate + ", uncompressed " + (long) stats.rawRate );
+	}
+
+	/**
+	 * Compresses or decompresses the blob values of a batch of rows, before it is passed on to the consumer of the result.
+	 * Rows from a link that wasn't asked to compress are only measured, for the link's uncompressed transfer rate.
+	 *
+	 * @param isFromEncodingLink - the rows came from a Gaian node that was asked to compress its blob values
+	 * @param isEncodingRequested - the rows are to be returned to a node that asked for compressed blob values
+	 * @return the number of bytes of the blob values once decompressed
+	 */
+	static long transcode( DataValueDescriptor[][] rows, int[] lobColumns, boolean isFromEncodingLink, boolean isEncodingRequested ) {
+
+		final int minBytes = GaianDBConfig.getLobTransferCompressionMinBytes();
+		long numRawBytes = 0;
+
+		for ( DataValueDescriptor[] row : rows )
+			for ( int col : lobColumns ) {
+				DataValueDescriptor cell = row[col];
+				try {
+					if ( cell.isNull() ) continue;
+					byte[] bytes = cell.getBytes();
+					boolean isEncoded = isFromEncodingLink && LZCodec.isEncoded( bytes );
+					numRawBytes += isEncoded ? LZCodec.getRawLength( bytes ) : bytes.length;
+
+					if ( isEncodingRequested ) {
+						// Values received compressed are passed on as they are. Values that would be mistaken
+						// for compressed ones at the other end are always wrapped.
+						if ( isEncoded ) continue;
+						boolean isAmbiguous = LZCodec.isEncoded( bytes );
+						if ( minBytes > bytes.length && !isAmbiguous ) continue;
+						byte[] encoded = LZCodec.encode( bytes );
+						if ( encoded.length < bytes.length || isAmbiguous ) cell.setValue( encoded );
+					}
+					else if ( isEncoded ) cell.setValue( LZCodec.decode( bytes ) );
+
+				} catch ( Exception e ) {
+					logger.logThreadWarning( GDBMessages.ENGINE_LOB_TRANSCODE_ERROR, "Unable to " + ( isEncodingRequested ? "compress" : "decompress" ) +
+							" blob value for transfer (value left unchanged): " + e );
+				}
+			}
+
+		return numRawBytes;
+	}
+}
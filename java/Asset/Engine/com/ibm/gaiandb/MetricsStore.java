@@ -0,0 +1,222 @@
+/*
+ * (C) Copyright IBM Corp. 2009
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory time series of the metrics recorded on this node, e.g. by MetricMonitor.
+ *
+ * Every metric has one ring of fixed size windows per resolution (1 second, 1 minute, 1 hour). A recorded sample is
+ * folded straight into the current window of each ring, so the rollups are always up to date and recording costs
+ * the same whatever the history length. Numeric samples contribute to the min/max/avg of a window; the last sample
+ * of a window is kept as it was recorded, whether numeric or not (e.g. a point "(x, y)").
+ *
+ * Windows are read through the com.ibm.db2j.GaianMetrics VTI.
+ */
+public class MetricsStore {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2009";
+
+	private static final Logger logger = new Logger( "MetricsStore", 30 );
+
+	public static final String[] RESOLUTION_NAMES = { "1s", "1m", "1h" };
+	private static final int[] RESOLUTION_SECS = { 1, 60, 3600 };
+	private static final int[] WINDOWS_PER_RESOLUTION = { 300, 1440, 168 }; // 5 minutes, 24 hours, 7 days
+
+	public static final int MAX_NAME_LENGTH = 32;
+	public static final int MAX_VALUE_LENGTH = 255;
+
+	// Bounds the memory used if a monitor keeps generating new names
+	public static final int MAX_METRICS = 256;
+
+	public static final String WINDOWS_TABLE_DEF = "NAME VARCHAR(" + MAX_NAME_LENGTH + "), WINDOW_START BIGINT, AGE INT, SAMPLES INT, " +
+			"MIN_VALUE DOUBLE, MAX_VALUE DOUBLE, AVG_VALUE DOUBLE, LAST_VALUE VARCHAR(" + MAX_VALUE_LENGTH + ")";
+
+	private static final Map<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+	private static boolean isMaxMetricsWarningLogged = false;
+
+	/**
+	 * An aggregated window of samples, as returned by getWindows().
+	 */
+	public static final class Window {
+		public final String name, lastValue;
+		public final long startSecs;
+		public final int numSamples, numNumericSamples;
+		public final double min, max, sum;
+
+		Window( String name, long startSecs, int numSamples, int numNumericSamples, double min, double max, double sum, String lastValue ) {
+			this.name = name; this.startSecs = startSecs; this.numSamples = numSamples; this.numNumericSamples = numNumericSamples;
+			this.min = min; this.max = max; this.sum = sum; this.lastValue = lastValue;
+		}
+
+		public double getAverage() { return sum / numNumericSamples; }
+	}
+
+	/**
+	 * Ring of windows for one resolution - slot i holds the window starting at startSecs[i], or a stale one to be overwritten.
+	 */
+	private static final class Ring {
+		final int resolutionSecs;
+		final long[] startSecs;
+		final int[] numSamples, numNumericSamples;
+		final double[] min, max, sum;
+		final String[] lastValue;
+
+		Ring( int resolutionSecs, int size ) {
+			this.resolutionSecs = resolutionSecs;
+			startSecs = new long[size];
+			Arrays.fill( startSecs, -1 );
+			numSamples = new int[size]; numNumericSamples = new int[size];
+			min = new double[size]; max = new double[size]; sum = new double[size];
+			lastValue = new String[size];
+		}
+
+		void add( long timeSecs, String value, double numericValue ) {
+			final long windowStart = timeSecs - timeSecs % resolutionSecs;
+			final int i = (int) ( (windowStart / resolutionSecs) % startSecs.length );
+
+			if ( startSecs[i] != windowStart ) {
+				if ( startSecs[i] > windowStart ) return; // sample is older than this ring's history (the clock went back)
+				startSecs[i] = windowStart;
+				numSamples[i] = 0; numNumericSamples[i] = 0; sum[i] = 0;
+				min[i] = Double.MAX_VALUE; max[i] = -Double.MAX_VALUE;
+			}
+
+			numSamples[i]++;
+			lastValue[i] = value;
+			if ( Double.isNaN(numericValue) ) return;
+			numNumericSamples[i]++;
+			sum[i] += numericValue;
+			if ( numericValue < min[i] ) min[i] = numericValue;
+			if ( numericValue > max[i] ) max[i] = numericValue;
+		}
+
+		/**
+		 * Start of the oldest window still within this ring's retention period at time nowSecs - slots older than this
+		 * are stale, even if no later sample has overwritten them yet (e.g. the metric stopped being recorded).
+		 */
+		long getOldestRetainedStartSecs( long nowSecs ) {
+			return nowSecs - nowSecs % resolutionSecs - (long) (startSecs.length - 1) * resolutionSecs;
+		}
+
+		void collect( String name, long oldestStartSecs, List<Window> windows ) {
+			// Walk the slots in time order, starting after the most recently written one
+			int latest = 0;
+			for ( int i=1; i<startSecs.length; i++ ) if ( startSecs[i] > startSecs[latest] ) latest = i;
+
+			for ( int n=1; n<=startSecs.length; n++ ) {
+				final int i = (latest + n) % startSecs.length;
+				if ( startSecs[i] < oldestStartSecs || 0 == numSamples[i] ) continue;
+				windows.add( new Window(name, startSecs[i], numSamples[i], numNumericSamples[i], min[i], max[i], sum[i], lastValue[i]) );
+			}
+		}
+	}
+
+	private static final class Metric {
+		final Ring[] rings = new Ring[ RESOLUTION_SECS.length ];
+		Metric() {
+			for ( int r=0; r<rings.length; r++ ) rings[r] = new Ring( RESOLUTION_SECS[r], WINDOWS_PER_RESOLUTION[r] );
+		}
+	}
+
+	/**
+	 * Records a sample for a metric at the current time.
+	 *
+	 * @param name - metric name, truncated to MAX_NAME_LENGTH chars
+	 * @param value - sample value, truncated to MAX_VALUE_LENGTH chars. Only values that parse as numbers contribute to min/max/avg.
+	 */
+	public static void record( String name, String value ) {
+		record( name, value, System.currentTimeMillis() );
+	}
+
+	static void record( String name, String value, long timeMillis ) {
+
+		if ( null == name || null == value ) return;
+		if ( name.length() > MAX_NAME_LENGTH ) name = name.substring(0, MAX_NAME_LENGTH);
+		if ( value.length() > MAX_VALUE_LENGTH ) value = value.substring(0, MAX_VALUE_LENGTH);
+
+		Metric metric = metrics.get(name);
+		if ( null == metric ) {
+			synchronized( metrics ) {
+				metric = metrics.get(name);
+				if ( null == metric ) {
+					if ( MAX_METRICS <= metrics.size() ) {
+						if ( !isMaxMetricsWarningLogged ) {
+							logger.logInfo("Maximum number of metrics reached (" + MAX_METRICS + ") - ignoring new metric: " + name);
+							isMaxMetricsWarningLogged = true;
+						}
+						return;
+					}
+					metric = new Metric();
+					metrics.put( name, metric );
+				}
+			}
+		}
+
+		double numericValue;
+		try { numericValue = Double.parseDouble( value.trim() ); }
+		catch ( NumberFormatException e ) { numericValue = Double.NaN; }
+
+		final long timeSecs = timeMillis / 1000;
+		synchronized( metric ) {
+			for ( Ring ring : metric.rings ) ring.add( timeSecs, value, numericValue );
+		}
+	}
+
+	/**
+	 * Removes all recorded history for a metric.
+	 */
+	public static void remove( String name ) {
+		if ( null == name ) return;
+		metrics.remove( name.length() > MAX_NAME_LENGTH ? name.substring(0, MAX_NAME_LENGTH) : name );
+	}
+
+	/**
+	 * @param resolution - one of RESOLUTION_NAMES
+	 * @return the index of the resolution, or -1 if it is not known
+	 */
+	public static int getResolutionIndex( String resolution ) {
+		for ( int r=0; r<RESOLUTION_NAMES.length; r++ )
+			if ( RESOLUTION_NAMES[r].equalsIgnoreCase(resolution) ) return r;
+		return -1;
+	}
+
+	/**
+	 * Gets the windows of the given resolution that hold samples and started less than maxAgeSecs seconds ago,
+	 * ordered by metric name and start time. Windows outside the resolution's retention period are never returned.
+	 *
+	 * @param resolutionIndex - index in RESOLUTION_NAMES
+	 * @param maxAgeSecs - maximum window age in seconds, or a negative value for all the windows retained
+	 * @param nowMillis - time from which the window ages are measured
+	 */
+	public static List<Window> getWindows( int resolutionIndex, int maxAgeSecs, long nowMillis ) {
+
+		final long nowSecs = nowMillis/1000;
+		final long oldestRequestedStartSecs = 0 > maxAgeSecs ? Long.MIN_VALUE : nowSecs - maxAgeSecs + 1;
+		final List<Window> windows = new ArrayList<Window>();
+
+		final String[] names = metrics.keySet().toArray( new String[0] );
+		Arrays.sort( names );
+		for ( String name : names ) {
+			final Metric metric = metrics.get(name);
+			if ( null == metric ) continue;
+			final Ring ring = metric.rings[resolutionIndex];
+			synchronized( metric ) {
+				ring.collect( name, Math.max(oldestRequestedStartSecs, ring.getOldestRetainedStartSecs(nowSecs)), windows );
+			}
+		}
+
+		return windows;
+	}
+}
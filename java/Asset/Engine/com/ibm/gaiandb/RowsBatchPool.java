@@ -0,0 +1,169 @@
+/*
+ * (C) Copyright IBM Corp. 2008
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.derby.iapi.types.DataValueDescriptor;
+
+/**
+ * Pool of the rows of batches released by GaianResult instances, to be re-used for the batches of later queries having rows of
+ * the same shape (i.e. the same column types).
+ *
+ * Rows are pooled and taken a whole batch at a time, under a single lock, so there is no synchronisation or map lookup per cell.
+ * The pool is striped to limit contention between threads: a thread releases rows to the stripe of its thread id, and takes rows
+ * from that stripe first, then from the others if it needs more. Each stripe holds a bounded number of cells, for a bounded number
+ * of row shapes - the least recently used shapes are evicted to make room for others. At most a quarter of a stripe's cells are
+ * pooled from a single batch, so that releasing a large batch doesn't flush the rows of all other shapes.
+ *
+ * Batches in circulation between the producers and the consumer of a query are recycled by the query itself, without this pool.
+ */
+class RowsBatchPool {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2008";
+
+	private static final int MAX_POOLED_CELLS_PER_STRIPE = 16384;
+	private static final int MAX_ROW_SHAPES_PER_STRIPE = 16;
+	private static final int MAX_RELEASED_CELLS_PER_BATCH = MAX_POOLED_CELLS_PER_STRIPE / 4;
+
+	private static final Stripe[] stripes;
+	private static final int stripeMask;
+
+	static {
+		// Use a power of 2 of at least twice the number of processors
+		int numStripes = Integer.highestOneBit( Math.max( 1, 2*Runtime.getRuntime().availableProcessors() - 1 ) ) << 1;
+		stripes = new Stripe[ numStripes ];
+		for ( int i=0; i<numStripes; i++ ) stripes[i] = new Stripe();
+		stripeMask = numStripes - 1;
+	}
+
+	/**
+	 * Returns the key under which rows built from the given template are pooled.
+	 */
+	static String getRowShape( DataValueDescriptor[] template ) {
+		StringBuilder shape = new StringBuilder();
+		for ( DataValueDescriptor dvd : template ) shape.append( dvd.getTypeName() ).append(',');
+		return shape.toString();
+	}
+
+	/**
+	 * Gets a batch of rows of the given shape - using pooled rows when available, and new rows of null cells built from
+	 * the template otherwise.
+	 */
+	static DataValueDescriptor[][] acquire( String rowShape, DataValueDescriptor[] template, int batchSize ) {
+
+		DataValueDescriptor[][] batch = new DataValueDescriptor[batchSize][];
+		int n = 0;
+
+		if ( 0 < template.length ) {
+			int home = getHomeStripe();
+			for ( int i=0; i<stripes.length && n<batchSize; i++ )
+				n = stripes[ (home+i) & stripeMask ].take( rowShape, batch, n );
+		}
+
+		for ( int colcount = template.length; n<batchSize; n++ ) {
+			DataValueDescriptor[] row = new DataValueDescriptor[colcount];
+			for ( int i=0; i<colcount; i++ ) row[i] = template[i].getNewNull();
+			batch[n] = row;
+		}
+
+		return batch;
+	}
+
+	/**
+	 * Nulls the cells of rows [fromRow, rows.length) of a batch that is no longer used, and pools these rows in the stripe of
+	 * the current thread. Rows beyond MAX_RELEASED_CELLS_PER_BATCH are dropped.
+	 */
+	static void release( String rowShape, DataValueDescriptor[][] rows, int fromRow ) {
+
+		if ( fromRow >= rows.length || 0 == rows[fromRow].length ) return;
+
+		int toRow = Math.min( rows.length, fromRow + MAX_RELEASED_CELLS_PER_BATCH / rows[fromRow].length );
+		if ( fromRow >= toRow ) return;
+
+		for ( int n=fromRow; n<toRow; n++ )
+			for ( DataValueDescriptor cell : rows[n] ) cell.setToNull();
+
+		stripes[ getHomeStripe() ].put( rowShape, rows, fromRow, toRow );
+	}
+
+	private static int getHomeStripe() {
+		return (int) Thread.currentThread().getId() & stripeMask;
+	}
+
+	private static final class Stripe {
+
+		// Row shape -> pooled rows, in least recently used order
+		private final Map<String, PooledRows> rowsByShape = new LinkedHashMap<String, PooledRows>( 16, 0.75f, true );
+		private int numPooledCells = 0;
+
+		// Takes pooled rows into batch[n..], and returns the index following the last row taken
+		synchronized int take( String rowShape, DataValueDescriptor[][] batch, int n ) {
+			PooledRows pooled = rowsByShape.get( rowShape );
+			if ( null == pooled ) return n;
+			int count = Math.min( pooled.size, batch.length - n );
+			pooled.size -= count;
+			System.arraycopy( pooled.rows, pooled.size, batch, n, count );
+			for ( int i=pooled.size; i<pooled.size+count; i++ ) pooled.rows[i] = null;
+			numPooledCells -= count * pooled.numCols;
+			return n + count;
+		}
+
+		// Pools rows[fromRow..toRow), evicting only as many rows of other shapes as they need
+		synchronized void put( String rowShape, DataValueDescriptor[][] rows, int fromRow, int toRow ) {
+
+			int numCols = rows[fromRow].length;
+			int count = toRow - fromRow;
+			final boolean isNewShape = !rowsByShape.containsKey( rowShape );
+
+			// Make room by evicting rows of the least recently used shapes - all of them if the number of shapes is at its limit
+			for ( Iterator<Map.Entry<String, PooledRows>> it = rowsByShape.entrySet().iterator();
+					it.hasNext() && ( MAX_POOLED_CELLS_PER_STRIPE - numPooledCells < count * numCols || isNewShape && MAX_ROW_SHAPES_PER_STRIPE <= rowsByShape.size() ); ) {
+				Map.Entry<String, PooledRows> e = it.next();
+				if ( e.getKey().equals( rowShape ) ) continue;
+				PooledRows evicted = e.getValue();
+				int numCellsNeeded = count * numCols - ( MAX_POOLED_CELLS_PER_STRIPE - numPooledCells );
+				int numEvicted = isNewShape && MAX_ROW_SHAPES_PER_STRIPE <= rowsByShape.size() ? evicted.size :
+					Math.min( evicted.size, ( numCellsNeeded + evicted.numCols - 1 ) / evicted.numCols );
+				for ( int i=evicted.size-numEvicted; i<evicted.size; i++ ) evicted.rows[i] = null;
+				evicted.size -= numEvicted;
+				numPooledCells -= numEvicted * evicted.numCols;
+				if ( 0 == evicted.size ) it.remove();
+			}
+
+			count = Math.min( count, ( MAX_POOLED_CELLS_PER_STRIPE - numPooledCells ) / numCols );
+			if ( 1 > count ) return;
+
+			PooledRows pooled = rowsByShape.get( rowShape );
+			if ( null == pooled ) rowsByShape.put( rowShape, pooled = new PooledRows( numCols ) );
+			pooled.ensureCapacity( pooled.size + count );
+			System.arraycopy( rows, fromRow, pooled.rows, pooled.size, count );
+			pooled.size += count;
+			numPooledCells += count * numCols;
+		}
+	}
+
+	private static final class PooledRows {
+
+		final int numCols;
+		DataValueDescriptor[][] rows = new DataValueDescriptor[64][];
+		int size = 0;
+
+		PooledRows( int numCols ) { this.numCols = numCols; }
+
+		void ensureCapacity( int capacity ) {
+			if ( capacity <= rows.length ) return;
+			DataValueDescriptor[][] newRows = new DataValueDescriptor[ Math.max( capacity, 2*rows.length ) ][];
+			System.arraycopy( rows, 0, newRows, 0, size );
+			rows = newRows;
+		}
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * (C) Copyright IBM Corp. 2014
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.types.BitDataValue;
+import org.apache.derby.iapi.types.DataValueDescriptor;
+import org.apache.derby.iapi.types.SQLDecimal;
+import org.apache.derby.iapi.types.SQLDouble;
+import org.apache.derby.iapi.types.SQLInteger;
+import org.apache.derby.iapi.types.SQLLongint;
+import org.apache.derby.iapi.types.SQLReal;
+import org.apache.derby.iapi.types.SQLSmallint;
+import org.apache.derby.iapi.types.SQLTinyint;
+import org.apache.derby.iapi.types.StringDataValue;
+
+import com.ibm.gaiandb.diags.GDBMessages;
+
+/**
+ * Elimination of the duplicate rows of a logical table federating overlapping sources, e.g. the same file on several nodes or
+ * replicated RDBMS tables. The logical table declares what makes rows duplicates with property &lt;LT&gt;_DEDUP:
+ *
+ * ROW [APPROXIMATE] - rows having the same values in all the logical table columns (other than the hidden provenance and explain columns)
+ * KEY &lt;column&gt; [&lt;column&gt; ...] [APPROXIMATE] - rows having the same values in the key columns
+ *
+ * The declaration is passed on to the nodes a query propagates to with table argument: dedup=..., and each node drops the duplicates
+ * of the rows it returns, whether they come from its own data sources or from other nodes - so duplicates are dropped as close to
+ * their sources as possible, and each node only has to drop the duplicates between the rows of its different links.
+ *
+ * Rows are recognised by a 64 bit fingerprint of their key values. The fingerprints seen so far are held in an open addressing
+ * hash set, or in APPROXIMATE mode in a scalable Bloom filter, which holds 3 to 5 times more rows in the same memory but drops
+ * up to about 1 in 500 distinct rows (false positives). The memory used by a query on a node is bounded by DEDUP_MEMORY_LIMIT_MB: beyond this,
+ * rows are still checked against those already seen, but new rows are not recorded, so later duplicates of them are passed on
+ * for the next node or the client to drop.
+ */
+public class RowsDeduplicator {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2014";
+
+	private static final Logger logger = new Logger( "RowsDeduplicator", 30 );
+
+	public static final String LT_ARG_DEDUP = "dedup";
+	private static final String ROW = "ROW", KEY = "KEY", APPROXIMATE = "APPROXIMATE";
+
+	private static final int INITIAL_SET_CAPACITY = 1024;
+	private static final int INITIAL_BLOOM_BITS = 1 << 16;
+	private static final int BLOOM_BITS_PER_ROW = 16;
+	private static final int BLOOM_NUM_HASHES = 11; // ~0.05% false positives per layer at 16 bits per row
+	private static final long MAX_BLOOM_LAYER_BYTES = 1 << 27; // so bit positions fit in an int
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L, FNV_PRIME = 0x100000001b3L;
+	private static final long NULL_HASH = 0x6a09e667f3bcc909L;
+
+	private final int[] dedupColumns;
+	private final boolean isApproximate;
+	private final long maxBytes;
+
+	// Exact mode: fingerprints seen so far, with 0 marking empty slots - guarded by this
+	private long[] fingerprints = null;
+	private int numFingerprints = 0;
+
+	// Approximate mode: Bloom filter layers, each 4 times bigger than the previous one - guarded by this
+	private final List<long[]> bloomLayers = new ArrayList<long[]>();
+	private int numRowsInLastLayer = 0;
+
+	private boolean isSaturated = false;
+	private long numRowsChecked = 0, numDuplicates = 0;
+
+	/**
+	 * Resolves the 0-based ids of the columns making rows duplicates, from the dedup declaration of a logical table.
+	 * Returns null if the declaration is empty or invalid.
+	 */
+	public static int[] getDedupColumns( String dedup, GaianResultSetMetaData ltrsmd ) {
+
+		if ( null == dedup || 0 == dedup.trim().length() ) return null;
+
+		String[] tokens = dedup.trim().split("\\s+");
+		int numTokens = APPROXIMATE.equalsIgnoreCase( tokens[tokens.length-1] ) ? tokens.length-1 : tokens.length;
+		DataValueDescriptor[] template = ltrsmd.getRowTemplate();
+
+		if ( 1 == numTokens && ROW.equalsIgnoreCase( tokens[0] ) ) {
+			List<Integer> columns = new ArrayList<Integer>();
+			for ( int i=0; i<template.length; i++ )
+				if ( !isHiddenColumn( ltrsmd.getColumnName( i+1, template.length ) ) ) columns.add( i );
+			int[] dedupColumns = new int[ columns.size() ];
+			for ( int i=0; i<dedupColumns.length; i++ ) dedupColumns[i] = columns.get(i);
+			return dedupColumns;
+		}
+
+		if ( 1 < numTokens && KEY.equalsIgnoreCase( tokens[0] ) ) {
+			int[] dedupColumns = new int[ numTokens-1 ];
+			for ( int i=1; i<numTokens; i++ ) {
+				int position = ltrsmd.getColumnPosition( tokens[i] );
+				if ( 1 > position || template.length < position ) {
+					logger.logWarning( GDBMessages.ENGINE_DEDUP_SPEC_ERROR, "Duplicate rows not eliminated: dedup key column " + tokens[i] +
+							" is not in the logical table" );
+					return null;
+				}
+				dedupColumns[i-1] = position-1;
+			}
+			return dedupColumns;
+		}
+
+		logger.logWarning( GDBMessages.ENGINE_DEDUP_SPEC_ERROR, "Duplicate rows not eliminated: invalid dedup declaration: " + dedup +
+				" - should be: ROW [" + APPROXIMATE + "] or KEY <column> [<column> ...] [" + APPROXIMATE + "]" );
+		return null;
+	}
+
+	private static boolean isHiddenColumn( String columnName ) {
+		for ( String hidden : GaianDBConfig.HIDDEN_COL_NAMES ) if ( hidden.equalsIgnoreCase( columnName ) ) return true;
+		return false;
+	}
+
+	RowsDeduplicator( String dedup, int[] dedupColumns ) {
+		this.dedupColumns = dedupColumns;
+		String[] tokens = dedup.trim().split("\\s+");
+		this.isApproximate = APPROXIMATE.equalsIgnoreCase( tokens[tokens.length-1] );
+		this.maxBytes = 1024L * 1024 * GaianDBConfig.getDedupMemoryLimitMB();
+	}
+
+	/**
+	 * Drops the rows of a batch that are duplicates of rows seen before. The rows that are kept are moved to the front of the batch,
+	 * in their original order, and the others to the back.
+	 *
+	 * @return the number of rows kept
+	 */
+	int removeDuplicates( DataValueDescriptor[][] batch ) {
+
+		// Compute the fingerprints outside the lock, as the data source threads of the query share it
+		long[] batchFingerprints = new long[ batch.length ];
+		boolean[] isChecked = new boolean[ batch.length ];
+		for ( int n=0; n<batch.length; n++ )
+			try {
+				batchFingerprints[n] = fingerprint( batch[n] );
+				isChecked[n] = true;
+			} catch ( StandardException e ) {
+				logger.logThreadWarning( GDBMessages.ENGINE_DEDUP_ROW_ERROR, "Unable to compute dedup key of row (row passed on): " + e );
+			}
+
+		int numKept = 0;
+		synchronized ( this ) {
+			for ( int n=0; n<batch.length; n++ ) {
+				if ( isChecked[n] && !add( batchFingerprints[n] ) ) continue;
+				if ( numKept != n ) { DataValueDescriptor[] row = batch[numKept]; batch[numKept] = batch[n]; batch[n] = row; }
+				numKept++;
+			}
+			numRowsChecked += batch.length;
+			numDuplicates += batch.length - numKept;
+		}
+		return numKept;
+	}
+
+	synchronized String getStats() {
+		return "checked " + numRowsChecked + " rows, dropped " + numDuplicates + " duplicates" +
+			( isApproximate ? " (approximate)" : "" ) + ( isSaturated ? ", memory limit reached" : "" );
+	}
+
+	// Records a fingerprint and returns true if it wasn't seen before
+	private boolean add( long fingerprint ) {
+		return isApproximate ? addToBloomFilter( fingerprint ) : addToSet( fingerprint );
+	}
+
+	private boolean addToSet( long fingerprint ) {
+
+		if ( null == fingerprints ) fingerprints = new long[ INITIAL_SET_CAPACITY ];
+
+		int mask = fingerprints.length - 1;
+		int slot = (int) ( fingerprint ^ fingerprint >>> 32 ) & mask;
+		for ( ; 0 != fingerprints[slot]; slot = (slot+1) & mask )
+			if ( fingerprint == fingerprints[slot] ) return false;
+
+		// Keep the load factor below 3/4
+		if ( numFingerprints+1 > fingerprints.length - ( fingerprints.length >> 2 ) ) {
+			if ( 16L * fingerprints.length > maxBytes ) { saturate(); return true; }
+			growSet();
+			return addToSet( fingerprint );
+		}
+
+		fingerprints[slot] = fingerprint;
+		numFingerprints++;
+		return true;
+	}
+
+	private void growSet() {
+		long[] oldFingerprints = fingerprints;
+		fingerprints = new long[ 2 * oldFingerprints.length ];
+		int mask = fingerprints.length - 1;
+		for ( long f : oldFingerprints ) {
+			if ( 0 == f ) continue;
+			int slot = (int) ( f ^ f >>> 32 ) & mask;
+			while ( 0 != fingerprints[slot] ) slot = (slot+1) & mask;
+			fingerprints[slot] = f;
+		}
+	}
+
+	private boolean addToBloomFilter( long fingerprint ) {
+
+		final int h1 = (int) fingerprint, h2 = (int) ( fingerprint >>> 32 ) | 1;
+
+		for ( long[] layer : bloomLayers )
+			if ( isInBloomLayer( layer, h1, h2 ) ) return false;
+
+		long[] layer = bloomLayers.isEmpty() ? null : bloomLayers.get( bloomLayers.size()-1 );
+		if ( null == layer || 64L * layer.length <= (long) BLOOM_BITS_PER_ROW * numRowsInLastLayer ) {
+			// Start a new layer, or stop recording rows if it would exceed the memory limit
+			long layerBytes = null == layer ? INITIAL_BLOOM_BITS / 8 : 4L * 8 * layer.length;
+			long usedBytes = 0;
+			for ( long[] l : bloomLayers ) usedBytes += 8L * l.length;
+			if ( usedBytes + layerBytes > maxBytes || MAX_BLOOM_LAYER_BYTES < layerBytes ) { saturate(); return true; }
+			bloomLayers.add( layer = new long[ (int) ( layerBytes / 8 ) ] );
+			numRowsInLastLayer = 0;
+		}
+
+		final int mask = 64 * layer.length - 1;
+		for ( int i=0; i<BLOOM_NUM_HASHES; i++ ) {
+			int bit = ( h1 + i*h2 ) & mask;
+			layer[ bit >>> 6 ] |= 1L << bit;
+		}
+		numRowsInLastLayer++;
+		return true;
+	}
+
+	private static boolean isInBloomLayer( long[] layer, int h1, int h2 ) {
+		final int mask = 64 * layer.length - 1;
+		for ( int i=0; i<BLOOM_NUM_HASHES; i++ ) {
+			int bit = ( h1 + i*h2 ) & mask;
+			if ( 0 == ( layer[ bit >>> 6 ] & 1L << bit ) ) return false;
+		}
+		return true;
+	}
+
+	private void saturate() {
+		if ( isSaturated ) return;
+		isSaturated = true;
+		logger.logThreadInfo( "Dedup memory limit reached (DEDUP_MEMORY_LIMIT_MB): new rows are no longer recorded, later duplicates of them are passed on" );
+	}
+
+	// 64 bit hash of the dedup key of a row, never 0. Values that compare as equal in SQL have the same hash.
+	private long fingerprint( DataValueDescriptor[] row ) throws StandardException {
+		long h = FNV_OFFSET;
+		for ( int col : dedupColumns ) h = mix( h * FNV_PRIME + hashValue( row[col] ) );
+		return 0 == h ? 1 : h;
+	}
+
+	private static long hashValue( DataValueDescriptor cell ) throws StandardException {
+
+		if ( cell.isNull() ) return NULL_HASH;
+
+		if ( cell instanceof SQLInteger || cell instanceof SQLLongint || cell instanceof SQLSmallint || cell instanceof SQLTinyint )
+			return mix( cell.getLong() );
+
+		if ( cell instanceof SQLDouble || cell instanceof SQLReal ) {
+			double d = cell.getDouble();
+			return mix( 0 == d ? 0 : Double.doubleToLongBits( d ) ); // 0.0 and -0.0 are equal
+		}
+
+		if ( cell instanceof BitDataValue ) {
+			long h = FNV_OFFSET;
+			for ( byte b : cell.getBytes() ) h = ( h ^ ( b & 0xff ) ) * FNV_PRIME;
+			return h;
+		}
+
+		String s;
+		if ( cell instanceof SQLDecimal ) {
+			// Decimals equal in value may differ in scale
+			BigDecimal bd = (BigDecimal) cell.getObject();
+			s = 0 == bd.signum() ? "0" : bd.stripTrailingZeros().toPlainString();
+		} else
+			s = cell.getString();
+
+		int len = s.length();
+		// Trailing blanks are ignored when comparing character values
+		if ( cell instanceof StringDataValue ) while ( 0 < len && ' ' == s.charAt(len-1) ) len--;
+
+		long h = FNV_OFFSET;
+		for ( int i=0; i<len; i++ ) h = ( h ^ s.charAt(i) ) * FNV_PRIME;
+		return h;
+	}
+
+	private static long mix( long h ) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		return h ^ h >>> 33;
+	}
+}
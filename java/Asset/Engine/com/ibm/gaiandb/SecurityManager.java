@@ -19,11 +19,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Arrays;
+import java.util.Map;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.SecretKeySpec;
 
 import sun.misc.BASE64Decoder;
 
@@ -178,10 +181,216 @@ public class SecurityManager {
 		return getChecksum( input, CHECKSUM_ALGORITHM_MD5 );
 	}
 	
+	// Verified credentials are cached against a digest of the credentials string, so repeated queries from the same client session
+	// don't each incur the RSA decryption and GDB_USERS lookups. Entries expire after SECURITY_CREDENTIALS_CACHE_TTL_MS and the whole
+	// cache is invalidated whenever users are registered, removed or updated. Only successful verifications are cached.
+	private static final int VERIFIED_CREDENTIALS_CACHE_SIZE = 1000;
+	private static final Map<String, VerifiedCredentials> verifiedCredentialsCache =
+		new CachedHashMap<String, VerifiedCredentials>( VERIFIED_CREDENTIALS_CACHE_SIZE );
+	private static long verifiedCredentialsCacheGeneration = 0;
+	
+	private static final String GDB_USERS_UPDATED_EVENT = "GDB_USERS_UPDATED";
+	
+	// The cipher and prepared statements are shared - so cache misses are verified one at a time.
+	private static final Object authenticationLock = new Object();
+	
+	private static class VerifiedCredentials {
+		final String[] userFields;
+		final long expiryTime;
+		VerifiedCredentials( String[] userFields, long expiryTime ) { this.userFields = userFields; this.expiryTime = expiryTime; }
+	}
+	
+	// Session tokens are prefixed to the credentials block of propagated queries once this node has verified the block.
+	// Downstream nodes sharing the SECURITY_SESSION_TOKEN_SECRET can then authenticate the user with an HMAC check instead of RSA.
+	// Format: GDBST:<hex user>:<expiry time ms>:<hex hmac>!<original b64 credentials block>
+	// None of the separator characters can occur in a base64 string.
+	public static final String SESSION_TOKEN_PREFIX = "GDBST:";
+	private static final char SESSION_TOKEN_SEPARATOR = '!';
+	private static final String SESSION_TOKEN_MAC_ALGORITHM = "HmacSHA1";
+	
+	/**
+	 * Clears all cached verified credentials. Called whenever the users table changes.
+	 */
+	public static void clearVerifiedCredentialsCache() {
+		synchronized( verifiedCredentialsCache ) {
+			verifiedCredentialsCache.clear();
+			verifiedCredentialsCacheGeneration++;
+		}
+	}
+	
+	private static String getCredentialsDigest( String credentialsBlock ) throws NoSuchAlgorithmException {
+		return Util.byteArray2HexString( getChecksumSHA1( credentialsBlock.getBytes() ), false );
+	}
+	
+	/**
+	 * Verifies a credentials block, returning the authenticated user fields: { user, affiliation, clearance }, or null if no user could be authenticated.
+	 * The block is either a b64 encoded multi-encrypted block created by a client, or such a block prefixed with a session token
+	 * issued by an upstream node (see getPropagatedCredentials()).
+	 * 
+	 * Successful verifications are cached for SECURITY_CREDENTIALS_CACHE_TTL_MS.
+	 * 
+	 * @param b64EncodedMultiEncryptedBlock
+	 * @return the user fields, or null
+	 * @throws SQLException
+	 */
 	public static String[] verifyCredentials( String b64EncodedMultiEncryptedBlock/*, String sqlQueryIn*/ ) throws SQLException {
 		
 		if ( IS_SECURITY_EXCLUDED_FROM_RELEASE ) return null;
 		
+		if ( null == b64EncodedMultiEncryptedBlock ) {
+			logger.logInfo("Unable to authenticate a user - no credentials block");
+			return null;
+		}
+		
+		if ( GaianDBConfigProcedures.checkAndClearTriggerEvent( GDB_USERS_UPDATED_EVENT ) ) {
+			logger.logInfo("Users table was updated - clearing verified credentials cache");
+			clearVerifiedCredentialsCache();
+		}
+		
+		String digest = null;
+		long generation;
+		
+		try { digest = getCredentialsDigest( b64EncodedMultiEncryptedBlock ); }
+		catch ( Exception e ) { logger.logInfo("Unable to compute digest of credentials block (not caching): " + e); }
+		
+		synchronized( verifiedCredentialsCache ) {
+			generation = verifiedCredentialsCacheGeneration;
+			VerifiedCredentials vc = null == digest ? null : verifiedCredentialsCache.get( digest );
+			if ( null != vc ) {
+				if ( System.currentTimeMillis() < vc.expiryTime ) {
+					logger.logDetail("Using cached verification for user " + vc.userFields[0]);
+					return (String[]) vc.userFields.clone();
+				}
+				verifiedCredentialsCache.remove( digest );
+			}
+		}
+		
+		long expiryTime = System.currentTimeMillis() + GaianDBConfig.getSecurityCredentialsCacheTTLMs();
+		String[] userFields = null;
+		
+		synchronized( authenticationLock ) {
+			if ( b64EncodedMultiEncryptedBlock.startsWith( SESSION_TOKEN_PREFIX ) ) {
+				
+				int sepIndex = b64EncodedMultiEncryptedBlock.indexOf( SESSION_TOKEN_SEPARATOR );
+				String rsaBlock = -1 == sepIndex ? "" : b64EncodedMultiEncryptedBlock.substring( sepIndex+1 );
+				
+				long[] tokenExpiry = new long[1];
+				String usr = verifySessionToken( b64EncodedMultiEncryptedBlock, rsaBlock, tokenExpiry );
+				
+				if ( null != usr ) {
+					logger.logInfo("Authenticated user " + usr + " from session token");
+					userFields = getUserFields( usr );
+					expiryTime = Math.min( expiryTime, tokenExpiry[0] ); // never trust a token beyond its own expiry
+				} else if ( 0 < rsaBlock.length() )
+					userFields = verifyEncryptedCredentials( rsaBlock );
+				
+			} else
+				userFields = verifyEncryptedCredentials( b64EncodedMultiEncryptedBlock );
+		}
+		
+		if ( null != userFields && null != digest )
+			synchronized( verifiedCredentialsCache ) {
+				// Don't cache if the users table changed while we were verifying
+				if ( generation == verifiedCredentialsCacheGeneration )
+					verifiedCredentialsCache.put( digest, new VerifiedCredentials( (String[]) userFields.clone(), expiryTime ) );
+			}
+		
+		return userFields;
+	}
+	
+	/**
+	 * Returns the credentials string to forward with a propagated query.
+	 * If a session token secret is configured and this node has recently verified the credentials, a fresh session token
+	 * for the authenticated user is prefixed to the original RSA block, so downstream nodes can skip the RSA decryption.
+	 * Otherwise the credentials string is returned unchanged.
+	 * 
+	 * @param credentialsBlock
+	 * @return the credentials to propagate
+	 */
+	public static String getPropagatedCredentials( String credentialsBlock ) {
+		
+		if ( IS_SECURITY_EXCLUDED_FROM_RELEASE || null == credentialsBlock ) return credentialsBlock;
+		
+		String secret = GaianDBConfig.getSecuritySessionTokenSecret();
+		if ( null == secret ) return credentialsBlock;
+		
+		VerifiedCredentials vc = null;
+		try {
+			String digest = getCredentialsDigest( credentialsBlock );
+			synchronized( verifiedCredentialsCache ) { vc = verifiedCredentialsCache.get( digest ); }
+		} catch ( Exception e ) {
+			logger.logInfo("Unable to compute digest of credentials block (no session token issued): " + e);
+		}
+		
+		// Only vouch for users that were authenticated on this node and whose verification hasn't expired.
+		if ( null == vc || System.currentTimeMillis() >= vc.expiryTime ) return credentialsBlock;
+		
+		String rsaBlock = credentialsBlock;
+		if ( rsaBlock.startsWith( SESSION_TOKEN_PREFIX ) ) {
+			int sepIndex = rsaBlock.indexOf( SESSION_TOKEN_SEPARATOR );
+			rsaBlock = -1 == sepIndex ? "" : rsaBlock.substring( sepIndex+1 );
+		}
+		
+		try {
+			String tokenBody = SESSION_TOKEN_PREFIX + Util.byteArray2HexString( vc.userFields[0].getBytes("UTF-8"), false ) + ":" + vc.expiryTime + ":";
+			return tokenBody + Util.byteArray2HexString( computeSessionTokenMac( secret, tokenBody, rsaBlock ), false )
+				+ SESSION_TOKEN_SEPARATOR + rsaBlock;
+		} catch ( Exception e ) {
+			logger.logInfo("Unable to create session token (propagating credentials block only): " + e);
+			return credentialsBlock;
+		}
+	}
+	
+	private static byte[] computeSessionTokenMac( String secret, String tokenBody, String rsaBlock ) throws Exception {
+		Mac mac = Mac.getInstance( SESSION_TOKEN_MAC_ALGORITHM );
+		mac.init( new SecretKeySpec( secret.getBytes("UTF-8"), SESSION_TOKEN_MAC_ALGORITHM ) );
+		mac.update( tokenBody.getBytes("UTF-8") );
+		// Bind the token to the credentials block it travels with
+		return mac.doFinal( getChecksumSHA1( rsaBlock.getBytes() ) );
+	}
+	
+	/**
+	 * Checks the signature and expiry of a session token.
+	 * 
+	 * @return the user name held in the token, or null if the token is not valid for this node.
+	 */
+	private static String verifySessionToken( String credentials, String rsaBlock, long[] expiryOut ) {
+		
+		String secret = GaianDBConfig.getSecuritySessionTokenSecret();
+		if ( null == secret ) {
+			logger.logInfo("Ignoring session token as no SECURITY_SESSION_TOKEN_SECRET is configured on this node");
+			return null;
+		}
+		
+		try {
+			int sepIndex = credentials.indexOf( SESSION_TOKEN_SEPARATOR );
+			String token = -1 == sepIndex ? credentials : credentials.substring( 0, sepIndex );
+			
+			String[] parts = token.substring( SESSION_TOKEN_PREFIX.length() ).split( ":" );
+			if ( 3 != parts.length ) throw new Exception("Malformed token");
+			
+			long expiryTime = Long.parseLong( parts[1] );
+			if ( System.currentTimeMillis() >= expiryTime ) throw new Exception("Token expired");
+			
+			String tokenBody = SESSION_TOKEN_PREFIX + parts[0] + ":" + parts[1] + ":";
+			String expectedMac = Util.byteArray2HexString( computeSessionTokenMac( secret, tokenBody, rsaBlock ), false );
+			if ( !MessageDigest.isEqual( expectedMac.getBytes(), parts[2].getBytes() ) ) throw new Exception("Signature mismatch");
+			
+			byte[] usr = new byte[ parts[0].length() / 2 ];
+			for ( int i=0; i<usr.length; i++ )
+				usr[i] = (byte) Integer.parseInt( parts[0].substring( 2*i, 2*i+2 ), 16 );
+			
+			expiryOut[0] = expiryTime;
+			return new String( usr, "UTF-8" );
+			
+		} catch ( Exception e ) {
+			logger.logWarning(GDBMessages.ENGINE_SESSION_TOKEN_INVALID, "Rejected session token (falling back to credentials block): " + e.getMessage());
+			return null;
+		}
+	}
+	
+	private static String[] verifyEncryptedCredentials( String b64EncodedMultiEncryptedBlock ) throws SQLException {
+		
 		String authenticatedUser = null;
 		
 		// We have a credentials column value that was passed in - we need to check the query hash and authenticate the user.
@@ -257,6 +466,7 @@ public class SecurityManager {
 			pstmtSetPwd = null;
 			pstmtRegisterUser = null;
 			pstmtRemoveUser = null;
+			pstmtGetUserFields = null;
 		}
 	}
 	
@@ -295,22 +505,28 @@ public class SecurityManager {
 	}
 	
 	static void registerUser( String usr, String affiliation, String clearance, String pwd ) throws SQLException, NoSuchAlgorithmException {
-		establishConnection();
-		if ( null == pstmtRegisterUser )
-			pstmtRegisterUser = dedicatedConnection.prepareStatement("insert into " + GDB_USERS_TABLE + " values(?, ?, ?, ?)");
-		pstmtRegisterUser.setString(1, usr);
-		pstmtRegisterUser.setString(2, affiliation);
-		pstmtRegisterUser.setString(3, clearance);
-		pstmtRegisterUser.setBytes(4, getChecksumSHA1(pwd.getBytes()));
-		pstmtRegisterUser.execute();
+		synchronized( authenticationLock ) {
+			establishConnection();
+			if ( null == pstmtRegisterUser )
+				pstmtRegisterUser = dedicatedConnection.prepareStatement("insert into " + GDB_USERS_TABLE + " values(?, ?, ?, ?)");
+			pstmtRegisterUser.setString(1, usr);
+			pstmtRegisterUser.setString(2, affiliation);
+			pstmtRegisterUser.setString(3, clearance);
+			pstmtRegisterUser.setBytes(4, getChecksumSHA1(pwd.getBytes()));
+			pstmtRegisterUser.execute();
+		}
+		clearVerifiedCredentialsCache();
 	}
 	
 	static void removeUser( String usr ) throws SQLException {
-		establishConnection();
-		if ( null == pstmtRemoveUser )
-			pstmtRemoveUser = dedicatedConnection.prepareStatement("delete from " + GDB_USERS_TABLE + " where " + colUser + "=?");
-		pstmtRemoveUser.setString(1, usr);
-		pstmtRemoveUser.execute();
+		synchronized( authenticationLock ) {
+			establishConnection();
+			if ( null == pstmtRemoveUser )
+				pstmtRemoveUser = dedicatedConnection.prepareStatement("delete from " + GDB_USERS_TABLE + " where " + colUser + "=?");
+			pstmtRemoveUser.setString(1, usr);
+			pstmtRemoveUser.execute();
+		}
+		clearVerifiedCredentialsCache();
 	}
 	
 	private static String[] getUserFields(String usr) throws SQLException {
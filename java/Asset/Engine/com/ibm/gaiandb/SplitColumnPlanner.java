@@ -0,0 +1,183 @@
+/*
+ * (C) Copyright IBM Corp. 2008
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.TreeMap;
+
+import com.ibm.gaiandb.diags.GDBMessages;
+
+/**
+ * Plans the ranges of the GaianQuery SPLITCOLUMN option when only the split column is given, e.g:
+ * select * from new com.ibm.db2j.GaianQuery('select item, price from stock', '', 'SPLITCOLUMN=ID') Q
+ *
+ * The originating node probes the network for the nodes holding the queried data and the span of values of the split column
+ * on each of them. The span is then cut into contiguous ranges, one per node, sized in proportion to each node's recent scan rate.
+ * Nodes record their scan rate (rows/s) as metric SPLIT_SCAN_RATE_METRIC whenever they serve a split range, so nodes that fell
+ * behind on previous queries are given smaller ranges on the next ones. Nodes with no recorded scan rate get the average one.
+ *
+ * Automatic planning is for replicated data: the split column must be an integer column, and all the nodes holding the data must
+ * report the same span of values for it. Otherwise the query is not split, and each node returns all its rows.
+ */
+public class SplitColumnPlanner {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2008";
+
+	private static final Logger logger = new Logger( "SplitColumnPlanner", 30 );
+
+	public static final String SPLIT_SCAN_RATE_METRIC = "Split Scan Rate";
+
+	// Scan rates recorded in the last 10 minutes are used
+	private static final int SCAN_RATE_HISTORY_SECS = 600;
+
+	private static final String SPLIT_COLUMN_KEY = "SPLITCOLUMN";
+
+	/**
+	 * Records the rate at which this node scanned a split range of a sub-query.
+	 */
+	public static void recordScanRate( long numRows, long elapsedMillis ) {
+		if ( 1 > numRows ) return;
+		MetricsStore.record( SPLIT_SCAN_RATE_METRIC, Long.toString( numRows * 1000 / Math.max(1, elapsedMillis) ) );
+	}
+
+	/**
+	 * Plans the ranges of values of the split column to be returned by each node holding the sub-query's data.
+	 *
+	 * @param splitColumn - name of an integer column of the sub-query result
+	 * @param subQuery - the GaianQuery sub-query
+	 * @param queryArguments - the GaianQuery query arguments, which may hold a SOURCELIST option
+	 * @return a SPLITCOLUMN option value, of the form: "<column> <node1> <from1> <to1> <node2> <from2> <to2> ...",
+	 * or null if the query should not be split.
+	 */
+	public static String planRanges( String splitColumn, String subQuery, String queryArguments ) {
+
+		// The probe queries target the same sources as the sub-query, so keep any other query argument, e.g. SOURCELIST
+		StringBuffer probeArgs = new StringBuffer();
+		for ( String option : Util.splitByCommas( queryArguments ) ) {
+			int idx = option.indexOf('=');
+			if ( -1 < idx && option.substring(0, idx).trim().equals( SPLIT_COLUMN_KEY ) ) continue;
+			probeArgs.append( 0 == probeArgs.length() ? "" : ", " ).append( option );
+		}
+
+		final String spanQuery = "select * from new com.ibm.db2j.GaianQuery('" +
+			Util.escapeSingleQuotes( "select min(" + splitColumn + ") lo, max(" + splitColumn + ") hi from (" + subQuery + ") S" ) +
+			"', 'with_provenance', '" + Util.escapeSingleQuotes( probeArgs.toString() ) + "') Q";
+
+		final String ratesQuery = "select * from new com.ibm.db2j.GaianQuery('" +
+			Util.escapeSingleQuotes( "select avg(avg_value) rate from new com.ibm.db2j.GaianMetrics('1m') M" +
+				" where name = '" + SPLIT_SCAN_RATE_METRIC + "' and age < " + SCAN_RATE_HISTORY_SECS ) +
+			"', 'with_provenance') Q";
+
+		// Node ID -> { lo, hi }, in node ID order so that the plan is deterministic
+		Map<String, long[]> spans = new TreeMap<String, long[]>();
+		Map<String, Double> rates = new TreeMap<String, Double>();
+
+		final String cid = GaianDBConfig.getLocalDerbyConnectionID();
+		final Stack<Object> pool = DataSourcesManager.getSourceHandlesPool( cid );
+		Connection c = null;
+
+		try {
+			c = DataSourcesManager.getPooledJDBCConnection( cid, pool );
+			Statement s = c.createStatement();
+			try {
+				ResultSet rs = s.executeQuery( spanQuery );
+				int colType = rs.getMetaData().getColumnType(1);
+				if ( Types.BIGINT != colType && Types.INTEGER != colType && Types.SMALLINT != colType && Types.TINYINT != colType ) {
+					logger.logInfo("Not splitting query automatically: split column " + splitColumn + " is not an integer column");
+					rs.close();
+					return null;
+				}
+				while ( rs.next() ) {
+					long lo = rs.getLong(1);
+					if ( rs.wasNull() ) continue; // no rows on that node
+					spans.put( rs.getString( GaianDBConfig.GDB_NODE ), new long[] { lo, rs.getLong(2) } );
+				}
+				rs.close();
+
+				rs = s.executeQuery( ratesQuery );
+				while ( rs.next() ) {
+					double rate = rs.getDouble(1);
+					if ( !rs.wasNull() && 0 < rate ) rates.put( rs.getString( GaianDBConfig.GDB_NODE ), new Double(rate) );
+				}
+				rs.close();
+			} finally {
+				s.close();
+			}
+		} catch ( SQLException e ) {
+			logger.logWarning( GDBMessages.ENGINE_SUBQUERY_ERROR, "Unable to plan SPLITCOLUMN ranges automatically for column " + splitColumn +
+					" (query will not be split): " + Util.getExceptionAsString(e) );
+			return null;
+		} finally {
+			if ( null != c ) pool.push( c );
+		}
+
+		if ( spans.isEmpty() ) {
+			logger.logInfo("Not splitting query automatically: no node holds rows for it");
+			return null;
+		}
+
+		long[] span = null;
+		for ( long[] nodeSpan : spans.values() )
+			if ( null == span ) span = nodeSpan;
+			else if ( span[0] != nodeSpan[0] || span[1] != nodeSpan[1] ) {
+				logger.logInfo("Not splitting query automatically: nodes hold different spans of " + splitColumn + " (data is not replicated)");
+				return null;
+			}
+
+		List<String> nodes = new ArrayList<String>( spans.keySet() );
+		double[] weights = new double[ nodes.size() ];
+		double sumKnownRates = 0;
+		for ( Double rate : rates.values() ) sumKnownRates += rate.doubleValue();
+		final double defaultRate = rates.isEmpty() ? 1 : sumKnownRates / rates.size();
+		for ( int i=0; i<weights.length; i++ ) {
+			Double rate = rates.get( nodes.get(i) );
+			weights[i] = null == rate ? defaultRate : rate.doubleValue();
+		}
+
+		final String plan = splitColumn + assignRanges( nodes, weights, span[0], span[1] );
+		logger.logInfo("Planned SPLITCOLUMN ranges: " + plan + ", based on scan rates: " + rates);
+		return plan;
+	}
+
+	// Cuts [lo, hi] into contiguous ranges proportional to the weights. The first and last ranges are left open-ended,
+	// to include rows inserted after the probe. A node may get an empty range (from 1 to 0) so that it returns no rows.
+	static String assignRanges( List<String> nodes, double[] weights, long lo, long hi ) {
+
+		double totalWeight = 0;
+		for ( double w : weights ) totalWeight += w;
+
+		final double numValues = (double) hi - lo + 1;
+		StringBuffer ranges = new StringBuffer();
+		long from = Long.MIN_VALUE;
+		double cumulativeWeight = 0;
+
+		for ( int i=0; i<weights.length; i++ ) {
+			cumulativeWeight += weights[i];
+			long to = i == weights.length-1 ? Long.MAX_VALUE :
+				lo - 1 + (long) Math.floor( numValues * cumulativeWeight / totalWeight );
+
+			ranges.append(' ').append( nodes.get(i) );
+			if ( to < from ) ranges.append(" 1 0");
+			else {
+				ranges.append(' ').append(from).append(' ').append(to);
+				from = to + 1;
+			}
+		}
+
+		return ranges.toString();
+	}
+}
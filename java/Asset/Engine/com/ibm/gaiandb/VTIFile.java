@@ -11,6 +11,8 @@ import java.io.File;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Stack;
 import java.util.concurrent.ConcurrentMap;
 
@@ -72,6 +74,7 @@ public class VTIFile extends VTIWrapper {
 	}
 	
 	private String[] pluralizedInstances = null;
+	private Map<String, Long> pluralizedInstanceSizes = null; // file lengths, read along with the instances
 	
 	/**
 	 * This method computes the new set of instances matching the arguments
@@ -86,7 +89,14 @@ public class VTIFile extends VTIWrapper {
 
 			timeOfLastPluralizedInstancesResolution = timeNow;
 			
-			pluralizedInstances = Util.findFilesTreeMatchingMask( filePathID, GaianDBConfig.isPluralizedOptionUsingRegex(nodeDefName) ); // this could be time-consuming
+			String[] instances = Util.findFilesTreeMatchingMask( filePathID, GaianDBConfig.isPluralizedOptionUsingRegex(nodeDefName) ); // this could be time-consuming
+			
+			Map<String, Long> sizes = new HashMap<String, Long>();
+			if ( null != instances )
+				for ( String instance : instances ) sizes.put( instance, new File( instance ).length() );
+			
+			pluralizedInstanceSizes = sizes;
+			pluralizedInstances = instances;
 
 			logger.logInfo("Derived pluralized VTIFile instances: " + ( null == pluralizedInstances ? null : Arrays.asList( pluralizedInstances ) ));
 		}
@@ -104,6 +114,16 @@ public class VTIFile extends VTIWrapper {
 	
 	@Override
 	public DataValueDescriptor[] getPluralizedInstanceConstants(String dsInstanceID) { return null; }
+	
+	/**
+	 * Files are read largest first. Empty files, or ones that were deleted, hold no rows so they are not queried.
+	 */
+	@Override
+	public long getPluralizedInstanceSize(String dsInstanceID) {
+		Map<String, Long> sizes = pluralizedInstanceSizes;
+		Long size = null == sizes ? null : sizes.get( dsInstanceID );
+		return null == size ? -1 : size.longValue();
+	}
 
 	@SuppressWarnings("unchecked")
 	protected GaianChildVTI execute( ConcurrentMap<String,Object> arguments, Qualifier[][] qualifiers, int[] projectedColumns,
@@ -230,7 +250,7 @@ public class VTIFile extends VTIWrapper {
 			}
 			
 			if ( result instanceof InMemoryRows )
-				((InMemoryRows) result).setRowsAndIndexes( inMemoryRows, inMemoryRowsIndexes );
+				((InMemoryRows) result).setRowsAndIndexes( inMemoryRows, inMemoryRowsIndexes, inMemoryRowsSpatialIndex );
 						
 			result.setExtractConditions( qualifiers, projectedColumns,
 					safeExecNodeState.getColumnsMapping( (int[]) arguments.get(GaianTable.QRY_INCOMING_COLUMNS_MAPPING) ) );
@@ -126,6 +126,17 @@ public class VTIRDBResult extends VTIWrapper {
 	// A Stack allows faster removal time than Vector for the fast queries because it searches from the first element in the list.
 	private Stack<Connection> activeConnections = new Stack<Connection>();
 	
+	// Statements executing or streaming rows for a query, keyed by the pooled connection they run on (only one at a time per connection).
+	// These are cancelled when the query is cancelled or closed early - they are removed when their connection is recycled.
+	private final ConcurrentMap<Connection, ActiveStatement> activeStatements = new ConcurrentHashMap<Connection, ActiveStatement>();
+	
+	private static final class ActiveStatement {
+		final Statement statement;
+		final String queryID;
+		volatile boolean isCancelled = false;
+		ActiveStatement( Statement statement, String queryID ) { this.statement = statement; this.queryID = queryID; }
+	}
+	
 	public VTIRDBResult( String connectionDetails, String nodeDefName, GaianResultSetMetaData logicalTableRSMD ) throws Exception {
 		
 		super( connectionDetails, nodeDefName );
@@ -144,6 +155,7 @@ public class VTIRDBResult extends VTIWrapper {
 	
 	public boolean isGaianNode() { return isGaianNode; }
 	public boolean isSubQuery() { return isSubQuery; }
+	public boolean isLocalDerbyDataSource() { return isLocalDerbyDataSource; }
 
 	@Override
 	public String[] getPluralizedInstances() { return null; }
@@ -207,7 +219,7 @@ public class VTIRDBResult extends VTIWrapper {
 			}
 						
 			// set rows and indexes
-			((InMemoryRows) result).setRowsAndIndexes( inMemoryRows, inMemoryRowsIndexes );
+			((InMemoryRows) result).setRowsAndIndexes( inMemoryRows, inMemoryRowsIndexes, inMemoryRowsSpatialIndex );
 			
 			((InMemoryRows) result).setExtractConditions( qualifiers, projectedColumns, 
 					safeExecNodeState.getColumnsMapping( (int[]) arguments.get(GaianTable.QRY_INCOMING_COLUMNS_MAPPING) ) );
@@ -468,6 +480,11 @@ public class VTIRDBResult extends VTIWrapper {
 					t = System.currentTimeMillis();
 				}
 				
+				// Gaian node statements are not registered: the Derby client does not support Statement.cancel(), so the cancellation
+				// is propagated to the node instead - see cancelQuery()
+				if ( !isGaianNode && arguments.containsKey(GaianTable.QRY_ID) )
+					activeStatements.put( conn, new ActiveStatement( pstmt, (String) arguments.get(GaianTable.QRY_ID) ) );
+				
 				if ( isSubQuery )
 					pstmt.execute(sql);
 				else
@@ -483,6 +500,7 @@ public class VTIRDBResult extends VTIWrapper {
 						logger.logThreadInfo("Closing pstmt and Recycling JDBC Connection early because result is an Update Count");
 						
 						// This must be a sub-query (as CRUD and CALLs only occur in them) - so pstmt will not be cached - so close it now to free client+server resources
+						activeStatements.remove( conn );
 						try { pstmt.close(); } catch ( SQLException e ) {}
 						
 						if ( false == recycleSourceHandleToPool( conn ) )
@@ -529,6 +547,9 @@ public class VTIRDBResult extends VTIWrapper {
 			
 		} catch ( SQLException e ) {
 			
+			// Deregister the statement before its connection is recycled - it will not go through recycleOrCloseResultWrapper()
+			final ActiveStatement cancelledStatement = null == conn ? null : activeStatements.remove( conn );
+			
 			// Low value feature to skip maintenance for certain connections
 //			String eDigest = Util.getAllExceptionCauses(e);
 //			if ( -1 != eDigest.indexOf(GaianTable.REVERSE_CONNECTION_NOT_ESTABLISHED_ERROR) ) {
@@ -600,9 +621,13 @@ public class VTIRDBResult extends VTIWrapper {
 					return null;
 				}
 				
-				final String iex = Util.getGaiandbInvocationTargetException(e);
-				logger.logThreadWarning( GDBMessages.ENGINE_STATEMENT_EXEC_ERROR, nodeDefName + " Unable to EXECUTE statement (returning null result): " + 
-						Util.getStackTraceDigest(e) + (null==iex?"":" Root cause: "+iex) );
+				if ( null != cancelledStatement && cancelledStatement.isCancelled )
+					logger.logThreadInfo(nodeDefName + " Statement execution was cancelled (returning null result): " + e);
+				else {
+					final String iex = Util.getGaiandbInvocationTargetException(e);
+					logger.logThreadWarning( GDBMessages.ENGINE_STATEMENT_EXEC_ERROR, nodeDefName + " Unable to EXECUTE statement (returning null result): " +
+							Util.getStackTraceDigest(e) + (null==iex?"":" Root cause: "+iex) );
+				}
 				
 				// Connection is still active and pstmt must be closed (as it failed) - recycle connection and return null
 				if ( false == recycleSourceHandleToPool( conn ) ) {
@@ -670,6 +695,47 @@ public class VTIRDBResult extends VTIWrapper {
 		reenablementTime = 0;
 	}
 	
+	/**
+	 * Cancels the execution of a query against this data source.
+	 * For a Gaian node, the cancel request is propagated to it, so that it cancels the query against its own data sources in turn.
+	 * Otherwise, the JDBC statements executing or streaming rows for the query are cancelled, if the driver supports it.
+	 * 
+	 * The propagation is synchronous - this should be called from a thread other than the one consuming the query's rows.
+	 */
+	public void cancelQuery( String queryID ) {
+		
+		if ( isGaianNode ) {
+			Connection c = null;
+			try {
+				c = getConnectionFromApplicablePool();
+				if ( null == c ) throw new SQLException("No connection available");
+				Statement s = c.createStatement();
+				try { s.execute("call " + GaianDBProcedureUtils.cancelquery + "('!" + queryID + "')"); }
+				finally { s.close(); }
+				logger.logThreadInfo(nodeDefName + " Propagated cancel request for queryID: " + queryID);
+			} catch ( SQLException e ) {
+				logger.logThreadInfo(nodeDefName + " Unable to propagate cancel request for queryID: " + queryID + " (ignored), cause: " + e);
+				if ( null != c ) try { c.close(); } catch ( SQLException e1 ) {}
+				return;
+			}
+			if ( false == recycleSourceHandleToPool( c ) )
+				try { c.close(); } catch ( SQLException e ) {} // pool is probably maxed out - close resource.
+			return;
+		}
+		
+		for ( ActiveStatement as : activeStatements.values() ) {
+			if ( !queryID.equals( as.queryID ) ) continue;
+			as.isCancelled = true;
+			try {
+				as.statement.cancel();
+				logger.logThreadInfo(nodeDefName + " Cancelled JDBC statement for queryID: " + queryID);
+			} catch ( SQLException e ) {
+				// e.g. Derby does not support Statement.cancel() - rows stop being fetched when the result is closed
+				logger.logThreadInfo(nodeDefName + " Unable to cancel JDBC statement for queryID: " + queryID + " (ignored), cause: " + e);
+			}
+		}
+	}
+	
 //	public Connection getConnectionOfLongestRunningStatement() {
 //		// We are looking for a potentially broken and hanging connection, but it may be that the connections pool contains 
 //		// connections that have been established after the one that was broken... Therefore we target the longest running statement,
@@ -881,7 +947,9 @@ public class VTIRDBResult extends VTIWrapper {
 		// An IFastPath is an executable statement with easy row access, but its rows are tightly coupled with the statement.
 		// A GaianChildVTI is a wrapper for an external data source result - which is easily accessible. The external result may need releasing.
 		if ( rows instanceof IFastPath ) { // true for example if rows are a LightPreparedStatement
-			recycleSourceHandleToPool( ((Statement) rows).getConnection() );
+			Connection c = ((Statement) rows).getConnection();
+			activeStatements.remove( c );
+			recycleSourceHandleToPool( c );
 			return;
 		}
 		
@@ -894,6 +962,7 @@ public class VTIRDBResult extends VTIWrapper {
 		catch ( SQLException e ) { return; }
 		
 		Connection c = s.getConnection();
+		activeStatements.remove( c ); // the statement may no longer be cancelled on behalf of this query once its connection is recycled
 		rows.close(); // don't close the statement as well as it may be a prepared statement we want to re-use..
 		
 		if ( c.isClosed() ) {
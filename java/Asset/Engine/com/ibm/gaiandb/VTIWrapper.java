@@ -228,6 +228,15 @@ public abstract class VTIWrapper implements Runnable { //implements Cloneable {
 	// Hashtable of: Physical source columnID -> TreeMap of ordered rows
 	protected ConcurrentMap<Integer, SortedMap<DataValueDescriptor, Object>> inMemoryRowsIndexes = new ConcurrentHashMap<Integer, SortedMap<DataValueDescriptor, Object>>();
 	
+	// R-tree of the rows on a pair of coordinate columns, if a SPATIAL INDEX option is set
+	protected volatile InMemorySpatialIndex inMemoryRowsSpatialIndex = null;
+	
+	// Ring of the most recent query execution latencies against this data source (in ms) - used to hedge queries against its replicas
+	private static final int EXEC_LATENCY_HISTORY_SIZE = 100;
+	private static final int EXEC_LATENCY_MIN_SAMPLES = 10;
+	private final long[] execLatencies = new long[ EXEC_LATENCY_HISTORY_SIZE ];
+	private int numExecLatencies = 0;
+	
 		
 	/**
 	 * @param s
@@ -710,10 +719,38 @@ public abstract class VTIWrapper implements Runnable { //implements Cloneable {
 	}
 	
 	public boolean isPluralized() { return GaianDBConfig.isNodePluralizedOptionSet(nodeDefName); } // && false == GaianDBConfig.isNodeInMemoryOptionSet(nodeDefName);
+	public String getReplicaGroup() { return GaianDBConfig.getNodeReplicaGroup(nodeDefName); }
+	
+	public synchronized void recordExecLatency( long millis ) {
+		execLatencies[ numExecLatencies++ % EXEC_LATENCY_HISTORY_SIZE ] = millis;
+		if ( 2*EXEC_LATENCY_HISTORY_SIZE == numExecLatencies ) numExecLatencies = EXEC_LATENCY_HISTORY_SIZE; // avoid overflow
+	}
+	
+	/**
+	 * Returns the given percentile of the recent query execution latencies against this data source (in ms), 
+	 * or -1 if too few executions were recorded yet.
+	 */
+	public long getExecLatencyPercentile( int percentile ) {
+		long[] latencies;
+		synchronized( this ) {
+			if ( EXEC_LATENCY_MIN_SAMPLES > numExecLatencies ) return -1;
+			latencies = Arrays.copyOf( execLatencies, Math.min( numExecLatencies, EXEC_LATENCY_HISTORY_SIZE ) );
+		}
+		Arrays.sort( latencies );
+		return latencies[ Math.min( latencies.length-1, latencies.length * percentile / 100 ) ];
+	}
+	
 	public abstract String[] getPluralizedInstances();
 	public boolean supportsEndpointConstants() { return false; }
 	public abstract DataValueDescriptor[] getPluralizedInstanceConstants( String dsInstanceID );
 	
+	/**
+	 * Estimated size of a pluralized instance, used to read the largest ones first so that the last instances to complete are small.
+	 * 
+	 * @return -1 if unknown, or 0 if the instance is known to hold no rows, in which case it is not queried.
+	 */
+	public long getPluralizedInstanceSize( String dsInstanceID ) { return -1; }
+	
 	abstract GaianChildVTI getAllRows() throws Exception;
 	
 	protected void clearInMemoryRowsAndIndexes() {
@@ -751,6 +788,11 @@ public abstract class VTIWrapper implements Runnable { //implements Cloneable {
 			logger.logThreadInfo( nodeDefName + " Dropped index on col id " + (colID.intValue()+1) );
 		}
 		
+		if ( null != inMemoryRowsSpatialIndex ) {
+			inMemoryRowsSpatialIndex = null;
+			logger.logThreadInfo( nodeDefName + " Dropped spatial index" );
+		}
+		
 		if ( null != inMemIndexColTypes ) {
 			inMemIndexColTypes.clear();
 			inMemIndexColTypes = null;
@@ -825,6 +867,21 @@ public abstract class VTIWrapper implements Runnable { //implements Cloneable {
 			if ( ! inMemoryRowsIndexes.containsKey(colID) )
 				buildNewInMemoryRowsIndex(colID);
 		}
+		
+		// Drop, keep or build the spatial index
+		int[] spatialIndexCols = GaianDBConfig.getInMemorySpatialIndexColumns( nodeDefName, colNames, columnsMapping, logicalTableRSMD );
+		if ( null == spatialIndexCols ) {
+			if ( null != inMemoryRowsSpatialIndex ) {
+				inMemoryRowsSpatialIndex = null;
+				logger.logThreadInfo( nodeDefName + " Dropped spatial index" );
+			}
+		} else if ( null == inMemoryRowsSpatialIndex || !inMemoryRowsSpatialIndex.isOnColumns( spatialIndexCols[0], spatialIndexCols[1] ) ) {
+			long start = System.currentTimeMillis();
+			inMemoryRowsSpatialIndex = new InMemorySpatialIndex( inMemoryRows, spatialIndexCols[0], spatialIndexCols[1] );
+			logger.logThreadInfo( nodeDefName + " Successfully built new spatial index on physical source columns: " + (spatialIndexCols[0]+1) +
+					", " + (spatialIndexCols[1]+1) + ", index size: " + inMemoryRowsSpatialIndex.size() + ", build time: " +
+					(System.currentTimeMillis() - start) + "ms" );
+		}
 	}
 	
 	private void buildNewInMemoryRowsIndex( Integer colID ) {
@@ -0,0 +1,258 @@
+/*
+ * (C) Copyright IBM Corp. 2008
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.ibm.gaiandb.diags.GDBMessages;
+
+/**
+ * Schedules the data source threads (GaianSubResult producers) of queries according to the workload class matching their
+ * workload ID, as set in a query comment with: -- GDB_WID=<workload id>
+ *
+ * Workload classes are configured with properties WORKLOAD_CLASSES and <class>_WORKLOAD_PATTERN|PRIORITY|WEIGHT|MAX_THREADS.
+ * A class cannot run more than MAX_THREADS data source threads at once, and no more than WORKLOAD_MAX_THREADS run for all classes.
+ * Threads that cannot start are queued, and they are started as others complete: first those of the highest priority class,
+ * then those of the class running the fewest threads relative to its weight. The weight also sets the share of fetch buffer memory
+ * given to the queries of a class. Queries that match no class are not scheduled.
+ *
+ * A thread gives up its place while it is blocked waiting for the query's consumer to take rows, as the consumer may itself be
+ * waiting for rows from threads that are queued, e.g. those of the inner table of a join. It takes a place again before resuming.
+ *
+ * Only threads fetching from back-end data sources are scheduled - they hold the pooled connections to the back-ends,
+ * so these are limited too. Threads propagating the query to other Gaian nodes or to the local Derby database are not,
+ * as they wait for other threads that may themselves be scheduled, and could otherwise deadlock.
+ */
+public class WorkloadScheduler {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2008";
+
+	private static final Logger logger = new Logger( "WorkloadScheduler", 30 );
+
+	public static final class WorkloadClass {
+
+		private final String name;
+		private volatile Pattern pattern = null;
+		private volatile int priority = 0, weight = 1, maxThreads = 0;
+
+		// Threads of this class, guarded by the scheduler lock
+		private int numRunning = 0, numResuming = 0;
+		private final LinkedList<QueuedTask> queued = new LinkedList<QueuedTask>();
+
+		WorkloadClass( String name ) { this.name = name; }
+
+		public String getName() { return name; }
+
+		private boolean isUnderLimit() { return 1 > maxThreads || numRunning < maxThreads; }
+
+		public String toString() { return name + " (priority " + priority + ", weight " + weight + ", max threads " + maxThreads + ")"; }
+	}
+
+	private static final WorkloadScheduler scheduler = new WorkloadScheduler();
+
+	private final Map<String, WorkloadClass> classesByName = new ConcurrentHashMap<String, WorkloadClass>();
+	private volatile List<WorkloadClass> classes = new ArrayList<WorkloadClass>();
+	private volatile int maxWeight = 1;
+	private volatile int maxThreads = 0;
+
+	// Threads of all classes, guarded by the scheduler lock
+	private int numRunning = 0, numQueued = 0;
+
+	// Threads waiting to resume after being blocked, guarded by the scheduler lock
+	private int numResuming = 0;
+
+	private String configSignature = null;
+	private volatile int configPropertiesLoad = -1;
+
+	/**
+	 * Returns the workload class of queries having the given workload ID, or null if there is none.
+	 */
+	public static WorkloadClass getWorkloadClass( String wid ) {
+		if ( null == wid ) return null;
+		int numPropertiesLoads = GaianDBConfig.getNumPropertiesLoads();
+		if ( numPropertiesLoads != scheduler.configPropertiesLoad ) scheduler.refreshConfig( numPropertiesLoads );
+		for ( WorkloadClass wc : scheduler.classes ) {
+			Pattern p = wc.pattern;
+			if ( null != p && p.matcher( wid ).matches() ) return wc;
+		}
+		return null;
+	}
+
+	/**
+	 * Runs a data source thread of a query of the given workload class on the executor, as soon as the class limits allow it.
+	 */
+	public static void execute( WorkloadClass wc, Runnable task, Executor executor ) {
+		scheduler.schedule( wc, task, executor );
+	}
+
+	/**
+	 * Gives up the place of a scheduled data source thread while it is blocked, so that queued threads may start meanwhile.
+	 */
+	public static void suspend( WorkloadClass wc ) {
+		scheduler.completed( wc );
+	}
+
+	/**
+	 * Takes a place again for a data source thread that was suspended, waiting until the class limits allow it.
+	 * A thread that is being stopped (e.g. because its query was closed) takes its place straight away, so that it finishes promptly.
+	 */
+	public static void resume( WorkloadClass wc, boolean isStopping ) {
+		scheduler.reacquire( wc, isStopping );
+	}
+
+	/**
+	 * Returns the share of the fetch buffer memory limit to be given to queries of the given workload class.
+	 */
+	public static double getBufferMemoryShare( WorkloadClass wc ) {
+		return null == wc ? 1 : (double) wc.weight / Math.max( wc.weight, scheduler.maxWeight );
+	}
+
+	/**
+	 * Returns true if a data source thread fetching from this data source is to be scheduled by workload class.
+	 */
+	public static boolean isScheduled( VTIWrapper dsWrapper ) {
+		return !dsWrapper.isGaianNode() && !( dsWrapper instanceof VTIRDBResult && ((VTIRDBResult) dsWrapper).isLocalDerbyDataSource() );
+	}
+
+	private synchronized void refreshConfig( int numPropertiesLoads ) {
+
+		if ( numPropertiesLoads == configPropertiesLoad ) return;
+		configPropertiesLoad = numPropertiesLoads;
+
+		String[] names = GaianDBConfig.getWorkloadClasses();
+		StringBuilder signature = new StringBuilder().append( GaianDBConfig.getWorkloadMaxThreads() );
+		for ( String name : names )
+			signature.append(',').append(name).append(':').append( GaianDBConfig.getWorkloadPattern(name) ).append(':')
+				.append( GaianDBConfig.getWorkloadPriority(name) ).append(':').append( GaianDBConfig.getWorkloadWeight(name) ).append(':')
+				.append( GaianDBConfig.getWorkloadMaxThreads(name) );
+
+		if ( signature.toString().equals( configSignature ) ) return;
+		configSignature = signature.toString();
+
+		// Keep the class objects across config changes, as they hold the threads running and queued for each class
+		List<WorkloadClass> newClasses = new ArrayList<WorkloadClass>();
+		int newMaxWeight = 1;
+		for ( String name : names ) {
+			WorkloadClass wc = classesByName.get( name );
+			if ( null == wc ) classesByName.put( name, wc = new WorkloadClass( name ) );
+
+			String regex = GaianDBConfig.getWorkloadPattern( name );
+			try { wc.pattern = null == regex ? null : Pattern.compile( regex ); }
+			catch ( PatternSyntaxException e ) {
+				logger.logWarning( GDBMessages.CONFIG_PROP_WORKLOAD_PATTERN_INVALID, "Invalid workload pattern for class " + name + " (class ignored): " + e );
+				wc.pattern = null;
+			}
+			wc.priority = GaianDBConfig.getWorkloadPriority( name );
+			wc.weight = Math.max( 1, GaianDBConfig.getWorkloadWeight( name ) );
+			wc.maxThreads = GaianDBConfig.getWorkloadMaxThreads( name );
+			newMaxWeight = Math.max( newMaxWeight, wc.weight );
+			newClasses.add( wc );
+		}
+
+		classes = newClasses;
+		maxWeight = newMaxWeight;
+		maxThreads = GaianDBConfig.getWorkloadMaxThreads();
+
+		logger.logInfo("Loaded workload classes: " + classes + ", max threads: " + (1 > maxThreads ? "unlimited" : maxThreads));
+
+		// Limits may have been raised
+		dispatchQueued();
+	}
+
+	synchronized void schedule( final WorkloadClass wc, final Runnable task, final Executor executor ) {
+
+		Runnable scheduledTask = new Runnable() {
+			public void run() {
+				try { task.run(); }
+				finally { completed( wc ); }
+			}
+		};
+
+		if ( 0 == wc.queued.size() && wc.isUnderLimit() && isUnderLimit() ) start( wc, scheduledTask, executor );
+		else {
+			wc.queued.add( new QueuedTask( scheduledTask, executor ) );
+			numQueued++;
+			logger.logThreadDetail("Queued data source thread for workload class " + wc.name + ", queued threads: " + wc.queued.size());
+		}
+	}
+
+	private boolean isUnderLimit() { return 1 > maxThreads || numRunning < maxThreads; }
+
+	private void start( WorkloadClass wc, Runnable task, Executor executor ) {
+		wc.numRunning++;
+		numRunning++;
+		try { executor.execute( task ); }
+		catch ( RejectedExecutionException e ) {
+			// The executor was shut down (e.g. on node shutdown)
+			wc.numRunning--;
+			numRunning--;
+			logger.logInfo("Unable to start data source thread for workload class " + wc.name + " (ignored): " + e);
+		}
+	}
+
+	private synchronized void completed( WorkloadClass wc ) {
+		wc.numRunning--;
+		numRunning--;
+		dispatchQueued();
+	}
+
+	private synchronized void reacquire( WorkloadClass wc, boolean isStopping ) {
+
+		wc.numResuming++;
+		numResuming++;
+		boolean isInterrupted = false;
+		while ( !isStopping && !( wc.isUnderLimit() && isUnderLimit() ) )
+			try { wait(); }
+			catch ( InterruptedException e ) { isInterrupted = true; break; } // take the place anyway, the thread is aborting
+		wc.numResuming--;
+		numResuming--;
+
+		wc.numRunning++;
+		numRunning++;
+		if ( isInterrupted ) Thread.currentThread().interrupt();
+	}
+
+	// Starts queued threads while limits allow it: highest priority class first, then fewest running threads relative to weight.
+	// Threads waiting to resume are woken first - queued threads of their class are not started before them.
+	private void dispatchQueued() {
+
+		if ( 0 < numResuming ) notifyAll();
+
+		while ( 0 < numQueued && ( 1 > maxThreads || numRunning + numResuming < maxThreads ) ) {
+
+			WorkloadClass next = null;
+			for ( WorkloadClass wc : classesByName.values() ) {
+				if ( wc.queued.isEmpty() || !wc.isUnderLimit() || 0 < wc.numResuming ) continue;
+				if ( null == next || wc.priority > next.priority ||
+						wc.priority == next.priority && (long) wc.numRunning * next.weight < (long) next.numRunning * wc.weight )
+					next = wc;
+			}
+
+			if ( null == next ) return; // all classes with queued threads are at their limit
+
+			QueuedTask qt = next.queued.removeFirst();
+			numQueued--;
+			start( next, qt.task, qt.executor );
+		}
+	}
+
+	private static final class QueuedTask {
+		final Runnable task;
+		final Executor executor;
+		QueuedTask( Runnable task, Executor executor ) { this.task = task; this.executor = executor; }
+	}
+}
@@ -151,6 +151,24 @@ public class GDBMessages {
 	 **/
 	public static final String DSWRAPPER_ROW_FETCH_ERROR = "DSWRAPPER_ROW_FETCH_ERROR";
 
+	/**
+	 * <p>
+	 * <b>Warning:</b> Unable to spill a segment of a log-structured VTI cache to disk. The segment is kept in memory.
+	 * <br/><br/>
+	 * <b>Reason:</b> The segment file could not be written in the VTI cache directory of the node workspace.
+	 * <br/><br/>
+	 * <b>Action:</b> Check the disk space and permissions of the workspace directory, or raise VTI_CACHE_MEMORY_LIMIT_MB.
+	 * <p>
+	 * Related Links:
+	 * <ul>
+	 * <li><a href="../../../../../Readme.html">Readme</a>
+	 * <li><a href="../../../../../Readme.html#contents359">FAQ &
+	 * Troubleshooting</a>
+	 * </ul>
+	 * 
+	 **/
+	public static final String DSWRAPPER_CACHE_SEGMENT_SPILL_ERROR = "DSWRAPPER_CACHE_SEGMENT_SPILL_ERROR";
+
 	
 	// db2j/AbstractDurableCacheVTI.java
 	/**
@@ -368,6 +386,61 @@ public class GDBMessages {
 	 **/
 	public static final String ENGINE_BLOB_UNZIP_ERROR = "ENGINE_BLOB_UNZIP_ERROR";
 
+	/**
+	 * <p>
+	 * <b>Error:</b> Unable to compress or decompress a blob value transferred between GaianDB nodes.
+	 * <br/><br/>
+	 * <b>Reason:</b> The compressed blob data received from another node may be corrupted.
+	 * <br/><br/>
+	 * <b>Action:</b> Check the associated exception in the GaianDB log. Set LOB_TRANSFER_COMPRESSION=NEVER to disable compression.
+	 * <p>
+	 * Related Links:
+	 * <ul>
+	 * <li><a href="../../../../../Readme.html">Readme</a>
+	 * <li><a href="../../../../../Readme.html#contents359">FAQ &
+	 * Troubleshooting</a>
+	 * </ul>
+	 * 
+	 **/
+	public static final String ENGINE_LOB_TRANSCODE_ERROR = "ENGINE_LOB_TRANSCODE_ERROR";
+
+	/**
+	 * <p>
+	 * <b>Warning:</b> Invalid duplicate rows elimination for a logical table. Duplicate rows are not eliminated.
+	 * <br/><br/>
+	 * <b>Reason:</b> The &lt;LT&gt;_DEDUP property of the logical table, or the dedup table argument of the query, is not of the form
+	 * "ROW [APPROXIMATE]" or "KEY &lt;column&gt; [&lt;column&gt; ...] [APPROXIMATE]", or names a column that is not in the logical table.
+	 * <br/><br/>
+	 * <b>Action:</b> Correct the &lt;LT&gt;_DEDUP property.
+	 * <p>
+	 * Related Links:
+	 * <ul>
+	 * <li><a href="../../../../../Readme.html">Readme</a>
+	 * <li><a href="../../../../../Readme.html#contents359">FAQ &
+	 * Troubleshooting</a>
+	 * </ul>
+	 * 
+	 **/
+	public static final String ENGINE_DEDUP_SPEC_ERROR = "ENGINE_DEDUP_SPEC_ERROR";
+
+	/**
+	 * <p>
+	 * <b>Warning:</b> Unable to check whether a row is a duplicate. The row is passed on.
+	 * <br/><br/>
+	 * <b>Reason:</b> A value of the duplicate rows elimination key of the logical table could not be read.
+	 * <br/><br/>
+	 * <b>Action:</b> Check the associated exception in the GaianDB log.
+	 * <p>
+	 * Related Links:
+	 * <ul>
+	 * <li><a href="../../../../../Readme.html">Readme</a>
+	 * <li><a href="../../../../../Readme.html#contents359">FAQ &
+	 * Troubleshooting</a>
+	 * </ul>
+	 * 
+	 **/
+	public static final String ENGINE_DEDUP_ROW_ERROR = "ENGINE_DEDUP_ROW_ERROR";
+
 	/**
 	 * <p>
 	 * <b>Error:</b> Cannot reload the configuration file.
@@ -1352,6 +1425,24 @@ public class GDBMessages {
 	 */
 	public static final String DSWRAPPER_RESULTSET_NOT_CONNECTED = "DSWRAPPER_RESULTSET_NOT_CONNECTED";
 
+	/**
+	 * <p>
+	 * <b>Error:</b> a parallel cursor scanning a range of a mongo collection failed.
+	 * <br/><br/>
+	 * <b>Reason:</b>
+	 * one of the concurrent cursors opened on an _id range of the collection raised an exception
+	 * while fetching documents, e.g. because the connection to mongo was lost.
+	 * <br/><br/>
+	 * <b>Action:</b> Check that the mongo process is available, or reduce the number of
+	 * parallel cursors configured for the data source.
+	 * <p>
+	 * Related links:
+	 * <ul>
+	 * <li><a href="../../../../../Readme.html">Readme</a></li>
+	 * </ul>
+	 */
+	public static final String DSWRAPPER_MONGODB_PARALLEL_SCAN_ERROR = "DSWRAPPER_MONGODB_PARALLEL_SCAN_ERROR";
+
 	/**
 	 * Not in use - reserved for future use.
 	 * <p>
@@ -3215,6 +3306,24 @@ public class GDBMessages {
 	 * </ul>
 	 **/
 	public static final String ENGINE_POLICY_PLUGIN_INVALID_OPERATION_RETURN_TYPE = "ENGINE_POLICY_PLUGIN_INVALID_OPERATION_RETURN_TYPE";
+
+	/**
+	 * <p>
+	 * <b>Error:</b> Policy plugin failed to evaluate a row decision for a batch of rows.
+	 * <br/><br/>
+	 * <b>Reason:</b> The policy plugin threw an exception, or its parallel evaluation was interrupted.
+	 * The rows for which no decision could be made are excluded from the result.
+	 * <br/><br/>
+	 * <b>Action:</b> Check the associated exception in the GaianDB log.
+	 * <p>
+	 * Related links:
+	 * <ul>
+	 * <li><a href="../../../../../Readme.html">Readme</a></li>
+	 * <li><a href="../../../../../Readme.html#contents359">FAQ &
+	 * Troubleshooting</a></li>
+	 * </ul>
+	 **/
+	public static final String ENGINE_POLICY_PLUGIN_EVALUATION_ERROR = "ENGINE_POLICY_PLUGIN_EVALUATION_ERROR";
 	
 //	/**
 //	 * <p>
@@ -3776,6 +3885,25 @@ public class GDBMessages {
 	 **/
 	public final static String CONFIG_PROP_BOOLEAN_VALUE_INVALID = "CONFIG_PROP_BOOLEAN_VALUE_INVALID";
 
+	/**
+	 * <p>
+	 * <b>Error:</b> Invalid workload pattern for class.
+	 * <br/><br/>
+	 * <b>Reason:</b> The &lt;class&gt;_WORKLOAD_PATTERN property of a workload class is not a valid regular expression.
+	 * <br/><br/>
+	 * <b>Action:</b> Correct the property value. Queries are not assigned to the workload class until it is corrected.
+	 * <p>
+	 * Related links:
+	 * <ul>
+	 * <li><a href="../../../../../Readme.html">Readme</a>
+	 * <li><a href="../../../../../Readme.html#contents175">Configuration</a>
+	 * <li><a href="../../../../../Readme.html#contents359">FAQ &
+	 * Troubleshooting</a>
+	 * </ul>
+	 * 
+	 **/
+	public final static String CONFIG_PROP_WORKLOAD_PATTERN_INVALID = "CONFIG_PROP_WORKLOAD_PATTERN_INVALID";
+
 	/**
 	 * <p>
 	 * <b>Error:</b> Unable to reload user properties.
@@ -3852,6 +3980,44 @@ public class GDBMessages {
 	 **/
 	public final static String CONFIG_INDEX_DEF_ERROR = "CONFIG_INDEX_DEF_ERROR";
 
+	/**
+	 * <p>
+	 * <b>Error:</b> Incorrect replica definition (ignored), should be: REPLICA GROUP <group_name>.
+	 * <br/><br/>
+	 * <b>Reason:</b> The replica group of a data source wasn't specified correctly.
+	 * <br/><br/>
+	 * <b>Action:</b> Correct the data source options and try again. Note that PLURALIZED data sources cannot be replicas.
+	 * <p>
+	 * Related links:
+	 * <ul>
+	 * <li><a href="../../../../../Readme.html">Readme</a>
+	 * <li><a href="../../../../../Readme.html#contents175">Configuration</a>
+	 * <li><a href="../../../../../Readme.html#contents359">FAQ &
+	 * Troubleshooting</a>
+	 * </ul>
+	 * 
+	 **/
+	public final static String CONFIG_REPLICA_DEF_ERROR = "CONFIG_REPLICA_DEF_ERROR";
+
+	/**
+	 * <p>
+	 * <b>Error:</b> Incorrect max threads definition (ignored), should be: MAX THREADS <n>.
+	 * <br/><br/>
+	 * <b>Reason:</b> The max number of concurrently read instances of a PLURALIZED data source wasn't specified correctly.
+	 * <br/><br/>
+	 * <b>Action:</b> Correct the data source options and try again. The PLURALIZED_INSTANCES_MAX_THREADS limit applies meanwhile.
+	 * <p>
+	 * Related links:
+	 * <ul>
+	 * <li><a href="../../../../../Readme.html">Readme</a>
+	 * <li><a href="../../../../../Readme.html#contents175">Configuration</a>
+	 * <li><a href="../../../../../Readme.html#contents359">FAQ &
+	 * Troubleshooting</a>
+	 * </ul>
+	 * 
+	 **/
+	public final static String CONFIG_MAX_THREADS_DEF_ERROR = "CONFIG_MAX_THREADS_DEF_ERROR";
+
 	/**
 	 * <p>
 	 * <b>Error:</b> Unable to get JDBC connection details of LT data source (skipped).
@@ -4995,6 +5161,24 @@ public class GDBMessages {
 	 **/
 	public static final String ENGINE_USER_PASSWORD_INCORRECT = "ENGINE_USER_PASSWORD_INCORRECT";
 
+	/**
+	 * <p>
+	 * <b>Error:</b> Session token in credentials block was rejected.
+	 * <br/><br/>
+	 * <b>Reason:</b> The session token forwarded by an upstream node has expired, is malformed or its signature does not match.
+	 * The node falls back to verifying the RSA credentials block carried along with the token.
+	 * <br/><br/>
+	 * <b>Action:</b> Check that all nodes in the network share the same SECURITY_SESSION_TOKEN_SECRET and that their clocks are in sync.
+	 * <p>
+	 * Related links:
+	 * <ul>
+	 * <li><a href="../../../../../Readme.html">Readme</a></li>
+	 * <li><a href="../../../../../Readme.html#contents359">FAQ &
+	 * Troubleshooting</a></li>
+	 * </ul>
+	 **/
+	public static final String ENGINE_SESSION_TOKEN_INVALID = "ENGINE_SESSION_TOKEN_INVALID";
+
 	// gaiandb/VTIFile.java
 	/**
 	 * <p>
@@ -0,0 +1,251 @@
+/*
+ * (C) Copyright IBM Corp. 2011
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb.policyframework;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.types.DataValueDescriptor;
+
+import com.ibm.gaiandb.CachedHashMap;
+import com.ibm.gaiandb.GaianDBConfig;
+import com.ibm.gaiandb.Logger;
+import com.ibm.gaiandb.diags.GDBMessages;
+
+/**
+ * Base class for policy plugins whose row filtering reduces to an allow/deny decision per row.
+ *
+ * Sub-classes implement isRowAllowed() and inherit a filterRowsBatch() which:
+ * <ul>
+ * <li>computes the decisions for a whole batch before compacting it, so that the batch array is only copied when rows are rejected,
+ * <li>memoises decisions keyed on (decision context, data source, values of the decision columns) - see getDecisionContext()
+ * and getDecisionColumns(). The memo is shared by all instances, bounded by POLICY_DECISION_CACHE_SIZE, and entries expire after
+ * POLICY_DECISION_CACHE_TTL_MS so that policy changes are picked up,
+ * <li>optionally splits large batches across a shared pool of POLICY_EVALUATION_THREADS threads, when isParallelEvaluationSafe()
+ * returns true.
+ * </ul>
+ *
+ * Memoisation is only valid if a decision depends on nothing but the decision context and decision columns, and if
+ * isRowAllowed() does not modify the row. Sub-classes that apply row-modifying obligations should return null from getDecisionColumns().
+ */
+public abstract class SQLResultBatchFilterX extends SQLResultFilterX {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2011";
+
+	private static final Logger logger = new Logger( "SQLResultBatchFilterX", 25 );
+
+	// Minimum number of rows worth handing over to another thread
+	private static final int MIN_ROWS_PER_EVALUATION_TASK = 128;
+
+	private static final class Decision {
+		final boolean isAllowed;
+		final long expiryTime;
+		Decision( boolean isAllowed, long expiryTime ) { this.isAllowed = isAllowed; this.expiryTime = expiryTime; }
+	}
+
+	private static Map<String, Decision> decisionCache = null;
+	private static int decisionCacheSize = -1;
+
+	private static ExecutorService policyEvaluators = null;
+	private static int numPolicyEvaluators = 0;
+
+	/**
+	 * Decides whether a row may be returned. This is invoked concurrently for different rows of a batch if
+	 * isParallelEvaluationSafe() returns true.
+	 *
+	 * @param dataSourceID - the data source the row was fetched from
+	 * @param row - the row, holding all logical table columns - only the queried ones are populated.
+	 * @return true if the row may be returned, false to exclude it from the result
+	 * @throws Exception - the row is excluded
+	 */
+	protected abstract boolean isRowAllowed( String dataSourceID, DataValueDescriptor[] row ) throws Exception;
+
+	/**
+	 * Identifies everything other than the row which the decisions depend on for the current query, e.g. the requesting user
+	 * and their affiliation. Returning null disables memoisation.
+	 */
+	protected String getDecisionContext() { return null; }
+
+	/**
+	 * Returns the logical table column ids (1-based) whose values the decisions for rows of the given data source depend on.
+	 * Returning null disables memoisation for the data source.
+	 */
+	protected int[] getDecisionColumns( String dataSourceID ) { return null; }
+
+	/**
+	 * Returns true if isRowAllowed() may be called concurrently by multiple threads.
+	 */
+	protected boolean isParallelEvaluationSafe() { return false; }
+
+	/**
+	 * Empties the memoised decisions of all batch filters - this should be called when policies change.
+	 * GaianDB calls it when the SQL_RESULT_FILTER class changes; plugins should call it when they reload their rules.
+	 */
+	public static void clearDecisionCache() {
+		synchronized( SQLResultBatchFilterX.class ) {
+			if ( null != decisionCache ) decisionCache.clear();
+		}
+	}
+
+	public DataValueDescriptor[][] filterRowsBatch( String dataSourceID, DataValueDescriptor[][] rows ) {
+
+		if ( null == rows || 0 == rows.length ) return rows;
+
+		final boolean[] decisions = evaluateBatch( dataSourceID, rows );
+
+		int numAllowed = 0;
+		for ( boolean isAllowed : decisions ) if ( isAllowed ) numAllowed++;
+		if ( numAllowed == rows.length ) return rows;
+
+		final DataValueDescriptor[][] filteredRows = new DataValueDescriptor[numAllowed][];
+		for ( int i=0, j=0; i<rows.length; i++ )
+			if ( decisions[i] ) filteredRows[j++] = rows[i];
+
+		return filteredRows;
+	}
+
+	private boolean[] evaluateBatch( final String dataSourceID, final DataValueDescriptor[][] rows ) {
+
+		final boolean[] decisions = new boolean[ rows.length ];
+
+		final String context = getDecisionContext();
+		final int[] decisionColumns = null == context ? null : getDecisionColumns( dataSourceID );
+		final Map<String, Decision> cache = null == decisionColumns ? null : getDecisionCache();
+		final String keyPrefix = null == cache ? null : context + '\0' + dataSourceID + '\0' + getDecisionColumnsSignature( decisionColumns ) + '\0';
+
+		final ExecutorService pool = isParallelEvaluationSafe() ? getPolicyEvaluators() : null;
+		final int numTasks = null == pool ? 1 : Math.min( numPolicyEvaluators, rows.length / MIN_ROWS_PER_EVALUATION_TASK );
+
+		if ( 2 > numTasks ) {
+			evaluateRange( dataSourceID, rows, 0, rows.length, decisions, cache, keyPrefix, decisionColumns );
+			return decisions;
+		}
+
+		// Hand out all but the last range to the pool, and evaluate the last one in this thread.
+		final List<Future<Void>> futures = new ArrayList<Future<Void>>( numTasks-1 );
+		final int rangeSize = ( rows.length + numTasks - 1 ) / numTasks;
+
+		for ( int start = 0; start < rows.length; start += rangeSize ) {
+			final int from = start, to = Math.min( rows.length, start + rangeSize );
+			if ( to == rows.length ) {
+				evaluateRange( dataSourceID, rows, from, to, decisions, cache, keyPrefix, decisionColumns );
+				break;
+			}
+			futures.add( pool.submit( new Callable<Void>() {
+				public Void call() {
+					evaluateRange( dataSourceID, rows, from, to, decisions, cache, keyPrefix, decisionColumns );
+					return null;
+				}
+			}));
+		}
+
+		// Rows left undecided (false) when a range fails are excluded
+		for ( Future<Void> f : futures )
+			try { f.get(); }
+			catch ( Exception e ) {
+				logger.logException( GDBMessages.ENGINE_POLICY_PLUGIN_EVALUATION_ERROR, "Parallel policy evaluation failed for data source " + dataSourceID, e );
+			}
+
+		return decisions;
+	}
+
+	private void evaluateRange( String dataSourceID, DataValueDescriptor[][] rows, int from, int to, boolean[] decisions,
+			Map<String, Decision> cache, String keyPrefix, int[] decisionColumns ) {
+
+		final long ttl = null == cache ? 0 : GaianDBConfig.getPolicyDecisionCacheTTLMs();
+
+		for ( int i=from; i<to; i++ ) {
+
+			final DataValueDescriptor[] row = rows[i];
+			final String key = null == cache ? null : getDecisionKey( keyPrefix, row, decisionColumns );
+
+			if ( null != key ) {
+				Decision d;
+				synchronized( cache ) { d = cache.get( key ); }
+				if ( null != d && System.currentTimeMillis() < d.expiryTime ) { decisions[i] = d.isAllowed; continue; }
+			}
+
+			try { decisions[i] = isRowAllowed( dataSourceID, row ); }
+			catch ( Exception e ) {
+				logger.logException( GDBMessages.ENGINE_POLICY_PLUGIN_EVALUATION_ERROR, "Unable to evaluate policy for row from data source " + dataSourceID, e );
+				decisions[i] = false;
+				continue; // don't memoise failures
+			}
+
+			if ( null != key ) {
+				Decision d = new Decision( decisions[i], System.currentTimeMillis() + ttl );
+				synchronized( cache ) { cache.put( key, d ); }
+			}
+		}
+	}
+
+	// Decisions made for one set of queried columns must not be re-used for another, even if their values match.
+	private static String getDecisionColumnsSignature( int[] decisionColumns ) {
+		final StringBuilder sb = new StringBuilder();
+		for ( int colID : decisionColumns ) sb.append( colID ).append( ',' );
+		return sb.toString();
+	}
+
+	// Length-prefixed values keep the signature unambiguous whatever characters the values contain.
+	private static String getDecisionKey( String keyPrefix, DataValueDescriptor[] row, int[] decisionColumns ) {
+
+		final StringBuilder sb = new StringBuilder( keyPrefix );
+		try {
+			for ( int colID : decisionColumns ) {
+				final DataValueDescriptor dvd = row[colID-1];
+				if ( null == dvd || dvd.isNull() ) { sb.append( '-' ); continue; }
+				final String s = dvd.getString();
+				sb.append( s.length() ).append( ':' ).append( s );
+			}
+		} catch ( StandardException e ) {
+			logger.logInfo("Unable to derive decision key for row - not memoising its decision: " + e);
+			return null;
+		}
+		return sb.toString();
+	}
+
+	private static synchronized Map<String, Decision> getDecisionCache() {
+
+		final int size = GaianDBConfig.getPolicyDecisionCacheSize();
+		if ( 1 > size ) { decisionCache = null; decisionCacheSize = -1; return null; }
+
+		if ( size != decisionCacheSize ) {
+			decisionCache = new CachedHashMap<String, Decision>( size );
+			decisionCacheSize = size;
+		}
+		return decisionCache;
+	}
+
+	// The pool is created on first use - its size is read once.
+	private static synchronized ExecutorService getPolicyEvaluators() {
+
+		if ( null == policyEvaluators ) {
+			numPolicyEvaluators = GaianDBConfig.getPolicyEvaluationThreads();
+			if ( 2 > numPolicyEvaluators ) return null;
+
+			policyEvaluators = Executors.newFixedThreadPool( numPolicyEvaluators, new ThreadFactory() {
+		        private final AtomicInteger threadNumber = new AtomicInteger(1);
+		        public Thread newThread(Runnable r) {
+		        	Thread t = new Thread(r, "PolicyEvaluator-"+threadNumber.getAndIncrement());
+		        	t.setDaemon(true);
+		        	return t;
+		        }
+			});
+		}
+		return policyEvaluators;
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * (C) Copyright IBM Corp. 2014
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 byte codec in the style of LZ4, trading compression ratio for speed: data is compressed in independent chunks
+ * of CHUNK_SIZE bytes, each made of sequences of literal bytes followed by a back-reference to a match of at least 4 bytes.
+ *
+ * Encoded format: MAGIC (4 bytes), raw length (4 bytes), then for each chunk: its encoded length (4 bytes, negated if the chunk
+ * is stored uncompressed because it didn't compress) followed by its bytes.
+ * Chunks are independent, so large data is encoded with a bounded working set (one chunk buffer and a small hash table),
+ * and decoded straight into an array of its raw length.
+ */
+public class LZCodec {
+
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2014";
+
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	private static final byte[] MAGIC = { 'G', 'L', 'Z', 1 };
+	private static final int HEADER_LENGTH = MAGIC.length + 4;
+
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5; // a chunk always ends with literals, so decoding needn't check for overruns as often
+	private static final int MAX_OFFSET = 65535;
+	private static final int HASH_LOG = 12;
+
+	/**
+	 * Returns true if the given bytes start with the header of encoded data.
+	 */
+	public static boolean isEncoded( byte[] data ) {
+		if ( null == data || HEADER_LENGTH > data.length ) return false;
+		for ( int i=0; i<MAGIC.length; i++ ) if ( MAGIC[i] != data[i] ) return false;
+		return true;
+	}
+
+	/**
+	 * Returns the length of the data before it was encoded.
+	 */
+	public static int getRawLength( byte[] encoded ) {
+		return readInt( encoded, MAGIC.length );
+	}
+
+	public static byte[] encode( byte[] data ) {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream( data.length / 2 + HEADER_LENGTH );
+		out.write( MAGIC, 0, MAGIC.length );
+		writeInt( out, data.length );
+
+		byte[] chunk = new byte[ maxCompressedLength( Math.min( CHUNK_SIZE, data.length ) ) ];
+		int[] hashTable = new int[ 1 << HASH_LOG ];
+
+		for ( int off=0; off<data.length; off+=CHUNK_SIZE ) {
+			int len = Math.min( CHUNK_SIZE, data.length - off );
+			int clen = compressChunk( data, off, len, chunk, hashTable );
+			if ( clen < len ) {
+				writeInt( out, clen );
+				out.write( chunk, 0, clen );
+			} else {
+				writeInt( out, -len );
+				out.write( data, off, len );
+			}
+		}
+
+		return out.toByteArray();
+	}
+
+	public static byte[] decode( byte[] encoded ) throws IOException {
+		checkHeader( encoded );
+		byte[] data = new byte[ getRawLength( encoded ) ];
+		int pos = HEADER_LENGTH;
+		for ( int off=0; off<data.length; off+=CHUNK_SIZE )
+			pos = decodeChunk( encoded, pos, data, off, Math.min( CHUNK_SIZE, data.length - off ) );
+		return data;
+	}
+
+	private static void checkHeader( byte[] encoded ) throws IOException {
+		if ( !isEncoded( encoded ) || 0 > getRawLength( encoded ) ) throw new IOException("Invalid LZ encoded data header");
+	}
+
+	private static int maxCompressedLength( int len ) {
+		return len + len / 255 + 16;
+	}
+
+	// Compresses src[off..off+len) into dst, returning the compressed length
+	private static int compressChunk( byte[] src, final int off, final int len, byte[] dst, int[] hashTable ) {
+
+		Arrays.fill( hashTable, -1 );
+
+		final int end = off + len;
+		final int matchLimit = end - LAST_LITERALS - MIN_MATCH;
+		int ip = off, anchor = off, op = 0;
+
+		while ( ip < matchLimit ) {
+
+			int seq = readInt( src, ip );
+			int h = ( seq * -1640531535 ) >>> ( 32 - HASH_LOG );
+			int ref = hashTable[h];
+			hashTable[h] = ip;
+
+			if ( 0 > ref || MAX_OFFSET < ip - ref || readInt( src, ref ) != seq ) { ip++; continue; }
+
+			int matchLen = MIN_MATCH;
+			while ( ip + matchLen < end - LAST_LITERALS && src[ ref + matchLen ] == src[ ip + matchLen ] ) matchLen++;
+
+			// The token's low 4 bits hold the match length
+			int token = op;
+			op = writeSequence( src, anchor, ip - anchor, dst, op );
+			dst[op++] = (byte) ( ip - ref );
+			dst[op++] = (byte) ( ( ip - ref ) >>> 8 );
+			int ml = matchLen - MIN_MATCH;
+			if ( 15 <= ml ) {
+				dst[token] |= 15;
+				op = writeLengthBytes( ml - 15, dst, op );
+			} else dst[token] |= ml;
+
+			ip += matchLen;
+			anchor = ip;
+		}
+
+		// Last literals
+		return writeSequence( src, anchor, end - anchor, dst, op );
+	}
+
+	// Writes a token holding the literal length in its high 4 bits, and the literals
+	private static int writeSequence( byte[] src, int from, int litLen, byte[] dst, int op ) {
+		dst[op++] = (byte) ( Math.min( 15, litLen ) << 4 );
+		if ( 15 <= litLen ) op = writeLengthBytes( litLen - 15, dst, op );
+		System.arraycopy( src, from, dst, op, litLen );
+		return op + litLen;
+	}
+
+	private static int writeLengthBytes( int len, byte[] dst, int op ) {
+		for ( ; 255 <= len; len -= 255 ) dst[op++] = (byte) 255;
+		dst[op++] = (byte) len;
+		return op;
+	}
+
+	// Decodes the chunk at src[pos..] into dst[off..off+len), returning the position of the next chunk in src
+	private static int decodeChunk( byte[] src, int pos, byte[] dst, final int off, final int len ) throws IOException {
+
+		if ( pos + 4 > src.length ) throw new IOException("Truncated LZ encoded data");
+		int clen = readInt( src, pos );
+		pos += 4;
+
+		if ( 0 > clen ) {
+			if ( -clen != len || pos + len > src.length ) throw new IOException("Corrupt LZ encoded data (stored chunk)");
+			System.arraycopy( src, pos, dst, off, len );
+			return pos + len;
+		}
+
+		final int srcEnd = pos + clen, dstEnd = off + len;
+		if ( srcEnd > src.length ) throw new IOException("Truncated LZ encoded data");
+		int ip = pos, op = off;
+
+		try {
+			while ( true ) {
+				int token = src[ip++] & 0xff;
+
+				int litLen = token >>> 4;
+				if ( 15 == litLen ) { int b; do { b = src[ip++] & 0xff; litLen += b; } while ( 255 == b ); }
+				if ( ip + litLen > srcEnd || op + litLen > dstEnd ) throw new IOException("Corrupt LZ encoded data (literals overrun)");
+				System.arraycopy( src, ip, dst, op, litLen );
+				ip += litLen;
+				op += litLen;
+
+				if ( ip == srcEnd ) break; // last sequence has no match
+
+				int offset = ( src[ip++] & 0xff ) | ( src[ip++] & 0xff ) << 8;
+				int matchLen = token & 15;
+				if ( 15 == matchLen ) { int b; do { b = src[ip++] & 0xff; matchLen += b; } while ( 255 == b ); }
+				matchLen += MIN_MATCH;
+
+				int ref = op - offset;
+				if ( 0 == offset || ref < off || op + matchLen > dstEnd ) throw new IOException("Corrupt LZ encoded data (match overrun)");
+				// Matches may overlap the bytes they produce, so copy byte by byte
+				for ( int i=0; i<matchLen; i++ ) dst[op++] = dst[ref++];
+			}
+		} catch ( ArrayIndexOutOfBoundsException e ) {
+			throw new IOException("Truncated LZ encoded data");
+		}
+
+		if ( op != dstEnd ) throw new IOException("Corrupt LZ encoded data (length mismatch)");
+		return srcEnd;
+	}
+
+	private static int readInt( byte[] b, int i ) {
+		return ( b[i] & 0xff ) << 24 | ( b[i+1] & 0xff ) << 16 | ( b[i+2] & 0xff ) << 8 | ( b[i+3] & 0xff );
+	}
+
+	private static void writeInt( ByteArrayOutputStream out, int v ) {
+		out.write( v >>> 24 ); out.write( v >>> 16 ); out.write( v >>> 8 ); out.write( v );
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * (C) Copyright IBM Corp. 2014
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory R-tree of items having a 2-dimensional bounding box (a point has a box of zero width and height).
+ *
+ * The tree is normally built in one go with bulkLoad(), which packs the items into full nodes using the
+ * Sort-Tile-Recursive algorithm. Items can also be added one at a time with insert(), which places each one in
+ * the node needing the least enlargement and splits nodes that overflow.
+ *
+ * The tree is not synchronized: concurrent searches are safe, but inserts must not run concurrently with anything else.
+ */
+public class RTree<T> {
+
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2014";
+
+	public static final int DEFAULT_NODE_CAPACITY = 16;
+
+	private final int maxEntries, minEntries;
+	private Node root = null;
+	private int size = 0;
+
+	private static final class Node {
+		final boolean isLeaf;
+		// minX, minY, maxX, maxY of each child - one more slot than the capacity is needed to hold an entry before splitting
+		final double[] boxes;
+		// Child Nodes, or items for a leaf
+		final Object[] children;
+		int count = 0;
+
+		Node( boolean isLeaf, int capacity ) {
+			this.isLeaf = isLeaf;
+			boxes = new double[ 4*(capacity+1) ];
+			children = new Object[ capacity+1 ];
+		}
+
+		void add( double minX, double minY, double maxX, double maxY, Object child ) {
+			int b = 4*count;
+			boxes[b] = minX; boxes[b+1] = minY; boxes[b+2] = maxX; boxes[b+3] = maxY;
+			children[count++] = child;
+		}
+
+		void add( Node child ) {
+			double[] mbr = child.getBoundingBox();
+			add( mbr[0], mbr[1], mbr[2], mbr[3], child );
+		}
+
+		double[] getBoundingBox() {
+			double[] mbr = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+			for ( int b=0; b<4*count; b+=4 ) {
+				if ( boxes[b] < mbr[0] ) mbr[0] = boxes[b];
+				if ( boxes[b+1] < mbr[1] ) mbr[1] = boxes[b+1];
+				if ( boxes[b+2] > mbr[2] ) mbr[2] = boxes[b+2];
+				if ( boxes[b+3] > mbr[3] ) mbr[3] = boxes[b+3];
+			}
+			return mbr;
+		}
+	}
+
+	public RTree() {
+		this( DEFAULT_NODE_CAPACITY );
+	}
+
+	public RTree( int nodeCapacity ) {
+		if ( 4 > nodeCapacity ) throw new IllegalArgumentException("R-tree node capacity must be at least 4: " + nodeCapacity);
+		maxEntries = nodeCapacity;
+		minEntries = Math.max( 2, nodeCapacity * 2 / 5 );
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Builds a tree holding the given items, replacing any previous content. Item i has the bounding box
+	 * (minX[i], minY[i]) - (maxX[i], maxY[i]). For points, pass the same arrays for the min and max coordinates.
+	 */
+	public void bulkLoad( List<? extends T> items, double[] minX, double[] minY, double[] maxX, double[] maxY ) {
+
+		int n = items.size();
+		Object[] entries = items.toArray();
+		boolean isLeafLevel = true;
+
+		// Pack each level into nodes, until they all fit in the root
+		do {
+			Node[] nodes = packLevel( n, entries, minX, minY, maxX, maxY, isLeafLevel );
+			isLeafLevel = false;
+			n = nodes.length;
+			entries = nodes;
+			minX = new double[n]; minY = new double[n]; maxX = new double[n]; maxY = new double[n];
+			for ( int i=0; i<n; i++ ) {
+				double[] mbr = nodes[i].getBoundingBox();
+				minX[i] = mbr[0]; minY[i] = mbr[1]; maxX[i] = mbr[2]; maxY[i] = mbr[3];
+			}
+		} while ( 1 < n );
+
+		root = 0 == n ? null : (Node) entries[0];
+		size = items.size();
+	}
+
+	// Sort-Tile-Recursive packing: sort the entries by x into vertical slices of sqrt(numNodes) nodes each,
+	// then sort each slice by y and cut it into nodes.
+	private Node[] packLevel( int n, Object[] entries, double[] minX, double[] minY, double[] maxX, double[] maxY, boolean isLeafLevel ) {
+
+		int numNodes = Math.max( 1, (n + maxEntries - 1) / maxEntries );
+		int numSlices = (int) Math.ceil( Math.sqrt( numNodes ) );
+		int sliceSize = numSlices * maxEntries;
+
+		// Sort keys hold the centre coordinate as a float (precision only matters to the packing) and the entry index
+		long[] keys = new long[n];
+		for ( int i=0; i<n; i++ ) keys[i] = sortKey( (minX[i] + maxX[i]) / 2, i );
+		Arrays.sort( keys );
+
+		Node[] nodes = new Node[ numNodes ];
+		int nodeIdx = 0;
+		for ( int sliceStart=0; sliceStart<n; sliceStart+=sliceSize ) {
+			int sliceEnd = Math.min( n, sliceStart + sliceSize );
+			for ( int k=sliceStart; k<sliceEnd; k++ ) {
+				int i = (int) keys[k];
+				keys[k] = sortKey( (minY[i] + maxY[i]) / 2, i );
+			}
+			Arrays.sort( keys, sliceStart, sliceEnd );
+
+			for ( int k=sliceStart; k<sliceEnd; k++ ) {
+				if ( 0 == (k - sliceStart) % maxEntries ) nodes[nodeIdx++] = new Node( isLeafLevel, maxEntries );
+				int i = (int) keys[k];
+				nodes[nodeIdx-1].add( minX[i], minY[i], maxX[i], maxY[i], entries[i] );
+			}
+		}
+
+		return nodeIdx == numNodes ? nodes : Arrays.copyOf( nodes, nodeIdx );
+	}
+
+	private static long sortKey( double coordinate, int index ) {
+		int bits = Float.floatToIntBits( (float) coordinate );
+		bits ^= (bits >> 31) & 0x7fffffff; // order negative floats correctly as signed ints
+		return ((long) bits << 32) | index;
+	}
+
+	/**
+	 * Adds an item to the tree.
+	 */
+	public void insert( double minX, double minY, double maxX, double maxY, T item ) {
+
+		if ( null == root ) root = new Node( true, maxEntries );
+
+		Node sibling = insert( root, minX, minY, maxX, maxY, item );
+		if ( null != sibling ) {
+			Node newRoot = new Node( false, maxEntries );
+			newRoot.add( root );
+			newRoot.add( sibling );
+			root = newRoot;
+		}
+		size++;
+	}
+
+	// Returns the new sibling of the node if it had to be split
+	private Node insert( Node node, double minX, double minY, double maxX, double maxY, Object item ) {
+
+		if ( node.isLeaf )
+			node.add( minX, minY, maxX, maxY, item );
+		else {
+			int best = 0;
+			double bestEnlargement = Double.MAX_VALUE, bestArea = Double.MAX_VALUE;
+			for ( int c=0; c<node.count; c++ ) {
+				int b = 4*c;
+				double area = area( node.boxes[b], node.boxes[b+1], node.boxes[b+2], node.boxes[b+3] );
+				double enlargement = area( Math.min(minX, node.boxes[b]), Math.min(minY, node.boxes[b+1]),
+						Math.max(maxX, node.boxes[b+2]), Math.max(maxY, node.boxes[b+3]) ) - area;
+				if ( enlargement < bestEnlargement || enlargement == bestEnlargement && area < bestArea ) {
+					best = c; bestEnlargement = enlargement; bestArea = area;
+				}
+			}
+
+			Node child = (Node) node.children[best];
+			Node split = insert( child, minX, minY, maxX, maxY, item );
+			double[] mbr = child.getBoundingBox();
+			System.arraycopy( mbr, 0, node.boxes, 4*best, 4 );
+			if ( null != split ) node.add( split );
+		}
+
+		return node.count > maxEntries ? split( node ) : null;
+	}
+
+	// Quadratic split: seed 2 groups with the entries that would waste the most area together, then give each remaining
+	// entry to the group whose box grows least, whilst making sure both groups get at least minEntries.
+	private Node split( Node node ) {
+
+		int n = node.count;
+		double[] boxes = node.boxes.clone();
+		Object[] children = node.children.clone();
+
+		int seed1 = 0, seed2 = 1;
+		double worstWaste = -Double.MAX_VALUE;
+		for ( int i=0; i<n; i++ )
+			for ( int j=i+1; j<n; j++ ) {
+				int bi = 4*i, bj = 4*j;
+				double waste = area( Math.min(boxes[bi], boxes[bj]), Math.min(boxes[bi+1], boxes[bj+1]),
+						Math.max(boxes[bi+2], boxes[bj+2]), Math.max(boxes[bi+3], boxes[bj+3]) )
+						- area( boxes[bi], boxes[bi+1], boxes[bi+2], boxes[bi+3] ) - area( boxes[bj], boxes[bj+1], boxes[bj+2], boxes[bj+3] );
+				if ( waste > worstWaste ) { worstWaste = waste; seed1 = i; seed2 = j; }
+			}
+
+		Node sibling = new Node( node.isLeaf, maxEntries );
+		node.count = 0;
+		Arrays.fill( node.children, null );
+		node.add( boxes[4*seed1], boxes[4*seed1+1], boxes[4*seed1+2], boxes[4*seed1+3], children[seed1] );
+		sibling.add( boxes[4*seed2], boxes[4*seed2+1], boxes[4*seed2+2], boxes[4*seed2+3], children[seed2] );
+		double[] mbr1 = node.getBoundingBox(), mbr2 = sibling.getBoundingBox();
+
+		int remaining = n - 2;
+		for ( int i=0; i<n; i++ ) {
+			if ( i == seed1 || i == seed2 ) continue;
+			int b = 4*i;
+
+			Node target;
+			if ( minEntries - node.count >= remaining ) target = node;
+			else if ( minEntries - sibling.count >= remaining ) target = sibling;
+			else {
+				double area1 = area( mbr1[0], mbr1[1], mbr1[2], mbr1[3] ), area2 = area( mbr2[0], mbr2[1], mbr2[2], mbr2[3] );
+				double growth1 = area( Math.min(boxes[b], mbr1[0]), Math.min(boxes[b+1], mbr1[1]),
+						Math.max(boxes[b+2], mbr1[2]), Math.max(boxes[b+3], mbr1[3]) ) - area1;
+				double growth2 = area( Math.min(boxes[b], mbr2[0]), Math.min(boxes[b+1], mbr2[1]),
+						Math.max(boxes[b+2], mbr2[2]), Math.max(boxes[b+3], mbr2[3]) ) - area2;
+				target = growth1 < growth2 || growth1 == growth2 && ( area1 < area2 || area1 == area2 && node.count <= sibling.count ) ? node : sibling;
+			}
+
+			target.add( boxes[b], boxes[b+1], boxes[b+2], boxes[b+3], children[i] );
+			double[] mbr = target == node ? mbr1 : mbr2;
+			mbr[0] = Math.min( mbr[0], boxes[b] ); mbr[1] = Math.min( mbr[1], boxes[b+1] );
+			mbr[2] = Math.max( mbr[2], boxes[b+2] ); mbr[3] = Math.max( mbr[3], boxes[b+3] );
+			remaining--;
+		}
+
+		return sibling;
+	}
+
+	private static double area( double minX, double minY, double maxX, double maxY ) {
+		return (maxX - minX) * (maxY - minY);
+	}
+
+	/**
+	 * Adds to the results all the items whose bounding box intersects the given one (bounds included).
+	 */
+	public void search( double minX, double minY, double maxX, double maxY, List<? super T> results ) {
+		if ( null != root ) search( root, minX, minY, maxX, maxY, results );
+	}
+
+	@SuppressWarnings("unchecked")
+	private void search( Node node, double minX, double minY, double maxX, double maxY, List<? super T> results ) {
+		double[] boxes = node.boxes;
+		for ( int c=0; c<node.count; c++ ) {
+			int b = 4*c;
+			if ( boxes[b] > maxX || boxes[b+2] < minX || boxes[b+1] > maxY || boxes[b+3] < minY ) continue;
+			if ( node.isLeaf ) results.add( (T) node.children[c] );
+			else search( (Node) node.children[c], minX, minY, maxX, maxY, results );
+		}
+	}
+}
@@ -7,13 +7,17 @@
 
 package com.ibm.db2j;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -29,6 +33,7 @@ import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.iterators.user.RegExFilter;
+import org.apache.accumulo.core.iterators.user.WholeRowIterator;
 import org.apache.accumulo.core.security.Authorizations;
 
 import org.apache.derby.iapi.error.StandardException;
@@ -42,6 +47,7 @@ import org.apache.hadoop.io.Text;
 
 import com.ibm.db2j.AbstractVTI;
 import com.ibm.gaiandb.GaianDBConfigProcedures;
+import com.ibm.gaiandb.GaianNode;
 import com.ibm.gaiandb.GaianResultSetMetaData;
 import com.ibm.gaiandb.Logger;
 import com.ibm.gaiandb.RowsFilter;
@@ -84,10 +90,20 @@ import com.ibm.gaiandb.diags.GDBMessages;
  * AccumuloVTI.AccumuloUserInstance1.USR=root
  * AccumuloVTI.AccumuloUserInstance1.PWD=<pwd>
  * 
+ * # Optional scan parallelism properties:
+ * AccumuloVTI.AccumuloUserInstance1.MAX_SCAN_THREADS=16
+ * AccumuloVTI.AccumuloUserInstance1.MAX_PARTITIONS=8
+ * 
+ * Scans spanning more than one tablet use a BatchScanner whose thread count is sized to the number of tablets covered by the scan ranges, 
+ * capped by MAX_SCAN_THREADS and scaled down when this node's CPU is busy. Rows are kept whole across scanner threads with a server-side WholeRowIterator.
+ * 
+ * If the data source has the PLURALIZED option (e.g. LTBIKES_DS0_OPTIONS=MAP_COLUMNS_BY_POSITION, PLURALIZED), the table is also split into 
+ * up to MAX_PARTITIONS contiguous groups of tablets. Each group is scanned by its own GaianResult thread, so rows stream into the result in parallel.
+ * 
  * @author DavidVyvyan
  */
 
-public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
+public class AccumuloVTI extends AbstractVTI implements PluralizableVTI {
 	
 //	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
 	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2014";
@@ -98,6 +114,7 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 	
 	private final Connector accumuloConnector;
 
+	private final String accumuloInstanceName;
 	private final String accumuloTable;
 	private final boolean isDeriveSchemaFromFirstRow;
 	private static final String DERIVE_SCHEMA_FROM_FIRST_ROW = "DERIVE_SCHEMA_FROM_FIRST_ROW";
@@ -106,18 +123,23 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 	private GaianResultSetMetaData accumuloTableRSMD = null;
 
 	private final Scanner standardScanner;
-	private final BatchScanner batchScanner;
+	private BatchScanner batchScanner = null; // Created for each query, with a number of threads sized to the tablets spanned by its ranges
 	private ScannerBase tableScanner = null; // Can switch between the 2 scanner types above
 	
 	private List<Range> rowidRangesPredicates = null;
 	private List<IteratorSetting> preScanIterators = new ArrayList<IteratorSetting>(); // iterators based on regex filters built from predicates
+	private List<Integer> preScanColIDs = new ArrayList<Integer>(); // 1-based column ID filtered by each of the preScanIterators
 	
 	private Iterator<Map.Entry<Key,Value>> rowScanIterator = null;
 	
 	private Map.Entry<Key,Value> currentAccumuloRow = null;
 	
     private int[] projectedColumns = null;
+    private int[] fetchedColumns = null; // projected columns and any other columns referenced by the qualifiers left to test locally - 1-based
     private Qualifier[][] qualifiers = null;
+    
+    // Row range covered by this VTI when it is invoked as one of the pluralized instances of its data source - null otherwise
+    private Range partitionRange = null;
 
 	Map<String, Integer> projectedColumnsNameToIndexMap = new HashMap<String, Integer>();
 	
@@ -128,12 +150,33 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 	private static final String ROWID = "ROWID";
 	private static final String VC256 = "VARCHAR(256)";
 	private static final boolean isRowidInSchema = true; // Include Accumulo RowID as a column in this VTI's table shape?
-	private static int rowidColShift = 0;
+	private int rowidColShift = 0;
 	
 	private static final String PROPERTY_INSTANCE = "INSTANCE";
 	private static final String PROPERTY_ZOOKEEPERS = "ZOOKEEPERS";
 	private static final String PROPERTY_USR = "USR";
 	private static final String PROPERTY_PWD = "PWD";
+	private static final String PROPERTY_MAX_SCAN_THREADS = "MAX_SCAN_THREADS";
+	private static final String PROPERTY_MAX_PARTITIONS = "MAX_PARTITIONS";
+	
+	private static final int DEFAULT_MAX_SCAN_THREADS = 16;
+	private static final int DEFAULT_MAX_PARTITIONS = 8;
+	
+	private final int maxScanThreads;
+	private final int maxPartitions;
+	
+	// Tablet split points for each table, keyed by instance name and table name - refreshed periodically as tablets split over time.
+	private final static Map<String, TabletSplits> tabletSplitsCache = new Hashtable<String, TabletSplits>();
+	private static final long TABLET_SPLITS_REFRESH_PERIOD_MS = 60000;
+	
+	// Run after any regex filters, so that only rows having matching cells are re-assembled on the tablet servers.
+	private static final int WHOLE_ROW_ITERATOR_PRIORITY = 100;
+	
+	private static class TabletSplits {
+		private final Text[] splits; // sorted - tablet i holds rows in ( splits[i-1], splits[i] ]
+		private final long fetchTime = System.currentTimeMillis();
+		private TabletSplits( Text[] splits ) { this.splits = splits; }
+	}
 	
 	private int rowCount = 0;
 	private int numRowsReceivedFromAccumulo;
@@ -186,6 +229,10 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 		String usr = getVTIProperty(PROPERTY_USR);
 		String pwd = getVTIProperty(PROPERTY_PWD);
 		
+		accumuloInstanceName = instanceName;
+		maxScanThreads = getIntVTIProperty( PROPERTY_MAX_SCAN_THREADS, DEFAULT_MAX_SCAN_THREADS );
+		maxPartitions = getIntVTIProperty( PROPERTY_MAX_PARTITIONS, DEFAULT_MAX_PARTITIONS );
+		
 		ZooKeeperInstance instance;
 		if ( zooKeeperInstances.containsKey( instanceName ) ) instance = zooKeeperInstances.get( instanceName );
 		else zooKeeperInstances.put( instanceName, instance = new ZooKeeperInstance( instanceName, zooKeeperHostPortLocationsCSV ) );
@@ -196,12 +243,19 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 		try { standardScanner = accumuloConnector.createScanner( accumuloTable, tableScannerAuthorizations ); }
 		catch ( TableNotFoundException e ) { throw new SQLException("Unable to construct Accumulo Scanner. table = " + accumuloTable + ", cause: " + e); }
 		
-		try { batchScanner = accumuloConnector.createBatchScanner(accumuloTable, tableScannerAuthorizations, 10); }
-		catch ( TableNotFoundException e ) { throw new SQLException("Unable to construct Accumulo BatchScanner. table = " + accumuloTable + ", cause: " + e); }
-		
 		tableScanner = standardScanner; // default
 	}
 	
+	private int getIntVTIProperty( String property, int defaultValue ) {
+		String value = getVTIPropertyNullable( property );
+		if ( null == value ) return defaultValue;
+		try { return Math.max( 1, Integer.parseInt( value.trim() ) ); }
+		catch ( NumberFormatException e ) {
+			logger.logImportant("Invalid value for AccumuloVTI property " + property + ": " + value + " (using default: " + defaultValue + ")");
+			return defaultValue;
+		}
+	}
+	
 	/**
 	 * Gives VTI's table schema, i.e. number of columns, their types, names, sizes etc.
 	 * Deduces this from the first row of data in the targeted table (whose name should be specified in gaiandb_config.properties).
@@ -263,9 +317,152 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 		// to accumulo when specifying projected columns - there is no room for using differently named columns or different character case 
 		// for them in the logical table. 
 		logger.logInfo("Entered setArgs(), args are: " + Arrays.asList(args) );
-//		if ( null != args && 0 < args.length ) { if ( null != args[0] ) pluralizationInstance = args[0]; } // Not interested in pluralization yet
+		
+		// The 1st argument is the pluralized instance ID (null if the data source is not PLURALIZED) - it identifies the rows we must scan.
+		partitionRange = null != args && 0 < args.length && null != args[0] ? parsePartitionEndpointID( args[0] ) : null;
+		if ( null != partitionRange ) logger.logInfo("Scan is restricted to partition range: " + partitionRange);
 	};
 	
+	/**
+	 * Splits the table into contiguous groups of tablets, one per end-point, so that GaianDB can scan them with parallel threads when the
+	 * data source is PLURALIZED. The number of groups is bounded by the number of tablets, by MAX_PARTITIONS and by the current node CPU load.
+	 * 
+	 * Each end-point ID encodes its partition boundaries, so it can be resolved without any shared state when passed back via setArgs().
+	 * Format: "<partition index>/<partition count>:<length of start row>:<start row><end row>" - 
+	 * the first partition has no start row and the last one has no end row.
+	 */
+	@Override public Set<String> getEndpointIDs() {
+		
+		final Text[] splits = getTabletSplits();
+		final int numTablets = splits.length + 1;
+		final int numPartitions = computeParallelism( numTablets, maxPartitions );
+		
+		Set<String> endpointIDs = new LinkedHashSet<String>();
+		for ( int i=0; i<numPartitions; i++ ) {
+			// Partition i holds tablets [ i*numTablets/numPartitions, (i+1)*numTablets/numPartitions - 1 ]
+			final String startRow = 0 == i ? "" : splits[ i*numTablets/numPartitions - 1 ].toString();
+			final String endRow = numPartitions-1 == i ? "" : splits[ (i+1)*numTablets/numPartitions - 1 ].toString();
+			endpointIDs.add( i + "/" + numPartitions + ':' + startRow.length() + ':' + startRow + endRow );
+		}
+		
+		logger.logInfo("Resolved " + numPartitions + " partitions for " + numTablets + " tablets: " + endpointIDs);
+		return endpointIDs;
+	}
+	
+	@Override public DataValueDescriptor[] getEndpointConstants(String endpointID) { return null; } // No constant columns for table partitions
+	
+	private static Range parsePartitionEndpointID( String endpointID ) {
+		try {
+			final int idx1 = endpointID.indexOf('/'), idx2 = endpointID.indexOf(':'), idx3 = endpointID.indexOf(':', idx2+1);
+			final int index = Integer.parseInt( endpointID.substring(0, idx1) ), count = Integer.parseInt( endpointID.substring(idx1+1, idx2) );
+			final int startLength = Integer.parseInt( endpointID.substring(idx2+1, idx3) );
+			final String startRow = endpointID.substring(idx3+1, idx3+1+startLength), endRow = endpointID.substring(idx3+1+startLength);
+			
+			// Tablets hold rows after their previous end row, up to and including their own end row.
+			return new Range( 0 == index ? null : new Text(startRow), false, count-1 == index ? null : new Text(endRow), true );
+			
+		} catch ( Exception e ) {
+			logger.logImportant("Unable to resolve partition range from endpoint ID: " + endpointID + " (scanning all rows), cause: " + e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the table's tablet split points, from a cache refreshed every TABLET_SPLITS_REFRESH_PERIOD_MS.
+	 * Returns an empty array if they cannot be obtained - i.e. the table is then treated as a single tablet.
+	 */
+	private Text[] getTabletSplits() {
+		
+		final String key = accumuloInstanceName + '/' + accumuloTable;
+		TabletSplits tabletSplits = tabletSplitsCache.get( key );
+		
+		if ( null == tabletSplits || TABLET_SPLITS_REFRESH_PERIOD_MS < System.currentTimeMillis() - tabletSplits.fetchTime ) {
+			try {
+				Collection<Text> splits = accumuloConnector.tableOperations().getSplits( accumuloTable );
+				Text[] sortedSplits = splits.toArray( new Text[0] );
+				Arrays.sort( sortedSplits );
+				tabletSplitsCache.put( key, tabletSplits = new TabletSplits( sortedSplits ) );
+				logger.logInfo("Refreshed tablet splits for table " + accumuloTable + ", number of tablets: " + (sortedSplits.length+1));
+			} catch ( Exception e ) {
+				logger.logImportant("Unable to get tablet splits for table " + accumuloTable + " (using previous ones if any), cause: " + e);
+				if ( null == tabletSplits ) return new Text[0];
+			}
+		}
+		
+		return tabletSplits.splits;
+	}
+	
+	/**
+	 * Counts the tablets that hold rows within any of the given ranges.
+	 */
+	private static int countTabletsSpanned( List<Range> ranges, Text[] splits ) {
+		
+		if ( 0 == splits.length ) return 1;
+		
+		BitSet tablets = new BitSet( splits.length+1 );
+		for ( Range r : ranges ) {
+			final int first = r.isInfiniteStartKey() ? 0 : getTabletIndex( r.getStartKey().getRow(), splits );
+			final int last = r.isInfiniteStopKey() ? splits.length : getTabletIndex( r.getEndKey().getRow(), splits );
+			tablets.set( first, last+1 );
+		}
+		return tablets.cardinality();
+	}
+	
+	// Tablet i holds rows in ( splits[i-1], splits[i] ], so its index is the number of split points lower than the row.
+	private static int getTabletIndex( Text row, Text[] splits ) {
+		final int idx = Arrays.binarySearch( splits, row );
+		return 0 > idx ? -idx-1 : idx;
+	}
+	
+	/**
+	 * Number of threads or partitions to use for a scan spanning the given number of tablets: one per tablet, up to 'max'.
+	 * This is scaled down when the node is busy, i.e. when GaianDB threads used more than half the CPU in the last sampling period.
+	 */
+	private static int computeParallelism( int numTablets, int max ) {
+		int n = Math.max( 1, Math.min( numTablets, max ) );
+		final int cpu = GaianNode.getNodeCPUInLastPeriod();
+		if ( 50 < cpu ) n = Math.max( 1, n * ( 100 - Math.min(100, cpu) ) / 50 );
+		return n;
+	}
+	
+	private static List<Range> clipRanges( List<Range> ranges, Range bounds ) {
+		List<Range> clipped = new ArrayList<Range>();
+		for ( Range r : ranges ) {
+			Range c = bounds.clip( r, true );
+			if ( null != c ) clipped.add( c );
+		}
+		return clipped;
+	}
+	
+	/**
+	 * Points tableScanner at the given ranges: a single Scanner is used if they are held in a single tablet, otherwise
+	 * a BatchScanner is created with as many threads as computeParallelism() allows for the tablets spanned.
+	 */
+	private ScannerBase prepareScanner( List<Range> ranges ) throws TableNotFoundException {
+		
+		closeBatchScanner();
+		
+		final int numTablets = countTabletsSpanned( ranges, getTabletSplits() );
+		
+		if ( 1 == ranges.size() && 2 > numTablets ) {
+			standardScanner.setRange( ranges.get(0) );
+			return tableScanner = standardScanner;
+		}
+		
+		final int numThreads = computeParallelism( numTablets, maxScanThreads );
+		logger.logInfo("Using BatchScanner with " + numThreads + " threads for " + ranges.size() + " ranges spanning " + numTablets + " tablets");
+		batchScanner = accumuloConnector.createBatchScanner( accumuloTable, tableScannerAuthorizations, numThreads );
+		batchScanner.setRanges( ranges );
+		return tableScanner = batchScanner;
+	}
+	
+	private void closeBatchScanner() {
+		if ( null == batchScanner ) return;
+		if ( tableScanner == batchScanner ) tableScanner = standardScanner;
+		batchScanner.close();
+		batchScanner = null;
+	}
+	
 	@Override public boolean pushProjection(VTIEnvironment arg0, int[] arg1) throws SQLException {
 		logger.logThreadDetail("Entered AccumuloVTI.pushProjection(), projection: " + Util.intArrayAsString(arg1));
 		if ( null != arg1) projectedColumns = arg1;
@@ -284,6 +481,8 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 		
 		try {
 			preScanIterators.clear();
+			preScanColIDs.clear();
+			rowidRangesPredicates = null;
 			
 			// Prepare range predicates based on given column qualifiers.
 			QualifiersToAccumuloRangesConverter predicatesConverter = new QualifiersToAccumuloRangesConverter(qualifiers);
@@ -300,12 +499,13 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 			qualifiers = predicatesConverter.getPrunedQualifiers();
 			logger.logInfo("Remaining Qualifiers: " + RowsFilter.reconstructSQLWhereClause(qualifiers, accumuloTableRSMD));
 			
-			for ( int i=0; i<projectedColumns.length; i++ ) {
+			// Filter on all columns having pruned predicates - not just projected ones, as their predicates will not be tested again locally.
+			for ( int colID : predicatesConverter.getColIDsHavingRanges() ) {
 				
-				final int pColID = projectedColumns[i];
+				final int pColID = colID+1;
 				if ( 1 == pColID ) continue;
 				final String colName = accumuloTableRSMD.getColumnName( pColID );
-				String regex = predicatesConverter.getPredicatesRegexForColID( pColID-1 ); // passed in colID must be 0-based
+				String regex = predicatesConverter.getPredicatesRegexForColID( colID ); // passed in colID must be 0-based
 				
 				if ( null == regex || ".*".equals(regex) ) continue; // null case should not happen
 				
@@ -322,6 +522,7 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 //				tableScanner.addScanIterator( regexIteratorSetting );
 				
 				preScanIterators.add( regexIteratorSetting );
+				preScanColIDs.add( pColID );
 			}
 			
 		} catch ( Exception e ) {
@@ -345,50 +546,65 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 				for ( int i=0; i<columnCount; i++ ) projectedColumns[i] = i+1; // 1-based
 			}
 			
-			if ( null != rowidRangesPredicates ) {
-				int numRanges = rowidRangesPredicates.size();
-				if ( 1 < numRanges ) ((BatchScanner) (tableScanner = batchScanner)).setRanges( rowidRangesPredicates );
-				else if ( 1 == numRanges ) ((Scanner) (tableScanner = standardScanner)).setRange( rowidRangesPredicates.get(0) );
-			}
+			// Columns referenced by qualifiers that remain to be tested locally must also be fetched.
+			Set<Integer> fetchedColIDs = new LinkedHashSet<Integer>();
+			for ( int pColID : projectedColumns ) fetchedColIDs.add( pColID );
+			if ( null != qualifiers )
+				for ( Qualifier[] qRow : qualifiers ) for ( Qualifier q : qRow ) fetchedColIDs.add( q.getColumnId()+1 );
+			fetchedColumns = new int[ fetchedColIDs.size() ];
+			int k = 0; for ( int pColID : fetchedColIDs ) fetchedColumns[k++] = pColID;
+			Arrays.sort( fetchedColumns );
+			
+			// Rows to scan: ROWID ranges resolved from qualifiers, clipped to the rows of this pluralized instance if there is one.
+			List<Range> scanRanges = null == rowidRangesPredicates ? RANGES_INFINITY : rowidRangesPredicates;
+			if ( null != partitionRange ) scanRanges = clipRanges( scanRanges, partitionRange );
+			if ( scanRanges.isEmpty() || 0 == projectedColumns.length ) { projectedColumns = new int[0]; return true; }
+			
+			IteratorSetting scanFilter = null;
 			
 			if ( false == preScanIterators.isEmpty() ) {
 				
-				if ( 1 == preScanIterators.size() && ( 1 == projectedColumns.length || ( 2 == projectedColumns.length && 1 == projectedColumns[0] ) ) )
-					// No need for pre-scans as there is only 1 column with predicates and no other columns are being extracted.					
-					tableScanner.addScanIterator( preScanIterators.get(0) );
+				if ( 1 == preScanIterators.size() && ( 1 == fetchedColumns.length || ( 2 == fetchedColumns.length && 1 == fetchedColumns[0] ) )
+						&& preScanColIDs.get(0) == fetchedColumns[fetchedColumns.length-1] )
+					// No need for pre-scans as there is only 1 column with predicates and no other columns are being extracted.
+					scanFilter = preScanIterators.get(0);
 				else {
-					for ( IteratorSetting it : preScanIterators ) {
-
-						tableScanner.addScanIterator( it );
+					for ( int i=0; i<preScanIterators.size(); i++ ) {
+						
+						// Each pre-scan runs the column's regex filter on the tablet servers and only returns the keys of matching cells.
+						ScannerBase preScanner = prepareScanner( scanRanges );
+						preScanner.addScanIterator( preScanIterators.get(i) );
+						preScanner.fetchColumnFamily( new Text( accumuloTableRSMD.getColumnName( preScanColIDs.get(i) ) ) );
 						
 						long millis = System.currentTimeMillis();
-						rowidRangesPredicates = iterateAndExtractRowRanges( tableScanner.iterator() );
+						scanRanges = iterateAndExtractRowRanges( preScanner.iterator() );
 						logger.logInfo("Scanned rowID ranges matching a column's predicates in " + (System.currentTimeMillis() - millis)
-								+ "ms. Remaining RowIDs ranges count = " + rowidRangesPredicates.size());
-
-						if ( rowidRangesPredicates.isEmpty() ) { projectedColumns = new int[0]; break; }
+								+ "ms. Remaining RowIDs ranges count = " + scanRanges.size());
+						
+						preScanner.clearScanIterators();
+						preScanner.clearColumns();
 						
-						tableScanner.clearScanIterators();
-						int numRanges = rowidRangesPredicates.size();
-						if ( 1 < numRanges ) ((BatchScanner) (tableScanner = batchScanner)).setRanges( rowidRangesPredicates );
-						else if ( 1 == numRanges ) ((Scanner) (tableScanner = standardScanner)).setRange( rowidRangesPredicates.get(0) );
+						if ( scanRanges.isEmpty() ) { projectedColumns = new int[0]; return true; }
 					}
 				}
 			}
 			
+			prepareScanner( scanRanges );
+			if ( null != scanFilter ) tableScanner.addScanIterator( scanFilter );
+			
 			// Initialise a shift value to 1 if ROWID needs setting in nextRow()
-			if ( 0 == projectedColumns.length ) return true;
-			rowidColShift = 1 == projectedColumns[0] ? 1 : 0;
+			rowidColShift = 1 == fetchedColumns[0] ? 1 : 0;
 			
 			// Initialise mapping of column names to column indexes
-			for ( int i=0; i<projectedColumns.length; i++ ) {
-				int pColID = projectedColumns[i];
+			projectedColumnsNameToIndexMap.clear();
+			for ( int i=0; i<fetchedColumns.length; i++ ) {
+				int pColID = fetchedColumns[i];
 				projectedColumnsNameToIndexMap.put( accumuloTableRSMD.getColumnName(pColID), pColID );
 			}
 			
 			// Specify all columns required to be extracted for this query
-			for ( int i=0; i<projectedColumns.length; i++ ) {
-				final int pColID = projectedColumns[i];
+			for ( int i=0; i<fetchedColumns.length; i++ ) {
+				final int pColID = fetchedColumns[i];
 				if ( 1 == pColID ) continue;
 				final String colName = accumuloTableRSMD.getColumnName( pColID );
 				logger.logInfo("Adding projected column (column family): " + colName);
@@ -397,7 +613,13 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 //				tableScanner.fetchColumn( new Text("<colFamily>"), new Text("<colQualifier>") );
 			}
 			
-			rowScanIterator = tableScanner.iterator();
+			if ( tableScanner == batchScanner ) {
+				// BatchScanner threads return entries from different tablets in any order, so have each row assembled into a 
+				// single entry on the tablet servers - nextRow() relies on all columns of a row being contiguous.
+				tableScanner.addScanIterator( new IteratorSetting( WHOLE_ROW_ITERATOR_PRIORITY, "WholeRows", WholeRowIterator.class ) );
+				rowScanIterator = new WholeRowsIterator( tableScanner.iterator() );
+			} else
+				rowScanIterator = tableScanner.iterator();
 			
 		} catch ( Exception e ) {
 			throw new SQLException("Exception in AccumuloVTI.executeAsFastPath(), cause: " + Util.getStackTraceDigest(e));
@@ -406,6 +628,30 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 		return true;
 	}
 	
+	/**
+	 * Expands the entries encoded by a WholeRowIterator back into the individual cells of each row.
+	 */
+	private static class WholeRowsIterator implements Iterator<Map.Entry<Key,Value>> {
+		
+		private final Iterator<Map.Entry<Key,Value>> encodedRows;
+		private Iterator<Map.Entry<Key,Value>> rowCells = null;
+		
+		private WholeRowsIterator( Iterator<Map.Entry<Key,Value>> encodedRows ) { this.encodedRows = encodedRows; }
+		
+		@Override public boolean hasNext() {
+			while ( null == rowCells || false == rowCells.hasNext() ) {
+				if ( false == encodedRows.hasNext() ) return false;
+				Map.Entry<Key,Value> encodedRow = encodedRows.next();
+				try { rowCells = WholeRowIterator.decodeRow( encodedRow.getKey(), encodedRow.getValue() ).entrySet().iterator(); }
+				catch ( IOException e ) { throw new RuntimeException("Unable to decode Accumulo row: " + encodedRow.getKey(), e); }
+			}
+			return true;
+		}
+		
+		@Override public Map.Entry<Key,Value> next() { hasNext(); return rowCells.next(); }
+		@Override public void remove() { throw new UnsupportedOperationException(); }
+	}
+	
 	/**
 	 * The purpose of this method is to retrieve a list of rowIDs that satisfy predicates set on an IteratorSetting.
 	 * This method must only be called with an iterator that will retrieve 1 Accumulo record per rowID.
@@ -454,8 +700,8 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 			if ( 1 == rowidColShift ) dvdRecord[0].setValue( rowID.toString() );
 			
 			// Initialise column cells to NULL value.
-			for ( int i=rowidColShift; i<projectedColumns.length; i++ )
-				dvdRecord[ projectedColumns[i]-1 ].setToNull();
+			for ( int i=rowidColShift; i<fetchedColumns.length; i++ )
+				dvdRecord[ fetchedColumns[i]-1 ].setToNull();
 
 			// Extract columns from Accumulo records for this rowID - note: Accumulo rows don't have to be complete
 			Text previousRowID = rowID;
@@ -464,20 +710,21 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 				final String colName = key.getColumnFamily().toString();
 				final Integer pColID = projectedColumnsNameToIndexMap.get(colName);
 				if ( null == pColID ) {
-					logger.logImportant("Encountered Accumulo column which was not requested as column family (skipped): " + colName);
-					continue; // this column was not requested - should not happen
+					// this column was not requested - this happens when only the ROWID is projected as no column family is then fetched.
+					if ( 1 != fetchedColumns.length )
+						logger.logImportant("Encountered Accumulo column which was not requested as column family (skipped): " + colName);
+				} else {
+					// Log info about the newly found column
+					final String cellStringValue = isExtractAccumuloColumnQualifiersInPlaceOfValues ?
+							currentAccumuloRow.getKey().getColumnQualifier().toString() : currentAccumuloRow.getValue().toString();
+//					logger.logDetail("Setting ProjectedColID: " + pColID +
+//							", from record with Key: " + key + " ==> ColFamily: " + key.getColumnFamily()
+//							+ ( isExtractAccumuloColumnQualifiersInPlaceOfValues ? ", ColQualifier: " : ", Value: " ) + cellStringValue );
+					
+					// Set column value for the row - this also does type conversion.
+					dvdRecord[ pColID-1 ].setValue( cellStringValue ); // normalise to 0-based
 				}
 				
-				// Log info about the newly found column
-				final String cellStringValue = isExtractAccumuloColumnQualifiersInPlaceOfValues ?
-						currentAccumuloRow.getKey().getColumnQualifier().toString() : currentAccumuloRow.getValue().toString();
-//				logger.logDetail("Setting ProjectedColID: " + pColID +
-//						", from record with Key: " + key + " ==> ColFamily: " + key.getColumnFamily()
-//						+ ( isExtractAccumuloColumnQualifiersInPlaceOfValues ? ", ColQualifier: " : ", Value: " ) + cellStringValue );
-				
-				// Set column value for the row - this also does type conversion.
-				dvdRecord[ pColID-1 ].setValue( cellStringValue ); // normalise to 0-based
-				
 				// Scroll to the next column - break if we run out of records (rows don't have to be complete)
 				if ( false == rowScanIterator.hasNext() ) {
 					currentAccumuloRow = null;
@@ -514,11 +761,14 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 		if ( 0 < rowCount )
 			logger.logImportant("Re-initialising AccumuloVTI. Row Counts for last query - filtered locally/remotely: "
 				+ rowCount + '/' + numRowsReceivedFromAccumulo);
-		tableScanner.clearColumns();
-		tableScanner.clearScanIterators();
-		if ( tableScanner == standardScanner ) standardScanner.setRange( RANGE_INFINITY );
-		else batchScanner.setRanges( RANGES_INFINITY );
+		closeBatchScanner(); // its threads are sized for the last query's ranges - a new one is created when needed.
+		standardScanner.clearColumns();
+		standardScanner.clearScanIterators();
+		standardScanner.setRange( RANGE_INFINITY );
 		tableScanner = standardScanner; // default
+		rowScanIterator = null;
+		currentAccumuloRow = null;
+		projectedColumns = null;
 		rowCount = 0;
 		return true;
 	}
@@ -546,6 +796,7 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 		private boolean isQualifiersResolveToFalse() { return null==accumuloColIDs2RangesMap; }
 		
 		private List<Range> getAccumuloRanges() { return null==accumuloColIDs2RangesMap ? null : accumuloColIDs2RangesMap.get( ROWID_COLID ); }
+		private Set<Integer> getColIDsHavingRanges() { return null==accumuloColIDs2RangesMap ? new HashSet<Integer>() : accumuloColIDs2RangesMap.keySet(); } // 0-based
 		public Qualifier[][] getPrunedQualifiers() { return prunedQualifiers; }
 		
 		/**
@@ -750,12 +1001,18 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 					if ( false == originalQualifiers[i][j].getOrderable() instanceof SQLChar )
 						excludedColIDs.add( originalQualifiers[i][j].getColumnId() );
 			
+			// ANDed expressions which can't be converted to ranges - these are left to be tested locally.
+			List<Qualifier> remainingAndedQualifiers = new ArrayList<Qualifier>();
+			
 			// Process 1st row, which contains ANDed expressions.
 			Qualifier[] qRow = originalQualifiers[0];
 			for ( int j=0; j<qRow.length; j++ ) {
 				Qualifier qCell = qRow[j];
 				int colID = qCell.getColumnId();
 				
+				// Ranges and regex filters compare values as strings - this would not work for numeric or other types of values
+				if ( excludedColIDs.contains( colID ) ) { remainingAndedQualifiers.add( qCell ); continue; }
+				
 				// Create new Ranges for this qCell.
 				// Example: ROWID!=3 becomes ranges: [null,3[ ; ]3,null]
 				List<Range> newRanges = constructRangesFromSingleQualifier( qCell ); // can't be empty
@@ -777,7 +1034,7 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 			}
 
 			List<Qualifier[]> remainingQualifiers = new ArrayList<Qualifier[]>();
-			remainingQualifiers.add( new Qualifier[0] ); // The first row contains anded predicates - we have pruned them all...
+			remainingQualifiers.add( remainingAndedQualifiers.toArray( new Qualifier[0] ) ); // The first row contains anded predicates - we have pruned the string ones...
 			
 			// Process all subsequent rows, which now contain ORed expressions - also combine these with previous rows
 			// ORed rows that reference columns other than the ROW ID column are skipped/ignored because they may just be true.
@@ -790,7 +1047,8 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 				for ( int j=1; j<qRow.length; j++ )					
 					if ( colID != qRow[j].getColumnId() ) { isOnlyOneColIDReferencedInThisORedQrow = false; break; }
 				// Ignore ORed expressions containing more than 1 column ID - they can't enforce constrainst on the Ranges list because the other column may resolve to true.
-				if ( false == isOnlyOneColIDReferencedInThisORedQrow ) {
+				// Also ignore those on columns compared to non-string values.
+				if ( false == isOnlyOneColIDReferencedInThisORedQrow || excludedColIDs.contains( colID ) ) {
 					remainingQualifiers.add( qRow );
 					continue;
 				}
@@ -817,7 +1075,8 @@ public class AccumuloVTI extends AbstractVTI { //implements PluralizableVTI {
 			
 			logger.logDetail("Built Map <colID -> List<Range>> (size " + colIDs2RangesMap.size() + "): " + colIDs2RangesMap);
 			
-			prunedQualifiers = 2 > remainingQualifiers.size() ? null : (Qualifier[][]) remainingQualifiers.toArray( new Qualifier[0][] );
+			prunedQualifiers = 2 > remainingQualifiers.size() && remainingAndedQualifiers.isEmpty() ? null
+					: (Qualifier[][]) remainingQualifiers.toArray( new Qualifier[0][] );
 			
 			return colIDs2RangesMap;
 		}
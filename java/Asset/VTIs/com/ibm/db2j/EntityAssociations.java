@@ -51,6 +51,7 @@ public class EntityAssociations extends VTI60 implements VTICosting, IFastPath,
 	public static final String PROPERTY_ENTITY_ASSOCIATIONS_OUTPUT_FILE = "outputFile";
 	public static final String PROPERTY_ENTITY_ASSOCIATIONS_NUM_ENTITIES = "numEntities";
 	public static final String PROPERTY_ENTITY_ASSOCIATIONS_GROUP_SIZE = "maxGroupSize";
+	public static final String PROPERTY_ENTITY_ASSOCIATIONS_NUM_THREADS = "numThreads"; // optional - threads used to resolve groups, default 1
 	
 	private static final String GROUPZISE_COLNAME = "GROUPSIZE";
 	private static final String ENTITY_COLNAME_PREFIX = "ENTITY";
@@ -76,6 +77,7 @@ public class EntityAssociations extends VTI60 implements VTICosting, IFastPath,
 		try {
 			
 			EntityMatrixJoiner emj = new EntityMatrixJoiner(inputFileName, numEntities, maxGroupSize);
+			emj.setNumThreads( getNumThreads() );
 			emj.processJoins();
 			
 			if ( null != outputFileName ) {
@@ -96,6 +98,12 @@ public class EntityAssociations extends VTI60 implements VTICosting, IFastPath,
 		return true;
 	}
 	
+	private static int getNumThreads() {
+		String numThreads = GaianDBConfig.getVTIProperty( EntityAssociations.class, PROPERTY_ENTITY_ASSOCIATIONS_NUM_THREADS, false );
+		try { return null == numThreads ? 1 : Integer.parseInt( numThreads.trim() ); }
+		catch ( NumberFormatException e ) { return 1; }
+	}
+	
 	public static void unloadMatrix( String inputFileName ) throws IOException {
 		
 		if ( null == inputFileName ) return;
@@ -250,6 +258,7 @@ public class EntityAssociations extends VTI60 implements VTICosting, IFastPath,
 				} else
 					emj.mergeGaianChildRows( nodesRows );
 				
+				emj.setNumThreads( getNumThreads() );
 				emj.processJoins();
 			}
 		} catch ( Exception e) {
@@ -8,16 +8,19 @@
 package com.ibm.db2j;
 
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.derby.iapi.error.StandardException;
 import org.apache.derby.iapi.store.access.Qualifier;
 import org.apache.derby.iapi.types.DataValueDescriptor;
+import org.apache.derby.iapi.types.Orderable;
 import org.apache.derby.vti.IFastPath;
 import org.apache.derby.vti.VTICosting;
 import org.apache.derby.vti.VTIEnvironment;
@@ -36,10 +39,17 @@ import com.ibm.gaiandb.Logger;
 import com.ibm.gaiandb.RowsFilter;
 import com.ibm.gaiandb.Util;
 import com.ibm.gaiandb.diags.GDBMessages;
+import com.ibm.gaiandb.excel.XlsxSheetReader;
 
 /**
  * Derby VTI for excel spreadsheets.
  *
+ * Excel 2007+ files (.xlsx) are streamed one row at a time with an XlsxSheetReader, only materialising the
+ * projected columns. Older files (.xls) are loaded entirely using the POI workbook model.
+ * 
+ * An optional argument "sortedColumn=&lt;column letter&gt;" declares that the rows are sorted in ascending 
+ * order of a column: the scan then stops as soon as a row is beyond the upper bound of a qualifier on that column.
+ *
  * Are not yet implemented :
  * 
  * - physical/logical column mapping
@@ -63,6 +73,8 @@ public class GExcel extends VTI60 implements VTICosting, IFastPath, GaianChildVT
 	
 	private static String DEFAULT_COLUMN_LABEL = "COLUMN";
 	
+	private static final String ARG_SORTED_COLUMN = "sortedColumn=";
+	
 	private Workbook workbook;
 	private FormulaEvaluator evaluator;
 	private Sheet sheet;
@@ -90,6 +102,18 @@ public class GExcel extends VTI60 implements VTICosting, IFastPath, GaianChildVT
 	
 	private boolean firstRowIsMetaData;
 	
+	// Streaming of .xlsx files
+	private String fileName;
+	private String spreadsheetName;
+	private XlsxSheetReader sheetReader = null; // null if the workbook is loaded with POI
+	private boolean isReaderRowPending = false; // true if the reader's current row has not been consumed yet
+	private int currentRowIndex = -1;
+	private boolean[] materialisedColumns = null; // null if all columns are materialised
+	
+	// Early end of scan on a sorted column
+	private int sortedColumnIndex = -1;
+	private Qualifier[] sortedColumnUpperBounds = null;
+	
 	/**
 	 * Receives in parameter the argument from gaiandb configuration file.
 	 * 
@@ -103,6 +127,12 @@ public class GExcel extends VTI60 implements VTICosting, IFastPath, GaianChildVT
 	
 		String[] splitArgs = Util.splitByTrimmedDelimiter( args, ARG_SEPARATOR );
 		
+		// Extract the optional sorted column argument
+		if ( 2 < splitArgs.length && splitArgs[ splitArgs.length-1 ].startsWith( ARG_SORTED_COLUMN ) ) {
+			sortedColumnIndex = XlsxSheetReader.getColumnIndex( splitArgs[ splitArgs.length-1 ].substring( ARG_SORTED_COLUMN.length() ) );
+			splitArgs = Arrays.copyOf( splitArgs, splitArgs.length-1 );
+		}
+		
 		try {
 			if ( splitArgs.length == 2 ) {		
 				initialize( splitArgs[0], splitArgs[1], null, null, true );
@@ -173,6 +203,10 @@ public class GExcel extends VTI60 implements VTICosting, IFastPath, GaianChildVT
 			boolean areQualifiersMet = RowsFilter.testQualifiers( arg0, qualifiers );
 			while ( result==GOT_ROW && !areQualifiersMet )
 			{
+				if ( isBeyondSortedColumnRange( arg0 ) ) {
+					logger.logInfo("Ending GExcel table scan as the rows are beyond the qualifiers range on the sorted column");
+					return SCAN_COMPLETED;
+				}
 				result = createNextRow( sheet, arg0);
 				areQualifiersMet = RowsFilter.testQualifiers( arg0, qualifiers );
 			}
@@ -209,6 +243,74 @@ public class GExcel extends VTI60 implements VTICosting, IFastPath, GaianChildVT
 		//System.out.println( "*** setExtractConditions" );
 		this.qualifiers = qualifiers;
 //		System.out.println("Cols involved: " + Util.intArrayAsString(projectedColumns));
+		
+		// Only materialise the columns which are projected or filtered on
+		materialisedColumns = null;
+		if ( null != projectedColumns ) {
+			materialisedColumns = new boolean[ lastColumnIndex - firstColumnIndex + 1 ];
+			for ( int colID : RowsFilter.getAllSortedColsInvolvedInQuery( projectedColumns, qualifiers ) ) {
+				markMaterialisedColumn( colID );
+				if ( null != physicalColumnsMapping && colID < physicalColumnsMapping.length )
+					markMaterialisedColumn( physicalColumnsMapping[colID] );
+			}
+		}
+		
+		// Find the upper bounds of the sorted column in the ANDed qualifiers
+		sortedColumnUpperBounds = null;
+		int sortedColumnPosition = sortedColumnIndex - firstColumnIndex;
+		if ( -1 < sortedColumnIndex && null != qualifiers && 0 < qualifiers.length ) {
+			List<Qualifier> upperBounds = new ArrayList<Qualifier>();
+			for ( Qualifier q : qualifiers[0] )
+				if ( sortedColumnPosition == q.getColumnId() && isUpperBound( q ) ) upperBounds.add( q );
+			if ( !upperBounds.isEmpty() ) sortedColumnUpperBounds = upperBounds.toArray( new Qualifier[0] );
+		}
+	}
+	
+	private void markMaterialisedColumn( int colID ) {
+		if ( -1 < colID && colID < materialisedColumns.length ) materialisedColumns[colID] = true;
+	}
+	
+	/**
+	 * Returns true if the qualifier only accepts values lower than (or equal to) its operand.
+	 */
+	private static boolean isUpperBound( Qualifier q ) {
+		switch ( q.getOperator() ) {
+			case Orderable.ORDER_OP_LESSTHAN:
+			case Orderable.ORDER_OP_LESSOREQUALS:
+			case Orderable.ORDER_OP_EQUALS:
+				return !q.negateCompareResult();
+			case Orderable.ORDER_OP_GREATERTHAN:
+			case Orderable.ORDER_OP_GREATEROREQUALS:
+				return q.negateCompareResult();
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * Returns true if the value of the sorted column in the row is beyond one of its upper bounds, in which
+	 * case no further rows can satisfy the qualifiers.
+	 */
+	private boolean isBeyondSortedColumnRange( DataValueDescriptor[] row ) {
+		if ( null == sortedColumnUpperBounds ) return false;
+		
+		try {
+			DataValueDescriptor key = row[ sortedColumnIndex - firstColumnIndex ];
+			if ( key.isNull() ) return false;
+			
+			for ( Qualifier q : sortedColumnUpperBounds ) {
+				int comparison = key.compare( q.getOrderable() );
+				int op = q.getOperator();
+				// Operators "<" and "not >=" exclude the bound itself
+				boolean isStrict = !q.negateCompareResult() && Orderable.ORDER_OP_LESSTHAN == op 
+						|| q.negateCompareResult() && Orderable.ORDER_OP_GREATEROREQUALS == op;
+				if ( isStrict ? 0 <= comparison : 0 < comparison ) return true;
+			}
+		} catch ( StandardException e ) {
+			logger.logInfo("Unable to compare the sorted column with its qualifiers - the scan will not end early: " + e);
+			sortedColumnUpperBounds = null;
+		}
+		return false;
 	}
 	
 	
@@ -228,20 +330,36 @@ public class GExcel extends VTI60 implements VTICosting, IFastPath, GaianChildVT
     {
     	//System.out.println( "*** getMetaData" );
     	reinitialise();
-    	rsmd = checkSheetTypeConsistency( columnIndexes ) ? createMetaData() : createStringTypeMetaData();
+    	boolean isConsistent = null == workbook ? checkStreamedSheetTypeConsistency() : checkSheetTypeConsistency( columnIndexes );
+    	rsmd = isConsistent ? createMetaData() : createStringTypeMetaData();
     	
     	return rsmd;
     }
     
 	@Override
 	public boolean reinitialise() {
-    	findColumns( sheet );
+		if ( null == workbook ) {
+			// Restart the streaming of the sheet
+			try {
+				closeSheetReader();
+				sheetReader = new XlsxSheetReader( fileName, spreadsheetName );
+				findStreamedColumns();
+			} catch ( Exception e ) {
+				logger.logWarning( GDBMessages.DSWRAPPER_GEXCEL_CLOSE_ERROR, "Unable to restart the scan of " + fileName + ": " + e );
+				columnIndexes = new ArrayList<Integer>();
+				columnNames = new ArrayList<String>();
+			}
+		}
+		else
+			findColumns( sheet );
+		
 		columnTypes = new int[ columnIndexes.size() ];
 		
 		for ( int i=0; i<columnTypes.length; ++i )
 			columnTypes[i] = CELL_WITH_NO_TYPE;
 		
 		currentRow = null;
+		currentRowIndex = -1;
 		
 		// also need to take into account + reinitialise based on whether we have new values for:
 		//	1) sheet name, 2) first cell index, 3) last cell index and 4) flag for interpretFirstLineAsMetaData
@@ -253,8 +371,11 @@ public class GExcel extends VTI60 implements VTICosting, IFastPath, GaianChildVT
     	try {
     		logger.logInfo( "*** Closing GExcel Spreadsheet data source wrapper" );
 
-    		inputStream.close();
-    		inputStream=null;
+    		if ( null != inputStream ) {
+    			inputStream.close();
+    			inputStream=null;
+    		}
+    		closeSheetReader();
     		
     		if ( columnIndexes!=null )
     		{
@@ -282,7 +403,7 @@ public class GExcel extends VTI60 implements VTICosting, IFastPath, GaianChildVT
     }
     
 	public boolean isBeforeFirst() {
-		return null == currentRow;
+		return null == workbook ? -1 == currentRowIndex : null == currentRow;
 	}
     
     public ResultSet executeQuery(java.lang.String sql)
@@ -329,6 +450,14 @@ public class GExcel extends VTI60 implements VTICosting, IFastPath, GaianChildVT
      */
     public void initialize( String fileName, String spreadsheetName, String firstCellRange, String lastCellRange, boolean interpretFirstLineAsMetaData ) throws SQLException
     {
+		this.fileName = fileName;
+		this.spreadsheetName = spreadsheetName;
+		
+		if ( XlsxSheetReader.isXlsxFile( fileName ) ) {
+			initializeStreaming( firstCellRange, lastCellRange, interpretFirstLineAsMetaData );
+			return;
+		}
+		
 		try
 		{
 			inputStream = new FileInputStream( fileName );
@@ -378,6 +507,80 @@ public class GExcel extends VTI60 implements VTICosting, IFastPath, GaianChildVT
 		}
     }
     
+    /**
+     * Initializes the range attributes by streaming the .xlsx spreadsheet, rather than by loading the
+     * workbook. The rows are only read until the first non empty one, if the range is not specified.
+     * 
+     * @see #initialize(String, String, String, String, boolean)
+     */
+    private void initializeStreaming( String firstCellRange, String lastCellRange, boolean interpretFirstLineAsMetaData ) throws SQLException
+    {
+    	XlsxSheetReader reader = null;
+		try
+		{
+			reader = new XlsxSheetReader( fileName, spreadsheetName );
+			firstRowIsMetaData = interpretFirstLineAsMetaData;
+			
+			// The last row is the one given in the sheet's dimension - if it is not given, the scan goes on until the end of the sheet
+			int lastRowInSheet = reader.getLastRowIndexHint();
+			if ( 0 > lastRowInSheet ) lastRowInSheet = Integer.MAX_VALUE;
+			
+			if ( firstCellRange!=null && lastCellRange!=null )
+			{
+				CellReference firstCell = new CellReference( firstCellRange );
+				
+				firstColumnIndex = firstCell.getCol();
+				firstRowIndex = firstCell.getRow();
+				
+				// Deduce last row number if it was not specified
+				if ( lastCellRange.matches("[a-zA-Z]+") ) {
+					lastColumnIndex = XlsxSheetReader.getColumnIndex( lastCellRange );
+					lastRowIndex = lastRowInSheet;
+					stopScanOnFirstEmptyRow = true;
+					logger.logInfo("Deduced last row in Excel table: " + lastCellRange + (lastRowIndex+1) + " - but scans will end on first empty row");
+				}
+				else {
+					CellReference lastCell = new CellReference( lastCellRange );
+					lastColumnIndex = lastCell.getCol();
+					lastRowIndex = lastCell.getRow();
+				}
+			}
+			else
+			{
+				boolean isFirstRowFound = false;
+				while ( !isFirstRowFound && reader.nextRow() )
+					isFirstRowFound = reader.hasData();
+				
+				if ( !isFirstRowFound )
+				{
+					throw new SQLException( "Empty spreadsheet !" );
+				}
+				
+				firstRowIndex = reader.getRowIndex();
+				lastRowIndex = lastRowInSheet;
+				firstColumnIndex = reader.getCellColumn( 0 );
+				lastColumnIndex = reader.getCellColumn( reader.getCellCount()-1 );
+			}
+		}
+		catch( Exception e )
+		{
+			throw new SQLException( e.getMessage() );
+		}
+		finally
+		{
+			if ( null != reader ) try { reader.close(); } catch ( Exception e ) {}
+		}
+    }
+    
+    private void closeSheetReader()
+    {
+    	if ( null != sheetReader ) {
+    		try { sheetReader.close(); }
+    		catch ( Exception e ) { logger.logInfo( "Unable to close the sheet reader for " + fileName + ": " + e ); }
+    		sheetReader = null;
+    	}
+    }
+    
     /**
      * Put the next row in the dvd row given in parameter.
      * Return SCAN_COMPLETED if there is no more row in the spreadsheet, or GOT_ROW if a row was successfully put in the dvd row.
@@ -393,6 +596,9 @@ public class GExcel extends VTI60 implements VTICosting, IFastPath, GaianChildVT
      */
     private int createNextRow( Sheet sheet, DataValueDescriptor[] dvdr)
     {
+    	if ( null == workbook )
+    		return createNextStreamedRow( dvdr );
+    	
     	boolean gotData = false;
     	
     	/*
@@ -502,6 +708,97 @@ public class GExcel extends VTI60 implements VTICosting, IFastPath, GaianChildVT
     }
     
     
+    /**
+     * Streaming equivalent of createNextRow(): puts the next row read by the sheetReader in the dvd row 
+     * given in parameter. Only the materialised columns are set, the other ones are null.
+     * 
+     * @param dvdr
+     * @return SCAN_COMPLETED or GOT_ROW
+     */
+    private int createNextStreamedRow( DataValueDescriptor[] dvdr )
+    {
+    	if ( null == sheetReader ) return SCAN_COMPLETED;
+    	
+    	/*
+    	 * Find the next row to return - rows which are absent from the sheet are empty.
+    	 * As in createNextRow(), an empty first row or an empty row when stopScanOnFirstEmptyRow is set ends the scan.
+    	 */
+    	int expectedRowIndex = -1 == currentRowIndex ? firstRowIndex + ( firstRowIsMetaData ? 1 : 0 ) : currentRowIndex + 1;
+    	
+    	try {
+    		boolean isRowFound = isReaderRowPending || sheetReader.nextRow();
+    		isReaderRowPending = false;
+    		while ( isRowFound && sheetReader.getRowIndex() < expectedRowIndex )
+    			isRowFound = sheetReader.nextRow();
+    		
+    		if ( !isRowFound || sheetReader.getRowIndex() > lastRowIndex
+    				|| ( -1 == currentRowIndex || stopScanOnFirstEmptyRow ) && sheetReader.getRowIndex() != expectedRowIndex ) {
+    			closeSheetReader();
+    			return SCAN_COMPLETED;
+    		}
+    	} catch ( IOException e ) {
+    		logger.logWarning( GDBMessages.DSWRAPPER_GEXCEL_MAP_LT_ERROR, "Unable to read the next row of spreadsheet " + spreadsheetName + ": " + e );
+    		closeSheetReader();
+    		return SCAN_COMPLETED;
+    	}
+    	
+    	currentRowIndex = sheetReader.getRowIndex();
+    	
+    	boolean gotData = false;
+		int numberOfColumns = lastColumnIndex - firstColumnIndex + 1;
+		
+		for ( int i = 0; i < numberOfColumns; i++ )
+			dvdr[i].setToNull();
+    	
+		for ( int c = 0; c < sheetReader.getCellCount(); c++ ) {
+			
+			int i = sheetReader.getCellColumn( c ) - firstColumnIndex;
+			if ( 0 > i ) continue;
+			if ( numberOfColumns <= i ) break;
+			
+			byte cellType = sheetReader.getCellType( c );
+			if ( XlsxSheetReader.CELL_STRING == cellType || XlsxSheetReader.CELL_NUMERIC == cellType || XlsxSheetReader.CELL_BOOLEAN == cellType )
+				gotData = true;
+			
+			if ( null != materialisedColumns && !materialisedColumns[i] )
+				continue;
+			
+			try {
+				switch( cellType ) {
+					case XlsxSheetReader.CELL_STRING:
+						dvdr[i].setValue( sheetReader.getCellValue( c ) );
+						break;
+						
+					case XlsxSheetReader.CELL_NUMERIC:
+						if ( sheetReader.isCellDate( c ) )
+							dvdr[i].setValue( new java.sql.Date( sheetReader.getCellDate( c ).getTime() ) );
+						else
+							dvdr[i].setValue( sheetReader.getCellValue( c ) );
+						break;
+						
+					case XlsxSheetReader.CELL_BOOLEAN:
+						dvdr[i].setValue( !"0".equals( sheetReader.getCellValue( c ) ) );
+						break;
+						
+					default:
+						break;
+				}
+			} catch ( Exception e ) {
+				dvdr[i].setToNull();
+				logger.logWarning( GDBMessages.DSWRAPPER_GEXCEL_MAP_LT_ERROR, "Excel cell [spreadsheet "+spreadsheetName+"; row "+currentRowIndex+"; column "+sheetReader.getCellColumn( c )+"; value "+sheetReader.getCellValue( c )+"] could not be mapped into the logical table because of the column logical type: " + e);
+			}
+		}
+		
+    	if ( !gotData && stopScanOnFirstEmptyRow ) {
+    		logger.logInfo("Ending GExcel table scan on first empty row (as no row limit was specified in the ending cell config constraint)");
+    		closeSheetReader();
+    		return SCAN_COMPLETED;
+    	}
+    	
+    	return GOT_ROW;
+    }
+    
+    
     /**
      * Creates and returns the ResultSetMetaData object using the fields :
      * - columnNames
@@ -761,6 +1058,115 @@ public class GExcel extends VTI60 implements VTICosting, IFastPath, GaianChildVT
 		}
 	}
 	
+	/**
+	 * Streaming equivalent of findColumns(): reads the column definitions from the first row of the range,
+	 * leaving this row pending in the sheetReader so that it is returned as data if firstRowIsMetaData is false.
+	 * 
+	 * @throws IOException
+	 */
+	private void findStreamedColumns() throws IOException
+	{
+		numberOfColumns = 0;
+		
+		columnIndexes = new ArrayList<Integer>();
+		columnNames = new ArrayList<String>(); 
+		
+		boolean isRowFound = sheetReader.nextRow();
+		while ( isRowFound && sheetReader.getRowIndex() < firstRowIndex )
+			isRowFound = sheetReader.nextRow();
+		isReaderRowPending = isRowFound;
+		
+		boolean isFirstRowPresent = isRowFound && sheetReader.getRowIndex() == firstRowIndex;
+		int cell = 0;
+		
+		for ( int i=firstColumnIndex, columnLabelIndex = 1; i<=lastColumnIndex; ++i, ++columnLabelIndex )
+		{
+			columnIndexes.add( i );
+			numberOfColumns++;
+			
+			if ( !firstRowIsMetaData ) {
+				columnNames.add( DEFAULT_COLUMN_LABEL+""+columnLabelIndex );
+				continue;
+			}
+			
+			// Find the cell of the column in the first row, if any
+			while ( isFirstRowPresent && cell < sheetReader.getCellCount() && sheetReader.getCellColumn( cell ) < i )
+				cell++;
+			boolean isCellPresent = isFirstRowPresent && cell < sheetReader.getCellCount() 
+				&& sheetReader.getCellColumn( cell ) == i && !sheetReader.isCellFormula( cell );
+			byte cellType = isCellPresent ? sheetReader.getCellType( cell ) : XlsxSheetReader.CELL_BLANK;
+			
+			//Build the column names depending on it's type
+			switch( cellType )
+			{
+				case XlsxSheetReader.CELL_STRING:
+					columnNames.add( sheetReader.getCellValue( cell ).replaceAll("[\\ ]", "_") ); // Note we should not have to do this in future... once defect is fixed
+					break;
+				case XlsxSheetReader.CELL_NUMERIC:
+					columnNames.add( sheetReader.isCellDate( cell ) ? sheetReader.getCellDate( cell ).toString() : "" + Double.parseDouble( sheetReader.getCellValue( cell ) ) );
+					break;
+				case XlsxSheetReader.CELL_BOOLEAN:
+					columnNames.add( "" + !"0".equals( sheetReader.getCellValue( cell ) ) );
+					break;
+				default:
+					columnNames.add( DEFAULT_COLUMN_LABEL+""+columnLabelIndex );
+					break;
+			}
+		}
+	}
+	
+	/**
+	 * Streaming equivalent of checkSheetTypeConsistency(): checks that all values of each column have the same type
+	 * (using the cached results of formulas), and initializes the attribute columnTypes.
+	 * The rows are read with a separate reader, so that the current scan is not affected.
+	 * 
+	 * @return returns true if the spreadsheet is well typed, else returns false
+	 */
+	private boolean checkStreamedSheetTypeConsistency()
+	{
+		XlsxSheetReader reader = null;
+		try
+		{
+			reader = new XlsxSheetReader( fileName, spreadsheetName );
+			int firstRow = firstRowIndex + ( firstRowIsMetaData ? 1 : 0 );
+			
+			while ( reader.nextRow() && reader.getRowIndex() <= lastRowIndex )
+			{
+				if ( reader.getRowIndex() < firstRow ) continue;
+				
+				for ( int c=0; c<reader.getCellCount(); c++ )
+				{
+					int index = reader.getCellColumn( c ) - firstColumnIndex;
+					if ( 0 > index || columnTypes.length <= index ) continue;
+					
+					int cellType;
+					switch ( reader.getCellType( c ) )
+					{
+						case XlsxSheetReader.CELL_STRING: cellType = Cell.CELL_TYPE_STRING; break;
+						case XlsxSheetReader.CELL_NUMERIC: cellType = reader.isCellDate( c ) ? DATE_TYPE : Cell.CELL_TYPE_NUMERIC; break;
+						case XlsxSheetReader.CELL_BOOLEAN: cellType = Cell.CELL_TYPE_BOOLEAN; break;
+						default: continue;
+					}
+					
+					if ( columnTypes[index]==CELL_WITH_NO_TYPE )
+						columnTypes[index] = cellType;
+					else if ( columnTypes[index]!=cellType )
+						return false;
+				}
+			}
+			return true;
+		}
+		catch ( Exception e )
+		{
+			logger.logWarning(GDBMessages.DSWRAPPER_GEXCEL_CELL_TYPE_EVALUATION_FAILURE, "Unable to evaluate the cell types of " + fileName + ": " + e);
+			return false;
+		}
+		finally
+		{
+			if ( null != reader ) try { reader.close(); } catch ( Exception e ) {}
+		}
+	}
+	
 	/**
 	 * This method checks if the spreadsheet is well typed.
 	 * This means that all values in each column have the same excel type.
@@ -6,7 +6,6 @@
  */
 package com.ibm.db2j;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -17,9 +16,9 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Hashtable;
-import java.util.Map;
 import java.util.Scanner;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -29,14 +28,13 @@ import org.apache.derby.iapi.types.DataValueDescriptor;
 import org.apache.derby.vti.IFastPath;
 import org.apache.derby.vti.VTIEnvironment;
 
-import com.ibm.gaiandb.CachedHashMap;
+import com.ibm.gaiandb.GaianDBConfig;
 import com.ibm.gaiandb.Logger;
 import com.ibm.gaiandb.RowsFilter;
 import com.ibm.gaiandb.diags.GDBMessages;
 import com.ibm.gaiandb.utils.Pair;
 import com.ibm.gaiandb.webservices.XmlElement;
-import com.ibm.gaiandb.webservices.caching.CachableInputStream;
-import com.ibm.gaiandb.webservices.caching.StringCacher;
+import com.ibm.gaiandb.webservices.caching.ResponseCache;
 import com.ibm.gaiandb.webservices.parser.NonParsableStringException;
 import com.ibm.gaiandb.webservices.parser.properties.GenericWsPropertiesParser;
 import com.ibm.gaiandb.webservices.patternmatcher.AttributeMatcher;
@@ -46,9 +44,10 @@ import com.ibm.gaiandb.webservices.patternmatcher.TagMatcher;
 import com.ibm.gaiandb.webservices.patternmatcher.TagPattern;
 import com.ibm.gaiandb.webservices.patternmatcher.ValueMatcher;
 import com.ibm.gaiandb.webservices.scanner.FormatSpecifierInputStream;
+import com.ibm.gaiandb.webservices.scanner.GaianHandler;
 import com.ibm.gaiandb.webservices.scanner.IntoXmlInputStream;
 import com.ibm.gaiandb.webservices.scanner.WsDataFormat;
-import com.ibm.gaiandb.webservices.scanner.json.JsonScanner;
+import com.ibm.gaiandb.webservices.scanner.json.JsonStreamScanner;
 import com.ibm.gaiandb.webservices.scanner.sax.HTMLFilterInputStream;
 import com.ibm.gaiandb.webservices.scanner.sax.SaxScanner;
 import com.ibm.gaiandb.webservices.tools.Inserter;
@@ -242,6 +241,36 @@ public class GenericWS extends AbstractVTI {
 	/** Default value for the cache. */
 	public static final int PROP_CACHE_EXPIRES_DEFAULT_VALUE = 0;
 	
+	/**
+	 * <p>
+	 * Property to read in gaian_config.properties. It defines the number of 
+	 * bytes of web service responses which can be cached in memory, for all 
+	 * the GenericWS VTIs. This option is optional.
+	 * <p>
+	 * Property name: 'GenericWS.cache.maxMemoryBytes'
+	 */
+	public static final String PROP_CACHE_MAX_MEMORY_BYTES = "cache.maxMemoryBytes";
+	
+	/**
+	 * <p>
+	 * Property to read in gaian_config.properties. It defines the size, in
+	 * bytes, above which a web service response is cached on disk rather than
+	 * in memory. This option is optional.
+	 * <p>
+	 * Property name: 'GenericWS.cache.maxMemoryEntryBytes'
+	 */
+	public static final String PROP_CACHE_MAX_MEMORY_ENTRY_BYTES = "cache.maxMemoryEntryBytes";
+	
+	/**
+	 * <p>
+	 * Property to read in gaian_config.properties. It defines the number of 
+	 * bytes of web service responses which can be cached on disk, for all 
+	 * the GenericWS VTIs. This option is optional.
+	 * <p>
+	 * Property name: 'GenericWS.cache.maxDiskBytes'
+	 */
+	public static final String PROP_CACHE_MAX_DISK_BYTES = "cache.maxDiskBytes";
+	
 	public static final String PROP_SCHEMA = AbstractVTI.PROP_SCHEMA;
 	
 	
@@ -256,10 +285,6 @@ public class GenericWS extends AbstractVTI {
 	
 	private static final String CLASS = GenericWS.class.getSimpleName();//"GenericWS";
 	
-	private static final int NB_CACHED_RECORDS = 10;
-	private static Map<String, StringCacher> cachedStreams 
-						= new CachedHashMap<String, StringCacher>(NB_CACHED_RECORDS);
-	
 	private static final Logger logger = new Logger( CLASS, 20 );
 	
 	
@@ -268,6 +293,12 @@ public class GenericWS extends AbstractVTI {
 	/** The maximum size of theArrayBlockingQueue used for the records. */
 	private static final int RECORD_CAPACITY = 10;
 	
+	/** 
+	 * The time the scanner waits for room in the queue of records before 
+	 * checking again whether the VTI has been closed.
+	 */
+	private static final long RECORD_OFFER_TIMEOUT_MS = 100;
+	
 	/**
 	 * Value which will be inserted in the record for indicating that 
 	 * the last record has been sent. 
@@ -325,6 +356,16 @@ public class GenericWS extends AbstractVTI {
 	
 	/** The number of records received when sending the request. */
 	private int nbRecords = 0;
+	
+	/** 
+	 * The stream of the web service's response being scanned. Closed when the 
+	 * VTI is closed, so that the scan stops and the response gets released 
+	 * (from the ResponseCache in particular) even if it was not read entirely.
+	 */
+	private volatile InputStream dataStream = null;
+	
+	/** True once the VTI has been closed: the scanner drops its records. */
+	private volatile boolean isClosed = false;
 
 	/** 
 	 * The qualifiers of the VTI.
@@ -334,6 +375,12 @@ public class GenericWS extends AbstractVTI {
 	 */
 	private Qualifier[][] qualifiers = null;
 	
+	/** 
+	 * The columns projected by the query, 1-based. null if all the columns 
+	 * are projected.
+	 */
+	private int[] projectedColumns = null;
+	
 	
 	// ----------------------------------------------------------------------------------
 	// ---------------------------------------------------------------------------- TOOLS
@@ -413,23 +460,20 @@ public class GenericWS extends AbstractVTI {
 	 */
 	public void saveCurrentRecord() {
 		
-		// --- Checks that the record is not empty
-		boolean recordHasValue = false;
+		// --- Checks that the record is not empty - including the cells of 
+		// the columns which are not queried, and were not filled
+		boolean recordHasValue = this.columnsPropertiesManager.hasMatchedValue();
 		String recordCells[] = this.columnsPropertiesManager.getResult();
-		for (String cell : recordCells){
-			if (cell != null) {
-				recordHasValue = true;
-				break;
-			}
-		}
 
 		logger.logDetail("Got new record: " + Arrays.asList(recordCells));
 		
 		// --- Pastes the record in the list of records to write in the VTI 
 		try {
 			if (recordCells != null && recordHasValue) {
-				// Write in the ArrayBlockingQueue
-				this.recordsQ.put(recordCells);
+				// Write in the ArrayBlockingQueue - unless nobody reads it anymore
+				if (!this.offerRecord(recordCells)) {
+					return;
+				}
 				this.nbRecords++;
 				
 				// Reinitialise the current record
@@ -447,7 +491,7 @@ public class GenericWS extends AbstractVTI {
 	 */
 	public void confirmSendingOfLastRecord() {
 		try {
-			this.recordsQ.put(POISON_PILL);
+			this.offerRecord(POISON_PILL);
 		} catch (InterruptedException e) {
 			logger.logException(GDBMessages.DSWRAPPER_GENERICWS_KILLED_PROCESS, 
 					"A process of GaianDB has been killed and the application might " +
@@ -455,6 +499,28 @@ public class GenericWS extends AbstractVTI {
 		}
 	}
 	
+	/**
+	 * Returns true if the VTI has been closed, in which case the scan of the 
+	 * web service's response can stop.
+	 * @return true if the VTI has been closed.
+	 */
+	public boolean isClosed() {
+		return this.isClosed;
+	}
+	
+	/**
+	 * Closes the VTI. The response of the web service is closed, even if it 
+	 * has not been read entirely (e.g. because the query only needed its first 
+	 * rows), and the scanner stops waiting for room in the queue of records.
+	 */
+	@Override
+	public void close() throws SQLException {
+		this.isClosed = true;
+		this.closeDataStream();
+		this.recordsQ.clear();
+		super.close();
+	}
+	
 	/** 
 	 * Logs the exception in the GenericWS logger. 
 	 * @param errorCode
@@ -487,6 +553,12 @@ public class GenericWS extends AbstractVTI {
 		
 		// Scans xml file returned by request and stores the results in  
 		InputStream is = this.getData();
+		this.dataStream = is;
+		if (this.isClosed) {
+			// Closed while the request was being sent
+			this.closeDataStream();
+			return true;
+		}
 		
 		logger.logInfo("Starting data scan");
 		
@@ -519,6 +591,22 @@ public class GenericWS extends AbstractVTI {
 			throws SQLException { 
 				this.qualifiers  = qual;
 	}
+	
+	/**
+	 * Saves the projected columns, so that only the cells of the columns
+	 * being projected or filtered get filled when scanning the data.
+	 * 
+	 * @param vtie
+	 * 			VTI?
+	 * @param projectedColumns
+	 * 			the 1-based ids of the projected columns.
+	 */
+	@Override
+	public boolean pushProjection(VTIEnvironment vtie, int[] projectedColumns)
+			throws SQLException {
+		this.projectedColumns = projectedColumns;
+		return false;
+	}
 
 	/**
 	 * Sets the next VTI's row to be displayed.
@@ -615,11 +703,47 @@ public class GenericWS extends AbstractVTI {
 	// -------------------------------------------------------------------------- Dynamic
 
 	/**
-	 * <p>
-	 * TODO - synchronisation on cache
+	 * Waits for room in the queue of records to add a record, until the VTI 
+	 * gets closed.
+	 * 
+	 * @return true if the record was added, false if the VTI was closed.
+	 * @throws InterruptedException
+	 * 			If thread is interrupted when waiting for writing a record in the 
+	 * ArrayBlockingQueue.
+	 */
+	private boolean offerRecord(String[] record) throws InterruptedException {
+		while (!this.isClosed) {
+			if (this.recordsQ.offer(record, RECORD_OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Closes the stream of the web service's response, if any.
+	 */
+	private void closeDataStream() {
+		InputStream is = this.dataStream;
+		this.dataStream = null;
+		if (is != null) {
+			try {
+				is.close();
+			} catch (IOException e) {
+				// Nothing more will be read anyway
+			}
+		}
+	}
+
+	/**
 	 * <p>
 	 * Returns either the data after accessing a web service, either the 
 	 * cached data if the return value of the web service has been cached.
+	 * <p>
+	 * The responses are cached in the {@link ResponseCache} shared by all the
+	 * GenericWS VTIs, which bounds the memory and disk used, revalidates the
+	 * expired responses with the web service and makes the concurrent 
+	 * requests for a same url wait for a single access to the web service.
 	 * 
 	 * @return  either the data after accessing a web service, either the 
 	 * cached data if the return value of the web service has been cached.
@@ -632,53 +756,27 @@ public class GenericWS extends AbstractVTI {
 			String postData = this.getVTIPropertyNullable(PROP_POST_DATA);
 			int expringTime = this.getPositiveIntegerVTIProperty(PROP_CACHE_EXPIRES);
 			
-			String urlKeyForCach = new String(wsUrl);
+			// The qualifiers are part of the url, hence of the key
+			Inserter urlInserter = new Inserter();
+			wsUrl = urlInserter.qualifiersIntoUrl(wsUrl, qualifiers, this.grsmd);
+			
+			if (expringTime <= 0) {
+				return this.sendCommand(wsUrl, postData, null);
+			}
 			
+			String urlKeyForCach = wsUrl;
 			if (postData != null) {
 				urlKeyForCach += postData;
 			}
-
-			// ######################################################################
-			//
-			// Note - web service access + creation of a cache value for distinct 
-			// URLs is not currently synchronized - i.e. restricted to single-thread 
-			// processing.
-			//
-			// ######################################################################
-			//
-			// Solution would be to use a concurrent set which would contain the URLs 
-			// of web services which are currently being accessed to populate the 
-			// cache - Threads accessing a same URL would compete to PUT() their URL 
-			// into this set, which would allow them to either 1) retrieve their value
-			// from the cache or 2) start accessing the web service and populating the
-			// cache - After either of these, the thread would remove their URL from
-			// the set..
-			// 
-			// Using a concurrent map object and the "take()" operation would not work
-			// because we couldn't differentiate between whether a thread was currently
-			// working to populate the cache or not (i.e. the take() would erroneously
-			// block for the first thread accessing a particular URL)
-			//
-			// ######################################################################
 			
-			synchronized( urlKeyForCach.intern() ) {
-				
-				// -------------------------------------------------------------
-				// Get the cached values
-				StringCacher cacher = cachedStreams.get(urlKeyForCach);
-				
-				// -------------------------------------------------------------
-				// Return stream depending on if it has been cached or not 
-				if (expringTime > 0 && cacher != null && !cacher.hasExpired()) {
-					// has been cached
-//					cacher.resetExpiring();
-					return new ByteArrayInputStream(cacher.getCachedData().getBytes());
-				}
-				// If the value is null, it means that the stream hasn't been cached
-				else {
-					return this.sendCommand(wsUrl, postData);
-				}	
-			}
+			ResponseCache cache = ResponseCache.getInstance();
+			cache.setLimits(
+					getLongClassProperty(PROP_CACHE_MAX_MEMORY_BYTES), 
+					getLongClassProperty(PROP_CACHE_MAX_MEMORY_ENTRY_BYTES), 
+					getLongClassProperty(PROP_CACHE_MAX_DISK_BYTES));
+			
+			return cache.getInputStream(urlKeyForCach, expringTime, 
+					new WsResponseFetcher(wsUrl, postData));
 			
 		} catch (Exception e) {
 			logger.logException(
@@ -691,10 +789,83 @@ public class GenericWS extends AbstractVTI {
 		return null;
 	}
 	
+	/**
+	 * Reads a size limit of the web services cache, which is common to all 
+	 * the GenericWS VTIs. 
+	 * 
+	 * @return The value of the property, or -1 if it is not given or not valid.
+	 */
+	private static long getLongClassProperty(String property) {
+		String prop = GaianDBConfig.getVTIProperty(GenericWS.class, property, false);
+		if (prop == null || prop.trim().isEmpty()) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(prop.trim());
+		} catch (NumberFormatException e) {
+			logger.logWarning(GDBMessages.DSWRAPPER_GENERICWS_PROPERTY_PARSING_WRONG_VALUE, 
+					"The property " + CLASS + "." + property + " has not been correctly " +
+					"given. The value should be a number of bytes. The default value is used.");
+			return -1;
+		}
+	}
+	
+	/**
+	 * Accesses the web service for the ResponseCache, when it does not hold a 
+	 * valid response. 
+	 */
+	private class WsResponseFetcher implements ResponseCache.ResponseFetcher {
+		
+		private final String wsUrl;
+		private final String postData;
+		
+		private boolean isNotModified = false;
+		private String eTag = null;
+		private String lastModified = null;
+		private String requestedETag = null;
+		private String requestedLastModified = null;
+		
+		private WsResponseFetcher(String wsUrl, String postData) {
+			this.wsUrl = wsUrl;
+			this.postData = postData;
+		}
+
+		@Override
+		public InputStream fetch(String eTag, String lastModified) {
+			this.requestedETag = eTag;
+			this.requestedLastModified = lastModified;
+			this.isNotModified = false;
+			this.eTag = null;
+			this.lastModified = null;
+			return sendCommand(this.wsUrl, this.postData, this);
+		}
+
+		@Override
+		public boolean isNotModified() {
+			return this.isNotModified;
+		}
+
+		@Override
+		public String getETag() {
+			return this.eTag;
+		}
+
+		@Override
+		public String getLastModified() {
+			return this.lastModified;
+		}
+	}
+	
 	/**
 	 * Sends the command given, using the web service architecture defined in
 	 * the attribute this.ws. 
 	 * 
+	 * @param cacheFetcher
+	 * 			The fetcher of the ResponseCache sending the command, if the 
+	 * response is to be cached: the validators of the cached response are sent
+	 * in the request, and the validators of the response are recorded in the
+	 * fetcher. null if the response is not to be cached.
+	 * 
 	 * @return The result of the command. Usually the content of a file.
 	 * 
 	 */
@@ -702,7 +873,7 @@ public class GenericWS extends AbstractVTI {
 //	 * 			If issue occurs during the connection or if the URL is 
 //	 * invalid (it must start with the protocol used for sending the request)
 //	 * ex: <b>http://</b>www.ibm.com .
-	private InputStream sendCommand(String wsUrl, String postData) {
+	private InputStream sendCommand(String wsUrl, String postData, WsResponseFetcher cacheFetcher) {
 		
 		WebService webService;
 //		 = null; // Declared here for being handled if an exception occurs.
@@ -711,8 +882,7 @@ public class GenericWS extends AbstractVTI {
 			// -------------------------------------------------------------
 			// --- Reads the url for the web services
 //			wsUrl = this.getVTIPropertyWithReplacements(PROP_URL);
-			Inserter urlInserter = new Inserter();
-			wsUrl = urlInserter.qualifiersIntoUrl(wsUrl, qualifiers, this.grsmd);
+//			The qualifiers have been inserted in the url by getData()
 
 			// -------------------------------------------------------------
 			// --- Reads the type of web Service
@@ -790,7 +960,28 @@ public class GenericWS extends AbstractVTI {
 
 			webService.openConnection();
 			
+			// Conditional request revalidating the cached response
+			boolean isConditional = cacheFetcher != null && webService instanceof RestWS
+					&& !(webService instanceof PostRestWS);
+			if (isConditional) {
+				if (cacheFetcher.requestedETag != null) {
+					webService.setRequestProperty("If-None-Match", cacheFetcher.requestedETag);
+				}
+				if (cacheFetcher.requestedLastModified != null) {
+					webService.setRequestProperty("If-Modified-Since", cacheFetcher.requestedLastModified);
+				}
+			}
+			
 			InputStream is = webService.getInputStream(); 
+			
+			if (isConditional) {
+				cacheFetcher.eTag = webService.getHeaderField("ETag");
+				cacheFetcher.lastModified = webService.getHeaderField("Last-Modified");
+				if (webService.getResponseCode() == 304) { // HTTP_NOT_MODIFIED
+					cacheFetcher.isNotModified = true;
+					return is;
+				}
+			}
 
 			// -------------------------------------------------------------
 			// --- Applies filter if needed
@@ -812,20 +1003,6 @@ public class GenericWS extends AbstractVTI {
 			
 //			is = new DisplayInputStream(is); // For tests and debug
 
-			// -------------------------------------------------------------
-			// Caching
-			int caching = this.getPositiveIntegerVTIProperty(PROP_CACHE_EXPIRES);
-			if (caching > 0) {
-				is = new CachableInputStream(is, caching);
-				StringCacher cacher = ((CachableInputStream)is).getCacher();
-				
-				String key = new String(wsUrl);
-				if (postData != null && !postData.isEmpty()) {
-					key += postData;
-				}
-				GenericWS.cachedStreams.put(key, cacher);
-			}
-			
 			return is;
 			
 		} catch (FileNotFoundException fnfe) { // CAUTION FileNotFoundException extends IOException
@@ -1051,6 +1228,24 @@ public class GenericWS extends AbstractVTI {
 			if (this.columnsPropertiesManager.getPatternSequence() == null) {
 				this.columnsPropertiesManager.defineCommonRoot();
 			}
+			
+			// -------------------------------------------------------------
+			// Only the columns which are projected or filtered need their values
+			if (this.projectedColumns != null) {
+				boolean[] queriedColumns = new boolean[nbColumns];
+				for (int colID : this.projectedColumns) {
+					if (colID > 0 && colID <= nbColumns) queriedColumns[colID-1] = true;
+				}
+				if (this.qualifiers != null) {
+					for (Qualifier[] orQualifiers : this.qualifiers) {
+						for (Qualifier q : orQualifiers) {
+							int colID = q.getColumnId(); // 0-based
+							if (colID >= 0 && colID < nbColumns) queriedColumns[colID] = true;
+						}
+					}
+				}
+				this.columnsPropertiesManager.setMaterialisedResults(queriedColumns);
+			}
 		
 		} catch (SQLException sqle) {
 			logger.logException(GDBMessages.DSWRAPPER_METADATA_RESOLVE_ERROR, 
@@ -1104,10 +1299,12 @@ public class GenericWS extends AbstractVTI {
 		// -- JSON file received
 		if (readData == WsDataFormat.JSON) {
 			
-			// Scans file
-			Runnable scanner = new JsonScanner(this, is);
+			// Scans file - streaming the data, and skipping the objects and arrays 
+			// which none of the columns' patterns can match
+			Runnable scanner = new JsonStreamScanner(this, is, new GaianHandler(this), 
+					this.columnsPropertiesManager.getReferencedPaths());
 			
-//			((JsonScanner)scanner).run(); // either this line or the two next ones
+//			((JsonStreamScanner)scanner).run(); // either this line or the two next ones
 			Thread scannerLauncher = new Thread(scanner, "ScannerLauncher");
 			scannerLauncher.start();
 			
@@ -11,7 +11,10 @@ import java.net.ConnectException;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.derby.iapi.error.StandardException;
 import org.apache.derby.iapi.store.access.Qualifier;
@@ -27,6 +30,7 @@ import com.ibm.gaiandb.Logger;
 import com.ibm.gaiandb.mongodb.MongoMessages;
 import com.ibm.gaiandb.mongodb.MongoConnectionFactory;
 import com.ibm.gaiandb.mongodb.MongoConnectionParams;
+import com.ibm.gaiandb.mongodb.MongoParallelScan;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
@@ -55,6 +59,19 @@ public class MongoDB extends AbstractVTI implements Pushable {
 	static final String PROP_COLLECTION_NAME = "collection";
 	static final String PROP_USER = "user";
 	static final String PROP_PASSWORD = "password";
+	// optional tuning parameters: number of concurrent cursors scanning "_id" ranges, and documents fetched per round trip.
+	static final String PROP_PARALLEL_CURSORS = "parallelCursors";
+	static final String PROP_BATCH_SIZE = "batchSize";
+	
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+	// collections are only split so that each cursor has at least this many documents to scan.
+	private static final int MIN_DOCUMENTS_PER_CURSOR = 10000;
+	
+	// Matches a pushed down "order by" clause made of plain column names, with an optional row limit,
+	// e.g. "order by nbbikes desc, id fetch first 10 rows only"
+	private static final Pattern ORDER_BY_PATTERN = Pattern.compile(
+			"(?i)\\s*order\\s+by\\s+(.+?)(?:\\s+fetch\\s+first\\s+(\\d+)\\s+rows?\\s+only)?\\s*");
+	private static final Pattern ORDER_BY_ITEM_PATTERN = Pattern.compile("(?i)\\s*\"?(\\w+)\"?(?:\\s+(asc|desc))?\\s*");
 	
 	// constant representing an "unconstrained" mongoDB query - will match any document in a mongo collection.
 	private static final BasicDBObject QUERY_ANYTHING = new BasicDBObject();
@@ -73,6 +90,24 @@ public class MongoDB extends AbstractVTI implements Pushable {
 	// mongoResults references the results of the latest mongoDB query. The result data can 
 	// be retrieved from this object.
 	DBCursor mongoResults;
+	// parallelScan is used instead of mongoResults when the collection is scanned by concurrent cursors over "_id" ranges.
+	MongoParallelScan parallelScan;
+	
+	// Sort order and row limit pushed down from the query, if any. The limit is only pushed along with a sort order.
+	BasicDBObject mongoSortColumns;
+	int mongoLimit = -1;
+	// Max rows the query will take from this data source - used to avoid splitting scans that will be cut short anyway.
+	int maxSourceRows = -1;
+	
+	// Column names and types, resolved once from the meta data rather than for every document.
+	private String[] columnNames;
+	private int[] columnTypes;
+	// 0-based ids of the columns to populate for each document - all of them unless pushProjection restricts them.
+	private int[] allColumnIds;
+	private int[] projectedColumnIds;
+	
+	private final int parallelCursors;
+	private final int batchSize;
 	
 	/**
 	 * This method creates a connection to the appropriate mongo process/database/collection 
@@ -101,6 +136,9 @@ public class MongoDB extends AbstractVTI implements Pushable {
 
 		if (instanceMongoCollection == null) throw new ConnectException(MongoMessages.DSWRAPPER_MONGODB_COLLECTION_ACCESS_ERROR);
 
+		parallelCursors = getIntVTIProperty(PROP_PARALLEL_CURSORS, 1);
+		batchSize = getIntVTIProperty(PROP_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+
 		//work out which fields we should be extracting. Limit the future queries to these fields.
 		GaianResultSetMetaData rowDescription;
 		try {
@@ -111,17 +149,96 @@ public class MongoDB extends AbstractVTI implements Pushable {
 		}
 		mongoAllColumns = new BasicDBObject();
 
+		int columnCount = rowDescription.getColumnCount();
+		columnNames = new String[columnCount];
+		columnTypes = new int[columnCount];
+		allColumnIds = new int[columnCount];
+		
 		// Go through the items defined in the config, restrict the query to these rows only.
-		for ( int columnId = 0; columnId < rowDescription.getColumnCount(); columnId++){
+		for ( int columnId = 0; columnId < columnCount; columnId++){
 			String fieldName = rowDescription.getColumnName(columnId+1);
 			mongoAllColumns.put(fieldName, 1);
+			columnNames[columnId] = fieldName;
+			columnTypes[columnId] = rowDescription.getColumnType(columnId+1);
+			allColumnIds[columnId] = columnId;
 		}
 		
 		// Assume that the query will return all columns - this will be changed if pushProjection is called.
 		mongoQueryColumns = mongoAllColumns;
+		projectedColumnIds = allColumnIds;
 
 	}
 	
+	private int getIntVTIProperty(String prop, int defaultValue) {
+		String value = getVTIPropertyNullable(prop);
+		if (value == null) return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			logger.logWarning(MongoMessages.DSWRAPPER_MONGODB_VALUE_CONVERSION_ERROR, 
+					"Invalid value for property " + prop + ": " + value + ", using default: " + defaultValue);
+			return defaultValue;
+		}
+	}
+	
+	/**
+	 * Picks up the query context arguments that can be pushed down to mongo: the max number of rows 
+	 * that will be fetched and the "order by" clause (with its optional "fetch first N rows only" limit).
+	 * The sort is only pushed down when every sort item is a plain column of this data source.
+	 */
+	@Override
+	public void setArgs(String[] args) throws Exception {
+		super.setArgs(args);
+		
+		mongoSortColumns = null;
+		mongoLimit = -1;
+		maxSourceRows = -1;
+		
+		if (args == null) return;
+		
+		for (String arg : args) {
+			if (arg == null) continue;
+			if (arg.startsWith(GaianTable.QRY_MAX_SOURCE_ROWS + '=')) {
+				try { maxSourceRows = Integer.parseInt(arg.substring(GaianTable.QRY_MAX_SOURCE_ROWS.length()+1).trim()); }
+				catch (NumberFormatException e) {}
+			} else if (arg.startsWith(GaianTable.QRY_ORDER_BY_CLAUSE + '=')) {
+				setSortFromOrderByClause(arg.substring(GaianTable.QRY_ORDER_BY_CLAUSE.length()+1));
+			}
+		}
+	}
+	
+	private void setSortFromOrderByClause(String orderByClause) {
+		Matcher m = ORDER_BY_PATTERN.matcher(orderByClause);
+		if (!m.matches()) {
+			logger.logInfo("MongoVTI - order by clause cannot be pushed to mongo: " + orderByClause);
+			return;
+		}
+		
+		BasicDBObject sort = new BasicDBObject();
+		for (String item : m.group(1).split(",")) {
+			Matcher im = ORDER_BY_ITEM_PATTERN.matcher(item);
+			String fieldName = im.matches() ? getFieldName(im.group(1)) : null;
+			if (fieldName == null) {
+				logger.logInfo("MongoVTI - order by item cannot be pushed to mongo: " + item);
+				return;
+			}
+			sort.append(fieldName, "desc".equalsIgnoreCase(im.group(2)) ? -1 : 1);
+		}
+		
+		mongoSortColumns = sort;
+		if (m.group(2) != null) mongoLimit = Integer.parseInt(m.group(2));
+		
+		logger.logInfo("MongoVTI - query will sort by: " + mongoSortColumns + (mongoLimit < 0 ? "" : ", limit: " + mongoLimit));
+	}
+	
+	// Resolves an unquoted SQL identifier to the mongo field name defined in the schema, or null if there is no such column.
+	private String getFieldName(String columnName) {
+		if (columnNames == null) return null;
+		for (String fieldName : columnNames)
+			if (fieldName.equalsIgnoreCase(columnName)) return fieldName;
+		return null;
+	}
+	
 	/**
 	 * This method will execute a query against the connected Mongo Process.
 	 * By this stage we should have connected to the Mongo database and collection and
@@ -142,6 +259,17 @@ public class MongoDB extends AbstractVTI implements Pushable {
 		//Initialise these in case we have not been passed qualifiers or projected columns
 		BasicDBObject mongoQuery = instanceMongoQuery;
 		if (mongoQuery == null) mongoQuery = new BasicDBObject();
+		
+		// Split the scan across concurrent cursors when the results need no ordering and are not cut short by a row limit.
+		// Range boundaries are computed from the "_id" index, so small results are never split.
+		if (parallelCursors > 1 && mongoSortColumns == null && (maxSourceRows < 0 || maxSourceRows > MIN_DOCUMENTS_PER_CURSOR)) {
+			List<DBObject> rangeQueries = MongoParallelScan.getIdRangeQueries(
+					instanceMongoCollection, mongoQuery, parallelCursors, MIN_DOCUMENTS_PER_CURSOR);
+			if (rangeQueries != null) {
+				parallelScan = new MongoParallelScan(instanceMongoCollection, rangeQueries, mongoQueryColumns, batchSize);
+				return true;
+			}
+		}
 
 		if (mongoQueryColumns == null) {
 			//Call mongo to find any document matching our query
@@ -156,7 +284,14 @@ public class MongoDB extends AbstractVTI implements Pushable {
 			throw new SQLException(MongoMessages.DSWRAPPER_RESULTSET_NOT_CONNECTED);
 		}
 		
-		mongoResults.batchSize(1000); //configure mongo client to pull back 1000 results at a time.
+		if (mongoSortColumns != null) mongoResults.sort(mongoSortColumns);
+		
+		// Only a row limit is applied by mongo - negative values would close the cursor after the first batch.
+		int limit = mongoLimit;
+		if (maxSourceRows >= 0 && (limit < 0 || maxSourceRows < limit)) limit = maxSourceRows;
+		if (limit > 0) mongoResults.limit(limit);
+		
+		mongoResults.batchSize(limit > 0 ? Math.min(limit, batchSize) : batchSize); //configure mongo client to pull back this many results at a time.
 
 		return true;
 	}
@@ -292,7 +427,9 @@ public class MongoDB extends AbstractVTI implements Pushable {
 			// The remaining slots of the 2 dimensional qual array are list of "or" conditions.
 			// all slots are combined by "and"ing them together.
 			
-			// represent mongo conditions as {{row-1-conditions},{row-2-conditions},...,{row-n-conditions}}
+			// represent mongo conditions as {$and:[{row-1-conditions},{row-2-conditions},...,{row-n-conditions}]}
+			// Each row gets its own object, otherwise the "$or" entries of successive rows would overwrite each other.
+			BasicDBList rowConditions = new BasicDBList();
 			for (int index = 0; index < qualMatrix.length; index++){ 
 				Qualifier qualRow[] = qualMatrix[index];
 				
@@ -304,7 +441,15 @@ public class MongoDB extends AbstractVTI implements Pushable {
 				} else {
 					operator = CombinationOperator.OR; // other qualifier rows are combined by "or" conditions
 				}
-				addMongoOperatorRow(mongoQueryOperators,qualRow,operator);
+				BasicDBObject rowOperators = new BasicDBObject();
+				addMongoOperatorRow(rowOperators,qualRow,operator);
+				if (!rowOperators.isEmpty()) rowConditions.add(rowOperators);
+			}
+			
+			if (rowConditions.size() == 1) {
+				mongoQueryOperators = (BasicDBObject) rowConditions.get(0);
+			} else if (rowConditions.size() > 1) {
+				mongoQueryOperators.append("$and", rowConditions);
 			}
 		}
 		instanceMongoQuery = mongoQueryOperators;
@@ -315,129 +460,123 @@ public class MongoDB extends AbstractVTI implements Pushable {
 	/**
 	 * This method takes a mongo document resulting from a query and converts it into a row of data suitable to be 
 	 * returned to Derby. 
-	 * The datasource meta data is used to determine how fields in the mongo document map to derby columns.
+	 * The cached column names and types are used to determine how fields in the mongo document map to derby columns.
+	 * Only the projected columns are populated, directly from the BSON values of the document.
 	 * This method performs type casting from mongo to derby data types.
-	 * Fields that are unsuccessfully parsed are returned as null in the derbyRow.
+	 * Fields that are missing or unsuccessfully parsed are returned as null in the derbyRow.
 	 * @param mongoDoc - A mongo Document returned froma query
 	 * @param derbyRow - An array of DataValueDescriptors, used to pass data results to Derby. This is updated.
 	 * @return boolean - indicates the success of the document translation.
      */	
 	private boolean parseBSONMongoDocument (DBObject mongoDoc, DataValueDescriptor[] derbyRow ) {
 		
-		//get meta data to determine which fields and columns we expect
-		GaianResultSetMetaData rowDescription;
-		try {
-			rowDescription = getMetaData();
-		} catch (SQLException e1) {
-
-			logger.logException(MongoMessages.DSWRAPPER_MONGODB_META_DATA_ERROR, "MongoDB.parseBSONMongoDocument Failed to get table meta data", e1);
-			return false;
-		}
-		// Go through the items in the derby row and see if we have a matching field in the result row from mongo.
-		for ( int columnId = 0; columnId < rowDescription.getColumnCount(); columnId++){
-			String fieldName = rowDescription.getColumnName(columnId+1); //TBD this call has a "log" statement - should optimise to call it infrequently
+		// Go through the projected items in the derby row and see if we have a matching field in the result row from mongo.
+		for ( int columnId : projectedColumnIds ){
+			String fieldName = columnNames[columnId];
+			DataValueDescriptor dvd = derbyRow[columnId];
 			//find the field in the mongo result row
 			Object mongoField = mongoDoc.get(fieldName);
-			if(mongoField != null) {
-				try {
-					// Set the value of the derby row according to the correct data type.
-					switch (rowDescription.getColumnType(columnId+1)) {
-					case java.sql.Types.VARCHAR:
-						
-						String value = null;
-						if (mongoField instanceof java.lang.String) {
-							value = (String)mongoField;
-						} else if (mongoField instanceof org.bson.types.ObjectId) {
-							value = ((org.bson.types.ObjectId)mongoField).toStringMongod();
-						} else if (mongoField instanceof com.mongodb.BasicDBObject) {
-							value = ((com.mongodb.BasicDBObject)mongoField).toString();
-						} else if (mongoField instanceof com.mongodb.BasicDBList) {
-							value = ((com.mongodb.BasicDBList)mongoField).toString();
-						} else	if (mongoField instanceof org.bson.types.BSONTimestamp) {
-							value = ((org.bson.types.BSONTimestamp)mongoField).toString();					
-						} else {
-							logger.logWarning(MongoMessages.DSWRAPPER_MONGODB_INCOMPATIBLE_TYPE_ERROR, 
-									"Could not map to VARCHAR, field named "+ fieldName +" of type: "+ mongoField.getClass() );
-						}
-						derbyRow[columnId].setValue( value );						
-						break;
-					case java.sql.Types.CLOB:
-						
-						String valueCLOB = null;
-						if (mongoField instanceof java.lang.String) {
-							valueCLOB = (String)mongoField;
-						} else if (mongoField instanceof org.bson.types.ObjectId) {
-							valueCLOB = ((org.bson.types.ObjectId)mongoField).toStringMongod();
-						} else if (mongoField instanceof com.mongodb.BasicDBObject) {
-							valueCLOB = ((com.mongodb.BasicDBObject)mongoField).toString();
-						} else if (mongoField instanceof com.mongodb.BasicDBList) {
-							valueCLOB = ((com.mongodb.BasicDBList)mongoField).toString();
-						} else if (mongoField instanceof org.bson.types.BSONTimestamp) {
-							value = ((org.bson.types.BSONTimestamp)mongoField).toString();					
-						} else {
-							logger.logWarning(MongoMessages.DSWRAPPER_MONGODB_INCOMPATIBLE_TYPE_ERROR, 
-									"Could not map to CLOB, field named "+ fieldName +" of type: "+ mongoField.getClass() );
-
-						}
-						derbyRow[columnId].setValue( valueCLOB );						
-						break;
-					case java.sql.Types.INTEGER:
-						int valuei;
-						if (mongoField instanceof Integer) {
-							valuei = ((Integer)mongoField).intValue();
-						} else if (mongoField instanceof org.bson.types.BSONTimestamp) {
-							valuei = ((org.bson.types.BSONTimestamp)mongoField).getTime(); // sql.timestamp is in milliseconds, the mongo timestamp is in seconds.					
-						} else {
-							logger.logWarning(MongoMessages.DSWRAPPER_MONGODB_INCOMPATIBLE_TYPE_ERROR, 
-									"Could not map to INTEGER, field named "+ fieldName +" of type: "+ mongoField.getClass() );
-							valuei = - Integer.MIN_VALUE;
-						}
-
-						derbyRow[columnId].setValue( valuei );						
-						break;	
-					case java.sql.Types.DOUBLE:
-						double valued = ((Double)mongoField).doubleValue();
-						derbyRow[columnId].setValue( valued );						
-						break;
-					case java.sql.Types.BOOLEAN:
-						boolean valueb = ((Boolean)mongoField).booleanValue();
-						derbyRow[columnId].setValue( valueb );						
-						break;
-					case java.sql.Types.DATE:
-						java.sql.Date valueDate = new java.sql.Date(((Date)mongoField).getTime());
-						derbyRow[columnId].setValue( valueDate );
-						break;
-					case java.sql.Types.TIMESTAMP:
-						Timestamp valueTS = null;
-						if (mongoField instanceof org.bson.types.BSONTimestamp) {
-							valueTS = new Timestamp (((org.bson.types.BSONTimestamp)mongoField).getTime()*1000); // sql.timestamp is in milliseconds, the mongo timestamp is in seconds.					
-						} else {
-							logger.logWarning(MongoMessages.DSWRAPPER_MONGODB_INCOMPATIBLE_TYPE_ERROR, 
-									"Could not map to TIMESTAMP, field named "+ fieldName +" of type: "+ mongoField.getClass() );
-						}
-						derbyRow[columnId].setValue( valueTS );
-						break;
-					default:
-						//This is a type we are not expecting.
+			try {
+				if (mongoField == null) {
+					// the derby row is re-used across documents, so the previous value must not be left in place.
+					dvd.setToNull();
+					continue;
+				}
+				// Set the value of the derby row according to the correct data type.
+				switch (columnTypes[columnId]) {
+				case java.sql.Types.VARCHAR:
+				case java.sql.Types.CLOB:
+					
+					String value = null;
+					if (mongoField instanceof java.lang.String) {
+						value = (String)mongoField;
+					} else if (mongoField instanceof org.bson.types.ObjectId) {
+						value = ((org.bson.types.ObjectId)mongoField).toStringMongod();
+					} else if (mongoField instanceof com.mongodb.BasicDBObject) {
+						value = ((com.mongodb.BasicDBObject)mongoField).toString();
+					} else if (mongoField instanceof com.mongodb.BasicDBList) {
+						value = ((com.mongodb.BasicDBList)mongoField).toString();
+					} else	if (mongoField instanceof org.bson.types.BSONTimestamp) {
+						value = ((org.bson.types.BSONTimestamp)mongoField).toString();					
+					} else if (mongoField instanceof Number || mongoField instanceof Boolean) {
+						value = mongoField.toString();
+					} else {
 						logger.logWarning(MongoMessages.DSWRAPPER_MONGODB_INCOMPATIBLE_TYPE_ERROR, 
-								"Could not map a field named "+ fieldName +" of type: "+ 
-								mongoField.getClass()+", to type "+rowDescription.getColumnType(columnId+1) );
-						break;				
+								"Could not map to VARCHAR, field named "+ fieldName +" of type: "+ mongoField.getClass() );
 					}
-				} catch (StandardException e) {
-					// This error is thrown when we unable to set a value in the derby row.
-					e.printStackTrace();
-					logger.logException(MongoMessages.DSWRAPPER_MONGODB_VALUE_CONVERSION_ERROR, 
-							"Could not convert result to Derby Type. Field: " + fieldName +", Value: " + mongoField.toString(), e);
-				} catch (Exception e){
-					// This error is thrown when we unable to set a value in the derby row.
-					e.printStackTrace();
-					logger.logException(MongoMessages.DSWRAPPER_MONGODB_VALUE_CONVERSION_ERROR, 
-							"Unknown Error converting result to Derby Type. Field: " + fieldName +", Value: " + mongoField.toString(), e);
-					
+					dvd.setValue( value );						
+					break;
+				case java.sql.Types.INTEGER:
+				case java.sql.Types.SMALLINT:
+					if (mongoField instanceof Number) {
+						dvd.setValue( ((Number)mongoField).intValue() );
+					} else if (mongoField instanceof org.bson.types.BSONTimestamp) {
+						dvd.setValue( ((org.bson.types.BSONTimestamp)mongoField).getTime() ); // sql.timestamp is in milliseconds, the mongo timestamp is in seconds.					
+					} else {
+						logger.logWarning(MongoMessages.DSWRAPPER_MONGODB_INCOMPATIBLE_TYPE_ERROR, 
+								"Could not map to INTEGER, field named "+ fieldName +" of type: "+ mongoField.getClass() );
+						dvd.setToNull();
+					}
+					break;	
+				case java.sql.Types.BIGINT:
+					if (mongoField instanceof Number) {
+						dvd.setValue( ((Number)mongoField).longValue() );
+					} else if (mongoField instanceof Date) {
+						dvd.setValue( ((Date)mongoField).getTime() );
+					} else {
+						logger.logWarning(MongoMessages.DSWRAPPER_MONGODB_INCOMPATIBLE_TYPE_ERROR, 
+								"Could not map to BIGINT, field named "+ fieldName +" of type: "+ mongoField.getClass() );
+						dvd.setToNull();
+					}
+					break;
+				case java.sql.Types.DOUBLE:
+				case java.sql.Types.REAL:
+				case java.sql.Types.FLOAT:
+				case java.sql.Types.DECIMAL:
+					if (mongoField instanceof Number) {
+						dvd.setValue( ((Number)mongoField).doubleValue() );
+					} else {
+						logger.logWarning(MongoMessages.DSWRAPPER_MONGODB_INCOMPATIBLE_TYPE_ERROR, 
+								"Could not map to DOUBLE, field named "+ fieldName +" of type: "+ mongoField.getClass() );
+						dvd.setToNull();
+					}
+					break;
+				case java.sql.Types.BOOLEAN:
+					dvd.setValue( ((Boolean)mongoField).booleanValue() );						
+					break;
+				case java.sql.Types.DATE:
+					dvd.setValue( new java.sql.Date(((Date)mongoField).getTime()) );
+					break;
+				case java.sql.Types.TIMESTAMP:
+					Timestamp valueTS = null;
+					if (mongoField instanceof org.bson.types.BSONTimestamp) {
+						valueTS = new Timestamp (((org.bson.types.BSONTimestamp)mongoField).getTime()*1000L); // sql.timestamp is in milliseconds, the mongo timestamp is in seconds.					
+					} else if (mongoField instanceof Date) {
+						valueTS = new Timestamp (((Date)mongoField).getTime());
+					} else {
+						logger.logWarning(MongoMessages.DSWRAPPER_MONGODB_INCOMPATIBLE_TYPE_ERROR, 
+								"Could not map to TIMESTAMP, field named "+ fieldName +" of type: "+ mongoField.getClass() );
+					}
+					dvd.setValue( valueTS );
+					break;
+				default:
+					//This is a type we are not expecting.
+					logger.logWarning(MongoMessages.DSWRAPPER_MONGODB_INCOMPATIBLE_TYPE_ERROR, 
+							"Could not map a field named "+ fieldName +" of type: "+ 
+							mongoField.getClass()+", to type "+columnTypes[columnId] );
+					dvd.setToNull();
+					break;				
 				}
+			} catch (StandardException e) {
+				// This error is thrown when we unable to set a value in the derby row.
+				logger.logException(MongoMessages.DSWRAPPER_MONGODB_VALUE_CONVERSION_ERROR, 
+						"Could not convert result to Derby Type. Field: " + fieldName +", Value: " + mongoField, e);
+			} catch (Exception e){
+				// This error is thrown when we unable to set a value in the derby row.
+				logger.logException(MongoMessages.DSWRAPPER_MONGODB_VALUE_CONVERSION_ERROR, 
+						"Unknown Error converting result to Derby Type. Field: " + fieldName +", Value: " + mongoField, e);
+				
 			}
-			
 		}
 		
 		return true;
@@ -453,7 +592,16 @@ public class MongoDB extends AbstractVTI implements Pushable {
 			SQLException {
 		// parsedValidRow is the flag indicating success - initialise to false.
 		boolean parsedValidRow = false;
-		if (mongoResults != null) {
+		if (parallelScan != null) {
+			DBObject resultRow;
+			try {
+				while (!parsedValidRow && (resultRow = parallelScan.next()) != null) {
+					parsedValidRow = parseBSONMongoDocument(resultRow, arg0);
+				}
+			} catch (Exception e) {
+				throw new SQLException(MongoMessages.DSWRAPPER_MONGODB_PARALLEL_SCAN_ERROR + ": " + e);
+			}
+		} else if (mongoResults != null) {
 			while (mongoResults.hasNext()&& !parsedValidRow) {
 				//Parse the Mongo result into a DataValueDescriptor format for Derby
 				DBObject resultRow = mongoResults.next();
@@ -476,6 +624,8 @@ public class MongoDB extends AbstractVTI implements Pushable {
 	public int getRowCount() throws Exception {
 		if (mongoResults != null){
 			return mongoResults.count();
+		} else if (parallelScan != null) {
+			return (int) instanceMongoCollection.count(null == instanceMongoQuery ? QUERY_ANYTHING : instanceMongoQuery);
 		} else {
 			return 0;
 		}
@@ -526,8 +676,11 @@ public class MongoDB extends AbstractVTI implements Pushable {
 		 instanceMongoQuery = null;
 		 // Assume that the next query will return all columns - this will be changed if pushProjection is called.
 	     mongoQueryColumns = mongoAllColumns;
+	     projectedColumnIds = allColumnIds;
 	     if (mongoResults !=null) {mongoResults.close();} //important to close the database cursor to free resources.
 	     mongoResults = null;
+	     if (parallelScan != null) {parallelScan.close();} // stops the range threads and closes their cursors.
+	     parallelScan = null;
 		 return true;
 	 }
 		
@@ -554,15 +707,23 @@ public class MongoDB extends AbstractVTI implements Pushable {
 
 	@Override
 	public boolean pushProjection(VTIEnvironment vtiEnvironment, int[] projectedColumns) throws SQLException{
+		if (projectedColumns == null) {
+			// all columns are required.
+			mongoQueryColumns = mongoAllColumns;
+			projectedColumnIds = allColumnIds;
+			return false;
+		}
+		
 		//work out which fields we should be extracting. Limit the future queries to these fields.
-		GaianResultSetMetaData rowDescription = getMetaData();
 		mongoQueryColumns = new BasicDBObject();
+		projectedColumnIds = new int[projectedColumns.length];
 
 		// Go through the items defined in the config, restrict the query to these rows only.
 		for ( int columnIndex = 0; columnIndex < projectedColumns.length; columnIndex++){
 			int columnID = projectedColumns[columnIndex];
-			String fieldName = rowDescription.getColumnName(columnID);
+			String fieldName = columnNames[columnID-1];
 			mongoQueryColumns.put(fieldName, 1);
+			projectedColumnIds[columnIndex] = columnID-1;
 		}		
 		logger.logInfo("MongoVTI - query will fetch column: "+ mongoQueryColumns);
 		
@@ -0,0 +1,527 @@
+/*
+ * (C) Copyright IBM Corp. 2014
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb.excel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.ibm.gaiandb.CachedHashMap;
+
+/**
+ * Forward-only reader of the rows of a sheet in an Excel 2007+ (.xlsx) file.
+ *
+ * The sheet's XML is pulled one row at a time, so that the memory used does not depend on the
+ * number of rows in the sheet - unlike the POI workbook model which loads all of them.
+ * The workbook-level tables that the rows refer to (shared strings, cell styles used to detect dates and
+ * sheet locations) are parsed once and cached per file, for as long as the file's modification time and
+ * length do not change.
+ *
+ * Only the cached results of formulas are read: formulas are not evaluated.
+ */
+public class XlsxSheetReader {
+
+	// Use PROPRIETARY notice if class contains a main() method, otherwise use
+	// COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2014";
+
+	public static final byte CELL_BLANK = 0;
+	public static final byte CELL_STRING = 1;
+	public static final byte CELL_NUMERIC = 2;
+	public static final byte CELL_BOOLEAN = 3;
+	public static final byte CELL_ERROR = 4;
+
+	private static final String WORKBOOK_PATH = "xl/workbook.xml";
+	private static final String WORKBOOK_RELS_PATH = "xl/_rels/workbook.xml.rels";
+	private static final String DEFAULT_SHARED_STRINGS_PATH = "xl/sharedStrings.xml";
+	private static final String DEFAULT_STYLES_PATH = "xl/styles.xml";
+
+	private static final int NB_CACHED_WORKBOOKS = 10;
+	private static final Map<String, WorkbookTables> workbookTablesCache = new CachedHashMap<String, WorkbookTables>( NB_CACHED_WORKBOOKS );
+
+	private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+	static {
+		xmlInputFactory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.TRUE );
+		xmlInputFactory.setProperty( XMLInputFactory.SUPPORT_DTD, Boolean.FALSE );
+		xmlInputFactory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE );
+	}
+
+	private final WorkbookTables tables;
+	private final ZipFile zipFile;
+	private final XMLStreamReader reader;
+
+	private int lastRowIndexHint = -1;
+	private boolean isEndOfSheet = false;
+
+	// Current row
+	private int rowIndex = -1;
+	private int numberOfCells = 0;
+	private int[] cellColumns = new int[16];
+	private byte[] cellTypes = new byte[16];
+	private boolean[] cellIsDate = new boolean[16];
+	private boolean[] cellIsFormula = new boolean[16];
+	private String[] cellValues = new String[16];
+
+	/**
+	 * Tables of a workbook which the cells of its sheets refer to.
+	 */
+	private static class WorkbookTables {
+		private final long lastModified;
+		private final long length;
+		private final Map<String, String> sheetPaths = new HashMap<String, String>();
+		private String[] sharedStrings = new String[0];
+		private boolean[] dateStyles = new boolean[0];
+		private boolean isDate1904 = false;
+
+		private WorkbookTables( long lastModified, long length ) {
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Returns true if the file name designates an Excel 2007+ workbook, which can be read with this class.
+	 */
+	public static boolean isXlsxFile( String fileName ) {
+		String name = fileName.toLowerCase();
+		return name.endsWith(".xlsx") || name.endsWith(".xlsm");
+	}
+
+	/**
+	 * Opens a sheet of an .xlsx file, positioned before its first row.
+	 *
+	 * @param fileName
+	 * @param sheetName
+	 * @throws IOException if the file cannot be read, is not a valid workbook, or does not contain the sheet.
+	 */
+	public XlsxSheetReader( String fileName, String sheetName ) throws IOException {
+		File file = new File( fileName );
+		tables = getWorkbookTables( file );
+
+		String sheetPath = tables.sheetPaths.get( sheetName );
+		if ( null == sheetPath )
+			throw new IOException( "The file does not contain a spreadsheet named : "+sheetName );
+
+		zipFile = new ZipFile( file );
+		try {
+			ZipEntry entry = zipFile.getEntry( sheetPath );
+			if ( null == entry ) throw new IOException( "Missing sheet part " + sheetPath + " in " + fileName );
+			reader = xmlInputFactory.createXMLStreamReader( zipFile.getInputStream( entry ) );
+
+			// Move to the rows, recording the last row declared in the sheet dimension if there is one
+			while ( reader.hasNext() ) {
+				if ( XMLStreamConstants.START_ELEMENT != reader.next() ) continue;
+				String name = reader.getLocalName();
+				if ( "dimension".equals(name) ) {
+					String ref = reader.getAttributeValue( null, "ref" );
+					if ( null != ref ) lastRowIndexHint = getRowIndex( ref.substring( ref.indexOf(':') + 1 ) );
+				} else if ( "sheetData".equals(name) )
+					return;
+			}
+			isEndOfSheet = true;
+
+		} catch ( XMLStreamException e ) {
+			zipFile.close();
+			throw new IOException( "Unable to read sheet " + sheetName + " in " + fileName + ": " + e, e );
+		} catch ( IOException e ) {
+			zipFile.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the 0-based index of the last row declared in the sheet's dimension, or -1 if it is not declared.
+	 */
+	public int getLastRowIndexHint() {
+		return lastRowIndexHint;
+	}
+
+	/**
+	 * Moves to the next row defined in the sheet. Rows having no cells may be absent from the sheet, in which
+	 * case they are skipped.
+	 *
+	 * @return false if there are no more rows in the sheet.
+	 * @throws IOException if the sheet is malformed.
+	 */
+	public boolean nextRow() throws IOException {
+		if ( isEndOfSheet ) return false;
+		try {
+			while ( reader.hasNext() ) {
+				int event = reader.next();
+				if ( XMLStreamConstants.START_ELEMENT == event && "row".equals(reader.getLocalName()) ) {
+					String r = reader.getAttributeValue( null, "r" );
+					rowIndex = null == r ? rowIndex + 1 : Integer.parseInt( r ) - 1;
+					readCells();
+					return true;
+				}
+				if ( XMLStreamConstants.END_ELEMENT == event && "sheetData".equals(reader.getLocalName()) )
+					break;
+			}
+		} catch ( XMLStreamException e ) {
+			throw new IOException( "Malformed sheet at row " + (rowIndex+1) + ": " + e, e );
+		} catch ( NumberFormatException e ) {
+			throw new IOException( "Malformed sheet at row " + (rowIndex+1) + ": " + e, e );
+		}
+		isEndOfSheet = true;
+		return false;
+	}
+
+	/**
+	 * Returns the 0-based index of the current row.
+	 */
+	public int getRowIndex() {
+		return rowIndex;
+	}
+
+	/**
+	 * Returns the number of cells defined in the current row. Cells which have no value may be absent.
+	 */
+	public int getCellCount() {
+		return numberOfCells;
+	}
+
+	/** Returns the 0-based column index of the i-th cell of the current row. Cells are in column order. */
+	public int getCellColumn( int i ) { return cellColumns[i]; }
+
+	/** Returns the type of the i-th cell of the current row: CELL_BLANK, CELL_STRING, CELL_NUMERIC, CELL_BOOLEAN or CELL_ERROR. */
+	public byte getCellType( int i ) { return cellTypes[i]; }
+
+	/** Returns true if the i-th cell of the current row is numeric and is formatted as a date. */
+	public boolean isCellDate( int i ) { return cellIsDate[i]; }
+
+	/** Returns true if the i-th cell of the current row holds a formula (the value is the formula's cached result). */
+	public boolean isCellFormula( int i ) { return cellIsFormula[i]; }
+
+	/** Returns the value of the i-th cell of the current row as it is stored in the sheet: e.g. "1.5" or "1" for the boolean true. */
+	public String getCellValue( int i ) { return cellValues[i]; }
+
+	/** Returns the value of the i-th cell of the current row, which must be numeric, as a date. */
+	public Date getCellDate( int i ) {
+		return getJavaDate( Double.parseDouble( cellValues[i] ), tables.isDate1904 );
+	}
+
+	/**
+	 * Returns true if the current row has at least one cell holding a string, numeric or boolean value.
+	 */
+	public boolean hasData() {
+		for ( int i=0; i<numberOfCells; i++ ) {
+			byte type = cellTypes[i];
+			if ( CELL_STRING == type || CELL_NUMERIC == type || CELL_BOOLEAN == type ) return true;
+		}
+		return false;
+	}
+
+	public void close() throws IOException {
+		try { reader.close(); } catch ( XMLStreamException e ) {}
+		zipFile.close();
+	}
+
+	/**
+	 * Returns the 0-based column index of a cell reference, e.g. 27 for "AB12".
+	 */
+	public static int getColumnIndex( String cellRef ) {
+		int col = 0;
+		for ( int i=0; i<cellRef.length(); i++ ) {
+			char c = cellRef.charAt(i);
+			if ( c >= 'A' && c <= 'Z' ) col = col*26 + (c - 'A' + 1);
+			else if ( c >= 'a' && c <= 'z' ) col = col*26 + (c - 'a' + 1);
+			else if ( c != '$' ) break;
+		}
+		return col - 1;
+	}
+
+	/**
+	 * Returns the 0-based row index of a cell reference, e.g. 11 for "AB12", or -1 if the reference has no row part.
+	 */
+	public static int getRowIndex( String cellRef ) {
+		int row = 0;
+		boolean hasDigits = false;
+		for ( int i=0; i<cellRef.length(); i++ ) {
+			char c = cellRef.charAt(i);
+			if ( c >= '0' && c <= '9' ) { row = row*10 + (c - '0'); hasDigits = true; }
+		}
+		return hasDigits ? row - 1 : -1;
+	}
+
+	// ------------------ Row parsing -----------------------------------------------
+
+	private void readCells() throws XMLStreamException {
+		numberOfCells = 0;
+		int previousColumn = -1;
+
+		while ( reader.hasNext() ) {
+			int event = reader.next();
+			if ( XMLStreamConstants.START_ELEMENT == event && "c".equals(reader.getLocalName()) ) {
+				String ref = reader.getAttributeValue( null, "r" );
+				previousColumn = null == ref ? previousColumn + 1 : getColumnIndex( ref );
+				readCell( previousColumn, reader.getAttributeValue(null, "t"), reader.getAttributeValue(null, "s") );
+			}
+			else if ( XMLStreamConstants.END_ELEMENT == event && "row".equals(reader.getLocalName()) )
+				return;
+		}
+	}
+
+	private void readCell( int column, String type, String style ) throws XMLStreamException {
+		String text = null;
+		boolean isFormula = false;
+
+		while ( reader.hasNext() ) {
+			int event = reader.next();
+			if ( XMLStreamConstants.START_ELEMENT == event ) {
+				String name = reader.getLocalName();
+				if ( "v".equals(name) ) text = reader.getElementText();
+				else if ( "is".equals(name) ) text = readText( reader, "is" );
+				else if ( "f".equals(name) ) { isFormula = true; reader.getElementText(); }
+			}
+			else if ( XMLStreamConstants.END_ELEMENT == event && "c".equals(reader.getLocalName()) )
+				break;
+		}
+
+		byte cellType;
+		boolean isDate = false;
+
+		if ( null == text ) cellType = CELL_BLANK;
+		else if ( null == type || "n".equals(type) ) {
+			if ( 0 == text.length() ) cellType = CELL_BLANK;
+			else {
+				cellType = CELL_NUMERIC;
+				isDate = null != style && isDateStyle( Integer.parseInt(style) );
+			}
+		}
+		else if ( "s".equals(type) ) {
+			cellType = CELL_STRING;
+			text = tables.sharedStrings[ Integer.parseInt(text.trim()) ];
+		}
+		else if ( "b".equals(type) ) cellType = CELL_BOOLEAN;
+		else if ( "e".equals(type) ) cellType = CELL_ERROR;
+		else cellType = CELL_STRING; // "str", "inlineStr", "d"
+
+		if ( numberOfCells == cellColumns.length ) {
+			int newLength = 2 * numberOfCells;
+			int[] columns = new int[newLength]; System.arraycopy( cellColumns, 0, columns, 0, numberOfCells ); cellColumns = columns;
+			byte[] types = new byte[newLength]; System.arraycopy( cellTypes, 0, types, 0, numberOfCells ); cellTypes = types;
+			boolean[] dates = new boolean[newLength]; System.arraycopy( cellIsDate, 0, dates, 0, numberOfCells ); cellIsDate = dates;
+			boolean[] formulas = new boolean[newLength]; System.arraycopy( cellIsFormula, 0, formulas, 0, numberOfCells ); cellIsFormula = formulas;
+			String[] values = new String[newLength]; System.arraycopy( cellValues, 0, values, 0, numberOfCells ); cellValues = values;
+		}
+
+		cellColumns[numberOfCells] = column;
+		cellTypes[numberOfCells] = cellType;
+		cellIsDate[numberOfCells] = isDate;
+		cellIsFormula[numberOfCells] = isFormula;
+		cellValues[numberOfCells] = text;
+		numberOfCells++;
+	}
+
+	private boolean isDateStyle( int styleIndex ) {
+		return styleIndex >= 0 && styleIndex < tables.dateStyles.length && tables.dateStyles[styleIndex];
+	}
+
+	/**
+	 * Concatenates the text runs (&lt;t&gt; elements) found before the end of the given element,
+	 * ignoring phonetic runs.
+	 */
+	private static String readText( XMLStreamReader reader, String endElementName ) throws XMLStreamException {
+		StringBuilder sb = new StringBuilder();
+		boolean isInPhoneticRun = false;
+		while ( reader.hasNext() ) {
+			int event = reader.next();
+			if ( XMLStreamConstants.START_ELEMENT == event ) {
+				String name = reader.getLocalName();
+				if ( "rPh".equals(name) ) isInPhoneticRun = true;
+				else if ( "t".equals(name) && !isInPhoneticRun ) sb.append( reader.getElementText() );
+			}
+			else if ( XMLStreamConstants.END_ELEMENT == event ) {
+				String name = reader.getLocalName();
+				if ( "rPh".equals(name) ) isInPhoneticRun = false;
+				else if ( endElementName.equals(name) ) break;
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Converts an Excel date serial number into a Date in the default time zone - the same way as POI's DateUtil.getJavaDate().
+	 */
+	private static Date getJavaDate( double date, boolean use1904windowing ) {
+		int wholeDays = (int) Math.floor( date );
+		int millisecondsInDay = (int) ( (date - wholeDays) * 24*60*60*1000L + 0.5 );
+
+		int startYear = 1900;
+		int dayAdjust = -1; // Excel thinks 2/29/1900 is a valid date, which it isn't
+		if ( use1904windowing ) {
+			startYear = 1904;
+			dayAdjust = 1; // 1904 date windowing uses 1/2/1904 as the first day
+		}
+		else if ( wholeDays < 61 ) {
+			// Date is prior to 3/1/1900, so adjust because Excel thinks 2/29/1900 exists
+			dayAdjust = 0;
+		}
+
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set( startYear, 0, wholeDays + dayAdjust, 0, 0, 0 );
+		calendar.set( Calendar.MILLISECOND, millisecondsInDay );
+		return calendar.getTime();
+	}
+
+	// ------------------ Workbook tables -----------------------------------------------
+
+	private static WorkbookTables getWorkbookTables( File file ) throws IOException {
+
+		String key = file.getCanonicalPath();
+		long lastModified = file.lastModified();
+		long length = file.length();
+
+		synchronized( workbookTablesCache ) {
+			WorkbookTables tables = workbookTablesCache.get( key );
+			if ( null != tables && tables.lastModified == lastModified && tables.length == length )
+				return tables;
+		}
+
+		WorkbookTables tables = new WorkbookTables( lastModified, length );
+		ZipFile zip = new ZipFile( file );
+		try {
+			// Relationships of the workbook: sheet ids -> parts, and locations of the shared strings and styles parts
+			Map<String, String> relationshipTargets = new HashMap<String, String>();
+			String sharedStringsPath = DEFAULT_SHARED_STRINGS_PATH;
+			String stylesPath = DEFAULT_STYLES_PATH;
+
+			XMLStreamReader r = openPart( zip, WORKBOOK_RELS_PATH );
+			if ( null != r ) try {
+				while ( r.hasNext() ) {
+					if ( XMLStreamConstants.START_ELEMENT != r.next() || !"Relationship".equals(r.getLocalName()) ) continue;
+					String target = resolvePartPath( r.getAttributeValue(null, "Target") );
+					String type = r.getAttributeValue( null, "Type" );
+					relationshipTargets.put( r.getAttributeValue(null, "Id"), target );
+					if ( null != type && type.endsWith("/sharedStrings") ) sharedStringsPath = target;
+					else if ( null != type && type.endsWith("/styles") ) stylesPath = target;
+				}
+			} finally { r.close(); }
+
+			// Sheets names and date system
+			r = openPart( zip, WORKBOOK_PATH );
+			if ( null == r ) throw new IOException( "Not an Excel 2007+ workbook (missing " + WORKBOOK_PATH + "): " + file );
+			try {
+				while ( r.hasNext() ) {
+					if ( XMLStreamConstants.START_ELEMENT != r.next() ) continue;
+					String name = r.getLocalName();
+					if ( "workbookPr".equals(name) ) {
+						String date1904 = r.getAttributeValue( null, "date1904" );
+						tables.isDate1904 = "1".equals(date1904) || "true".equalsIgnoreCase(date1904);
+					} else if ( "sheet".equals(name) ) {
+						String relationshipId = null;
+						for ( int i=0; i<r.getAttributeCount(); i++ ) {
+							String attributeName = r.getAttributeLocalName(i);
+							if ( "id".equals(attributeName) ) relationshipId = r.getAttributeValue(i); // r:id
+						}
+						String target = relationshipTargets.get( relationshipId );
+						if ( null != target ) tables.sheetPaths.put( r.getAttributeValue(null, "name"), target );
+					}
+				}
+			} finally { r.close(); }
+
+			// Shared strings
+			r = openPart( zip, sharedStringsPath );
+			if ( null != r ) try {
+				List<String> strings = new ArrayList<String>();
+				while ( r.hasNext() )
+					if ( XMLStreamConstants.START_ELEMENT == r.next() && "si".equals(r.getLocalName()) )
+						strings.add( readText(r, "si") );
+				tables.sharedStrings = strings.toArray( new String[strings.size()] );
+			} finally { r.close(); }
+
+			// Cell styles which format numbers as dates
+			r = openPart( zip, stylesPath );
+			if ( null != r ) try {
+				Map<Integer, String> numberFormats = new HashMap<Integer, String>();
+				List<Boolean> dateStyles = new ArrayList<Boolean>();
+				boolean isInCellXfs = false;
+				while ( r.hasNext() ) {
+					int event = r.next();
+					if ( XMLStreamConstants.START_ELEMENT == event ) {
+						String name = r.getLocalName();
+						if ( "numFmt".equals(name) )
+							numberFormats.put( Integer.valueOf(r.getAttributeValue(null, "numFmtId")), r.getAttributeValue(null, "formatCode") );
+						else if ( "cellXfs".equals(name) ) isInCellXfs = true;
+						else if ( "xf".equals(name) && isInCellXfs ) {
+							String id = r.getAttributeValue( null, "numFmtId" );
+							int numberFormatId = null == id ? 0 : Integer.parseInt( id );
+							dateStyles.add( isDateFormat(numberFormatId, numberFormats.get(numberFormatId)) );
+						}
+					} else if ( XMLStreamConstants.END_ELEMENT == event && "cellXfs".equals(r.getLocalName()) )
+						isInCellXfs = false;
+				}
+				tables.dateStyles = new boolean[ dateStyles.size() ];
+				for ( int i=0; i<tables.dateStyles.length; i++ ) tables.dateStyles[i] = dateStyles.get(i);
+			} finally { r.close(); }
+
+		} catch ( XMLStreamException e ) {
+			throw new IOException( "Unable to read the workbook structure of " + file + ": " + e, e );
+		} catch ( NumberFormatException e ) {
+			throw new IOException( "Unable to read the workbook structure of " + file + ": " + e, e );
+		} finally {
+			zip.close();
+		}
+
+		synchronized( workbookTablesCache ) {
+			workbookTablesCache.put( key, tables );
+		}
+		return tables;
+	}
+
+	private static XMLStreamReader openPart( ZipFile zip, String path ) throws IOException, XMLStreamException {
+		ZipEntry entry = zip.getEntry( path );
+		if ( null == entry ) return null;
+		InputStream is = zip.getInputStream( entry );
+		return xmlInputFactory.createXMLStreamReader( is );
+	}
+
+	/**
+	 * Resolves the target of a workbook relationship, which is relative to the "xl" directory unless it is absolute.
+	 */
+	private static String resolvePartPath( String target ) {
+		if ( null == target ) return null;
+		return target.startsWith("/") ? target.substring(1) : "xl/" + target;
+	}
+
+	/**
+	 * Returns true if a number format displays dates or times - in the same way as POI's DateUtil.isADateFormat().
+	 */
+	private static boolean isDateFormat( int formatId, String formatCode ) {
+
+		// Built-in date formats
+		if ( formatId >= 14 && formatId <= 22 || formatId >= 45 && formatId <= 47 ) return true;
+		if ( null == formatCode ) return false;
+
+		// Only the format for positive numbers matters
+		String fs = formatCode;
+		int sectionEnd = fs.indexOf(';');
+		if ( -1 < sectionEnd ) fs = fs.substring( 0, sectionEnd );
+
+		// Remove escaped characters, quoted text, colours/locales and am/pm markers, but keep elapsed time markers e.g. [h]
+		fs = fs.replaceAll( "\\\\.", "" ).replaceAll( "\"[^\"]*\"", "" );
+		fs = fs.replaceAll( "\\[([hHmMsS]+)\\]", "$1" ).replaceAll( "\\[[^\\]]*\\]", "" );
+		fs = fs.replaceAll( "(?i)am/pm|a/p", "" );
+
+		return fs.matches( "[yYmMdDhHsS\\-/,. :]*[yYmMdDhHsS][yYmMdDhHsS\\-/,. :]*0*" );
+	}
+}
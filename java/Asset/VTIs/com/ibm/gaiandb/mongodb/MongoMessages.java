@@ -197,4 +197,22 @@ public class MongoMessages {
 	 * </ul>
 	 */
 	public static final String DSWRAPPER_RESULTSET_NOT_CONNECTED = "DSWRAPPER_RESULTSET_NOT_CONNECTED";
+
+	/**
+	 * <p>
+	 * <b>Error:</b> a parallel cursor scanning a range of a mongo collection failed.
+	 * <br/><br/>
+	 * <b>Reason:</b>
+	 * one of the concurrent cursors opened on an _id range of the collection raised an exception
+	 * while fetching documents, e.g. because the connection to mongo was lost.
+	 * <br/><br/>
+	 * <b>Action:</b> Check that the mongo process is available, or reduce the number of
+	 * parallel cursors configured for the data source.
+	 * <p>
+	 * Related links:
+	 * <ul>
+	 * <li><a href="../../../../Readme.html">Readme</a></li>
+	 * </ul>
+	 */
+	public static final String DSWRAPPER_MONGODB_PARALLEL_SCAN_ERROR = "DSWRAPPER_MONGODB_PARALLEL_SCAN_ERROR";
 }
@@ -0,0 +1,208 @@
+/*
+ * (C) Copyright IBM Corp. 2014
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb.mongodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.gaiandb.Logger;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+/**
+ * This class scans a mongo collection using several concurrent cursors, each one covering a
+ * contiguous range of the collection's "_id" values.
+ *
+ * Each cursor is drained by its own thread into a shared bounded queue, from which the consumer
+ * pulls documents with next(). Documents are handed over as DBObjects, without any intermediate conversion.
+ * The bounded queue means the cursors never run more than a few batches ahead of the consumer, and closing
+ * the scan early (e.g. when a row limit is reached) stops all cursors.
+ *
+ * Note that documents are not returned in any particular order.
+ */
+public class MongoParallelScan {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2014";
+
+	private static final Logger logger = new Logger( "MongoParallelScan", 20 );
+
+	private static final String ID_FIELD = "_id";
+
+	// Marker placed on the queue by each range thread when its cursor is exhausted.
+	private static final DBObject END_OF_RANGE = new BasicDBObject();
+
+	private static final int POLL_TIMEOUT_MS = 100;
+
+	private final BlockingQueue<DBObject> documentsQueue;
+	private final List<DBCursor> cursors = new ArrayList<DBCursor>();
+
+	private int activeRanges;
+	private volatile boolean isClosed = false;
+	private volatile Exception scanException = null;
+
+	/**
+	 * Computes the queries that split the documents matching 'query' into 'numRanges' contiguous ranges of "_id" values
+	 * holding roughly the same number of documents.
+	 * Boundaries are found by skipping through the "_id" index, so no documents are fetched apart from the boundary ones.
+	 *
+	 * @param collection - the mongo collection to be scanned.
+	 * @param query - the mongo query conditions for the scan - an empty object matches all documents.
+	 * @param numRanges - the number of ranges wanted.
+	 * @param minDocumentsPerRange - the minimum number of documents that justifies an extra range.
+	 * @return the list of range queries, or null if the collection should not be split (too few documents, or
+	 * the "_id" values are not all of the same type - in which case range comparisons would miss some documents).
+	 */
+	public static List<DBObject> getIdRangeQueries( DBCollection collection, DBObject query, int numRanges, int minDocumentsPerRange ) {
+
+		if ( 2 > numRanges ) return null;
+
+		long count = collection.count( query );
+		if ( 0 < minDocumentsPerRange ) numRanges = (int) Math.min( numRanges, count / minDocumentsPerRange );
+		if ( 2 > numRanges ) return null;
+
+		BasicDBObject idOnly = new BasicDBObject( ID_FIELD, 1 );
+
+		// Boundary values, including the lowest and highest ids - these are used to check all ids have the same type.
+		Object[] boundaries = new Object[ numRanges+1 ];
+		boundaries[0] = getIdAt( collection, query, idOnly, 1, 0 );
+		boundaries[numRanges] = getIdAt( collection, query, idOnly, -1, 0 );
+		for ( int i=1; i<numRanges; i++ )
+			boundaries[i] = getIdAt( collection, query, idOnly, 1, (int) (i * count / numRanges) );
+
+		Class<?> idClass = null;
+		for ( Object id : boundaries ) {
+			if ( null == id ) return null; // collection changed underneath us
+			if ( null == idClass ) idClass = id.getClass();
+			else if ( idClass != id.getClass() ) {
+				logger.logInfo("Mixed types for " + ID_FIELD + " values, not splitting collection scan: " + idClass.getName() + ", " + id.getClass().getName());
+				return null;
+			}
+		}
+
+		List<DBObject> rangeQueries = new ArrayList<DBObject>( numRanges );
+
+		for ( int i=0; i<numRanges; i++ ) {
+
+			// Boundary duplicates arise when skips land on the same document - just skip the empty range.
+			if ( 0 < i && i < numRanges-1 && boundaries[i].equals( boundaries[i+1] ) ) continue;
+
+			BasicDBObject idRange = new BasicDBObject();
+			if ( 0 < i ) idRange.append( "$gte", boundaries[i] );
+			if ( i < numRanges-1 ) idRange.append( "$lt", boundaries[i+1] );
+
+			BasicDBObject idCondition = new BasicDBObject( ID_FIELD, idRange );
+
+			if ( query.keySet().isEmpty() )
+				rangeQueries.add( idCondition );
+			else {
+				BasicDBList conjunction = new BasicDBList();
+				conjunction.add( query );
+				conjunction.add( idCondition );
+				rangeQueries.add( new BasicDBObject( "$and", conjunction ) );
+			}
+		}
+
+		logger.logInfo("Split scan of " + count + " documents into " + rangeQueries.size() + " " + ID_FIELD + " ranges: " + rangeQueries);
+
+		return rangeQueries;
+	}
+
+	private static Object getIdAt( DBCollection collection, DBObject query, DBObject idOnly, int direction, int offset ) {
+		DBCursor c = collection.find( query, idOnly ).sort( new BasicDBObject( ID_FIELD, direction ) ).skip( offset ).limit( 1 );
+		try {
+			return c.hasNext() ? c.next().get( ID_FIELD ) : null;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Starts the concurrent scan - one thread and cursor per range query.
+	 *
+	 * @param collection - the mongo collection to be scanned.
+	 * @param rangeQueries - the range queries, as returned by getIdRangeQueries()
+	 * @param fields - the projected fields, or null for all fields.
+	 * @param batchSize - number of documents to pull back per round trip for each cursor.
+	 */
+	public MongoParallelScan( DBCollection collection, List<DBObject> rangeQueries, DBObject fields, int batchSize ) {
+
+		documentsQueue = new ArrayBlockingQueue<DBObject>( Math.max(1, batchSize) * rangeQueries.size() );
+		activeRanges = rangeQueries.size();
+
+		for ( int i=0; i<rangeQueries.size(); i++ ) {
+			final DBCursor cursor = null == fields ? collection.find( rangeQueries.get(i) ) : collection.find( rangeQueries.get(i), fields );
+			cursor.batchSize( batchSize );
+			cursors.add( cursor );
+
+			Thread t = new Thread( new Runnable() {
+				public void run() { scanRange( cursor ); }
+			}, "MongoParallelScan-" + collection.getName() + "-" + i );
+			t.setDaemon( true );
+			t.start();
+		}
+	}
+
+	private void scanRange( DBCursor cursor ) {
+		try {
+			while ( !isClosed && cursor.hasNext() ) enqueue( cursor.next() );
+		} catch ( Exception e ) {
+			if ( !isClosed ) {
+				logger.logException( MongoMessages.DSWRAPPER_MONGODB_PARALLEL_SCAN_ERROR, "Parallel cursor failed for range: " + cursor.getQuery(), e );
+				scanException = e;
+			}
+		} finally {
+			cursor.close();
+			try { enqueue( END_OF_RANGE ); }
+			catch ( InterruptedException e ) {}
+		}
+	}
+
+	private void enqueue( DBObject doc ) throws InterruptedException {
+		// Don't block indefinitely, so the thread can exit when the scan is closed while the queue is full.
+		while ( !isClosed )
+			if ( documentsQueue.offer( doc, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS ) ) return;
+	}
+
+	/**
+	 * Returns the next document from any of the ranges.
+	 *
+	 * @return the next document, or null when all ranges have been scanned.
+	 * @throws Exception if any of the cursors failed.
+	 */
+	public DBObject next() throws Exception {
+
+		while ( !isClosed && 0 < activeRanges ) {
+			if ( null != scanException ) throw scanException;
+			DBObject doc = documentsQueue.poll( POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS );
+			if ( null == doc ) continue;
+			if ( END_OF_RANGE == doc ) { activeRanges--; continue; }
+			return doc;
+		}
+
+		if ( null != scanException ) throw scanException;
+		return null;
+	}
+
+	/**
+	 * Stops all range threads and releases their cursors. Safe to call more than once.
+	 */
+	public void close() {
+		isClosed = true;
+		documentsQueue.clear();
+		for ( DBCursor cursor : cursors )
+			try { cursor.close(); } catch ( Exception e ) {}
+		cursors.clear();
+	}
+}
@@ -0,0 +1,750 @@
+/*
+ * (C) Copyright IBM Corp. 2013
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.ibm.gaiandb.webservices.caching;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.gaiandb.Logger;
+
+/**
+ * <p>
+ * The purpose of this class is to cache the responses of web services within a
+ * bounded amount of memory and disk space.
+ * <p>
+ * The responses are cached as bytes, in two tiers:									<br/>
+ * - a memory tier, holding the responses smaller than a per-entry threshold,		<br/>
+ * - a disk tier, holding the larger ones and the ones evicted from memory.
+ * <p>
+ * Each tier has a total budget and evicts its least recently used entries. When
+ * an entry has to be evicted to make room for a new response, the response is only
+ * admitted if it has been requested more often than the entries it would evict,
+ * which is estimated with a small frequency sketch of all the requested keys.
+ * <p>
+ * Expired responses which came with an ETag or a Last-Modified header are kept, so
+ * that the next request can revalidate them conditionally instead of re-fetching
+ * them. Concurrent requests for a response which is being fetched wait for this
+ * fetch to complete and read the response from the cache, rather than all
+ * accessing the web service.
+ *
+ * @author remi - IBM Hursley
+ *
+ */
+public class ResponseCache {
+
+	// ----------------------------------------------------------------------------------
+	// ----------------------------------------------------------------------- ATTRIBUTES
+
+	// =========================================================================== Public
+	// --------------------------------------------------------------------------- Static
+
+	// Use PROPRIETARY notice if class contains a main() method, otherwise use
+	// COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2013";
+
+	/** Default budget of the memory tier, in bytes. */
+	public static final long DEFAULT_MAX_MEMORY_BYTES = 32L * 1024 * 1024;
+
+	/** Default size above which a response is cached on disk rather than in memory. */
+	public static final long DEFAULT_MAX_MEMORY_ENTRY_BYTES = 1024L * 1024;
+
+	/** Default budget of the disk tier, in bytes. */
+	public static final long DEFAULT_MAX_DISK_BYTES = 512L * 1024 * 1024;
+
+	/** Default time a request waits for a concurrent fetch of the same response. */
+	public static final long DEFAULT_COALESCING_TIMEOUT_MS = 30000;
+
+
+	// -------------------------------------------------------------------------- Dynamic
+
+	// ======================================================================== Protected
+	// --------------------------------------------------------------------------- Static
+	// -------------------------------------------------------------------------- Dynamic
+
+	// ========================================================================== Private
+	// --------------------------------------------------------------------------- Static
+
+	private static final Logger logger = new Logger( "ResponseCache", 20 );
+
+	private static final ResponseCache INSTANCE = new ResponseCache();
+
+	/** The metrics are logged every time this number of requests have been served. */
+	private static final int METRICS_LOGGING_PERIOD = 100;
+
+	private static final String CACHE_FILE_PREFIX = "gdbws";
+
+
+	// -------------------------------------------------------------------------- Dynamic
+
+	private volatile long maxMemoryBytes = DEFAULT_MAX_MEMORY_BYTES;
+	private volatile long maxMemoryEntryBytes = DEFAULT_MAX_MEMORY_ENTRY_BYTES;
+	private volatile long maxDiskBytes = DEFAULT_MAX_DISK_BYTES;
+	private volatile long coalescingTimeoutMs = DEFAULT_COALESCING_TIMEOUT_MS;
+
+	/** The memory tier, in least recently used order. */
+	private final LinkedHashMap<String, CacheEntry> memoryTier =
+								new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+	/** The disk tier, in least recently used order. */
+	private final LinkedHashMap<String, CacheEntry> diskTier =
+								new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+	private long memoryBytes = 0;
+	private long diskBytes = 0;
+
+	/** The directory holding the files of the disk tier. Created on first use. */
+	private File cacheDirectory = null;
+
+	/** The fetches currently in progress, by key. */
+	private final ConcurrentMap<String, InFlightFetch> inFlightFetches =
+								new ConcurrentHashMap<String, InFlightFetch>();
+
+	private final FrequencySketch frequencies = new FrequencySketch();
+
+	// ------- Metrics -------
+
+	private final AtomicLong nbRequests = new AtomicLong();
+	private final AtomicLong nbMemoryHits = new AtomicLong();
+	private final AtomicLong nbDiskHits = new AtomicLong();
+	private final AtomicLong nbRevalidations = new AtomicLong();
+	private final AtomicLong nbCoalescedRequests = new AtomicLong();
+	private final AtomicLong nbMisses = new AtomicLong();
+	private final AtomicLong nbRejectedAdmissions = new AtomicLong();
+	private final AtomicLong nbEvictions = new AtomicLong();
+	private final AtomicLong nbBytesSaved = new AtomicLong();
+	private final AtomicLong nbBytesFetched = new AtomicLong();
+
+
+	// ----------------------------------------------------------------------------------
+	// ---------------------------------------------------------------------------- TOOLS
+
+	/**
+	 * Fetches a response from a web service when the cache cannot provide it.
+	 */
+	public interface ResponseFetcher {
+
+		/**
+		 * Fetches the response.
+		 * @param eTag
+		 * 			The ETag of the cached response to revalidate. null if none.
+		 * @param lastModified
+		 * 			The Last-Modified date of the cached response to revalidate. null if none.
+		 * @return The stream of the response. null if it could not be fetched, or if
+		 * the web service replied that the cached response is not modified.
+		 */
+		InputStream fetch(String eTag, String lastModified) throws IOException;
+
+		/** Returns true if the last fetch found that the cached response is not modified. */
+		boolean isNotModified();
+
+		/** Returns the ETag of the last fetched response. null if none. */
+		String getETag();
+
+		/** Returns the Last-Modified date of the last fetched response. null if none. */
+		String getLastModified();
+	}
+
+	/** A cached response, held either in memory or in a file. */
+	private static class CacheEntry {
+		private final String key;
+		private byte[] data;
+		private File file;
+		private final long size;
+		private long expiryTime;
+		private final String eTag;
+		private final String lastModified;
+
+		private CacheEntry(String key, byte[] data, File file, long size,
+				long expiryTime, String eTag, String lastModified) {
+			this.key = key;
+			this.data = data;
+			this.file = file;
+			this.size = size;
+			this.expiryTime = expiryTime;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+		}
+
+		private boolean isFresh() {
+			return System.currentTimeMillis() <= this.expiryTime;
+		}
+
+		private boolean canBeRevalidated() {
+			return this.eTag != null || this.lastModified != null;
+		}
+
+		private InputStream openStream() throws IOException {
+			return this.data != null ? new ByteArrayInputStream(this.data) : new FileInputStream(this.file);
+		}
+	}
+
+	/** A fetch in progress, which other requests for the same key can wait for. */
+	private class InFlightFetch {
+		private final String key;
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private final AtomicInteger nbWaiters = new AtomicInteger();
+
+		private InFlightFetch(String key) {
+			this.key = key;
+		}
+
+		private void done() {
+			inFlightFetches.remove(this.key, this);
+			this.latch.countDown();
+		}
+	}
+
+	/**
+	 * Estimates how often keys are requested, within 4 rows of 4 bit counters.
+	 * The counters are halved periodically so that the estimates favour recent
+	 * requests.
+	 */
+	private static class FrequencySketch {
+		private static final int WIDTH = 4096; // must be a power of 2
+		private static final int DEPTH = 4;
+		private static final int MAX_COUNT = 15;
+		private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+		private final byte[][] counters = new byte[DEPTH][WIDTH];
+		private int nbIncrements = 0;
+
+		private int index(String key, int row) {
+			int h = key.hashCode() * SEEDS[row];
+			return (h ^ (h >>> 16)) & (WIDTH - 1);
+		}
+
+		private synchronized void increment(String key) {
+			for (int row = 0; row < DEPTH; row++) {
+				int i = this.index(key, row);
+				if (this.counters[row][i] < MAX_COUNT) this.counters[row][i]++;
+			}
+			if (++this.nbIncrements >= 10 * WIDTH) {
+				for (byte[] row : this.counters) {
+					for (int i = 0; i < WIDTH; i++) row[i] >>= 1;
+				}
+				this.nbIncrements /= 2;
+			}
+		}
+
+		private synchronized int estimate(String key) {
+			int min = MAX_COUNT;
+			for (int row = 0; row < DEPTH; row++) {
+				min = Math.min(min, this.counters[row][this.index(key, row)]);
+			}
+			return min;
+		}
+	}
+
+
+	// ----------------------------------------------------------------------------------
+	// -------------------------------------------------------------------------- METHODS
+
+	// ===================================================================== Constructors
+	// --------------------------------------------------------------------------- Public
+	// -------------------------------------------------------------------------- Private
+
+	private ResponseCache() {
+		super();
+	}
+
+
+	// =========================================================================== Public
+	// --------------------------------------------------------------------------- Static
+
+	/**
+	 * Returns the cache shared by all the web service VTIs.
+	 * @return the cache shared by all the web service VTIs.
+	 */
+	public static ResponseCache getInstance() {
+		return INSTANCE;
+	}
+
+
+	// -------------------------------------------------------------------------- Dynamic
+
+	/**
+	 * Sets the budgets of the cache. The entries exceeding the new budgets are evicted
+	 * when the next response is stored. Values which are not positive are ignored.
+	 *
+	 * @param maxMemoryBytes
+	 * 			The budget of the memory tier, in bytes.
+	 * @param maxMemoryEntryBytes
+	 * 			The size above which a response is cached on disk rather than in memory.
+	 * @param maxDiskBytes
+	 * 			The budget of the disk tier, in bytes.
+	 */
+	public void setLimits(long maxMemoryBytes, long maxMemoryEntryBytes, long maxDiskBytes) {
+		if (maxMemoryBytes > 0) this.maxMemoryBytes = maxMemoryBytes;
+		if (maxMemoryEntryBytes > 0) this.maxMemoryEntryBytes = maxMemoryEntryBytes;
+		if (maxDiskBytes > 0) this.maxDiskBytes = maxDiskBytes;
+	}
+
+	/**
+	 * Returns the stream of the response identified by the given key: either from the
+	 * cache if it holds a valid response, or from the fetcher. In the latter case, the
+	 * response gets cached as it is read, once it has been read entirely.
+	 *
+	 * @param key
+	 * 			The key identifying the response, e.g. its url and post data.
+	 * @param expirySeconds
+	 * 			The time a fetched response stays valid, in seconds.
+	 * @param fetcher
+	 * 			The fetcher accessing the web service.
+	 *
+	 * @return The stream of the response. null if it could not be fetched.
+	 * @throws IOException if the fetcher fails.
+	 */
+	public InputStream getInputStream(String key, int expirySeconds, ResponseFetcher fetcher)
+			throws IOException {
+
+		this.frequencies.increment(key);
+		if (this.nbRequests.incrementAndGet() % METRICS_LOGGING_PERIOD == 0) {
+			logger.logInfo("Web service responses cache metrics: " + this.getMetrics());
+		}
+
+		// --- Serves the cached response if it is still valid
+		CacheEntry staleEntry = null;
+		synchronized (this) {
+			CacheEntry entry = this.lookup(key);
+			if (entry != null) {
+				if (entry.isFresh()) {
+					return this.serve(entry);
+				}
+				if (entry.canBeRevalidated()) {
+					staleEntry = entry;
+				}
+				else {
+					this.remove(entry);
+				}
+			}
+		}
+
+		// --- Waits for the response if it is already being fetched
+		InFlightFetch fetch = new InFlightFetch(key);
+		InFlightFetch ongoingFetch = this.inFlightFetches.putIfAbsent(key, fetch);
+		if (ongoingFetch != null) {
+			ongoingFetch.nbWaiters.incrementAndGet();
+			try {
+				ongoingFetch.latch.await(this.coalescingTimeoutMs, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (this) {
+				CacheEntry entry = this.lookup(key);
+				if (entry != null && entry.isFresh()) {
+					this.nbCoalescedRequests.incrementAndGet();
+					return this.serve(entry);
+				}
+			}
+			// The ongoing fetch did not cache the response: fetches it without caching it
+			this.nbMisses.incrementAndGet();
+			return fetcher.fetch(null, null);
+		}
+
+		// --- Fetches the response, conditionally if a stale one can be revalidated
+		try {
+			InputStream is = fetcher.fetch(
+					staleEntry == null ? null : staleEntry.eTag,
+					staleEntry == null ? null : staleEntry.lastModified);
+
+			if (staleEntry != null && fetcher.isNotModified()) {
+				if (is != null) is.close();
+				synchronized (this) {
+					if (this.lookup(key) == staleEntry) {
+						staleEntry.expiryTime = System.currentTimeMillis() + expirySeconds * 1000L;
+						this.nbRevalidations.incrementAndGet();
+						fetch.done();
+						return this.serve(staleEntry);
+					}
+				}
+				// The stale response was evicted in the meantime
+				is = fetcher.fetch(null, null);
+			}
+
+			if (is == null) {
+				fetch.done();
+				return null;
+			}
+
+			this.nbMisses.incrementAndGet();
+			return new ResponseRecorder(is, key, expirySeconds,
+					fetcher.getETag(), fetcher.getLastModified(), fetch);
+
+		} catch (IOException e) {
+			fetch.done();
+			throw e;
+		} catch (RuntimeException e) {
+			fetch.done();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the metrics of the cache: numbers of requests, hits in each tier,
+	 * revalidations, coalesced requests, misses, rejected admissions, evictions,
+	 * bytes served from the cache instead of the web services, bytes fetched and
+	 * current sizes of the tiers.
+	 *
+	 * @return the metrics of the cache, by name.
+	 */
+	public Map<String, Long> getMetrics() {
+		Map<String, Long> metrics = new LinkedHashMap<String, Long>();
+		long nbHits = this.nbMemoryHits.get() + this.nbDiskHits.get();
+		metrics.put("requests", this.nbRequests.get());
+		metrics.put("hits", nbHits);
+		metrics.put("hitRatePercent", this.nbRequests.get() == 0 ? 0 : 100 * nbHits / this.nbRequests.get());
+		metrics.put("memoryHits", this.nbMemoryHits.get());
+		metrics.put("diskHits", this.nbDiskHits.get());
+		metrics.put("revalidations", this.nbRevalidations.get());
+		metrics.put("coalescedRequests", this.nbCoalescedRequests.get());
+		metrics.put("misses", this.nbMisses.get());
+		metrics.put("rejectedAdmissions", this.nbRejectedAdmissions.get());
+		metrics.put("evictions", this.nbEvictions.get());
+		metrics.put("bytesSaved", this.nbBytesSaved.get());
+		metrics.put("bytesFetched", this.nbBytesFetched.get());
+		synchronized (this) {
+			metrics.put("memoryEntries", (long)this.memoryTier.size());
+			metrics.put("memoryBytes", this.memoryBytes);
+			metrics.put("diskEntries", (long)this.diskTier.size());
+			metrics.put("diskBytes", this.diskBytes);
+		}
+		return metrics;
+	}
+
+	/**
+	 * Removes all the cached responses.
+	 */
+	public synchronized void clear() {
+		for (CacheEntry entry : new ArrayList<CacheEntry>(this.memoryTier.values())) this.remove(entry);
+		for (CacheEntry entry : new ArrayList<CacheEntry>(this.diskTier.values())) this.remove(entry);
+	}
+
+
+	// ======================================================================== Protected
+	// --------------------------------------------------------------------------- Static
+	// -------------------------------------------------------------------------- Dynamic
+
+	// ========================================================================== Private
+	// --------------------------------------------------------------------------- Static
+
+	private static void deleteFile(File file) {
+		if (file != null && !file.delete() && file.exists()) {
+			// Probably still being read (on Windows)
+			file.deleteOnExit();
+		}
+	}
+
+
+	// -------------------------------------------------------------------------- Dynamic
+
+	/** Returns the cached entry for the key, in either tier. Must hold the lock. */
+	private CacheEntry lookup(String key) {
+		CacheEntry entry = this.memoryTier.get(key);
+		return entry != null ? entry : this.diskTier.get(key);
+	}
+
+	/** Opens the stream of a cached entry and counts the hit. Must hold the lock. */
+	private InputStream serve(CacheEntry entry) throws IOException {
+		if (entry.data != null) this.nbMemoryHits.incrementAndGet();
+		else this.nbDiskHits.incrementAndGet();
+		this.nbBytesSaved.addAndGet(entry.size);
+		return entry.openStream();
+	}
+
+	/** Removes an entry from the cache. Must hold the lock. */
+	private void remove(CacheEntry entry) {
+		if (this.memoryTier.get(entry.key) == entry) {
+			this.memoryTier.remove(entry.key);
+			this.memoryBytes -= entry.size;
+		}
+		else if (this.diskTier.get(entry.key) == entry) {
+			this.diskTier.remove(entry.key);
+			this.diskBytes -= entry.size;
+			deleteFile(entry.file);
+		}
+	}
+
+	/**
+	 * Stores a fully read response in the tier matching its size, if it is admitted.
+	 *
+	 * @param entry
+	 * 			The response to store.
+	 * @param forceAdmission
+	 * 			true if the response has to be admitted whatever its estimated frequency,
+	 * e.g. because other requests were waiting for it.
+	 */
+	private synchronized void store(CacheEntry entry, boolean forceAdmission) {
+
+		CacheEntry previous = this.lookup(entry.key);
+		if (previous != null) this.remove(previous);
+
+		int frequency = forceAdmission ? Integer.MAX_VALUE : this.frequencies.estimate(entry.key);
+
+		if (entry.data != null) {
+			if (this.makeRoom(this.memoryTier, this.memoryBytes, this.maxMemoryBytes, entry.size, frequency)) {
+				this.memoryTier.put(entry.key, entry);
+				this.memoryBytes += entry.size;
+				return;
+			}
+			// Not admitted in memory: it might be in the disk tier
+			if (!this.writeToFile(entry)) {
+				this.nbRejectedAdmissions.incrementAndGet();
+				return;
+			}
+		}
+
+		if (this.makeRoom(this.diskTier, this.diskBytes, this.maxDiskBytes, entry.size, frequency)) {
+			this.diskTier.put(entry.key, entry);
+			this.diskBytes += entry.size;
+		}
+		else {
+			this.nbRejectedAdmissions.incrementAndGet();
+			deleteFile(entry.file);
+		}
+	}
+
+	/**
+	 * Evicts the least recently used entries of a tier until a new entry fits in its
+	 * budget - unless one of these entries is estimated to be used at least as often as
+	 * the new one. The entries evicted from memory are moved to the disk tier if they
+	 * are admitted there. Must hold the lock.
+	 *
+	 * @return true if the new entry can be added to the tier.
+	 */
+	private boolean makeRoom(LinkedHashMap<String, CacheEntry> tier, long tierBytes,
+			long maxTierBytes, long neededBytes, int candidateFrequency) {
+
+		if (neededBytes > maxTierBytes) {
+			return false;
+		}
+
+		// Finds the victims...
+		List<CacheEntry> victims = new ArrayList<CacheEntry>();
+		long freedBytes = 0;
+		Iterator<CacheEntry> lruEntries = tier.values().iterator();
+		while (tierBytes - freedBytes + neededBytes > maxTierBytes && lruEntries.hasNext()) {
+			CacheEntry victim = lruEntries.next();
+			if (this.frequencies.estimate(victim.key) >= candidateFrequency) {
+				return false;
+			}
+			victims.add(victim);
+			freedBytes += victim.size;
+		}
+
+		// ... and evicts them
+		for (CacheEntry victim : victims) {
+			this.remove(victim);
+			this.nbEvictions.incrementAndGet();
+
+			if (tier == this.memoryTier && victim.isFresh()) {
+				if (this.writeToFile(victim)
+						&& this.makeRoom(this.diskTier, this.diskBytes, this.maxDiskBytes,
+								victim.size, this.frequencies.estimate(victim.key))) {
+					this.diskTier.put(victim.key, victim);
+					this.diskBytes += victim.size;
+				}
+				else {
+					deleteFile(victim.file);
+				}
+			}
+		}
+		return true;
+	}
+
+	/** Moves the data of an entry from memory into a cache file. Must hold the lock. */
+	private boolean writeToFile(CacheEntry entry) {
+		OutputStream os = null;
+		try {
+			File file = this.newCacheFile();
+			os = new FileOutputStream(file);
+			os.write(entry.data);
+			os.close();
+			os = null;
+			entry.file = file;
+			entry.data = null;
+			return true;
+		} catch (IOException e) {
+			logger.logInfo("Unable to write a web service response in the disk cache: " + e);
+			return false;
+		} finally {
+			if (os != null) try { os.close(); } catch (IOException e) {}
+		}
+	}
+
+	/** Creates a new file in the directory of the disk tier. */
+	private File newCacheFile() throws IOException {
+		synchronized (this.frequencies) {
+			if (this.cacheDirectory == null || !this.cacheDirectory.isDirectory()) {
+				File dir = File.createTempFile(CACHE_FILE_PREFIX, "cache");
+				if (!dir.delete() || !dir.mkdir()) {
+					throw new IOException("Unable to create the web services cache directory " + dir);
+				}
+				dir.deleteOnExit();
+				this.cacheDirectory = dir;
+			}
+		}
+		File file = File.createTempFile(CACHE_FILE_PREFIX, null, this.cacheDirectory);
+		file.deleteOnExit();
+		return file;
+	}
+
+
+	// ----------------------------------------------------------------------------------
+	// ------------------------------------------------------------------- INNER CLASSES
+
+	/**
+	 * Stream copying the bytes of a fetched response while they are read. The
+	 * response is kept in memory until it exceeds the memory entry threshold, and
+	 * then in a file. It is cached once it has been read entirely, and dropped if it
+	 * is closed before or if it exceeds the budget of the disk tier.
+	 * <p>
+	 * The stream may be closed by another thread than the one reading it, e.g. when a
+	 * query stops early, so the copy is only updated under the recorder's lock.
+	 */
+	private class ResponseRecorder extends FilterInputStream {
+
+		private final String key;
+		private final int expirySeconds;
+		private final String eTag;
+		private final String lastModified;
+		private final InFlightFetch fetch;
+
+		private ByteArrayOutputStream memoryCopy = new ByteArrayOutputStream();
+		private File fileCopy = null;
+		private OutputStream fileCopyStream = null;
+		private long nbRecordedBytes = 0;
+		private boolean isRecording = true;
+
+		private ResponseRecorder(InputStream is, String key, int expirySeconds,
+				String eTag, String lastModified, InFlightFetch fetch) {
+			super(is);
+			this.key = key;
+			this.expirySeconds = expirySeconds;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.fetch = fetch;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1) {
+				this.complete();
+			}
+			else {
+				this.record(new byte[] { (byte)b }, 0, 1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n == -1) {
+				this.complete();
+			}
+			else if (n > 0) {
+				this.record(b, off, n);
+			}
+			return n;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				// Closed before the end of the response: its copy is incomplete
+				this.abandon();
+			}
+		}
+
+		private synchronized void record(byte[] b, int off, int len) {
+			if (!this.isRecording) {
+				return;
+			}
+			this.nbRecordedBytes += len;
+			if (this.nbRecordedBytes > maxDiskBytes) {
+				this.abandon();
+				return;
+			}
+			try {
+				if (this.memoryCopy != null && this.nbRecordedBytes > maxMemoryEntryBytes) {
+					// Too large for the memory tier: spills the copy into a file
+					this.fileCopy = newCacheFile();
+					this.fileCopyStream = new FileOutputStream(this.fileCopy);
+					this.memoryCopy.writeTo(this.fileCopyStream);
+					this.memoryCopy = null;
+				}
+				if (this.memoryCopy != null) this.memoryCopy.write(b, off, len);
+				else this.fileCopyStream.write(b, off, len);
+			} catch (IOException e) {
+				logger.logInfo("Unable to copy a web service response in the disk cache: " + e);
+				this.abandon();
+			}
+		}
+
+		private synchronized void complete() {
+			if (!this.isRecording) {
+				return;
+			}
+			this.isRecording = false;
+			nbBytesFetched.addAndGet(this.nbRecordedBytes);
+			try {
+				if (this.fileCopyStream != null) this.fileCopyStream.close();
+				long expiryTime = System.currentTimeMillis() + this.expirySeconds * 1000L;
+				CacheEntry entry = new CacheEntry(this.key,
+						this.memoryCopy == null ? null : this.memoryCopy.toByteArray(),
+						this.fileCopy, this.nbRecordedBytes, expiryTime, this.eTag, this.lastModified);
+				store(entry, this.fetch.nbWaiters.get() > 0);
+			} catch (IOException e) {
+				logger.logInfo("Unable to copy a web service response in the disk cache: " + e);
+				deleteFile(this.fileCopy);
+			} finally {
+				this.memoryCopy = null;
+				this.fetch.done();
+			}
+		}
+
+		private synchronized void abandon() {
+			if (!this.isRecording) {
+				return;
+			}
+			this.isRecording = false;
+			nbBytesFetched.addAndGet(this.nbRecordedBytes);
+			if (this.fileCopyStream != null) {
+				try { this.fileCopyStream.close(); } catch (IOException e) {}
+			}
+			deleteFile(this.fileCopy);
+			this.memoryCopy = null;
+			this.fetch.done();
+		}
+	}
+}
@@ -7,6 +7,7 @@
 package com.ibm.gaiandb.webservices.patternmatcher;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import com.ibm.gaiandb.webservices.scanner.Tag;
 
@@ -70,6 +71,16 @@ public class MatcherManager extends ValueMatcher {
 	 */
 	protected String[] results;
 	
+	/**
+	 * Defines which cells of the record have to be filled. null if all of them have 
+	 * to be. The TagMatcher objects of the cells which are not filled keep running so 
+	 * that the object still knows whether the record has any value.
+	 */
+	private boolean[] materialisedResults = null;
+	
+	/** True if any of the TagMatcher objects has returned a value for the current record. */
+	private boolean gotMatchedValue = false;
+	
 
 	// ----------------------------------------------------------------------------------
 	// ---------------------------------------------------------------------------- TOOLS
@@ -143,6 +154,66 @@ public class MatcherManager extends ValueMatcher {
 	 */
 	public void reinitializeResults() {
 		this.results = new String[this.nbMatchers];
+		this.gotMatchedValue = false;
+	}
+	
+	/**
+	 * Defines which cells of the record have to be filled, e.g. the ones of the columns 
+	 * projected or filtered by a query. The other cells will stay null.
+	 * @param materialisedResults
+	 * 			One flag per TagMatcher object. null for filling all the cells.
+	 */
+	public void setMaterialisedResults(boolean[] materialisedResults) {
+		this.materialisedResults = materialisedResults;
+	}
+	
+	/**
+	 * Returns true if any of the TagMatcher objects has returned a value since the 
+	 * results were last reinitialised, whether the value was stored in the record or not.
+	 * @return true if the current record has a value.
+	 */
+	public boolean hasMatchedValue() {
+		return this.gotMatchedValue;
+	}
+	
+	/**
+	 * <p>
+	 * Returns the sequences of tag names of all the patterns managed by the object, 
+	 * including the pattern defining a record. A scanner can skip the elements which
+	 * path is neither a prefix of one of them, nor prefixed by one of them, since no
+	 * TagMatcher would get a value out of them. 
+	 * <p>
+	 * Returns null if any of the patterns constrains the position of a tag, as skipping 
+	 * elements would then shift the position of their following siblings.
+	 * 
+	 * @return the sequences of tag names of all the patterns, or null if no element 
+	 * can be skipped.
+	 */
+	public List<String[]> getReferencedPaths() {
+		ArrayList<ArrayList<TagPattern>> patterns = new ArrayList<ArrayList<TagPattern>>();
+		patterns.add(this.patternToMatch);
+		for (TagMatcher matcher : this.matchers) {
+			if (matcher != null) {
+				patterns.add(matcher.getPatternSequence());
+			}
+		}
+		
+		List<String[]> paths = new ArrayList<String[]>();
+		for (ArrayList<TagPattern> pattern : patterns) {
+			if (pattern == null) {
+				continue;
+			}
+			String[] path = new String[pattern.size()];
+			for (int i = 0; i < path.length; i++) {
+				TagPattern tag = pattern.get(i);
+				if (tag.getPosition() != Tag.NO_INDEX_POSITION) {
+					return null;
+				}
+				path[i] = tag.getName();
+			}
+			paths.add(path);
+		}
+		return paths;
 	}
 	
 	/**
@@ -178,7 +249,7 @@ public class MatcherManager extends ValueMatcher {
 			if (matcher != null ) {
 				String value = matcher.getIn(tag);
 				if (value != null) { 
-					this.results[matcherIndex] = value;
+					this.setResult(matcherIndex, value);
 				}
 			}
 			matcherIndex++;
@@ -207,7 +278,7 @@ public class MatcherManager extends ValueMatcher {
 			if (matcher != null) {
 				String value = matcher.getOut(tagName);
 				if (value != null) {
-					this.results[matcherIndex] = value;
+					this.setResult(matcherIndex, value);
 				}
 			}
 			matcherIndex++;
@@ -237,7 +308,7 @@ public class MatcherManager extends ValueMatcher {
 			if (matcher != null) {
 				String resultsValue = matcher.getValue(value);
 				if (resultsValue != null && !resultsValue.matches("\\s*")) {
-					this.results[matcherIndex] = resultsValue;
+					this.setResult(matcherIndex, resultsValue);
 				}
 			}
 			matcherIndex++;
@@ -259,9 +330,23 @@ public class MatcherManager extends ValueMatcher {
 	// --------------------------------------------------------------------------- Static
 	// -------------------------------------------------------------------------- Dynamic
 	
+	/**
+	 * Stores the value returned by a TagMatcher in the record, unless its cell
+	 * does not have to be filled.
+	 */
+	private void setResult(int matcherIndex, String value) {
+		this.gotMatchedValue = true;
+		if (this.materialisedResults == null || this.materialisedResults[matcherIndex]) {
+			this.results[matcherIndex] = value;
+		}
+	}
+	
 	public void defineCommonRoot() {
 		
 		for (TagMatcher matcher : this.matchers) {
+			if (matcher == null) {
+				continue;
+			}
 			this.patternToMatch = defineCommonRoot(
 											this.patternToMatch, 
 											matcher.getPatternSequence());
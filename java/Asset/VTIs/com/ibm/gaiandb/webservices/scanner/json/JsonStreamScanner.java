@@ -0,0 +1,626 @@
+/*
+ * (C) Copyright IBM Corp. 2013
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.ibm.gaiandb.webservices.scanner.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.ibm.db2j.GenericWS;
+import com.ibm.gaiandb.diags.GDBMessages;
+import com.ibm.gaiandb.webservices.patternmatcher.TagPattern;
+import com.ibm.gaiandb.webservices.scanner.GaianHandler;
+
+/**
+ * <p>
+ * The purpose of this class is to provide a streaming JSON scanner. Contrary to
+ * {@link JsonScanner}, it does not build an object model of the whole document:
+ * the stream is tokenized as it is read and the handler receives the same
+ * sequence of events as the ones {@link JsonScanner} would generate, so that
+ * records are sent to the VTI as soon as they are closed.
+ * <p>
+ * As for {@link JsonScanner}, the primitive members of an object are given as
+ * attributes of its start element. Since these can only be known once the object
+ * is closed, the events of an object's nested members are deferred until then. If
+ * an object holds more than <code>maxDeferredEvents</code> nested events (e.g. the
+ * root object wrapping a huge array of records), its start element is sent with
+ * the attributes read so far and the object is streamed from then on: its later
+ * primitive members are then sent as child elements holding a value. This bounds
+ * the memory used whatever the size of the document.
+ * <p>
+ * When a list of relevant paths is given, the objects and arrays whose path cannot
+ * be matched by any of them are skipped without generating any event.
+ *
+ * @author remi - IBM Hursley
+ *
+ */
+public class JsonStreamScanner implements Runnable {
+
+	// ----------------------------------------------------------------------------------
+	// ----------------------------------------------------------------------- ATTRIBUTES
+
+	// =========================================================================== Public
+	// --------------------------------------------------------------------------- Static
+
+	// Use PROPRIETARY notice if class contains a main() method, otherwise use
+	// COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2013";
+
+	/**
+	 * Default number of events which can be deferred for an object before it
+	 * starts being streamed.
+	 */
+	public static final int DEFAULT_MAX_DEFERRED_EVENTS = 4096;
+
+	// -------------------------------------------------------------------------- Dynamic
+
+	// ======================================================================== Protected
+	// --------------------------------------------------------------------------- Static
+	// -------------------------------------------------------------------------- Dynamic
+
+	// ========================================================================== Private
+	// --------------------------------------------------------------------------- Static
+
+	/**
+	 * The name of the json objects which depth is on the root of the
+	 * input stream to scan. Same as for {@link JsonScanner}.
+	 */
+	private static final String ROOT_NAME = "root";
+
+	/** Size of the buffer the characters of the stream are read into. */
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	/** Value returned by peek() when the end of the stream has been reached. */
+	private static final int EOF = -1;
+
+
+	// -------------------------------------------------------------------------- Dynamic
+
+	private GenericWS caller;
+	private InputStream inputStream;
+	private DefaultHandler handler;
+
+	/**
+	 * The sequences of tag names the handler is interested in. null if no
+	 * sub-tree can be skipped.
+	 */
+	private List<String[]> relevantPaths;
+
+	/** Number of nested events an object can defer before being streamed. */
+	private int maxDeferredEvents;
+
+	/** The reader decoding the scanned stream. */
+	private Reader reader;
+
+	private char[] readBuffer = new char[READ_BUFFER_SIZE];
+	private int readPosition = 0;
+	private int readLength = 0;
+
+	/** Stamp used for reading the strings and literals of the document. */
+	private StringBuilder token = new StringBuilder();
+
+	/** The objects currently opened, the innermost being the last one. */
+	private ArrayList<ObjectFrame> openedObjects = new ArrayList<ObjectFrame>();
+
+	/** The names of the elements currently opened, starting with the root. */
+	private ArrayList<String> currentPath = new ArrayList<String>();
+
+	/** The number of objects and arrays which have been skipped. */
+	private long nbSkippedValues = 0;
+
+
+	// ----------------------------------------------------------------------------------
+	// ---------------------------------------------------------------------------- TOOLS
+
+	/** Kinds of events which can be sent to the handler. */
+	private enum EventType { START, VALUE, END };
+
+	/** An event which is, or will be, sent to the handler. */
+	private static class Event {
+		private final EventType type;
+		private final String name;
+		private final JsonAttributes attributes;
+		private final String value;
+
+		private Event(EventType type, String name, JsonAttributes attributes, String value) {
+			this.type = type;
+			this.name = name;
+			this.attributes = attributes;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * A JSON object being scanned. Its nested events are deferred in
+	 * deferredEvents until it is closed, or until it starts being streamed,
+	 * in which case deferredEvents is null.
+	 */
+	private static class ObjectFrame {
+		private final String name;
+		private final JsonAttributes attributes = new JsonAttributes();
+		private ArrayList<Event> deferredEvents = new ArrayList<Event>();
+
+		private ObjectFrame(String name) {
+			this.name = name;
+		}
+	}
+
+	// ----------------------------------------------------------------------------------
+	// -------------------------------------------------------------------------- METHODS
+
+	// ===================================================================== Constructors
+	// --------------------------------------------------------------------------- Public
+
+	/** Creates a JsonStreamScanner object which does not skip any part of the stream. */
+	public JsonStreamScanner(GenericWS caller, InputStream inputStream) {
+		this(caller, inputStream, new GaianHandler(caller), null);
+	}
+
+	/**
+	 * Creates a JsonStreamScanner object.
+	 *
+	 * @param caller
+	 * 			The GenericWS to inform when the scan is over. Can be null.
+	 * @param inputStream
+	 * 			The stream to scan.
+	 * @param handler
+	 * 			The handler receiving the events generated by the scan.
+	 * @param relevantPaths
+	 * 			The sequences of tag names the handler is interested in (a
+	 * TagPattern.JOCKER_NAME matching any name). The objects and arrays which path
+	 * is neither a prefix, nor prefixed by one of them are skipped. null for not
+	 * skipping anything.
+	 */
+	public JsonStreamScanner(GenericWS caller, InputStream inputStream,
+			DefaultHandler handler, List<String[]> relevantPaths) {
+		this.caller = caller;
+		this.inputStream = inputStream;
+		this.handler = handler;
+		this.relevantPaths = relevantPaths;
+		this.maxDeferredEvents = DEFAULT_MAX_DEFERRED_EVENTS;
+	}
+
+
+	// -------------------------------------------------------------------------- Private
+
+	// =========================================================================== Public
+	// --------------------------------------------------------------------------- Static
+	// -------------------------------------------------------------------------- Dynamic
+
+	/**
+	 * Sets the number of nested events an object can defer before being streamed.
+	 * @param maxDeferredEvents
+	 * 			The number of events. Must be positive.
+	 */
+	public void setMaxDeferredEvents(int maxDeferredEvents) {
+		this.maxDeferredEvents = Math.max(1, maxDeferredEvents);
+	}
+
+	/**
+	 * Returns the number of objects and arrays which have been skipped
+	 * because none of the relevant paths could match them.
+	 * @return the number of objects and arrays which have been skipped.
+	 */
+	public long getNbSkippedValues() {
+		return this.nbSkippedValues;
+	}
+
+	@Override
+	public void run() {
+		try {
+			this.start();
+		} catch (IOException ioe) {
+			// The stream is closed on purpose when the VTI is closed before the end of the scan
+			if (this.caller != null && !this.caller.isClosed())
+				this.caller.logException(
+						GDBMessages.DSWRAPPER_GENERICWS_LOST_CONNECTION,
+						"An IO exception occurred while reading the data sent by the web service.\n" +
+						ioe.getMessage(),
+						ioe);
+		} catch (Exception e) {
+			if (this.caller != null)
+				this.caller.logException(
+						GDBMessages.DSWRAPPER_GENERICWS_WRONG_FORMAT_FOR_RECEIVED_DATA,
+						e.getMessage(),
+						e);
+		}
+		finally {
+			try {
+				if (this.inputStream != null) this.inputStream.close();
+			} catch (IOException e) {
+				// Nothing more can be read anyway
+			}
+			if (this.caller != null) {
+				this.caller.confirmSendingOfLastRecord();
+			}
+		}
+	}
+
+
+	// ======================================================================== Protected
+	// --------------------------------------------------------------------------- Static
+	// -------------------------------------------------------------------------- Dynamic
+
+	// ========================================================================== Private
+	// --------------------------------------------------------------------------- Static
+	// -------------------------------------------------------------------------- Dynamic
+
+	/**
+	 * Starts the scan of the stream.
+	 *
+	 * @throws IOException if problems occur while reading the stream.
+	 * @throws SAXException if the content of the stream is not is the json format.
+	 * @throws NullPointerException if the input stream is null.
+	 */
+	private void start() throws IOException, SAXException, NullPointerException {
+
+		if (this.inputStream == null) {
+			throw new NullPointerException("Trying to parse a null data.");
+		}
+
+		this.reader = new InputStreamReader(this.inputStream, "UTF-8");
+
+		try {
+			this.handler.startDocument();
+		} catch (SAXException e) {
+			this.handler.error(new SAXParseException(e.getMessage(), null));
+		}
+
+		if (this.peek() != EOF) {
+			this.scanValue(ROOT_NAME);
+		}
+
+		if (this.peek() != EOF) {
+			throw new SAXException("Unexpected content after the end of the json document: '"
+					+ (char)this.peek() + "'");
+		}
+
+		try {
+			this.handler.endDocument();
+		} catch (SAXException e) {
+			this.handler.error(new SAXParseException(e.getMessage(), null));
+		}
+	}
+
+	/**
+	 * Scans an array element, or the root value of the document.
+	 *
+	 * @param name
+	 * 			The name of the element the value will be given.
+	 */
+	private void scanValue(String name) throws IOException, SAXException {
+		int c = this.peek();
+		if (c == '{') {
+			this.scanObject(name);
+		}
+		else if (c == '[') {
+			this.scanArray(name);
+		}
+		else {
+			String value = this.readPrimitive();
+			if (value != null) {
+				this.sendValueElement(name, value);
+			}
+		}
+	}
+
+	/**
+	 * Scans an array. Each of its elements is given the name of the array.
+	 */
+	private void scanArray(String name) throws IOException, SAXException {
+		this.expect('[');
+		if (this.peek() == ']') {
+			this.readChar();
+			return;
+		}
+		while (true) {
+			this.scanValue(name);
+			int c = this.readChar();
+			if (c == ']') return;
+			if (c != ',') throw this.unexpected(c, "',' or ']'");
+		}
+	}
+
+	/**
+	 * Scans an object. Its primitive members become the attributes of its
+	 * start element, as long as it is not streamed.
+	 */
+	private void scanObject(String name) throws IOException, SAXException {
+		this.expect('{');
+
+		ObjectFrame frame = new ObjectFrame(name);
+		this.openedObjects.add(frame);
+		this.currentPath.add(name);
+
+		if (this.peek() == '}') {
+			this.readChar();
+		}
+		else {
+			while (true) {
+				if (this.peek() != '"') throw this.unexpected(this.readChar(), "a member name");
+				String key = this.readString();
+				this.expect(':');
+
+				int c = this.peek();
+				if (c == '{' || c == '[') {
+					if (this.isRelevant(key)) {
+						if (c == '{') this.scanObject(key);
+						else this.scanArray(key);
+					}
+					else {
+						this.skipValue();
+						this.nbSkippedValues++;
+					}
+				}
+				else {
+					String value = this.readPrimitive();
+					if (value != null) {
+						if (frame.deferredEvents != null) {
+							frame.attributes.addAttribute(key, value);
+						}
+						else {
+							// The start element has already been sent
+							this.sendValueElement(key, value);
+						}
+					}
+				}
+
+				c = this.readChar();
+				if (c == '}') break;
+				if (c != ',') throw this.unexpected(c, "',' or '}'");
+			}
+		}
+
+		this.openedObjects.remove(this.openedObjects.size() - 1);
+		this.currentPath.remove(this.currentPath.size() - 1);
+
+		int outerIndex = this.openedObjects.size() - 1;
+		if (frame.deferredEvents != null) {
+			this.send(outerIndex, new Event(EventType.START, name, frame.attributes, null));
+			for (Event event : frame.deferredEvents) {
+				this.send(outerIndex, event);
+			}
+		}
+		this.send(outerIndex, new Event(EventType.END, name, null, null));
+	}
+
+	/**
+	 * Checks if the member named key of the innermost object can be matched
+	 * by one of the relevant paths.
+	 */
+	private boolean isRelevant(String key) {
+		if (this.relevantPaths == null) {
+			return true;
+		}
+
+		int depth = this.currentPath.size() + 1;
+		for (String[] path : this.relevantPaths) {
+			int nbNamesToCheck = Math.min(depth, path.length);
+			boolean matches = true;
+			for (int i = 0; i < nbNamesToCheck && matches; i++) {
+				String name = (i < this.currentPath.size()) ? this.currentPath.get(i) : key;
+				matches = path[i].equals(TagPattern.JOCKER_NAME) || path[i].equals(name);
+			}
+			if (matches) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Sends an element only holding a value. */
+	private void sendValueElement(String name, String value) throws SAXException {
+		int outerIndex = this.openedObjects.size() - 1;
+		this.send(outerIndex, new Event(EventType.START, name, null, null));
+		this.send(outerIndex, new Event(EventType.VALUE, name, null, value));
+		this.send(outerIndex, new Event(EventType.END, name, null, null));
+	}
+
+	/**
+	 * Defers the event in the innermost object, starting from the one at
+	 * the given index, which is not streamed yet. Sends it to the handler
+	 * if all of them are streamed.
+	 */
+	private void send(int frameIndex, Event event) throws SAXException {
+		for (int i = frameIndex; i >= 0; i--) {
+			ObjectFrame frame = this.openedObjects.get(i);
+			if (frame.deferredEvents != null) {
+				frame.deferredEvents.add(event);
+				if (frame.deferredEvents.size() > this.maxDeferredEvents) {
+					this.startStreaming(i);
+				}
+				return;
+			}
+		}
+		this.sendToHandler(event);
+	}
+
+	/**
+	 * Sends the start element of the object at the given index with the
+	 * attributes read so far, followed by its deferred events. The later
+	 * events of the object will not be deferred anymore.
+	 */
+	private void startStreaming(int frameIndex) throws SAXException {
+		ObjectFrame frame = this.openedObjects.get(frameIndex);
+		ArrayList<Event> deferredEvents = frame.deferredEvents;
+		frame.deferredEvents = null;
+
+		this.send(frameIndex - 1, new Event(EventType.START, frame.name, frame.attributes, null));
+		for (Event event : deferredEvents) {
+			this.send(frameIndex - 1, event);
+		}
+	}
+
+	private void sendToHandler(Event event) throws SAXException {
+		try {
+			switch (event.type) {
+				case START:
+					this.handler.startElement(null, null, event.name, event.attributes);
+					break;
+				case VALUE:
+					char[] value = event.value.toCharArray();
+					this.handler.characters(value, 0, value.length);
+					break;
+				case END:
+					this.handler.endElement(null, null, event.name);
+					break;
+			}
+		} catch (SAXException e) {
+			this.handler.error(new SAXParseException(e.getMessage(), null));
+		}
+	}
+
+	// -------------------------------------------------------------------------- Tokens
+
+	/**
+	 * Reads a string, a number, or one of the literals true, false and null.
+	 * @return the read value as a String, null for the literal null.
+	 */
+	private String readPrimitive() throws IOException, SAXException {
+		int c = this.peek();
+		if (c == '"') {
+			return this.readString();
+		}
+
+		this.token.setLength(0);
+		while (c != EOF && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+			this.token.append((char)this.readRawChar());
+			c = this.peekRaw();
+		}
+
+		String literal = this.token.toString();
+		if (literal.isEmpty()) {
+			throw this.unexpected(this.readChar(), "a value");
+		}
+		if (literal.equals("null")) {
+			return null;
+		}
+		char first = literal.charAt(0);
+		if (!literal.equals("true") && !literal.equals("false")
+				&& first != '-' && !Character.isDigit(first)) {
+			throw new SAXException("Invalid json value: '" + literal + "'");
+		}
+		return literal;
+	}
+
+	/** Reads a quoted string and resolves its escaped characters. */
+	private String readString() throws IOException, SAXException {
+		this.expect('"');
+		this.token.setLength(0);
+		while (true) {
+			int c = this.readRawChar();
+			if (c == '"') {
+				return this.token.toString();
+			}
+			if (c == '\\') {
+				c = this.readRawChar();
+				switch (c) {
+					case 'b': this.token.append('\b'); break;
+					case 'f': this.token.append('\f'); break;
+					case 'n': this.token.append('\n'); break;
+					case 'r': this.token.append('\r'); break;
+					case 't': this.token.append('\t'); break;
+					case 'u':
+						int code = 0;
+						for (int i = 0; i < 4; i++) {
+							int digit = Character.digit(this.readRawChar(), 16);
+							if (digit < 0) throw new SAXException("Invalid unicode escape sequence in json string");
+							code = code * 16 + digit;
+						}
+						this.token.append((char)code);
+						break;
+					case EOF:
+						throw new SAXException("Unexpected end of the json document in a string");
+					default: // '"', '\\' and '/'
+						this.token.append((char)c);
+				}
+			}
+			else if (c == EOF) {
+				throw new SAXException("Unexpected end of the json document in a string");
+			}
+			else {
+				this.token.append((char)c);
+			}
+		}
+	}
+
+	/** Skips the object or array starting at the current position. */
+	private void skipValue() throws IOException, SAXException {
+		int depth = 0;
+		do {
+			int c = this.readRawChar();
+			switch (c) {
+				case '{': case '[': depth++; break;
+				case '}': case ']': depth--; break;
+				case '"':
+					// Skips the string, so that its content is not taken for a bracket
+					for (c = this.readRawChar(); c != '"'; c = this.readRawChar()) {
+						if (c == '\\') c = this.readRawChar();
+						if (c == EOF) break;
+					}
+					break;
+			}
+			if (c == EOF) {
+				throw new SAXException("Unexpected end of the json document");
+			}
+		} while (depth > 0);
+	}
+
+	private void expect(char expected) throws IOException, SAXException {
+		int c = this.readChar();
+		if (c != expected) {
+			throw this.unexpected(c, "'" + expected + "'");
+		}
+	}
+
+	private SAXException unexpected(int c, String expected) {
+		return new SAXException("Invalid json document: expected " + expected + " but found "
+				+ (c == EOF ? "the end of the document" : "'" + (char)c + "'"));
+	}
+
+	/** Returns the next non-whitespace character without consuming it. */
+	private int peek() throws IOException {
+		int c = this.peekRaw();
+		while (c != EOF && Character.isWhitespace(c)) {
+			this.readPosition++;
+			c = this.peekRaw();
+		}
+		return c;
+	}
+
+	/** Consumes and returns the next non-whitespace character. */
+	private int readChar() throws IOException {
+		int c = this.peek();
+		if (c != EOF) this.readPosition++;
+		return c;
+	}
+
+	private int peekRaw() throws IOException {
+		if (this.readPosition >= this.readLength) {
+			this.readLength = this.reader.read(this.readBuffer, 0, this.readBuffer.length);
+			this.readPosition = 0;
+			if (this.readLength <= 0) {
+				this.readLength = 0;
+				return EOF;
+			}
+		}
+		return this.readBuffer[this.readPosition];
+	}
+
+	private int readRawChar() throws IOException {
+		int c = this.peekRaw();
+		if (c != EOF) this.readPosition++;
+		return c;
+	}
+}
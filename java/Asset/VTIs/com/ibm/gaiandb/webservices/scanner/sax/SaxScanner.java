@@ -128,7 +128,8 @@ public class SaxScanner implements Runnable {
 						saxe);
 			}
 		} catch (IOException ioe) {
-			if (this.caller != null) {
+			// The stream is closed on purpose when the VTI is closed before the end of the scan
+			if (this.caller != null && !this.caller.isClosed()) {
 				this.caller.logException(
 						GDBMessages.DSWRAPPER_GENERICWS_LOST_CONNECTION, 
 						"An IO exception occurred while reading the data sent by the web service.\n" +
@@ -8,6 +8,7 @@ package com.ibm.gaiandb.webservices.ws;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
@@ -112,6 +113,33 @@ public abstract class WebService {
 
 	public abstract InputStream getInputStream() throws IOException;
 
+	/**
+	 * Sets a header of the request. To be called between openConnection()
+	 * and getInputStream().
+	 */
+	public void setRequestProperty(String key, String value) {
+		this.connection.setRequestProperty(key, value);
+	}
+
+	/**
+	 * Returns the value of a header of the response, or null if the 
+	 * response does not have this header.
+	 */
+	public String getHeaderField(String name) {
+		return this.connection.getHeaderField(name);
+	}
+
+	/**
+	 * Returns the HTTP status code of the response, or -1 if the 
+	 * connection does not use HTTP (e.g. for a local file).
+	 */
+	public int getResponseCode() throws IOException {
+		if (this.connection instanceof HttpURLConnection) {
+			return ((HttpURLConnection)this.connection).getResponseCode();
+		}
+		return -1;
+	}
+
 	// ======================================================================== Protected
 	// --------------------------------------------------------------------------- Static
 	// -------------------------------------------------------------------------- Dynamic
@@ -0,0 +1,93 @@
+/*
+ * (C) Copyright IBM Corp. 2009
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb.plugins.wpml;
+
+import java.sql.ResultSetMetaData;
+
+import org.apache.derby.iapi.types.DataValueDescriptor;
+
+import com.ibm.gaiandb.plugins.wpml.schema.QueryContext;
+import com.ibm.gaiandb.policyframework.SQLResultBatchFilterX;
+
+/**
+ * Batch-oriented front end for a {@link PolicyEnabledFilter}.
+ * <P>
+ * Rows are evaluated by the wrapped filter's filterRow(), but decisions are memoised: two rows having the same queried column values,
+ * fetched from the same data source for the same query context (requestor, affiliation, clearance, logical table and forwarding node),
+ * get the same decision without the PEP being invoked again. This is what PolicyEnabledFilter's policies are given to evaluate - the
+ * row index is the only attribute left out, so policies that depend on it should not be deployed through this class.
+ * <P>
+ * Evaluations are not run in parallel, as the wrapped filter holds a single Row object that is updated for every evaluation,
+ * and the PEP itself is serialised.
+ * <P>
+ * To use, set: SQL_RESULT_FILTER=com.ibm.gaiandb.plugins.wpml.BatchedPolicyEnabledFilter
+ */
+public class BatchedPolicyEnabledFilter extends SQLResultBatchFilterX {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2009";
+
+	private final PolicyEnabledFilter filter;
+	private int[] queriedColumns = null;
+
+	public BatchedPolicyEnabledFilter() {
+		this( new PolicyEnabledFilter() );
+	}
+
+	public BatchedPolicyEnabledFilter( PolicyEnabledFilter filter ) {
+		super();
+		this.filter = filter;
+	}
+
+	public PolicyEnabledFilter getWrappedFilter() {
+		return filter;
+	}
+
+	@Override
+	protected boolean isRowAllowed( String dataSourceID, DataValueDescriptor[] row ) {
+		return filter.filterRow( row );
+	}
+
+	@Override
+	protected String getDecisionContext() {
+		final QueryContext qc = filter.queryContext;
+		return qc.getRequestor() + '\0' + qc.getAffiliation() + '\0' + qc.getSecurityClearance()
+			+ '\0' + qc.getLogicalTable() + '\0' + qc.getForwardingNode();
+	}
+
+	@Override
+	protected int[] getDecisionColumns( String dataSourceID ) {
+		return queriedColumns;
+	}
+
+	public boolean setQueriedColumns( int[] queriedColumns ) {
+		this.queriedColumns = queriedColumns;
+		return filter.setQueriedColumns( queriedColumns );
+	}
+
+	public int nextQueriedDataSource( String dataSourceID, String dataSourceDescription, int[] columnMappings ) {
+		return filter.nextQueriedDataSource( dataSourceDescription, columnMappings );
+	}
+
+	public int setDataSourceWrapper( String wrapperID ) {
+		return -1;
+	}
+
+	@Override
+	protected Object executeOperationImpl( String opID, Object... args ) {
+		return null;
+	}
+
+	public boolean filterRow( DataValueDescriptor[] row ) { return filter.filterRow( row ); }
+	public int nextQueriedDataSource( String dataSource, int[] columnMappings ) { return filter.nextQueriedDataSource( dataSource, columnMappings ); }
+	public boolean setForwardingNode( String nodeName ) { return filter.setForwardingNode( nodeName ); }
+	public boolean setLogicalTable( String logicalTableName, ResultSetMetaData logicalTableResultSetMetaData ) {
+		return filter.setLogicalTable( logicalTableName, logicalTableResultSetMetaData ); }
+	public boolean setUserCredentials( String credentialsStringBlock ) { return filter.setUserCredentials( credentialsStringBlock ); }
+	public void close() { filter.close(); }
+}
@@ -28,6 +28,7 @@ import com.ibm.gaiandb.plugins.wpml.schema.DataSource;
 import com.ibm.gaiandb.plugins.wpml.schema.IRow;
 import com.ibm.gaiandb.plugins.wpml.schema.QueryContext;
 import com.ibm.gaiandb.plugins.wpml.schema.Row;
+import com.ibm.gaiandb.policyframework.SQLResultBatchFilterX;
 import com.ibm.gaiandb.policyframework.SQLResultFilterX;
 import com.ibm.watson.pml.PMLException;
 import com.ibm.watson.pml.pep.IObjectPEP;
@@ -61,7 +62,7 @@ import com.ibm.watson.pml.pep.StrictTwoStagePEP;
  * @author pzerfos@us.ibm.com, drvyvyan@uk.ibm.com
  *
  */
-public class GenericPolicyPluginForWPML extends SQLResultFilterX {
+public class GenericPolicyPluginForWPML extends SQLResultBatchFilterX {
 	
 //	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
 	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2009";
@@ -129,6 +130,8 @@ public class GenericPolicyPluginForWPML extends SQLResultFilterX {
 					pep.endEvaluations();
 					pep.clear();
 				}
+				// Decisions memoised by batch filters may depend on the policies just cleared
+				SQLResultBatchFilterX.clearDecisionCache();
 				
 			} catch (PMLException e) {
 				System.err.println("PFG: refreshPolicyCache: Error in endEvaluations/beginEvaluations: " + e);
@@ -722,28 +725,10 @@ public class GenericPolicyPluginForWPML extends SQLResultFilterX {
 		rowCount = 0;
 	}
 
+	// Decisions are not memoised: filterRow() may replace file contents in the row, and also notifies the UI for every row.
 	@Override
-	public DataValueDescriptor[][] filterRowsBatch(String dataSourceID, DataValueDescriptor[][] rows) {
-		List<DataValueDescriptor[]> newRows = null;
-		int rowIdx=0;
-		
-		// filter through rows[][] - if none are rejected then we'll just return the same array.
-		for ( ; rowIdx < rows.length; rowIdx++ )
-			if ( filterRow(rows[rowIdx]) ) continue;
-			else {
-				newRows = new ArrayList<DataValueDescriptor[]>();
-				for ( int i=0; i<rowIdx; i++ ) newRows.add( rows[i] );
-				rowIdx++;
-				break;
-			}
-		
-		// complete filtering rows[][] - this only applies if one of the rows was rejected
-		for ( ; rowIdx < rows.length; rowIdx++ ) {
-			DataValueDescriptor[] row = rows[rowIdx];
-			if ( filterRow(row) ) newRows.add( row );
-		}
-		
-		return null == newRows ? rows : (DataValueDescriptor[][]) newRows.toArray( new DataValueDescriptor[0][] );
+	protected boolean isRowAllowed(String dataSourceID, DataValueDescriptor[] row) {
+		return filterRow(row);
 	}
 
 	@Override
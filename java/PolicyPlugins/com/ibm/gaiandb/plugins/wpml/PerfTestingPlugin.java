@@ -7,6 +7,9 @@
 
 package com.ibm.gaiandb.plugins.wpml;
 
+import org.apache.derby.iapi.types.DataValueDescriptor;
+
+import com.ibm.gaiandb.GaianResultSetMetaData;
 import com.ibm.watson.pml.PMLException;
 import com.ibm.watson.pml.pep.IObjectPEP;
 import com.ibm.watson.pml.pep.ObjectPEP;
@@ -20,6 +23,12 @@ public class PerfTestingPlugin extends PolicyEnabledFilter {
 //	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
 	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2009";
 
+	private static final String BENCHMARK_LT = "PERF_LT";
+	private static final String BENCHMARK_LT_DEF = "ID INT, NAME VARCHAR(32), CLASSIFICATION VARCHAR(16)";
+	private static final String BENCHMARK_DS = BENCHMARK_LT + "_DS0";
+	private static final int[] BENCHMARK_QUERIED_COLUMNS = { 2, 3 }; // ID is not queried, so rows with the same NAME get the same decision
+	private static final String[] CLASSIFICATIONS = { "UNCLASSIFIED", "RESTRICTED", "SECRET" };
+
 	/**
 	 * 
 	 */
@@ -34,4 +43,89 @@ public class PerfTestingPlugin extends PolicyEnabledFilter {
 	protected static IObjectPEP allocateObjectPEP() throws PMLException {
 		 return new ObjectPEP("pfg-pep");
 	}
+
+	/**
+	 * Measures the throughput of rows passed through: no policy layer, the row-by-row policy layer (as for a plain
+	 * SQLResultFilter) and the batched policy layer with memoised decisions.
+	 *
+	 * Usage: PerfTestingPlugin [numRows [numDistinctNames [batchSize]]]
+	 */
+	public static void main(String[] args) throws Exception {
+
+		final int numRows = 0 < args.length ? Integer.parseInt(args[0]) : 100000;
+		final int numDistinctNames = 1 < args.length ? Integer.parseInt(args[1]) : 100;
+		final int batchSize = 2 < args.length ? Integer.parseInt(args[2]) : 100;
+
+		final GaianResultSetMetaData rsmd = new GaianResultSetMetaData( BENCHMARK_LT_DEF );
+		final DataValueDescriptor[][][] batches = generateBatches( rsmd.getRowTemplate(), numRows, numDistinctNames, batchSize );
+
+		System.out.println("Benchmarking " + numRows + " rows, " + numDistinctNames + " distinct names, batch size " + batchSize);
+
+		// No policy layer: rows are only handed over
+		long start = System.nanoTime();
+		int numPassed = 0;
+		for ( DataValueDescriptor[][] batch : batches )
+			for ( DataValueDescriptor[] row : batch )
+				if ( null != row ) numPassed++;
+		report( "No policy layer", numPassed, numRows, System.nanoTime() - start );
+
+		// Row by row policy evaluation
+		final PerfTestingPlugin rowFilter = new PerfTestingPlugin();
+		initialiseForQuery( rowFilter, rsmd );
+		start = System.nanoTime();
+		numPassed = 0;
+		for ( DataValueDescriptor[][] batch : batches )
+			for ( DataValueDescriptor[] row : batch )
+				if ( rowFilter.filterRow(row) ) numPassed++;
+		report( "Row policy layer", numPassed, numRows, System.nanoTime() - start );
+		rowFilter.close();
+
+		// Batched policy evaluation with memoised decisions
+		final BatchedPolicyEnabledFilter batchFilter = new BatchedPolicyEnabledFilter( new PerfTestingPlugin() );
+		initialiseForQuery( batchFilter.getWrappedFilter(), rsmd );
+		batchFilter.setQueriedColumns( BENCHMARK_QUERIED_COLUMNS );
+		BatchedPolicyEnabledFilter.clearDecisionCache();
+		start = System.nanoTime();
+		numPassed = 0;
+		for ( DataValueDescriptor[][] batch : batches )
+			numPassed += batchFilter.filterRowsBatch( BENCHMARK_DS, batch ).length;
+		report( "Batched policy layer", numPassed, numRows, System.nanoTime() - start );
+		batchFilter.close();
+
+		System.exit(0); // the PEP refresher thread is not a daemon
+	}
+
+	private static void initialiseForQuery( PolicyEnabledFilter filter, GaianResultSetMetaData rsmd ) {
+		filter.setUserCredentials( "PERFUSER" );
+		filter.setLogicalTable( BENCHMARK_LT, rsmd );
+		filter.setQueriedColumns( BENCHMARK_QUERIED_COLUMNS );
+		filter.nextQueriedDataSource( BENCHMARK_DS, null );
+	}
+
+	private static DataValueDescriptor[][][] generateBatches( DataValueDescriptor[] template, int numRows, int numDistinctNames, int batchSize ) throws Exception {
+
+		final DataValueDescriptor[][][] batches = new DataValueDescriptor[ (numRows + batchSize - 1) / batchSize ][][];
+
+		for ( int b=0; b<batches.length; b++ ) {
+			final int rowsInBatch = Math.min( batchSize, numRows - b*batchSize );
+			batches[b] = new DataValueDescriptor[rowsInBatch][];
+
+			for ( int r=0; r<rowsInBatch; r++ ) {
+				final int id = b*batchSize + r;
+				final DataValueDescriptor[] row = new DataValueDescriptor[ template.length ];
+				for ( int c=0; c<template.length; c++ ) row[c] = template[c].getNewNull();
+				row[0].setValue( id );
+				row[1].setValue( "NAME" + (id % numDistinctNames) );
+				row[2].setValue( CLASSIFICATIONS[ (id % numDistinctNames) % CLASSIFICATIONS.length ] );
+				batches[b][r] = row;
+			}
+		}
+		return batches;
+	}
+
+	private static void report( String label, int numPassed, int numRows, long elapsedNanos ) {
+		final double secs = Math.max( 1, elapsedNanos ) / 1e9;
+		System.out.println( label + ": " + numPassed + "/" + numRows + " rows passed in " + (elapsedNanos/1000000) + "ms = "
+				+ (long) (numRows / secs) + " rows/sec" );
+	}
 }
@@ -22,6 +22,7 @@ import com.ibm.gaiandb.plugins.wpml.schema.DataSource;
 import com.ibm.gaiandb.plugins.wpml.schema.IRow;
 import com.ibm.gaiandb.plugins.wpml.schema.QueryContext;
 import com.ibm.gaiandb.plugins.wpml.schema.Row;
+import com.ibm.gaiandb.policyframework.SQLResultBatchFilterX;
 import com.ibm.gaiandb.policyframework.SQLResultFilter;
 import com.ibm.watson.pml.PMLException;
 import com.ibm.watson.pml.pep.IObjectPEP;
@@ -123,6 +124,8 @@ public class PolicyEnabledFilter implements SQLResultFilter {
 					pep.endEvaluations();
 					pep.clear();
 				}
+				// Decisions memoised by batch filters may depend on the policies just cleared
+				SQLResultBatchFilterX.clearDecisionCache();
 				
 			} catch (PMLException e) {
 				System.err.println("PFG: refreshPolicyCache: Error in endEvaluations/beginEvaluations: " + e);
@@ -0,0 +1,774 @@
+/*
+ * (C) Copyright IBM Corp. 2012
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb.webserver;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Event-driven HTTP/1.1 front end serving the same pre-canned GaianDB queries as {@link WebServer}, e.g:
+ * <pre>
+ * http://localhost:8080/WebQueryModule/resources/queries/LT0byNode?GDB_NODE=Patrick_W150
+ * http://localhost:8080/WebQueryModule/resources/queries/LT0byNode/csv?GDB_NODE=Patrick_W150
+ * http://localhost:8080/WebQueryModule/resources/queries/ListQueries
+ * </pre>
+ *
+ * A single selector thread does all socket I/O, and a bounded pool of workers executes the queries.
+ * Results are streamed as chunked JSON or CSV straight from the ResultSet: a worker blocks as soon as its connection has more than
+ * MAX_QUEUED_OUTPUT_BYTES waiting to be written, so a slow client holds up its own query rather than filling the heap.
+ * Connections are kept alive between requests, and pipelined requests are served in order, one at a time per connection.
+ *
+ * Configuration is read from GDBWWW.properties, as for WebServer: port, workers, timeout (idle keep-alive time), root,
+ * directory_browsing, debug and log. Property 'queued_requests' sets how many requests may wait for a worker before new ones
+ * are turned away with a 503.
+ */
+public class NioWebServer {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2012";
+
+	static final int CHUNK_SIZE = 8192;
+	static final int MAX_QUEUED_OUTPUT_BYTES = 8 * CHUNK_SIZE;
+	static final int MAX_REQUEST_HEADER_BYTES = 16384;
+	static final int MAX_PIPELINED_REQUESTS = 16;
+	static final int STALLED_CLIENT_TIMEOUT_MS = 60000;
+	static final int DEFAULT_QUEUED_REQUESTS = 100;
+
+	private static final int SELECT_TIMEOUT_MS = 1000;
+	private static final String EOL = WebServer.EOL;
+
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final ThreadPoolExecutor workers;
+
+	// Interest changes and closes requested by worker threads, applied by the selector thread
+	private final ConcurrentLinkedQueue<HttpConnection> connectionsToUpdate = new ConcurrentLinkedQueue<HttpConnection>();
+
+	// Each worker thread keeps its own connection to the local GaianDB node
+	private static final ThreadLocal<Connection> dbConnections = new ThreadLocal<Connection>();
+
+	/**
+	 * used to kick start it from the command line
+	 * @param a
+	 * @throws Exception
+	 */
+	public static void main(String[] a) throws Exception {
+		WebServer.loadConfiguration();
+		WebServer.printconfiguration();
+
+		int port = 8080;
+		String r = WebServer.ConfigurationProperties.getProperty("port");
+		if (r != null) port = Integer.parseInt(r.trim());
+		if (a.length > 0) port = Integer.parseInt(a[0]);
+
+		int queuedRequests = DEFAULT_QUEUED_REQUESTS;
+		r = WebServer.ConfigurationProperties.getProperty("queued_requests");
+		if (r != null) queuedRequests = Integer.parseInt(r.trim());
+
+		NioWebServer server = new NioWebServer(port, WebServer.maxpageWorkers, queuedRequests);
+		System.out.println("GDBWWW NIO server started on port " + port);
+		server.run();
+	}
+
+	public NioWebServer(int port, int numWorkers, int queuedRequests) throws IOException {
+
+		workers = new ThreadPoolExecutor(numWorkers, numWorkers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queuedRequests)), new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "NioWebServer-worker-" + threadNumber.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Selector loop - runs until the server channel is closed.
+	 */
+	public void run() throws IOException {
+
+		long lastIdleCheck = System.currentTimeMillis();
+
+		while (serverChannel.isOpen()) {
+			selector.select(SELECT_TIMEOUT_MS);
+
+			HttpConnection c;
+			while (null != (c = connectionsToUpdate.poll())) c.updateInterest();
+
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				if (!key.isValid()) continue;
+
+				if (key.isAcceptable()) {
+					try { accept(); }
+					catch (IOException e) { WebServer.log("Unable to accept connection: " + e); }
+					continue;
+				}
+
+				c = (HttpConnection) key.attachment();
+				try {
+					if (key.isReadable()) c.read();
+					if (key.isValid() && key.isWritable()) c.write();
+				} catch (IOException e) {
+					WebServer.log("Closing connection from " + c.remoteAddress + ": " + e);
+					c.close();
+				}
+			}
+
+			long now = System.currentTimeMillis();
+			if (now - lastIdleCheck >= SELECT_TIMEOUT_MS) {
+				lastIdleCheck = now;
+				for (SelectionKey key : selector.keys())
+					if (key.attachment() instanceof HttpConnection)
+						((HttpConnection) key.attachment()).closeIfIdle(now);
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting connections, closes all open ones and stops the workers.
+	 */
+	public void shutdown() {
+		System.err.println("GaianDB NIO WebServer: Attemping to shutdown...");
+		try { serverChannel.close(); } catch (IOException e) {}
+		for (SelectionKey key : selector.keys())
+			if (key.attachment() instanceof HttpConnection)
+				((HttpConnection) key.attachment()).close();
+		workers.shutdownNow();
+		selector.wakeup();
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (null == channel) return;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		HttpConnection c = new HttpConnection(channel);
+		c.key = channel.register(selector, SelectionKey.OP_READ, c);
+	}
+
+	/*********************************************************
+	 * A parsed request line and headers. Only requests without a body are supported.
+	 **********************************************************/
+	static class HttpRequest {
+		final String method, target;
+		final boolean isHttp11;
+		final Map<String, String> headers = new HashMap<String, String>();
+		boolean isKeepAlive;
+
+		HttpRequest(String method, String target, boolean isHttp11) {
+			this.method = method;
+			this.target = target;
+			this.isHttp11 = isHttp11;
+		}
+
+		static HttpRequest parse(String headerBlock) {
+			String[] lines = headerBlock.split(EOL);
+			String[] requestLine = lines[0].split(" ");
+			if (3 != requestLine.length || !requestLine[2].startsWith("HTTP/1.")) return null;
+
+			HttpRequest request = new HttpRequest(requestLine[0], requestLine[1], !"HTTP/1.0".equals(requestLine[2]));
+			for (int i=1; i<lines.length; i++) {
+				int idx = lines[i].indexOf(':');
+				if (0 < idx) request.headers.put(lines[i].substring(0, idx).trim().toLowerCase(), lines[i].substring(idx+1).trim());
+			}
+
+			String connection = request.headers.get("connection");
+			request.isKeepAlive = request.isHttp11 ? !"close".equalsIgnoreCase(connection) : "keep-alive".equalsIgnoreCase(connection);
+			return request;
+		}
+
+		boolean hasBody() {
+			String cl = headers.get("content-length");
+			return null != headers.get("transfer-encoding") || (null != cl && !"0".equals(cl.trim()));
+		}
+	}
+
+	/*********************************************************
+	 * State of a client connection. Socket I/O is only done by the selector thread; workers queue response bytes
+	 * and are held back while too many are waiting to be written.
+	 **********************************************************/
+	class HttpConnection {
+
+		private final SocketChannel channel;
+		private SelectionKey key;
+		final String remoteAddress;
+
+		private ByteBuffer in = ByteBuffer.allocate(2048);
+
+		// All below are guarded by this
+		private final LinkedList<HttpRequest> pendingRequests = new LinkedList<HttpRequest>();
+		private final LinkedList<ByteBuffer> output = new LinkedList<ByteBuffer>();
+		private int outputBytes = 0;
+		private boolean isRequestInProgress = false;
+		private boolean isInputClosed = false; // no more requests will be read
+		private boolean closeWhenWritten = false; // no more responses will be written
+		private boolean isClosed = false;
+		private long lastActivityTime = System.currentTimeMillis();
+
+		HttpConnection(SocketChannel channel) {
+			this.channel = channel;
+			this.remoteAddress = channel.socket().getInetAddress().getHostAddress();
+		}
+
+		void read() throws IOException {
+
+			int n = channel.read(in);
+			synchronized (this) {
+				lastActivityTime = System.currentTimeMillis();
+				if (0 > n) isInputClosed = true;
+				else parseRequests();
+				dispatchNextRequest();
+			}
+			updateInterest();
+		}
+
+		// Extracts all complete request headers in the input buffer
+		private void parseRequests() {
+
+			while (!isInputClosed) {
+				int end = indexOfHeaderEnd();
+				if (0 > end) {
+					if (in.hasRemaining()) return;
+					if (in.capacity() >= MAX_REQUEST_HEADER_BYTES) {
+						queueError(WebServer.HTTP_ENTITY_TOO_LARGE, "Request header too large");
+						return;
+					}
+					ByteBuffer bigger = ByteBuffer.allocate(Math.min(2 * in.capacity(), MAX_REQUEST_HEADER_BYTES));
+					in.flip();
+					bigger.put(in);
+					in = bigger;
+					return;
+				}
+
+				String headerBlock;
+				try { headerBlock = new String(in.array(), 0, end, "ISO-8859-1"); }
+				catch (UnsupportedEncodingException e) { throw new RuntimeException(e); }
+
+				// Discard the parsed request from the buffer, keeping any pipelined bytes that follow it
+				in.flip();
+				in.position(end + 4);
+				in.compact();
+
+				if (0 == headerBlock.length()) continue; // tolerate blank lines between requests
+
+				HttpRequest request = HttpRequest.parse(headerBlock);
+				if (null == request) {
+					queueError(WebServer.HTTP_BAD_REQUEST, "Malformed request line");
+					return;
+				}
+				if (request.hasBody()) {
+					// Request bodies are not parsed, so we can't know where the next request would start
+					request.isKeepAlive = false;
+					isInputClosed = true;
+				}
+				pendingRequests.add(request);
+			}
+		}
+
+		private int indexOfHeaderEnd() {
+			byte[] b = in.array();
+			for (int i=3; i<in.position(); i++)
+				if ('\n' == b[i] && '\r' == b[i-1] && '\n' == b[i-2] && '\r' == b[i-3]) return i-3;
+			return -1;
+		}
+
+		// Errors detected by the selector thread are answered once the requests before them have been served
+		private void queueError(int status, String reason) {
+			HttpRequest errorRequest = new HttpRequest(null, reason, true);
+			errorRequest.headers.put("status", String.valueOf(status));
+			pendingRequests.add(errorRequest);
+			isInputClosed = true;
+		}
+
+		private synchronized void dispatchNextRequest() {
+
+			if (isRequestInProgress || isClosed || closeWhenWritten || pendingRequests.isEmpty()) return;
+
+			final HttpRequest request = pendingRequests.removeFirst();
+			isRequestInProgress = true;
+			try {
+				workers.execute(new Runnable() {
+					public void run() { serve(request); }
+				});
+			} catch (RejectedExecutionException e) {
+				// Server is overloaded - turn the request away and drop the connection
+				isRequestInProgress = false;
+				closeWhenWritten = true;
+				pendingRequests.clear();
+				byte[] msg = ("Server busy" + EOL).getBytes();
+				queueBytes(("HTTP/1.1 " + WebServer.HTTP_UNAVAILABLE + " Service Unavailable" + EOL + "Content-Length: " + msg.length + EOL
+						+ "Connection: close" + EOL + EOL).getBytes());
+				queueBytes(msg);
+			}
+		}
+
+		private void queueBytes(byte[] bytes) {
+			output.add(ByteBuffer.wrap(bytes));
+			outputBytes += bytes.length;
+		}
+
+		void write() throws IOException {
+
+			synchronized (this) {
+				while (!output.isEmpty()) {
+					ByteBuffer b = output.getFirst();
+					outputBytes -= channel.write(b);
+					if (b.hasRemaining()) break;
+					output.removeFirst();
+				}
+				lastActivityTime = System.currentTimeMillis();
+				notifyAll(); // wake up a worker waiting for the output to drain
+			}
+			updateInterest();
+		}
+
+		/**
+		 * Must be called by the selector thread.
+		 */
+		void updateInterest() {
+
+			synchronized (this) {
+				if (isClosed) return;
+
+				if (output.isEmpty() && !isRequestInProgress
+						&& (closeWhenWritten || isInputClosed && pendingRequests.isEmpty())) {
+					close();
+					return;
+				}
+
+				int ops = 0;
+				if (!isInputClosed && pendingRequests.size() < MAX_PIPELINED_REQUESTS) ops |= SelectionKey.OP_READ;
+				if (!output.isEmpty()) ops |= SelectionKey.OP_WRITE;
+				key.interestOps(ops);
+			}
+		}
+
+		// Called by workers
+		private void requestInterestUpdate() {
+			connectionsToUpdate.add(this);
+			selector.wakeup();
+		}
+
+		synchronized void closeIfIdle(long now) {
+			if (!isRequestInProgress && output.isEmpty() && now - lastActivityTime > WebServer.timeout) close();
+		}
+
+		synchronized void close() {
+			if (isClosed) return;
+			isClosed = true;
+			notifyAll();
+			if (null != key) key.cancel();
+			try { channel.close(); } catch (IOException e) {}
+		}
+
+		/**
+		 * Queues response bytes, waiting while the client is too far behind in reading previous ones.
+		 * Called by workers.
+		 */
+		void queueOutput(byte[] bytes) throws IOException {
+
+			synchronized (this) {
+				long waitStart = System.currentTimeMillis();
+				while (!isClosed && outputBytes >= MAX_QUEUED_OUTPUT_BYTES) {
+					long waited = System.currentTimeMillis() - Math.max(waitStart, lastActivityTime);
+					if (waited >= STALLED_CLIENT_TIMEOUT_MS) {
+						close();
+						throw new IOException("Client stopped reading response");
+					}
+					try { wait(STALLED_CLIENT_TIMEOUT_MS - waited); }
+					catch (InterruptedException e) { close(); throw new IOException("Interrupted while writing response"); }
+				}
+				if (isClosed) throw new IOException("Connection closed by client");
+				queueBytes(bytes);
+			}
+			requestInterestUpdate();
+		}
+
+		/**
+		 * Called by workers once a response has been fully queued.
+		 */
+		void responseComplete(boolean isKeepAlive) {
+			synchronized (this) {
+				isRequestInProgress = false;
+				if (!isKeepAlive) {
+					closeWhenWritten = true;
+					pendingRequests.clear();
+				} else
+					dispatchNextRequest();
+			}
+			requestInterestUpdate();
+		}
+
+		private void serve(HttpRequest request) {
+
+			HttpResponseStream response = new HttpResponseStream(this, request);
+			try {
+				if (null == request.method) {
+					response.sendError(Integer.parseInt(request.headers.get("status")), request.target);
+				} else {
+					WebServer.log("Page request from " + remoteAddress + ": " + request.method + " " + request.target);
+					handle(request, response);
+				}
+				response.finish();
+			} catch (Exception e) {
+				if (!isClosed && !response.isCommitted()) {
+					if (WebServer.debug) e.printStackTrace();
+					try {
+						response.reset();
+						response.sendError(WebServer.HTTP_SERVER_ERROR, e.toString());
+						response.finish();
+					} catch (IOException e1) { close(); return; }
+				} else {
+					// Part of the response has gone - abort the connection so the client sees it is incomplete
+					WebServer.log("Aborting response to " + remoteAddress + " for " + request.target + ": " + e);
+					close();
+					return;
+				}
+			}
+			responseComplete(response.isKeepAlive());
+		}
+	}
+
+	/**********************************************************************
+	 * Process a GET or HEAD request - same URL mapping as WebServer, but without the dashboard queries.
+	 *********************************************************************/
+	private void handle(HttpRequest request, HttpResponseStream response) throws Exception {
+
+		if (!"GET".equals(request.method) && !"HEAD".equals(request.method)) {
+			response.sendError(WebServer.HTTP_BAD_METHOD, request.method);
+			return;
+		}
+
+		String target = request.target;
+		if (target.startsWith("/")) target = target.substring(1);
+
+		if (target.startsWith(WebServer.WQM_QueryPrefix)) processGDBQuery(target, response);
+		else sendFile(target, response);
+	}
+
+	private void processGDBQuery(String target, HttpResponseStream response) throws Exception {
+
+		String[] parmsStr = target.split("\\?", 2);
+		String[] parms = parmsStr[0].split("/");
+		if (4 > parms.length) { response.sendError(WebServer.HTTP_NOT_FOUND, target); return; }
+
+		String queryId = parms[3];
+		boolean isCSV = 5 <= parms.length && "csv".equalsIgnoreCase(parms[4]);
+		Map<String, String> queryParams = 1 < parmsStr.length ? getQueryParameters(parmsStr[1]) : null;
+
+		Connection conn = getDbConnection();
+		WebServer.PreparedQuery query = null;
+		PreparedStatement statement;
+		if ("ListQueries".equals(queryId))
+			statement = conn.prepareStatement("SELECT id, description, issuer, last_extracted FROM " + WebServer.QUERY_TABLE);
+		else
+			statement = (query = WebServer.prepareQueryFromQueryID(conn, queryId, queryParams)).statement;
+		try {
+			response.setContentType(isCSV ? "text/csv; charset=UTF-8" : "application/json; charset=UTF-8");
+			Writer out = new BufferedWriter(new OutputStreamWriter(response, "UTF-8"), CHUNK_SIZE);
+			WebServer.writeResults(statement, isCSV ? new CsvResultWriter(out) : new StreamingJsonResultWriter(out));
+			out.flush();
+		} finally {
+			if (null == query) statement.close();
+			else query.close();
+		}
+	}
+
+	private void sendFile(String target, HttpResponseStream response) throws IOException {
+
+		File targ = new File(WebServer.root, URLDecoder.decode(target.split("\\?", 2)[0], "UTF-8"));
+		if (targ.isDirectory()) targ = new File(targ, "index.html");
+		if (!WebServer.directory_browsing || !targ.isFile()) { response.sendError(WebServer.HTTP_NOT_FOUND, target); return; }
+
+		String name = targ.getName();
+		int ind = name.lastIndexOf('.');
+		String ct = 0 < ind ? PageWorker.map.get(name.substring(ind)) : null;
+		response.setContentType(null == ct ? "unknown/unknown" : ct);
+		response.setContentLength(targ.length());
+
+		InputStream in = new FileInputStream(targ);
+		try {
+			byte[] buffer = new byte[CHUNK_SIZE];
+			int byteCount;
+			while ((byteCount = in.read(buffer)) != -1) response.write(buffer, 0, byteCount);
+		} finally {
+			in.close();
+		}
+	}
+
+	static Map<String, String> getQueryParameters(String query) throws UnsupportedEncodingException {
+		Map<String, String> map = new HashMap<String, String>();
+		for (String param : query.split("&")) {
+			int idx = param.indexOf('=');
+			if (0 < idx) map.put(URLDecoder.decode(param.substring(0, idx), "UTF-8"), URLDecoder.decode(param.substring(idx+1), "UTF-8"));
+		}
+		return map;
+	}
+
+	private static Connection getDbConnection() throws Exception {
+		Connection conn = dbConnections.get();
+		if (null == conn || conn.isClosed()) {
+			Class.forName(WebServer.ndriver);
+			conn = DriverManager.getConnection("jdbc:" + WebServer.DBMS + "://" + WebServer.DEFAULT_HOST + ":" + WebServer.DEFAULT_PORT
+					+ "/" + WebServer.DEFAULT_DATABASE + ";", WebServer.DEFAULT_USR, WebServer.DEFAULT_PWD);
+			dbConnections.set(conn);
+		}
+		return conn;
+	}
+}
+
+/****************************************************************************
+ * Response body stream for one request of an NIO connection. The status line and headers are only sent with the first
+ * chunk of the body, so that errors raised before then (e.g. while executing a query) can still be reported with an error status.
+ * Bodies of unknown length are sent with chunked transfer encoding, or delimited by closing the connection for HTTP/1.0 clients.
+ * flush() does not send anything, so as to avoid small chunks - finish() must be called to complete the response.
+ ***************************************************************************/
+class HttpResponseStream extends OutputStream {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2012";
+
+	private static final String EOL = WebServer.EOL;
+
+	private final NioWebServer.HttpConnection connection;
+	private final NioWebServer.HttpRequest request;
+
+	private int status = WebServer.HTTP_OK;
+	private String reason = "OK";
+	private String contentType = "text/html";
+	private long contentLength = -1;
+
+	private final byte[] buffer = new byte[NioWebServer.CHUNK_SIZE];
+	private int count = 0;
+	private boolean isCommitted = false, isChunked = false, isKeepAlive;
+
+	HttpResponseStream(NioWebServer.HttpConnection connection, NioWebServer.HttpRequest request) {
+		this.connection = connection;
+		this.request = request;
+		this.isKeepAlive = request.isKeepAlive;
+	}
+
+	void setContentType(String contentType) { this.contentType = contentType; }
+	void setContentLength(long contentLength) { this.contentLength = contentLength; }
+	boolean isCommitted() { return isCommitted; }
+	boolean isKeepAlive() { return isKeepAlive; }
+
+	// Discards an uncommitted response
+	void reset() { count = 0; contentLength = -1; contentType = "text/html"; }
+
+	void sendError(int status, String reason) throws IOException {
+		this.status = status;
+		this.reason = 500 <= status ? "Server Error" : 404 == status ? "Not Found" : 405 == status ? "Method Not Allowed" : "Bad Request";
+		if (WebServer.HTTP_BAD_REQUEST == status || WebServer.HTTP_ENTITY_TOO_LARGE == status) isKeepAlive = false;
+		byte[] msg = ("An error (" + status + ") occured with reason: " + reason + EOL).getBytes("UTF-8");
+		contentType = "text/plain";
+		contentLength = msg.length;
+		write(msg);
+	}
+
+	public void write(int b) throws IOException {
+		if (count == buffer.length) sendChunk();
+		buffer[count++] = (byte) b;
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (0 < len) {
+			if (count == buffer.length) sendChunk();
+			int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n; off += n; len -= n;
+		}
+	}
+
+	void finish() throws IOException {
+		sendChunk();
+		if (isChunked && !"HEAD".equals(request.method)) connection.queueOutput(("0" + EOL + EOL).getBytes());
+	}
+
+	private void sendChunk() throws IOException {
+
+		if (!isCommitted) commit();
+		if (0 == count || "HEAD".equals(request.method)) { count = 0; return; }
+
+		byte[] bytes;
+		if (isChunked) {
+			byte[] header = (Integer.toHexString(count) + EOL).getBytes();
+			bytes = new byte[header.length + count + 2];
+			System.arraycopy(header, 0, bytes, 0, header.length);
+			System.arraycopy(buffer, 0, bytes, header.length, count);
+			bytes[bytes.length-2] = '\r';
+			bytes[bytes.length-1] = '\n';
+		} else
+			bytes = Arrays.copyOf(buffer, count);
+
+		count = 0;
+		connection.queueOutput(bytes);
+	}
+
+	private void commit() throws IOException {
+
+		isCommitted = true;
+		StringBuilder sb = new StringBuilder("HTTP/1.1 " + status + " " + reason + EOL);
+		sb.append("Server: GaianDB WWW server" + EOL);
+		sb.append("Date: " + new Date() + EOL);
+		sb.append("Cache-Control: no-cache" + EOL);
+		sb.append("Content-Type: " + contentType + EOL);
+
+		if (0 <= contentLength) sb.append("Content-Length: " + contentLength + EOL);
+		else if (request.isHttp11) { sb.append("Transfer-Encoding: chunked" + EOL); isChunked = true; }
+		else isKeepAlive = false;
+
+		sb.append("Connection: " + (isKeepAlive ? "keep-alive" : "close") + EOL + EOL);
+		connection.queueOutput(sb.toString().getBytes("ISO-8859-1"));
+	}
+}
+
+/****************************************************************************
+ * Streams rows in the same JSON layout as JsonResultWriter, but to a Writer rather than a StringBuffer.
+ ***************************************************************************/
+class StreamingJsonResultWriter implements ResultWriter {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2012";
+
+	private final Writer out;
+	private String[] cols;
+
+	StreamingJsonResultWriter(Writer out) {
+		this.out = out;
+	}
+
+	public void writeHeader(String[] cols) throws IOException {
+		this.cols = cols;
+		out.write("{\"columns\": [");
+		for (int i = 0; i < cols.length; i++) {
+			out.write("\"" + JsonResultWriter.sanitise(cols[i]) + "\"");
+			if (i < cols.length - 1) out.write(',');
+		}
+		out.write("],\n\"items\": [\n");
+	}
+
+	public void writeFooter() throws IOException {
+		out.write("]}");
+	}
+
+	public void writeRow(Object[] values) throws IOException, SQLException {
+		out.write('{');
+		for (int i = 0; i < cols.length; i++) {
+			out.write("\"" + JsonResultWriter.sanitise(cols[i]) + "\":\"");
+			out.write(JsonResultWriter.sanitise(valueAsString(values[i])));
+			out.write('"');
+			if (i < cols.length - 1) out.write(',');
+		}
+		out.write('}');
+	}
+
+	public void writeRowSeparator() throws IOException {
+		out.write(",\n");
+	}
+
+	public void writeUpdateCount(int updateCount) throws IOException {
+		out.write(String.valueOf(updateCount));
+	}
+
+	static String valueAsString(Object value) throws SQLException {
+		if (value instanceof Clob) {
+			Clob clob = (Clob) value;
+			return clob.getSubString(1, (int) clob.length());
+		}
+		return String.valueOf(value);
+	}
+}
+
+/****************************************************************************
+ * Streams rows as CSV, with a header line of column labels. Null values are written as empty fields.
+ ***************************************************************************/
+class CsvResultWriter implements ResultWriter {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2012";
+
+	private final Writer out;
+
+	CsvResultWriter(Writer out) {
+		this.out = out;
+	}
+
+	public void writeHeader(String[] cols) throws IOException {
+		writeRecord(cols);
+	}
+
+	public void writeFooter() {}
+
+	public void writeRow(Object[] values) throws IOException, SQLException {
+		String[] fields = new String[values.length];
+		for (int i = 0; i < values.length; i++)
+			fields[i] = null == values[i] ? null : StreamingJsonResultWriter.valueAsString(values[i]);
+		writeRecord(fields);
+	}
+
+	public void writeRowSeparator() {}
+
+	public void writeUpdateCount(int updateCount) throws IOException {
+		out.write(String.valueOf(updateCount) + WebServer.EOL);
+	}
+
+	private void writeRecord(String[] fields) throws IOException {
+		for (int i = 0; i < fields.length; i++) {
+			if (0 < i) out.write(',');
+			String s = fields[i];
+			if (null == s) continue;
+			if (-1 == s.indexOf(',') && -1 == s.indexOf('"') && -1 == s.indexOf('\n') && -1 == s.indexOf('\r')) out.write(s);
+			else out.write('"' + s.replace("\"", "\"\"") + '"');
+		}
+		out.write(WebServer.EOL);
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * (C) Copyright IBM Corp. 2012
+ *
+ * LICENSE: Eclipse Public License v1.0
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package com.ibm.gaiandb.webserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Registry of compiled pre-canned queries (from GDB_LOCAL_QUERIES and GDB_LOCAL_QUERY_FIELDS), held for one JDBC connection.
+ *
+ * The bind fields of a query (those having a 'seq') map to its '?' parameters, so a query having only bind fields is compiled once
+ * and re-executed with new values on each request. Substitution fields (those having an 'offset') are spliced into the SQL text,
+ * e.g. inside a GaianQuery() string or as a table name, so they can't be bound - their statements are cached per distinct
+ * substituted SQL text, up to MAX_STATEMENTS_PER_QUERY of them.
+ *
+ * The stored query row is looked up on each request with a single-row primary key lookup, which is itself a reused statement.
+ * Compiled statements are discarded when the query text or its insertion timestamp changes (i.e. when the query was removed
+ * and added again, possibly with different fields), or when the query is removed.
+ *
+ * A statement is checked out of the registry while it is being executed, so concurrent requests on a shared connection never
+ * use the same statement - they just compile another one.
+ */
+class StoredQueryRegistry {
+
+//	Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
+	public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2012";
+
+	static final int MAX_STATEMENTS_PER_QUERY = 32;
+
+	// Registries of closed connections are dropped when a registry is created for a new connection
+	private static final Map<Connection, StoredQueryRegistry> registries = new HashMap<Connection, StoredQueryRegistry>();
+
+	private final Connection conn;
+	private PreparedStatement definitionLookup = null, fieldsLookup = null;
+	private final Map<String, StoredQuery> storedQueries = new HashMap<String, StoredQuery>();
+
+	private long numCompiles = 0, numReuses = 0;
+
+	/*********************************************************
+	 * Definition of a stored query, as loaded from the database, with its idle compiled statements.
+	 **********************************************************/
+	private static class StoredQuery {
+		final String version, template, responseFormat;
+		final List<String> fields = new ArrayList<String>();
+		final SortedMap<Short, String> substitutionFields = new TreeMap<Short, String>();
+
+		// substituted SQL -> statement not currently executing, in least recently used order
+		final Map<String, PreparedStatement> idleStatements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= MAX_STATEMENTS_PER_QUERY) return false;
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+
+		StoredQuery(String version, String template, String responseFormat) {
+			this.version = version;
+			this.template = template;
+			this.responseFormat = responseFormat;
+		}
+
+		String substitute(Map<String, String> queryParams) throws Exception {
+			if (null == queryParams || substitutionFields.isEmpty()) return template;
+
+			String sql = template;
+			int fieldLengthDelta = 0;
+			for ( Map.Entry<Short, String> f : substitutionFields.entrySet() ) {
+				String fieldValue = WebServer.getRequestFieldValue(f.getValue(), queryParams);
+				int actualOffset = f.getKey() + fieldLengthDelta;
+				sql = sql.substring(0, actualOffset) + fieldValue + sql.substring(actualOffset);
+				fieldLengthDelta += fieldValue.length();
+			}
+			return sql;
+		}
+
+		void close() {
+			for (PreparedStatement ps : idleStatements.values()) closeQuietly(ps);
+			idleStatements.clear();
+		}
+	}
+
+	static StoredQueryRegistry forConnection(Connection conn) {
+		synchronized (registries) {
+			StoredQueryRegistry registry = registries.get(conn);
+			if (null == registry) {
+				Iterator<Connection> it = registries.keySet().iterator();
+				while (it.hasNext())
+					try { if (it.next().isClosed()) it.remove(); }
+					catch (SQLException e) { it.remove(); }
+				registry = new StoredQueryRegistry(conn);
+				registries.put(conn, registry);
+			}
+			return registry;
+		}
+	}
+
+	private StoredQueryRegistry(Connection conn) {
+		this.conn = conn;
+	}
+
+	/**
+	 * Gets a compiled statement for the stored query with the request's field values bound to it.
+	 * The returned query must be closed, which hands its statement back to the registry.
+	 */
+	synchronized WebServer.PreparedQuery prepare(String queryId, Map<String, String> queryParams) throws Exception {
+
+		StoredQuery sq = getStoredQuery(queryId);
+		String sql = sq.substitute(queryParams);
+
+		PreparedStatement statement = sq.idleStatements.remove(sql);
+		if (null == statement) {
+			WebServer.log("Preparing query template with substituted params: " + sql
+					+ " (statements compiled so far: " + ++numCompiles + ", reused: " + numReuses + ")");
+			statement = conn.prepareStatement(sql);
+			if (sq.fields.size() != statement.getParameterMetaData().getParameterCount()) {
+				statement.close();
+				throw new Exception("Invalid query: number of field names does not match number of parameters");
+			}
+		} else {
+			statement.clearParameters();
+			numReuses++;
+		}
+
+		try {
+			if (null != queryParams)
+				for (int i = 0; i < sq.fields.size(); i++)
+					statement.setObject(i + 1, WebServer.getRequestFieldValue(sq.fields.get(i), queryParams));
+		} catch (Exception e) {
+			statement.close();
+			throw e;
+		}
+
+		return new WebServer.PreparedQuery(statement, sq.responseFormat, this, queryId, sq, sql);
+	}
+
+	/**
+	 * Takes back a statement after its execution, unless its stored query has changed meanwhile or another one
+	 * was already handed back for the same SQL.
+	 */
+	synchronized void release(String queryId, Object storedQuery, String sql, PreparedStatement statement) {
+		StoredQuery sq = storedQueries.get(queryId);
+		if (sq != storedQuery || sq.idleStatements.containsKey(sql)) closeQuietly(statement);
+		else sq.idleStatements.put(sql, statement);
+	}
+
+	// Looks up the current definition of the query, re-loading its fields if it has changed
+	private StoredQuery getStoredQuery(String queryId) throws SQLException {
+
+		if (null == definitionLookup)
+			definitionLookup = conn.prepareStatement(
+					"SELECT query, response_format, last_extracted FROM " + WebServer.QUERY_TABLE + " WHERE id = ?");
+
+		String template, responseFormat, version;
+		definitionLookup.setString(1, queryId);
+		ResultSet results = definitionLookup.executeQuery();
+		try {
+			if (!results.next()) {
+				StoredQuery removed = storedQueries.remove(queryId);
+				if (null != removed) removed.close();
+				throw new SQLException("Could not find query \"" + queryId + "\"");
+			}
+			template = results.getString(1);
+			responseFormat = results.getString(2);
+			version = results.getTimestamp(3) + "\0" + template;
+		} finally {
+			results.close();
+		}
+
+		StoredQuery sq = storedQueries.get(queryId);
+		if (null != sq && sq.version.equals(version)) return sq;
+
+		if (null != sq) {
+			WebServer.log("Stored query '" + queryId + "' has changed - discarding its compiled statements");
+			sq.close();
+		}
+
+		sq = new StoredQuery(version, template, responseFormat);
+
+		if (null == fieldsLookup)
+			fieldsLookup = conn.prepareStatement(
+					"SELECT name, seq, offset FROM " + WebServer.QUERY_FIELDS_TABLE + " WHERE query_id = ? ORDER BY seq, offset");
+
+		fieldsLookup.setString(1, queryId);
+		results = fieldsLookup.executeQuery();
+		try {
+			while (results.next()) {
+				if (results.getObject("seq") != null) {
+					sq.fields.add(results.getString("name"));
+				} else {
+					sq.substitutionFields.put(results.getShort("offset"), results.getString("name"));
+				}
+			}
+		} finally {
+			results.close();
+		}
+
+		storedQueries.put(queryId, sq);
+		return sq;
+	}
+
+	private static void closeQuietly(PreparedStatement statement) {
+		try { statement.close(); } catch (SQLException e) {}
+	}
+}
@@ -281,6 +281,94 @@ public class WebServer {
            }
        }
    }
+
+   /***************************************************************************************
+    * A pre-canned query, prepared with the parameters of a request, and its configured response format.
+    * Its statement belongs to a StoredQueryRegistry, to which it is handed back by close().
+    *************************************************************************************/
+   static class PreparedQuery {
+	   final PreparedStatement statement;
+	   final String responseFormat;
+	   private final StoredQueryRegistry registry;
+	   private final String queryId, sql;
+	   private final Object storedQuery;
+	   PreparedQuery(PreparedStatement statement, String responseFormat, StoredQueryRegistry registry, String queryId, Object storedQuery, String sql) {
+		   this.statement = statement;
+		   this.responseFormat = responseFormat;
+		   this.registry = registry;
+		   this.queryId = queryId;
+		   this.storedQuery = storedQuery;
+		   this.sql = sql;
+	   }
+	   void close() {
+		   registry.release(queryId, storedQuery, sql, statement);
+	   }
+   }
+
+   /***************************************************************************************
+    *TODO: WQM:  should be factored out when WQM code is refactored independant of Servlet,
+    *  
+    *************************************************************************************/
+    static String getRequestFieldValue(String field, Map<String, String> queryParams) throws Exception {
+    
+		String fieldValues = queryParams.get(field); //WQM removed [] 
+		if (fieldValues == null) {
+			throw new Exception("Missing parameter to query: \"" + field + "\".");
+		} 
+		//WQM: else if (fieldValues.length != 1) {
+		//WQM:	throw new  Exception("Multiple values provided for parameter \"" + field + "\".");
+		//WQM:}
+		return fieldValues; //WQM[0];
+	}
+
+    /***************************************************************************************
+     * Gets the compiled pre-canned query from the connection's registry, with the parameters of the request bound to it.
+     * The caller must close the returned query.
+     *************************************************************************************/
+    static PreparedQuery prepareQueryFromQueryID( Connection conn, String queryId, Map<String, String> queryParams ) throws Exception {
+		return StoredQueryRegistry.forConnection(conn).prepare(queryId, queryParams);
+	}
+
+    /***************************************************************************************
+     * Executes a prepared statement and passes its result rows (or update count) to the result writer, one row at a time.
+     *************************************************************************************/
+    static void writeResults( PreparedStatement statement, ResultWriter rw ) throws Exception {
+		boolean returnedResultSet = statement.execute();
+		
+		if (returnedResultSet) {
+			ResultSet results = statement.getResultSet();
+			try {
+				ResultSetMetaData rsmd = results.getMetaData();
+				
+				int colCount = rsmd.getColumnCount();
+				String[] cols = new String[colCount];
+				for (int i = 0; i < colCount; i++) {
+					cols[i] = rsmd.getColumnLabel(i + 1);
+				}
+				
+				rw.writeHeader(cols);
+				
+				boolean first = true;
+				while (results.next()) {
+					if (first) {
+						first = false;
+					} else {
+						rw.writeRowSeparator();
+					}
+					Object[] values = new Object[colCount];
+					for (int i = 0; i < colCount; i++) {
+						values[i] = results.getObject(i + 1);
+					}
+					rw.writeRow(values);
+				}
+				rw.writeFooter();
+			} finally {
+				results.close();
+			}
+		} else {
+			rw.writeUpdateCount(statement.getUpdateCount());
+		}
+    }
 }
 
 
@@ -655,21 +743,6 @@ class PageWorker extends WebServer implements  Runnable {
 	   }
    }
 	
-   /***************************************************************************************
-    *TODO: WQM:  should be factored out when WQM code is refactored independant of Servlet,
-    *  
-    *************************************************************************************/
-    private String getRequestFieldValue(String field, Map<String, String> queryParams) throws Exception {
-    
-		String fieldValues = queryParams.get(field); //WQM removed [] 
-		if (fieldValues == null) {
-			throw new Exception("Missing parameter to query: \"" + field + "\".");
-		} 
-		//WQM: else if (fieldValues.length != 1) {
-		//WQM:	throw new  Exception("Multiple values provided for parameter \"" + field + "\".");
-		//WQM:}
-		return fieldValues; //WQM[0];
-	}
     /*****************************************************************************************8
      * this method is for executing Queries directly (not using the table of queries)
      * mainly  to have calls to SQL procedures directly mapped to URLs 
@@ -688,41 +761,7 @@ class PageWorker extends WebServer implements  Runnable {
 		try {
 			//not used for now: ParameterMetaData pmd = statement.getParameterMetaData();
 			//not useful  for now... : int numParams = pmd.getParameterCount();			
-			boolean returnedResultSet = statement.execute();
-			ResultWriter rw = new HtmlResultWriter(response);
-			if (returnedResultSet) {
-				ResultSet results = statement.getResultSet();
-				try {
-					ResultSetMetaData rsmd = results.getMetaData();
-					
-					int colCount = rsmd.getColumnCount();
-					String[] cols = new String[colCount];
-					for (int i = 0; i < colCount; i++) {
-						cols[i] = rsmd.getColumnLabel(i + 1);
-					}
-					
-					rw.writeHeader(cols);
-					
-					boolean first = true;
-					while (results.next()) {
-						if (first) {
-							first = false;
-						} else {
-							rw.writeRowSeparator();
-						}
-						Object[] values = new Object[colCount];
-						for (int i = 0; i < colCount; i++) {
-							values[i] = results.getObject(i + 1);
-						}
-						rw.writeRow(values);
-					}
-					rw.writeFooter();
-				} finally {
-					results.close();
-				}
-			} else {
-				rw.writeUpdateCount(statement.getUpdateCount());
-			}
+			writeResults(statement, new HtmlResultWriter(response));
 		} finally {
 			statement.close();
 		}
@@ -737,30 +776,10 @@ class PageWorker extends WebServer implements  Runnable {
 		log("Executing query '" + queryId + "'");
 		Connection conn = getDbConnection(DEFAULT_DATABASE,DEFAULT_HOST,DEFAULT_PORT,DEFAULT_USR, DEFAULT_PWD);
 		StringBuffer response=new StringBuffer("");
+		PreparedQuery query = prepareQueryFromQueryID(conn, queryId, queryParams);
 		try {
-			// Get query template from database
-			String queryTemplate=null, responseFormatString=null;
-			PreparedStatement statement = conn.prepareStatement("SELECT query, response_format FROM " + QUERY_TABLE + " WHERE id = ?");
-			try {
-				statement.setString(1, queryId);
-				ResultSet results = statement.executeQuery();
-				try {
-					if (results.next()) {
-						queryTemplate = results.getString("query");
-						responseFormatString = results.getString("response_format");
-					} 
-// TODO:           Should be processed above in GDBWW server , sending back either a 404 or 500 HTTP error.
-					else {
-						throw new SQLException("Could not find query \"" + queryId + "\"");
-					}
-				} finally {
-					results.close();
-				}
-			} finally {
-				statement.close();
-			}
-			
 			// Both JSON and EXCEL response formats will be overridden by BLOB/CLOB
+			String responseFormatString = query.responseFormat;
 			if (responseFormatString != null) {
 				if (responseFormatString.equals(RESPONSE_FORMAT_BLOB)) {
 					responseFormat = ResponseFormat.BLOB;
@@ -771,122 +790,30 @@ class PageWorker extends WebServer implements  Runnable {
 				}
 			}
 			
-			// Get fields from database
-			List<String> fields = new ArrayList<String>();
-			SortedMap<Short, String> substitutionFields = new TreeMap<Short, String>();
-			statement = conn.prepareStatement("SELECT name, seq, offset FROM " + QUERY_FIELDS_TABLE + " WHERE query_id = ? ORDER BY seq, offset");
-			try {
-				statement.setString(1, queryId);
-				ResultSet results = statement.executeQuery();
-				try {
-					while (results.next()) {
-						if (results.getObject("seq") != null) {
-							fields.add(results.getString("name"));
-						} else {
-							substitutionFields.put(results.getShort("offset"), results.getString("name"));
-						}
-					}
-				} finally {
-					results.close();
-				}
-			} finally {
-				statement.close();
-			}
-			
-			// Execute query with passed parameters
-			
-			// Do query variable substitution
-			int fieldLengthDelta = 0;
-			if (queryParams != null) {
-				for ( Map.Entry<Short, String> f : substitutionFields.entrySet() ) {
-					String fieldValue = getRequestFieldValue(f.getValue(), queryParams);
-					
-					int actualOffset = f.getKey() + fieldLengthDelta;
-					
-					//String sanitisedValue = sanitiseField(fieldValue, queryTemplate, actualOffset);
-					String sanitisedValue = fieldValue;
-					queryTemplate = queryTemplate.substring(0, actualOffset) + sanitisedValue + queryTemplate.substring(actualOffset);
-					fieldLengthDelta += sanitisedValue.length();
-				}
+			ResultWriter rw = null;
+			switch (responseFormat) {
+			case EXCEL:
+				rw = new HtmlResultWriter(response); //TODO: WQM.getWriter());
+				break;
+			case JSON:
+				rw = new JsonResultWriter(response); //TODO:.getWriter());
+				break;
+			case BLOB:
+				rw = new BlobResultWriter(response);
+				break;
+		/*** WQM: not supporting this for now in GDB WWW Server
+			case BLOB_GZIPPED:
+				rw = new GzippedBlobResultWriter(request, response);
+				break;
+			case CLOB:
+				rw = new ClobResultWriter(response);
+				break;
+		 ***/
 			}
 			
-			log("Preparing query template with substituted params: " + queryTemplate);
-			
-			statement = conn.prepareStatement(queryTemplate);
-			try {
-				ParameterMetaData pmd = statement.getParameterMetaData();
-				int numParams = pmd.getParameterCount();
-				
-				if(fields.size() != numParams) {
-					throw new Exception("Invalid query: number of field names does not match number of parameters");
-				}
-				if(queryParams != null)
-				{
-					for (int i = 0; i < fields.size(); i++) {
-						statement.setObject(i + 1, getRequestFieldValue(fields.get(i), queryParams));
-					}
-				}
-				boolean returnedResultSet = statement.execute();
-				
-				ResultWriter rw = null;
-				switch (responseFormat) {
-				case EXCEL:
-					rw = new HtmlResultWriter(response); //TODO: WQM.getWriter());
-					break;
-				case JSON:
-					rw = new JsonResultWriter(response); //TODO:.getWriter());
-					break;
-				case BLOB:
-					rw = new BlobResultWriter(response);
-					break;
-			/*** WQM: not supporting this for now in GDB WWW Server
-				case BLOB_GZIPPED:
-					rw = new GzippedBlobResultWriter(request, response);
-					break;
-				case CLOB:
-					rw = new ClobResultWriter(response);
-					break;
-			 ***/
-				}
-				
-				if (returnedResultSet) {
-					ResultSet results = statement.getResultSet();
-					try {
-						ResultSetMetaData rsmd = results.getMetaData();
-						
-						int colCount = rsmd.getColumnCount();
-						String[] cols = new String[colCount];
-						for (int i = 0; i < colCount; i++) {
-							cols[i] = rsmd.getColumnLabel(i + 1);
-						}
-						
-						rw.writeHeader(cols);
-						
-						boolean first = true;
-						while (results.next()) {
-							if (first) {
-								first = false;
-							} else {
-								rw.writeRowSeparator();
-							}
-							Object[] values = new Object[colCount];
-							for (int i = 0; i < colCount; i++) {
-								values[i] = results.getObject(i + 1);
-							}
-							rw.writeRow(values);
-						}
-						rw.writeFooter();
-					} finally {
-						results.close();
-					}
-				} else {
-					rw.writeUpdateCount(statement.getUpdateCount());
-				}
-			} finally {
-				statement.close();
-			}
+			writeResults(query.statement, rw);
 		} finally {
-			//conn.close();
+			query.close();
 		}
 		return response;
 	}